@@ -0,0 +1,147 @@
+package com.bluelink;
+
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 编解码器对比入口
+ * 按 64KB 分块压缩/解压代表性数据，输出各编解码器的压缩率和吞吐量。
+ * 与发送路径一致，压缩不划算的分块按存储模式计入 (见 CodecRegistry#compressIfSmaller)。
+ * 用法: CodecBenchmark [文件...]，不带参数时使用内置的样本数据。
+ */
+public class CodecBenchmark {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, byte[]> samples = new LinkedHashMap<>();
+        if (args.length > 0) {
+            for (String path : args) {
+                File file = new File(path);
+                samples.put(file.getName(), Files.readAllBytes(file.toPath()));
+            }
+        } else {
+            samples.put("chat-text", chatText(4 * 1024 * 1024));
+            samples.put("log-lines", logLines(4 * 1024 * 1024));
+            samples.put("binary-records", binaryRecords(4 * 1024 * 1024));
+            samples.put("random", random(4 * 1024 * 1024));
+        }
+
+        System.out.println(String.format("%-16s %-14s %8s %12s %12s", "样本", "编解码器", "压缩率", "压缩 MB/s", "解压 MB/s"));
+        for (Map.Entry<String, byte[]> sample : samples.entrySet()) {
+            for (Codec codec : CodecRegistry.all()) {
+                run(sample.getKey(), sample.getValue(), codec);
+            }
+        }
+    }
+
+    private static void run(String name, byte[] data, Codec codec) throws Exception {
+        List<byte[]> compressed = new ArrayList<>();
+        List<Integer> rawLengths = new ArrayList<>();
+        byte[] scratch = new byte[codec.maxCompressedLength(CHUNK_SIZE)];
+        byte[] raw = new byte[CHUNK_SIZE];
+
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        long compressedTotal = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; round++) {
+            compressed.clear();
+            rawLengths.clear();
+            compressedTotal = 0;
+
+            long start = System.nanoTime();
+            for (int off = 0; off < data.length; off += CHUNK_SIZE) {
+                int len = Math.min(CHUNK_SIZE, data.length - off);
+                int compLen = CodecRegistry.compressIfSmaller(codec, data, off, len, scratch, 0);
+                // 存储模式的分块以 null 记录，解压时直接复制原始数据
+                compressed.add(compLen >= 0 ? Arrays.copyOf(scratch, compLen) : null);
+                rawLengths.add(len);
+                compressedTotal += compLen >= 0 ? compLen : len;
+            }
+            long middle = System.nanoTime();
+            int off = 0;
+            for (int i = 0; i < compressed.size(); i++) {
+                byte[] block = compressed.get(i);
+                int len = rawLengths.get(i);
+                if (block == null) {
+                    System.arraycopy(data, off, raw, 0, len);
+                } else {
+                    codec.decompress(block, 0, block.length, raw, 0, len);
+                }
+                // 校验往返结果
+                for (int j = 0; j < len; j += 997) {
+                    if (raw[j] != data[off + j]) {
+                        throw new IllegalStateException(codec.getName() + " 往返校验失败: " + name);
+                    }
+                }
+                off += len;
+            }
+            long end = System.nanoTime();
+
+            if (round >= WARMUP_ROUNDS) {
+                compressNanos += middle - start;
+                decompressNanos += end - middle;
+            }
+        }
+
+        double mb = (double) data.length * MEASURE_ROUNDS / (1024 * 1024);
+        System.out.println(String.format("%-16s %-14s %7.1f%% %12.1f %12.1f", name, codec.getName(),
+                compressedTotal * 100.0 / data.length, mb / (compressNanos / 1e9), mb / (decompressNanos / 1e9)));
+    }
+
+    private static byte[] chatText(int size) throws Exception {
+        String[] phrases = { "你好，文件收到了吗？", "收到了，谢谢！", "我马上把会议纪要发给你。", "OK, sending the build now.",
+                "稍等一下，蓝牙有点慢", "Let's sync again at 3pm.", "这个版本修复了断线重连的问题。" };
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size / 3) {
+            sb.append(phrases[random.nextInt(phrases.length)]).append('\n');
+        }
+        return Arrays.copyOf(sb.toString().getBytes("UTF-8"), size);
+    }
+
+    private static byte[] logLines(int size) throws Exception {
+        Random random = new Random(2);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("2026-01-25 12:").append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+                    .append(" [Session] 接收分块 stream=").append(random.nextInt(16))
+                    .append(" offset=").append(random.nextInt(1 << 24)).append(" status=OK\n");
+        }
+        return Arrays.copyOf(sb.toString().getBytes("UTF-8"), size);
+    }
+
+    private static byte[] binaryRecords(int size) {
+        Random random = new Random(3);
+        byte[] data = new byte[size];
+        for (int i = 0; i + 16 <= size; i += 16) {
+            // 定长记录: 递增 ID、少量取值的类型字段、随机数值
+            int id = i / 16;
+            data[i] = (byte) id;
+            data[i + 1] = (byte) (id >>> 8);
+            data[i + 2] = (byte) (id >>> 16);
+            data[i + 4] = (byte) random.nextInt(4);
+            for (int j = 8; j < 12; j++) {
+                data[i + j] = (byte) random.nextInt(256);
+            }
+        }
+        return data;
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(4).nextBytes(data);
+        return data;
+    }
+}
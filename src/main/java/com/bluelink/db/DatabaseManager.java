@@ -52,6 +52,19 @@ public class DatabaseManager {
                     "status VARCHAR(20))"; // SUCCESS, FAILED
 
             stmt.execute(sql);
+
+            // 创建断点续传检查点表 (收发双方各自记录已确认的偏移)
+            String checkpointSql = "CREATE TABLE IF NOT EXISTS transfer_checkpoint (" +
+                    "transfer_id VARCHAR(36) PRIMARY KEY, " +
+                    "direction VARCHAR(10), " + // SEND, RECV
+                    "file_name VARCHAR(1024), " +
+                    "file_path VARCHAR(MAX), " + // 发送方源文件或接收方临时文件
+                    "file_size BIGINT, " +
+                    "last_modified BIGINT, " + // 发送方源文件修改时间，用于判断文件是否变化
+                    "acked_offset BIGINT, " +
+                    "updated_at BIGINT)";
+
+            stmt.execute(checkpointSql);
             System.out.println("数据库初始化完成.");
 
         } catch (SQLException e) {
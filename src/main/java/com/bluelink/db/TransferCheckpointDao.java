@@ -0,0 +1,121 @@
+package com.bluelink.db;
+
+import java.sql.*;
+
+/**
+ * 断点续传检查点 DAO
+ * 记录每个未完成传输已被接收方确认的偏移，重连后据此从断点继续
+ */
+public class TransferCheckpointDao {
+
+    // 实体类
+    public static class Checkpoint {
+        public String transferId;
+        public boolean isSender; // true=SEND, false=RECV
+        public String fileName;
+        public String filePath;
+        public long fileSize;
+        public long lastModified;
+        public long ackedOffset;
+        public long updatedAt;
+    }
+
+    /**
+     * 新增或覆盖检查点
+     */
+    public static void save(Checkpoint cp) {
+        String sql = "MERGE INTO transfer_checkpoint (transfer_id, direction, file_name, file_path, file_size, last_modified, acked_offset, updated_at) "
+                + "KEY (transfer_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, cp.transferId);
+            pstmt.setString(2, cp.isSender ? "SEND" : "RECV");
+            pstmt.setString(3, cp.fileName);
+            pstmt.setString(4, cp.filePath);
+            pstmt.setLong(5, cp.fileSize);
+            pstmt.setLong(6, cp.lastModified);
+            pstmt.setLong(7, cp.ackedOffset);
+            pstmt.setLong(8, System.currentTimeMillis());
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 更新已确认偏移
+     */
+    public static void updateOffset(String transferId, long ackedOffset) {
+        String sql = "UPDATE transfer_checkpoint SET acked_offset = ?, updated_at = ? WHERE transfer_id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, ackedOffset);
+            pstmt.setLong(2, System.currentTimeMillis());
+            pstmt.setString(3, transferId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static Checkpoint find(String transferId) {
+        String sql = "SELECT * FROM transfer_checkpoint WHERE transfer_id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, transferId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return map(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 查找同一源文件 (路径、大小、修改时间均一致) 未完成的发送检查点
+     */
+    public static Checkpoint findOutgoing(String filePath, long fileSize, long lastModified) {
+        String sql = "SELECT * FROM transfer_checkpoint WHERE direction = 'SEND' AND file_path = ? AND file_size = ? AND last_modified = ? ORDER BY updated_at DESC LIMIT 1";
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, filePath);
+            pstmt.setLong(2, fileSize);
+            pstmt.setLong(3, lastModified);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return map(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public static void delete(String transferId) {
+        String sql = "DELETE FROM transfer_checkpoint WHERE transfer_id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, transferId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Checkpoint map(ResultSet rs) throws SQLException {
+        Checkpoint cp = new Checkpoint();
+        cp.transferId = rs.getString("transfer_id");
+        cp.isSender = "SEND".equals(rs.getString("direction"));
+        cp.fileName = rs.getString("file_name");
+        cp.filePath = rs.getString("file_path");
+        cp.fileSize = rs.getLong("file_size");
+        cp.lastModified = rs.getLong("last_modified");
+        cp.ackedOffset = rs.getLong("acked_offset");
+        cp.updatedAt = rs.getLong("updated_at");
+        return cp;
+    }
+}
@@ -57,6 +57,45 @@ public class TransferDao {
         }
     }
 
+    /**
+     * 批量保存 (一个事务)，用于批量发送文件时为每个文件写一条记录
+     */
+    public static void saveAll(List<LogItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO transfer_log (type, direction, content, file_size, timestamp, status) VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (LogItem item : items) {
+                    pstmt.setString(1, item.type);
+                    pstmt.setString(2, item.isSender ? "SEND" : "RECV");
+                    pstmt.setString(3, item.content);
+                    pstmt.setLong(4, item.fileSize);
+                    pstmt.setLong(5, item.timestamp == 0 ? System.currentTimeMillis() : item.timestamp);
+                    pstmt.setString(6, item.status == null ? "SUCCESS" : item.status);
+                    pstmt.executeUpdate();
+
+                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            item.id = rs.getLong(1);
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                for (LogItem item : items) {
+                    item.id = 0;
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 分页加载历史记录
      * 
@@ -126,6 +165,33 @@ public class TransferDao {
         }
     }
 
+    /**
+     * 批量更新消息状态 (一个事务)
+     */
+    public static void updateStatus(List<Long> ids, String status) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE transfer_log SET status = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (long id : ids) {
+                    pstmt.setString(1, status);
+                    pstmt.setLong(2, id);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 清空所有聊天记录
      */
@@ -0,0 +1,48 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.FileBatch;
+
+import java.util.List;
+
+/**
+ * 多文件批次的进度: 把批次内的字节位置换算为每个文件的进度，并报告批次整体进度
+ * 位置只增不减，由同一线程 (发送方为写线程，接收方为持久化线程) 依次更新
+ */
+class BatchProgress {
+
+    private final TransferListener listener;
+    private final String batchKey;
+    private final List<FileBatch.Entry> entries;
+    private final List<String> keys;
+    private final long total;
+    private final boolean receive;
+    private int completed; // 已完成的文件数，也是下一个要报告的文件
+
+    BatchProgress(TransferListener listener, String batchKey, List<FileBatch.Entry> entries, List<String> keys,
+            long total, boolean receive) {
+        this.listener = listener;
+        this.batchKey = batchKey;
+        this.entries = entries;
+        this.keys = keys;
+        this.total = total;
+        this.receive = receive;
+    }
+
+    void update(long position) {
+        if (listener == null) {
+            return;
+        }
+        while (completed < entries.size()) {
+            FileBatch.Entry entry = entries.get(completed);
+            if (position < entry.end()) {
+                if (position > entry.offset) {
+                    listener.onTransferProgress(keys.get(completed), position - entry.offset, entry.size, receive);
+                }
+                break;
+            }
+            listener.onTransferProgress(keys.get(completed), entry.size, entry.size, receive);
+            completed++;
+        }
+        listener.onBatchProgress(batchKey, completed, entries.size(), position, total, receive);
+    }
+}
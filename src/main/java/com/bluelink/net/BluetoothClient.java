@@ -115,7 +115,7 @@ public class BluetoothClient {
 
                 outputStream = new JnaSocketOutputStream(clientSocket);
                 
-                BluetoothSession session = new BluetoothSession(clientSocket, listener);
+                BluetoothSession session = new BluetoothSession(new RfcommTransport(clientSocket), listener);
                 if (listener != null) {
                     listener.onSessionCreated(session);
                 }
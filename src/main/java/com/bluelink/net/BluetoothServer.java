@@ -1,22 +1,29 @@
 package com.bluelink.net;
 
+import com.bluelink.net.io.EventLoop;
+import com.bluelink.net.io.ReadinessPoller;
 import com.bluelink.net.jna.WinsockNative;
 import com.bluelink.net.jna.WinsockNative.SOCKADDR_BTH;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.Native;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * 蓝牙服务端
  * 使用 JNA 调用 Windows Socket API (Winsock)
+ * 启用事件循环 (io.event.loop) 时监听 Socket 也注册到事件循环，没有线程阻塞在 accept 上
+ * 同一对端的并行连接 (多通道) 不经过这里的 SPP 通道，由会话另开通道监听并核对口令，见 ChannelGroup
  */
 public class BluetoothServer {
     private volatile boolean running = false;
     private int serverSocket = WinsockNative.INVALID_SOCKET;
     private final ExecutorService executor = Executors.newCachedThreadPool();
     private TransferListener listener;
+    private EventLoop.Handler acceptHandler; // 事件循环模式下的接受连接处理
+    private EventLoop<Integer> acceptLoop; // 注册 acceptHandler 的事件循环
 
     public void setListener(TransferListener listener) {
         this.listener = listener;
@@ -163,6 +170,11 @@ public class BluetoothServer {
                 listener.onConnectionStatusChanged(false, "服务端已启动，等待连接...");
             }
     
+            if (com.bluelink.util.AppConfig.isEventLoopEnabled()) {
+                acceptWithEventLoop(serverSocket);
+                return;
+            }
+
             // 5. Accept Loop
             System.out.println("[Server] 开始进入 Accept 循环");
             while (running) {
@@ -193,10 +205,52 @@ public class BluetoothServer {
         }
     }
 
+    /**
+     * 监听 Socket 可接受连接时由事件循环回调，接受所有待处理的连接后返回
+     * 接受的 Socket 继承非阻塞模式，会话同样注册到事件循环读取
+     */
+    private void acceptWithEventLoop(int listenSocket) {
+        System.out.println("[Server] 由事件循环接受连接");
+        EventLoop<Integer> loop = NetworkEventLoop.get();
+        acceptLoop = loop;
+        acceptHandler = new EventLoop.Handler() {
+            @Override
+            public void onReady(int readyOps) throws IOException {
+                WinsockNative lib = WinsockNative.INSTANCE;
+                while (running) {
+                    SOCKADDR_BTH clientAddr = new SOCKADDR_BTH();
+                    IntByReference len = new IntByReference(clientAddr.size());
+                    int clientSocket = lib.accept(listenSocket, clientAddr, len);
+                    if (clientSocket == WinsockNative.INVALID_SOCKET) {
+                        int error = lib.WSAGetLastError();
+                        if (error == WinsockNative.WSAEWOULDBLOCK) {
+                            return;
+                        }
+                        throw new IOException("accept 失败: " + error);
+                    }
+                    clientAddr.read();
+                    System.out.println("[Server] 接受到连接! Socket ID: " + clientSocket);
+                    notifyConnection(true, com.bluelink.util.BluetoothUtils.addressToCode(clientAddr.btAddr));
+                    // 会话的创建和回调可能较慢，不在事件循环线程上执行
+                    executor.submit(() -> handleClient(clientSocket));
+                }
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                if (running) {
+                    System.out.println("[Server] 停止接受连接: " + e.getMessage());
+                    notifyError("接受连接失败: " + e.getMessage());
+                }
+            }
+        };
+        loop.register(listenSocket, ReadinessPoller.OP_ACCEPT, acceptHandler);
+    }
+
     private void handleClient(int clientSocket) {
         System.out.println("[Server] 开始处理客户端连接: " + clientSocket);
         try {
-            BluetoothSession session = new BluetoothSession(clientSocket, listener);
+            BluetoothSession session = new BluetoothSession(new RfcommTransport(clientSocket), listener);
             if (listener != null) {
                 listener.onSessionCreated(session);
             }
@@ -210,6 +264,11 @@ public class BluetoothServer {
 
     public void stop() {
         running = false;
+        if (acceptHandler != null) {
+            // 不经过 NetworkEventLoop.get()，循环已退出时不为取消注册再创建新循环
+            acceptLoop.cancel(acceptHandler);
+            acceptHandler = null;
+        }
         close();
     }
 
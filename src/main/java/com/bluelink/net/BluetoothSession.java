@@ -1,183 +1,1864 @@
 package com.bluelink.net;
 
-import com.bluelink.net.jna.JnaSocketInputStream;
-import com.bluelink.net.jna.JnaSocketOutputStream;
-import com.bluelink.net.jna.WinsockNative;
+import com.bluelink.db.TransferCheckpointDao;
+import com.bluelink.net.protocol.BatchExtractor;
+import com.bluelink.net.protocol.Capabilities;
+import com.bluelink.net.protocol.ChannelOffer;
+import com.bluelink.net.protocol.DirectoryArchive;
+import com.bluelink.net.protocol.FileBatch;
+import com.bluelink.net.protocol.FileChunkDecoder;
+import com.bluelink.net.protocol.FileChunkEncoder;
+import com.bluelink.net.protocol.Frame;
+import com.bluelink.net.protocol.FrameAssembler;
+import com.bluelink.net.protocol.FrameReader;
+import com.bluelink.net.protocol.MessageDictionary;
 import com.bluelink.net.protocol.ProtocolReader;
 import com.bluelink.net.protocol.ProtocolWriter;
+import com.bluelink.net.protocol.TransportOffer;
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+import com.bluelink.net.protocol.codec.CompressionPool;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 /**
  * 蓝牙会话
- * 封装底层的 Socket，处理双向通信（读/写）
+ * 封装底层的连接 (见 Transport)，处理双向通信（读/写）；双方在同一网络时可从蓝牙切换到 TCP (见 TransportUpgrade)
+ * 消息与文件以多路复用帧交错传输，消息帧总是优先发送，不会被大文件阻塞。
+ * 旧版本收到帧会断开连接，所以会话开始时只发送探测包 (旧格式数据包的包头)，对端回应探测包或 HELLO 后才交换 HELLO；
+ * 超时没有回应的对端按旧版本处理，消息和文件按旧版本的方式以整个数据包发送。
+ * 文件传输带有传输 ID 和分块确认，双方持久化已确认偏移，断线重传时从断点继续。
+ * 接收端分为读取、解码、持久化三个线程 (见 ReceivePipeline)，读线程只读 Socket 和处理控制帧。
+ * 启用事件循环 (io.event.loop) 时会话不创建任何线程: 共享的事件循环非阻塞地读取并组装帧、按可写事件写出
+ * (见 EventChannel)，解码和持久化在共享的工作线程池上执行。
+ * 双方都配置了多个连接 (transport.channels) 时另建并行连接 (见 ChannelGroup)，大文件的分块按序号轮流分配到各连接上发送，
+ * 接收方把各连接读到的分块交给同一条流水线，按偏移乱序写入预先扩展到完整大小的临时文件。
  */
 public class BluetoothSession {
-    private final int socket;
-    private final JnaSocketInputStream inputStream;
-    private final JnaSocketOutputStream outputStream;
-    private final DataInputStream dataInputStream;
-    private final long localToken = new java.util.Random().nextLong(); // 用于识别本机发送的包 (防止 Echo)
-    private final Object sendLock = new Object(); // 发送锁，防止多线程写入冲突
+    // 检查点持久化间隔 (字节)，避免每个分块都写数据库
+    private static final long CHECKPOINT_INTERVAL = 1024 * 1024;
+    // 会话开始后等待对端 HELLO 的时间，超时后按旧版本对端处理；已收到对端的探测包时再多等一倍
+    private static final long HANDSHAKE_TIMEOUT_MS = 5000;
+    // 接收流水线每级队列容纳的帧数
+    private static final int RECEIVE_QUEUE_CAPACITY = 16;
+    // 同一分块最多重传次数，超过后放弃本次传输
+    static final int MAX_RETRANSMITS = 3;
+    // 达到该大小的文件并行压缩分块
+    private static final long PARALLEL_COMPRESSION_THRESHOLD = 8 * 1024 * 1024;
+    // 不超过该大小的文件参与批量发送；单个批次内容的大小上限
+    private static final long BATCH_MAX_FILE_SIZE = 1024 * 1024;
+    private static final long BATCH_MAX_BYTES = 64 * 1024 * 1024;
+    // 自动调节时 Socket 内核收发缓冲区的初始大小和上限
+    private static final int SOCKET_BUFFER_INITIAL = 256 * 1024;
+    private static final int SOCKET_BUFFER_MAX = 4 * 1024 * 1024;
+    // 未启用滑动窗口时按该帧数估算在途数据
+    private static final int UNSEQUENCED_INFLIGHT_FRAMES = 4;
+    // 事件循环每次非阻塞读取的最大字节数
+    private static final int EVENT_READ_BUFFER_SIZE = 64 * 1024;
+    // 对端已切换到 TCP 时等待本方 TCP 连接就绪的时间
+    private static final long UPGRADE_TIMEOUT_MS = 10000;
+    // 旧格式数据包整包在内存中压缩，文件大小限制与旧版本一致
+    private static final long LEGACY_MAX_FILE_SIZE = 50 * 1024 * 1024;
+    // 旧格式数据包拆成该大小的片段交给调度器，每段写出后报告进度
+    private static final int LEGACY_SEGMENT_SIZE = 64 * 1024;
+    // 达到该大小的文件才条带化到并行连接上
+    private static final long STRIPE_THRESHOLD = 4 * 1024 * 1024;
+    // 条带化发送结束前，确认停止前进超过该时间即发送结束帧，仍缺的分块由接收方请求重传
+    private static final long STRIPE_SETTLE_MS = 2000;
+
+    private volatile Transport transport; // 当前收发数据的连接
+    private final List<Transport> transports = new CopyOnWriteArrayList<>(); // 会话用过的所有连接，关闭时一并关闭
+    // 用于识别本机发送的包 (防止 Echo)；取 int 范围，紧凑帧中只携带低 32 位
+    private final long localToken = new java.util.Random().nextInt();
+    private final SendScheduler scheduler; // 发送调度器，独占输出流
+    private final ChunkSizeTuner chunkSizeTuner = new ChunkSizeTuner();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1); // 0 保留给消息帧
+    private final Map<Integer, FileChunkDecoder> incomingFiles = new HashMap<>(); // 仅由持久化线程访问
+    private final Map<Integer, Frame> pendingEnds = new HashMap<>(); // 等待重传分块的结束帧，仅由持久化线程访问
+    private final Map<Integer, BatchProgress> incomingBatches = new HashMap<>(); // 接收中的多文件批次，仅由持久化线程访问
+    private final Map<Integer, OutgoingTransfer> outgoingTransfers = new ConcurrentHashMap<>();
+    private final Map<String, Integer> outgoingStreams = new ConcurrentHashMap<>(); // 发送任务 -> 传输流，用于按任务限速
+    private final Capabilities localCapabilities;
+    private final CountDownLatch handshakeLatch = new CountDownLatch(1);
+    private volatile long startedAt; // 会话开始时间，等待 HELLO 的超时从此计算
+    private final Object legacyLock = new Object(); // 旧格式数据包的各片段连续提交，不与其他数据包交错
+    // 保护握手状态: 确定按旧格式通信与发送 HELLO 互斥，按旧格式通信之后不再写出任何帧
+    private final Object handshakeLock = new Object();
+    private volatile Capabilities negotiated; // 握手完成前为 null，之后不再改变
+    private volatile boolean helloSent;
+    private volatile boolean probeOutstanding; // 探测包之后还没有写出其他数据，下一个旧格式数据包可以省略包头
+    // 消息预置字典，每个方向一个，双方按消息顺序同步更新
+    private final MessageDictionary outgoingDictionary = new MessageDictionary(com.bluelink.util.AppConfig.isMessageDictionaryAdaptive());
+    private final MessageDictionary incomingDictionary = new MessageDictionary(false);
+    // 接收方向的序号 (FLAG_SEQUENCED 帧)，除 deliveredSequence 外仅由读线程访问
+    private long expectedSequence; // 下一个按顺序交给流水线的序号
+    private long nakedSequence; // 已请求重传到的序号 (不含)
+    private final java.util.TreeMap<Long, Frame> reorderBuffer = new java.util.TreeMap<>(); // 越过缺口先到达的帧
+    private volatile long deliveredSequence = -1; // 持久化阶段已处理的最大序号
+    private long acknowledgedSequence = -1; // 已确认给对端的序号，仅由持久化线程访问
+    private ReceivePipeline pipeline;
+    private boolean messageDropped; // 读取时丢弃的数据可能是消息，消息字典需在下一帧解码前重置；仅由读取方访问
+    private boolean inputSwitched; // 读到对端的 TRANSPORT_SWITCH，之后改从 TCP 连接读取；仅由读取方访问
+    private volatile EventReader eventReader; // 事件循环模式下当前连接的读取处理
+    private final Map<Transport, EventChannel> eventChannels = new ConcurrentHashMap<>(); // 事件循环模式下各连接的注册
+    private volatile boolean eventLoop; // 会话开始时 io.event.loop 是否启用，之后不再改变
+    private final AtomicBoolean inputFinished = new AtomicBoolean(); // 已通知流水线输入结束
+    private volatile TransportUpgrade upgrade; // 进行中或已完成的 TCP 升级
+    private volatile ChannelGroup channelGroup; // 进行中或已完成的并行连接建立
+    private final List<StripeChannel> stripeChannels = new CopyOnWriteArrayList<>(); // 已建立的并行连接，按序号排列
+    private volatile Transport stripeBase; // 并行连接建立时的主连接，主连接切换 (TCP 升级) 后不再条带化
     private volatile boolean running = true;
     private TransferListener listener;
     private Thread readThread;
+    // 当前 Socket 内核缓冲区大小 (SO_SNDBUF / SO_RCVBUF)，由 socketBufferLock 保护
+    private final Object socketBufferLock = new Object();
+    private int sendBufferSize;
+    private int receiveBufferSize;
 
-    public BluetoothSession(int socket, TransferListener listener) {
-        this.socket = socket;
+    public BluetoothSession(Transport transport, TransferListener listener) {
+        this.transport = transport;
+        this.transports.add(transport);
         this.listener = listener;
-        this.inputStream = new JnaSocketInputStream(socket);
-        this.outputStream = new JnaSocketOutputStream(socket);
-        this.dataInputStream = new DataInputStream(inputStream);
+        this.localCapabilities = Capabilities.local(com.bluelink.util.AppConfig.getTransferWindow(),
+                com.bluelink.util.AppConfig.getTransportChannels());
+        this.scheduler = new SendScheduler(transport.getOutputStream());
+        scheduler.setRttListener(chunkSizeTuner::onRttSample);
+        scheduler.setSessionRate(com.bluelink.util.AppConfig.getSessionRateLimit(),
+                com.bluelink.util.AppConfig.getChatRateReserve());
+        scheduler.setDefaultStreamRate(com.bluelink.util.AppConfig.getTransferRateLimit());
+        configureSocketBuffers();
+    }
+
+    /**
+     * 设置 Socket 内核收发缓冲区: 使用配置值，未配置时先用初始大小，之后随传输自动增大
+     * 应用层突发写出 (一次写出多个分块) 时，足够大的发送缓冲区让写线程不必等待链路，接收缓冲区让对端不必等待读线程
+     */
+    private void configureSocketBuffers() {
+        int send = com.bluelink.util.AppConfig.getSocketSendBuffer();
+        int receive = com.bluelink.util.AppConfig.getSocketReceiveBuffer();
+        synchronized (socketBufferLock) {
+            sendBufferSize = applySocketBuffer(true, send > 0 ? send : SOCKET_BUFFER_INITIAL);
+            receiveBufferSize = applySocketBuffer(false, receive > 0 ? receive : SOCKET_BUFFER_INITIAL);
+        }
+    }
+
+    /**
+     * 自动调节: 缓冲区扩大到能容纳一个窗口的分块 (在途数据上限)，只增不减；配置了固定大小时不调节
+     *
+     * @param send 发送缓冲区 (发送文件时) 或接收缓冲区 (接收文件时)
+     */
+    private void growSocketBuffer(boolean send, int chunkSize) {
+        int configured = send ? com.bluelink.util.AppConfig.getSocketSendBuffer()
+                : com.bluelink.util.AppConfig.getSocketReceiveBuffer();
+        if (configured > 0) {
+            return;
+        }
+        Capabilities caps = negotiated;
+        int frames = caps != null && caps.isSequenced() ? caps.window : UNSEQUENCED_INFLIGHT_FRAMES;
+        int target = (int) Math.min(SOCKET_BUFFER_MAX, (long) frames * chunkSize);
+        synchronized (socketBufferLock) {
+            int current = send ? sendBufferSize : receiveBufferSize;
+            if (target <= current) {
+                return;
+            }
+            int actual = applySocketBuffer(send, target);
+            if (send) {
+                sendBufferSize = Math.max(current, actual);
+            } else {
+                receiveBufferSize = Math.max(current, actual);
+            }
+        }
+    }
+
+    /**
+     * 设置缓冲区大小，返回系统实际采用的值；协议栈不支持该选项时只记录日志
+     */
+    private int applySocketBuffer(boolean send, int bytes) {
+        String name = send ? "SO_SNDBUF" : "SO_RCVBUF";
+        try {
+            int actual = send ? transport.setSendBufferSize(bytes) : transport.setReceiveBufferSize(bytes);
+            System.out.println("[Session] " + name + ": " + actual + " (请求 " + bytes + ")");
+            return actual;
+        } catch (IOException e) {
+            System.err.println("[Session] 无法设置 " + name + ": " + e.getMessage());
+            return 0;
+        }
     }
 
     public void start() {
+        startedAt = System.currentTimeMillis();
+        eventLoop = com.bluelink.util.AppConfig.isEventLoopEnabled();
+        if (eventLoop) {
+            scheduler.setEventChannel(eventChannel(transport));
+        }
+        scheduler.start();
+        try {
+            // 先只发送探测包，对端表明识别帧后再交换 HELLO (见 sendHello)
+            probeOutstanding = true;
+            scheduler.submit(ProtocolWriter.createLegacyFrame(ProtocolWriter.createProbe(localToken)), null);
+        } catch (IOException e) {
+            System.err.println("[Session] 发送探测包失败: " + e.getMessage());
+        }
+        if (eventLoop) {
+            System.out.println("[Session] 由事件循环读写, LocalToken=" + localToken);
+            pipeline = createPipeline();
+            pipeline.setNonBlocking(NetworkEventLoop.workers(), this::resumeReaders);
+            pipeline.start();
+            eventReader = new EventReader(transport, false);
+            eventReader.start();
+            return;
+        }
         readThread = new Thread(this::readLoop, "Session-Reader");
         readThread.start();
     }
 
+    /**
+     * 连接在事件循环上的注册，读取方和发送调度器共用
+     */
+    private EventChannel eventChannel(Transport link) {
+        return eventChannels.computeIfAbsent(link, EventChannel::new);
+    }
+
+    private ReceivePipeline createPipeline() {
+        return new ReceivePipeline(RECEIVE_QUEUE_CAPACITY, this::decodeFrame, this::persistAndAcknowledge,
+                e -> {
+                    if (running) {
+                        System.err.println("[Session] 处理错误: " + e.getMessage());
+                        if (listener != null) {
+                            listener.onError("连接断开: " + e.getMessage());
+                        }
+                        close();
+                    }
+                }, () -> {
+                    suspendTransfers();
+                    incomingDictionary.close();
+                });
+    }
+
     private void readLoop() {
         System.out.println("[Session] 开始读取循环, LocalToken=" + localToken);
-        while (running) {
-            try {
-                ProtocolReader.Packet packet = ProtocolReader.readPacket(dataInputStream, (senderToken, fileName, current, total) -> {
-                    // 如果是自己发的包 (Echo)，则忽略进度更新
-                    if (senderToken == localToken) {
-                        return;
+        FrameReader frameReader = new FrameReader(transport.getInputStream());
+        pipeline = createPipeline();
+        pipeline.start();
+        try {
+            while (running) {
+                try {
+                    Frame frame = frameReader.read(this::onLegacyProgress, downloadDir());
+                    onDropped(frameReader.getDroppedBytes(), frameReader.getDroppedType(), frameReader.getDroppedStreamId());
+
+                    if (frame == null) {
+                        System.out.println("[Session] 读取到 EOF，连接断开");
+                        close();
+                        break;
                     }
-                    if (listener != null && !"MSG".equals(fileName)) {
-                        listener.onTransferProgress(fileName, current, total, true);
+                    dispatchFrame(frame);
+                    if (inputSwitched) {
+                        // 对端在旧连接上不会再发送任何数据，之后从 TCP 连接读取
+                        inputSwitched = false;
+                        frameReader = new FrameReader(awaitUpgrade().getInputStream());
                     }
-                });
-                
-                if (packet == null) {
-                    System.out.println("[Session] 读取到 EOF，连接断开");
-                    close();
+                } catch (IOException e) {
+                    onReadError(e);
                     break;
                 }
+            }
+        } finally {
+            finishInput();
+        }
+    }
+
+    /**
+     * 通知流水线输入结束，只调用一次
+     */
+    private void finishInput() {
+        if (inputFinished.compareAndSet(false, true)) {
+            pipeline.finish();
+        }
+    }
+
+    // 旧格式文件包直接流式解压到下载目录下的临时文件，完成后再重命名
+    private static File downloadDir() {
+        return new File(com.bluelink.util.AppConfig.getDownloadPath());
+    }
+
+    private void onLegacyProgress(long senderToken, String fileName, long current, long total) {
+        // 如果是自己发的包 (Echo)，则忽略进度更新
+        if (senderToken == localToken || senderToken == ProtocolWriter.probeToken(localToken)) {
+            return;
+        }
+        if (listener != null && !"MSG".equals(fileName)) {
+            listener.onTransferProgress(fileName, current, total, true);
+        }
+    }
 
-                // 如果是自己发的包 (Echo)，则完全忽略
-                if (packet.senderToken == localToken) {
-                    System.out.println("[Session] 忽略 Echo 包: " + packet.name);
+    private void onDropped(long droppedBytes, byte droppedType, int droppedStreamId) throws IOException {
+        if (droppedBytes > 0 && !isSequenced()) {
+            // 损坏的数据已跳过，会话继续；告知发送方有帧丢失
+            // 启用序号时丢失的数据帧由序号缺口发现并重传，不需要报告
+            reportDropped(droppedType, droppedStreamId, droppedBytes);
+            messageDropped |= droppedType == Frame.TYPE_MSG || droppedType == Frame.TYPE_LEGACY;
+        }
+    }
+
+    private void onReadError(IOException e) {
+        if (running) {
+            System.err.println("[Session] 读取错误: " + e.getMessage());
+            if (listener != null) {
+                listener.onError("连接断开: " + e.getMessage());
+            }
+            close();
+        }
+    }
+
+    /**
+     * 处理读取到的一帧: 忽略 Echo，直接处理控制帧，数据帧交给接收流水线
+     */
+    private void dispatchFrame(Frame frame) throws IOException {
+        // 如果是自己发的包 (Echo)，则完全忽略
+        if (frame.senderToken == localToken) {
+            System.out.println("[Session] 忽略 Echo 帧: " + frame);
+            if (frame.packet != null && frame.packet.file != null) {
+                frame.packet.file.delete();
+            }
+            return;
+        }
+
+        // 控制帧只更新内存状态，直接在读线程处理，不在解压/落盘之后排队
+        boolean handled;
+        try {
+            handled = handleControlFrame(frame);
+        } catch (IOException e) {
+            System.err.println("[Session] 丢弃无法解析的控制帧 " + frame + ": " + e.getMessage());
+            reportDropped(frame.type, frame.streamId, frame.length);
+            return;
+        }
+        if (handled) {
+            return;
+        }
+        if (frame.isSequenced()) {
+            submitInOrder(frame);
+        } else {
+            pipeline.submit(frame, messageDropped);
+            messageDropped = false;
+        }
+    }
+
+    /**
+     * 并行连接上读到的帧: 只接受条带化的文件分块，直接交给流水线
+     * 控制帧、消息和会话序号只走主连接，读取方状态 (丢帧标记、序号) 也只由主连接的读取方访问
+     */
+    private void dispatchStripe(Frame frame) throws IOException {
+        if (frame.senderToken == localToken || frame.type != Frame.TYPE_FILE_CHUNK || frame.isSequenced()) {
+            System.out.println("[Session] 忽略并行连接上的帧: " + frame);
+            frame.release();
+            return;
+        }
+        pipeline.submit(frame);
+    }
+
+    /**
+     * 并行连接上丢弃的数据只记录日志: 丢失的分块由同一条带的后续分块或 FILE_END 发现并请求重传
+     */
+    private static void onStripeDropped(long droppedBytes) {
+        if (droppedBytes > 0) {
+            System.err.println("[Session] 并行连接丢弃了 " + droppedBytes + " 字节损坏的数据");
+        }
+    }
+
+    /**
+     * 事件循环上的读取处理
+     * 每次就绪时非阻塞地读取一次，交给 FrameAssembler 组装，完整的帧按阻塞模式相同的方式处理。
+     * 接收流水线积压时暂停关注该 Socket (数据留在内核接收缓冲区，对端的发送随之放慢)，排空后恢复。
+     */
+    private final class EventReader implements EventChannel.Side {
+        private final EventChannel channel;
+        private final boolean stripe; // 并行连接，只承载文件分块
+        private final FrameAssembler assembler = new FrameAssembler();
+        private final byte[] buffer = new byte[EVENT_READ_BUFFER_SIZE];
+        private boolean stopped;
+
+        EventReader(Transport source, boolean stripe) {
+            this.channel = eventChannel(source);
+            this.stripe = stripe;
+        }
+
+        void start() {
+            channel.execute(() -> channel.attachReader(this));
+        }
+
+        @Override
+        public void onReady() throws IOException {
+            int n = channel.readNonBlocking(buffer, 0, buffer.length);
+            if (n < 0) {
+                System.out.println("[Session] 读取到 EOF，连接断开");
+                channel.detachReader();
+                close();
+                finishInput();
+                return;
+            }
+            if (n > 0) {
+                assembler.feed(buffer, 0, n);
+            }
+            drain();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            onReadError(e);
+            finishInput();
+        }
+
+        /**
+         * 处理已组装好的帧，流水线积压时暂停读取
+         *
+         * @return 是否已处理完缓存中的全部完整帧
+         */
+        private boolean drain() throws IOException {
+            while (running) {
+                if (pipeline.isBacklogged()) {
+                    channel.setReadInterest(false);
+                    return false;
+                }
+                Frame frame = assembler.next(BluetoothSession.this::onLegacyProgress, downloadDir());
+                if (frame == null) {
+                    return true;
+                }
+                if (stripe) {
+                    onStripeDropped(assembler.getDroppedBytes());
+                    dispatchStripe(frame);
                     continue;
                 }
+                onDropped(assembler.getDroppedBytes(), assembler.getDroppedType(), assembler.getDroppedStreamId());
+                dispatchFrame(frame);
+                if (inputSwitched) {
+                    inputSwitched = false;
+                    switchToUpgrade();
+                    return false;
+                }
+            }
+            return true;
+        }
 
-                if ("MSG".equals(packet.name)) {
-                    String text = new String(packet.data, "UTF-8");
-                    if (listener != null) {
-                        listener.onMessageReceived("Remote", text);
-                    }
-                } else {
-                    // 保存文件到配置的下载目录
-                    String downloadDir = com.bluelink.util.AppConfig.getDownloadPath();
-                    File dir = new File(downloadDir);
-                    if (!dir.exists()) {
-                        dir.mkdirs();
-                    }
-                    
-                    // 处理重名文件：filename.txt -> filename(1).txt
-                    File file = new File(dir, packet.name);
-                    String fileName = packet.name;
-                    String baseName = fileName;
-                    String ext = "";
-                    int dotIndex = fileName.lastIndexOf('.');
-                    if (dotIndex > 0) {
-                        baseName = fileName.substring(0, dotIndex);
-                        ext = fileName.substring(dotIndex);
+        /**
+         * 对端已切换到 TCP: 停止读取本连接，TCP 连接就绪后由新的读取处理接手 (不在事件循环上等待)
+         */
+        private void switchToUpgrade() {
+            stopped = true;
+            channel.detachReader();
+            TransportUpgrade current = upgrade;
+            if (current == null) {
+                onFailure(new IOException("对端已切换连接，本方没有进行中的升级"));
+                return;
+            }
+            current.result().whenComplete((tcp, e) -> {
+                if (e != null || !running) {
+                    if (running) {
+                        onReadError(new IOException("对端已切换到 TCP，本方连接失败: " + e.getMessage()));
                     }
-                    
-                    int counter = 1;
-                    while (file.exists()) {
-                        file = new File(dir, baseName + "(" + counter + ")" + ext);
-                        counter++;
+                    finishInput();
+                    return;
+                }
+                EventReader next = new EventReader(tcp, false);
+                eventReader = next;
+                next.start();
+            });
+        }
+
+        /**
+         * 流水线积压排空后在事件循环上恢复读取，可在任意线程调用
+         */
+        void resumeLater() {
+            channel.execute(this::resume);
+        }
+
+        /**
+         * 流水线积压排空后恢复读取
+         */
+        void resume() {
+            if (stopped) {
+                return;
+            }
+            try {
+                if (drain() && running) {
+                    channel.setReadInterest(true);
+                }
+            } catch (IOException e) {
+                channel.detachReader();
+                onFailure(e);
+            }
+        }
+
+        /**
+         * 停止读取并结束流水线 (并行连接只停止读取)，可在任意线程调用
+         */
+        void stopLater() {
+            channel.execute(() -> {
+                stopped = true;
+                channel.detachReader();
+                if (!stripe) {
+                    finishInput();
+                }
+            });
+        }
+    }
+
+    /**
+     * 流水线积压排空后恢复主连接和各并行连接的读取
+     */
+    private void resumeReaders() {
+        eventReader.resumeLater();
+        for (StripeChannel channel : stripeChannels) {
+            if (channel.eventReader != null) {
+                channel.eventReader.resumeLater();
+            }
+        }
+    }
+
+    /**
+     * 并行连接: 独立的写出方 (不编号的 SendScheduler) 和读取方，只承载条带化的文件分块
+     * 任何一条连接断开都按会话断开处理，未完成的传输在重连后从检查点续传。
+     */
+    private final class StripeChannel {
+        final int index; // 条带序号，主连接为 0
+        final Transport link;
+        final SendScheduler writer;
+        volatile EventReader eventReader;
+        Thread readThread;
+
+        StripeChannel(int index, Transport link) {
+            this.index = index;
+            this.link = link;
+            this.writer = new SendScheduler(link.getOutputStream(), "Session-Writer-" + index);
+        }
+
+        void start() {
+            synchronized (socketBufferLock) {
+                try {
+                    link.setSendBufferSize(Math.max(sendBufferSize, SOCKET_BUFFER_INITIAL));
+                    link.setReceiveBufferSize(Math.max(receiveBufferSize, SOCKET_BUFFER_INITIAL));
+                } catch (IOException e) {
+                    System.err.println("[Session] 无法设置并行连接的缓冲区: " + e.getMessage());
+                }
+            }
+            writer.setFrameVersion(scheduler.getFrameVersion());
+            if (eventLoop) {
+                writer.setEventChannel(eventChannel(link));
+            }
+            writer.start();
+            if (eventLoop) {
+                eventReader = new EventReader(link, true);
+                eventReader.start();
+                return;
+            }
+            readThread = new Thread(this::readLoop, "Session-Reader-" + index);
+            readThread.start();
+        }
+
+        private void readLoop() {
+            FrameReader frameReader = new FrameReader(link.getInputStream());
+            try {
+                while (running) {
+                    Frame frame = frameReader.read(BluetoothSession.this::onLegacyProgress, downloadDir());
+                    onStripeDropped(frameReader.getDroppedBytes());
+                    if (frame == null) {
+                        System.out.println("[Session] 并行连接 " + index + " 读取到 EOF，连接断开");
+                        close();
+                        return;
                     }
+                    dispatchStripe(frame);
+                }
+            } catch (IOException e) {
+                onReadError(e);
+            }
+        }
 
-                    java.nio.file.Files.write(file.toPath(), packet.data);
-                    if (listener != null) {
-                        listener.onFileReceived("Remote", file, packet.name);
+        void stop() {
+            writer.stop();
+            if (eventReader != null) {
+                eventReader.stopLater();
+            }
+            if (readThread != null) {
+                // 流水线结束后不再取帧，中断阻塞在满队列上的提交
+                readThread.interrupt();
+            }
+            link.close();
+        }
+    }
+
+    /**
+     * 读线程上处理的控制帧
+     *
+     * @return 是否已处理
+     */
+    private boolean handleControlFrame(Frame frame) throws IOException {
+        switch (frame.type) {
+            case Frame.TYPE_LEGACY:
+                if (frame.packet.probe) {
+                    // 对端识别帧，开始握手
+                    sendHello();
+                    return true;
+                }
+                // 握手完成前收到完整的数据包: 对端是旧版本 (或已按旧格式通信)，本方也不再等待 HELLO
+                if (negotiated == null) {
+                    settleLegacy("收到旧格式数据包");
+                }
+                return false;
+            case Frame.TYPE_FILE_RESUME: {
+                OutgoingTransfer transfer = outgoingTransfers.get(frame.streamId);
+                if (transfer != null) {
+                    transfer.onResume(ProtocolReader.decodeOffset(frame));
+                }
+                return true;
+            }
+            case Frame.TYPE_FILE_ACK: {
+                OutgoingTransfer transfer = outgoingTransfers.get(frame.streamId);
+                if (transfer != null) {
+                    chunkSizeTuner.onDelivered(transfer.onAck(ProtocolReader.decodeOffset(frame)));
+                }
+                return true;
+            }
+            case Frame.TYPE_FILE_NAK: {
+                OutgoingTransfer transfer = outgoingTransfers.get(frame.streamId);
+                if (transfer != null) {
+                    transfer.onNak(ProtocolReader.decodeOffset(frame));
+                }
+                return true;
+            }
+            case Frame.TYPE_FRAME_DROPPED: {
+                if (frame.length < 9) {
+                    throw new IOException("无效的丢帧报告");
+                }
+                ByteBuffer report = ByteBuffer.wrap(frame.payload);
+                byte droppedType = report.get();
+                long droppedBytes = report.getLong();
+                System.out.println("[Session] 对端丢弃了损坏的帧: Type=" + droppedType + ", Stream=" + frame.streamId
+                        + ", " + droppedBytes + " 字节");
+                if (droppedType == Frame.TYPE_MSG || droppedType == Frame.TYPE_LEGACY) {
+                    // 对端的消息历史已重置，本方随之重置
+                    outgoingDictionary.reset();
+                }
+                if (droppedType == Frame.TYPE_MSG && listener != null) {
+                    listener.onError("一条消息在传输中损坏，对方未能收到");
+                }
+                OutgoingTransfer transfer = outgoingTransfers.get(frame.streamId);
+                Capabilities caps = negotiated;
+                if (droppedType == Frame.TYPE_FILE_CHUNK && transfer != null
+                        && (caps == null || !caps.hasFeature(Capabilities.FEATURE_CHUNK_CRC32C))) {
+                    // 不带 CRC32C 的分块无法单独重传，接收方已放弃该传输流
+                    transfer.onFailed("分块在传输中损坏，接收方已放弃");
+                }
+                // 带 CRC32C 的分块由接收方通过 FILE_NAK 请求重传
+                return true;
+            }
+            case Frame.TYPE_SEQ_ACK:
+                scheduler.onSequenceAck(ProtocolReader.decodeOffset(frame));
+                return true;
+            case Frame.TYPE_SEQ_NAK:
+                scheduler.onSequenceNak(ProtocolReader.decodeOffset(frame));
+                return true;
+            case Frame.TYPE_HELLO: {
+                Capabilities peer = Capabilities.decode(frame.payload);
+                sendHello();
+                synchronized (handshakeLock) {
+                    if (negotiated != null) {
+                        // 本方已超时并按旧格式发送，帧会夹进数据包中间，保持旧格式 (对端照常解析)
+                        System.out.println("[Session] 已按旧格式通信，忽略对端 HELLO: " + peer);
+                        return true;
                     }
+                    negotiated = localCapabilities.negotiate(peer);
+                }
+                System.out.println("[Session] 握手完成, 对端: " + peer + ", 协商结果: " + negotiated);
+                scheduler.setFrameVersion(negotiated.version);
+                if (negotiated.isSequenced()) {
+                    scheduler.enableWindow(negotiated.window);
                 }
+                handshakeLatch.countDown();
+                if (localToken < frame.senderToken) {
+                    // 双方都可以提议时只由 Token 较小的一方提议，避免同时建立两条 TCP 连接 (或两组并行连接)
+                    offerUpgrade();
+                    offerChannels();
+                }
+                return true;
+            }
+            case Frame.TYPE_TRANSPORT_OFFER:
+                acceptUpgradeOffer(TransportOffer.decode(frame));
+                return true;
+            case Frame.TYPE_TRANSPORT_SWITCH:
+                System.out.println("[Session] 对端已切换到 TCP 连接");
+                inputSwitched = true;
+                return true;
+            case Frame.TYPE_CHANNEL_OFFER:
+                acceptChannelOffer(ChannelOffer.decode(frame));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean canUpgrade() {
+        Capabilities caps = negotiated;
+        return com.bluelink.util.AppConfig.isTcpUpgradeEnabled() && caps != null
+                && caps.hasFeature(Capabilities.FEATURE_TRANSPORT_UPGRADE) && !(transport instanceof TcpTransport)
+                && upgrade == null;
+    }
+
+    /**
+     * 提议方: 在局域网地址上监听并通过当前连接发送提议，在后台线程等待对端连接
+     */
+    private void offerUpgrade() {
+        if (!canUpgrade()) {
+            return;
+        }
+        TransportUpgrade offering = new TransportUpgrade();
+        upgrade = offering;
+        Thread thread = new Thread(() -> {
+            try {
+                TransportOffer offer = offering.listen(com.bluelink.util.AppConfig.getTcpUpgradePort());
+                System.out.println("[Session] 提议切换到 TCP: " + offer);
+                scheduler.submit(ProtocolWriter.createTransportOfferFrame(localToken, offer), null);
+                offering.acceptPeer(offer.nonce);
+            } catch (IOException e) {
+                offering.cancel();
+            }
+        }, "Session-Upgrade");
+        thread.setDaemon(true);
+        thread.start();
+        offering.result().whenComplete((tcp, e) -> onUpgradeComplete(tcp, e));
+    }
+
+    /**
+     * 对端提议升级: 在后台线程依次连接提议中的地址
+     */
+    private void acceptUpgradeOffer(TransportOffer offer) {
+        if (!canUpgrade()) {
+            System.out.println("[Session] 忽略 TCP 提议 (未启用或已在进行)");
+            return;
+        }
+        TransportUpgrade connecting = new TransportUpgrade();
+        upgrade = connecting;
+        Thread thread = new Thread(() -> connecting.connect(offer), "Session-Upgrade");
+        thread.setDaemon(true);
+        thread.start();
+        connecting.result().whenComplete((tcp, e) -> onUpgradeComplete(tcp, e));
+    }
+
+    /**
+     * TCP 连接建立后切换本方的发送方向: TRANSPORT_SWITCH 是蓝牙连接上的最后一帧，之后的帧 (包括重传) 都走 TCP
+     * 接收方向在读到对端的 TRANSPORT_SWITCH 时切换；蓝牙连接保持打开直到会话关闭
+     */
+    private void onUpgradeComplete(TcpTransport tcp, Throwable error) {
+        if (error != null) {
+            System.out.println("[Session] 未能切换到 TCP，继续使用 " + transport.describe() + ": " + error.getMessage());
+            return;
+        }
+        if (!running) {
+            tcp.close();
+            return;
+        }
+        transports.add(tcp);
+        try {
+            Frame switchFrame = ProtocolWriter.createTransportSwitchFrame(localToken);
+            if (eventLoop) {
+                scheduler.switchOutput(switchFrame, eventChannel(tcp));
+            } else {
+                scheduler.switchOutput(switchFrame, tcp.getOutputStream());
+            }
+            transport = tcp;
+            System.out.println("[Session] 已切换到 " + tcp.describe());
+        } catch (IOException e) {
+            System.err.println("[Session] 切换到 TCP 失败: " + e.getMessage());
+        }
+    }
 
+    private boolean canOpenChannels() {
+        Capabilities caps = negotiated;
+        return caps != null && caps.channels > 1 && caps.hasFeature(Capabilities.FEATURE_MULTI_CHANNEL)
+                && caps.hasFeature(Capabilities.FEATURE_CHUNK_CRC32C) && channelGroup == null;
+    }
+
+    /**
+     * 邀请方: 在主连接的本端另开通道监听并发送邀请，在后台线程等待对端建立全部并行连接
+     */
+    private void offerChannels() {
+        if (!canOpenChannels()) {
+            return;
+        }
+        ChannelGroup group = new ChannelGroup();
+        channelGroup = group;
+        Transport base = transport;
+        int count = negotiated.channels - 1;
+        Thread thread = new Thread(() -> {
+            try {
+                ChannelOffer offer = group.listen(base, count);
+                System.out.println("[Session] 邀请对端建立并行连接: " + offer);
+                scheduler.submit(ProtocolWriter.createChannelOfferFrame(localToken, offer), null);
+                group.acceptPeers(offer);
             } catch (IOException e) {
-                if (running) {
-                    System.err.println("[Session] 读取错误: " + e.getMessage());
-                    if (listener != null) {
-                        listener.onError("连接断开: " + e.getMessage());
+                System.out.println("[Session] 无法监听并行连接: " + e.getMessage());
+                group.cancel();
+            }
+        }, "Session-Channels");
+        thread.setDaemon(true);
+        thread.start();
+        group.result().whenComplete((links, e) -> onChannelsReady(base, links, e));
+    }
+
+    /**
+     * 对端邀请建立并行连接: 在后台线程依次连接
+     */
+    private void acceptChannelOffer(ChannelOffer offer) {
+        if (!canOpenChannels() || offer.count >= negotiated.channels) {
+            System.out.println("[Session] 忽略并行连接邀请 (未启用、数量不符或已在进行): " + offer);
+            return;
+        }
+        ChannelGroup group = new ChannelGroup();
+        channelGroup = group;
+        Transport base = transport;
+        Thread thread = new Thread(() -> group.connect(base, offer), "Session-Channels");
+        thread.setDaemon(true);
+        thread.start();
+        group.result().whenComplete((links, e) -> onChannelsReady(base, links, e));
+    }
+
+    /**
+     * 并行连接全部建立后启动各自的读写；此后开始的大文件传输才会条带化
+     */
+    private void onChannelsReady(Transport base, List<Transport> links, Throwable error) {
+        if (error != null) {
+            System.out.println("[Session] 未能建立并行连接，继续只用 " + base.describe() + ": " + error.getMessage());
+            return;
+        }
+        if (!running) {
+            for (Transport link : links) {
+                link.close();
+            }
+            return;
+        }
+        for (int i = 0; i < links.size(); i++) {
+            StripeChannel channel = new StripeChannel(i + 1, links.get(i));
+            transports.add(channel.link);
+            stripeChannels.add(channel);
+            channel.start();
+        }
+        stripeBase = base;
+        System.out.println("[Session] 已建立 " + links.size() + " 条并行连接");
+        if (!running) {
+            // 与 close() 并发: 确保新建的连接也被关闭
+            for (StripeChannel channel : stripeChannels) {
+                channel.stop();
+            }
+        }
+    }
+
+    /**
+     * 本次传输流使用的并行连接，不条带化时为空
+     * 只有较大的文件、且主连接仍是建立并行连接时的连接、没有限速时才条带化 (限速按单个写线程计量)
+     */
+    private List<StripeChannel> stripeChannelsFor(int streamId, long fileSize) {
+        List<StripeChannel> channels = new ArrayList<>(stripeChannels);
+        if (channels.isEmpty() || fileSize < STRIPE_THRESHOLD || transport != stripeBase
+                || scheduler.isRateLimited(streamId)) {
+            return new ArrayList<>();
+        }
+        return channels;
+    }
+
+    /**
+     * 读取方: 对端已切换时等待本方的 TCP 连接就绪
+     */
+    private Transport awaitUpgrade() throws IOException {
+        TransportUpgrade current = upgrade;
+        if (current == null) {
+            throw new IOException("对端已切换连接，本方没有进行中的升级");
+        }
+        try {
+            return current.result().get(UPGRADE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            throw new IOException("等待 TCP 连接超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待 TCP 连接被中断");
+        } catch (ExecutionException e) {
+            throw new IOException("对端已切换到 TCP，本方连接失败: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * 解码阶段: 解压文件分块、解码消息
+     */
+    private void decodeFrame(ReceivePipeline.Item item) throws IOException {
+        if (item.afterDrop) {
+            // 与发送方收到丢帧报告后的重置对应
+            incomingDictionary.reset();
+        }
+        try {
+            decodePayload(item);
+        } catch (IOException e) {
+            // 只丢弃这一帧，会话继续
+            Frame frame = item.frame;
+            System.err.println("[Session] 丢弃无法解码的帧 " + frame + ": " + e.getMessage());
+            item.dropped = true;
+            if (frame.type == Frame.TYPE_MSG) {
+                incomingDictionary.reset();
+            }
+            reportDropped(frame.type, frame.streamId, frame.length);
+        }
+    }
+
+    private void decodePayload(ReceivePipeline.Item item) throws IOException {
+        Frame frame = item.frame;
+        if (frame.type == Frame.TYPE_FILE_CHUNK) {
+            if (!frame.isStored() && compressionThreads() > 1) {
+                // 压缩分块在线程池中并行解压，持久化阶段按顺序等待结果
+                item.pendingChunk = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return FileChunkDecoder.decodeChunk(frame);
+                    } catch (IOException e) {
+                        throw new java.util.concurrent.CompletionException(e);
+                    }
+                }, CompressionPool.get());
+            } else {
+                item.chunk = FileChunkDecoder.decodeChunk(frame);
+            }
+        } else if (frame.type == Frame.TYPE_MSG) {
+            item.text = ProtocolReader.decodeMessage(frame, incomingDictionary);
+            incomingDictionary.record(item.text.getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * 持久化阶段处理完一帧后累计确认其序号，确认表示该帧已交付 (消息已通知上层、分块已落盘)
+     * 连续的分块合并确认；消息、文件边界帧以及队列排空时立即确认，避免发送方空等
+     */
+    private void persistAndAcknowledge(ReceivePipeline.Item item) throws IOException {
+        try {
+            persistFrame(item);
+        } finally {
+            // 分块已落盘 (或已丢弃)，负载和解压缓冲区归还缓冲池
+            item.release();
+        }
+        Frame frame = item.frame;
+        if (!frame.isSequenced()) {
+            return;
+        }
+        deliveredSequence = frame.sequence;
+        Capabilities caps = negotiated;
+        int ackInterval = caps != null ? Math.max(1, caps.window / 4) : 1;
+        if (frame.type != Frame.TYPE_FILE_CHUNK || pipeline.isPersistIdle()
+                || frame.sequence - acknowledgedSequence >= ackInterval) {
+            sendSequenceAck(frame.sequence);
+            acknowledgedSequence = frame.sequence;
+        }
+    }
+
+    /**
+     * 持久化阶段: 写临时文件、更新检查点、回复确认、通知上层
+     */
+    private void persistFrame(ReceivePipeline.Item item) throws IOException {
+        Frame frame = item.frame;
+        File downloadDir = new File(com.bluelink.util.AppConfig.getDownloadPath());
+        if (item.dropped) {
+            dropIncomingChunk(frame);
+            return;
+        }
+        switch (frame.type) {
+            case Frame.TYPE_LEGACY:
+                handleLegacyPacket(frame.packet, downloadDir);
+                break;
+            case Frame.TYPE_MSG:
+                if (listener != null) {
+                    listener.onMessageReceived("Remote", item.text);
+                }
+                break;
+            case Frame.TYPE_FILE_BEGIN:
+                openIncomingFile(frame, downloadDir);
+                break;
+            case Frame.TYPE_FILE_CHUNK: {
+                FileChunkDecoder decoder = incomingFiles.get(frame.streamId);
+                if (decoder == null) {
+                    System.out.println("[Session] 忽略未知传输流的分块: " + frame.streamId);
+                    break;
+                }
+                FileChunkDecoder.Chunk chunk;
+                try {
+                    chunk = item.awaitChunk();
+                } catch (IOException e) {
+                    System.err.println("[Session] 丢弃无法解码的帧 " + frame + ": " + e.getMessage());
+                    reportDropped(frame.type, frame.streamId, frame.length);
+                    dropIncomingChunk(frame);
+                    break;
+                }
+                if (chunk.fileOffset >= 0) {
+                    // 分块所在的帧之前有帧被丢弃时，立即请求重传缺失的分块
+                    for (long offset : decoder.skippedChunks(chunk.fileOffset)) {
+                        sendNak(frame.streamId, offset);
+                    }
+                }
+                if (chunk.corrupt) {
+                    // 只请求重传这一块，后续分块照常接收
+                    if (decoder.isChunkOffset(chunk.fileOffset)) {
+                        sendNak(frame.streamId, chunk.fileOffset);
+                    }
+                    break;
+                }
+                long before = decoder.getWritten();
+                if (!decoder.writeDecoded(chunk)) {
+                    break; // 重复的分块
+                }
+                long written = decoder.getWritten();
+                // 每跨过一个检查点间隔，落盘后持久化偏移
+                if (before / CHECKPOINT_INTERVAL != written / CHECKPOINT_INTERVAL) {
+                    decoder.flush();
+                    TransferCheckpointDao.updateOffset(decoder.getTransferId().toString(), written);
+                }
+                scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, frame.streamId, localToken, written), null);
+                reportReceiveProgress(frame.streamId, decoder);
+                // 结束帧先于重传分块到达时，最后一个空洞填上后完成接收
+                Frame end = pendingEnds.get(frame.streamId);
+                if (end != null && decoder.isComplete()) {
+                    pendingEnds.remove(frame.streamId);
+                    completeIncomingFile(frame.streamId, end, downloadDir);
+                }
+                break;
+            }
+            case Frame.TYPE_FILE_END: {
+                FileChunkDecoder decoder = incomingFiles.get(frame.streamId);
+                if (decoder == null) {
+                    System.out.println("[Session] 忽略未知传输流的结束帧: " + frame.streamId);
+                    break;
+                }
+                if (!decoder.isComplete() && frame.length >= 8) {
+                    // 还有损坏或丢失的分块: 全部请求重传，等空洞填上后再完成
+                    java.util.List<Long> missing = decoder.missingChunks(decoder.getFileSize());
+                    if (!missing.isEmpty()) {
+                        for (long offset : missing) {
+                            sendNak(frame.streamId, offset);
+                        }
+                        pendingEnds.put(frame.streamId, frame);
+                        break;
                     }
-                    close();
                 }
+                completeIncomingFile(frame.streamId, frame, downloadDir);
                 break;
             }
+            case Frame.TYPE_FILE_ABORT: {
+                pendingEnds.remove(frame.streamId);
+                incomingBatches.remove(frame.streamId);
+                FileChunkDecoder decoder = incomingFiles.remove(frame.streamId);
+                if (decoder != null) {
+                    System.out.println("[Session] 发送方中止传输: " + decoder.getName());
+                    decoder.abort();
+                    TransferCheckpointDao.delete(decoder.getTransferId().toString());
+                }
+                break;
+            }
+            default:
+                System.out.println("[Session] 忽略未知帧类型: " + frame.type);
+        }
+    }
+
+    /**
+     * 校验整体大小和 CRC，交付文件并确认
+     */
+    private void completeIncomingFile(int streamId, Frame end, File downloadDir) throws IOException {
+        FileChunkDecoder decoder = incomingFiles.remove(streamId);
+        incomingBatches.remove(streamId);
+        String transferId = decoder.getTransferId().toString();
+        File temp;
+        try {
+            temp = decoder.finish(end);
+        } finally {
+            TransferCheckpointDao.delete(transferId);
+        }
+        if (decoder.getBatch() != null) {
+            // 批次解包目录中的文件按序号命名，逐个按原文件名交付
+            List<FileBatch.Entry> entries = decoder.getBatch();
+            for (int i = 0; i < entries.size(); i++) {
+                deliverFile(BatchExtractor.fileAt(temp, i), entries.get(i).name, downloadDir);
+            }
+            temp.delete();
+        } else {
+            deliverFile(temp, decoder.getName(), downloadDir);
+        }
+        scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, streamId, localToken, decoder.getFileSize()), null);
+    }
+
+    /**
+     * 分块无法解码时的处理: 带 CRC32C 的分块可以单独重传，缺口由后续分块或 FILE_END 发现；
+     * 不带 CRC32C 的分块按顺序写入，缺一块后面的数据就会错位，只能放弃这个传输流
+     */
+    private void dropIncomingChunk(Frame frame) {
+        if (frame.type != Frame.TYPE_FILE_CHUNK || frame.hasChunkCrc()) {
+            return;
+        }
+        pendingEnds.remove(frame.streamId);
+        incomingBatches.remove(frame.streamId);
+        FileChunkDecoder decoder = incomingFiles.remove(frame.streamId);
+        if (decoder != null) {
+            System.err.println("[Session] 分块损坏且无法重传，放弃接收: " + decoder.getName());
+            decoder.abort();
+            TransferCheckpointDao.delete(decoder.getTransferId().toString());
+            if (listener != null) {
+                listener.onError("文件接收失败 (数据损坏): " + decoder.getName());
+            }
+        }
+    }
+
+    /**
+     * 报告接收进度，多文件批次按文件和批次分别报告
+     */
+    private void reportReceiveProgress(int streamId, FileChunkDecoder decoder) {
+        BatchProgress batch = incomingBatches.get(streamId);
+        if (batch != null) {
+            batch.update(decoder.getWritten());
+        } else if (listener != null) {
+            listener.onTransferProgress(decoder.getName(), decoder.getWritten(), decoder.getFileSize(), true);
+        }
+    }
+
+    /**
+     * 告知发送方有帧在接收端被丢弃
+     */
+    private void reportDropped(byte type, int streamId, long bytes) {
+        Capabilities caps = negotiated;
+        if (caps == null || !caps.supportsFrames()) {
+            // 对端可能是旧版本，不能发送帧
+            System.out.println("[Session] 丢弃了 " + bytes + " 字节，对端不识别帧，不报告");
+            return;
+        }
+        try {
+            scheduler.submit(ProtocolWriter.createDroppedFrame(localToken, type, streamId, bytes), null);
+        } catch (IOException e) {
+            System.err.println("[Session] 发送丢帧报告失败: " + e.getMessage());
+        }
+    }
+
+    private void sendNak(int streamId, long offset) throws IOException {
+        System.out.println("[Session] 请求重传分块: Stream=" + streamId + ", Offset=" + offset);
+        scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_NAK, streamId, localToken, offset), null);
+    }
+
+    /**
+     * 处理旧版本发送方的整包数据
+     */
+    private void handleLegacyPacket(ProtocolReader.Packet packet, File downloadDir) throws IOException {
+        if ("MSG".equals(packet.name)) {
+            String text = new String(packet.data, "UTF-8");
+            if (listener != null) {
+                listener.onMessageReceived("Remote", text);
+            }
+        } else {
+            deliverFile(packet.file, packet.name, downloadDir);
+        }
+    }
+
+    /**
+     * 临时文件重命名为最终文件名并通知上层
+     */
+    private void deliverFile(File temp, String name, File downloadDir) throws IOException {
+        if (!FileBatch.isSimpleName(name)) {
+            // FILE_BEGIN 已在 openIncomingFile 中拒绝，这里拦截旧格式数据包
+            System.err.println("[Session] 拒绝非法的文件名: " + name);
+            temp.delete();
+            if (listener != null) {
+                listener.onError("拒绝接收文件 (非法的文件名): " + name);
+            }
+            return;
+        }
+        File file = resolveTargetFile(downloadDir, name);
+        java.nio.file.Files.move(temp.toPath(), file.toPath());
+        if (listener != null) {
+            listener.onFileReceived("Remote", file, name);
         }
     }
 
+    /**
+     * 根据 FILE_BEGIN 打开接收流，与本地检查点协商续传起点并回复发送方
+     */
+    private void openIncomingFile(Frame frame, File downloadDir) throws IOException {
+        FileChunkDecoder.Begin begin = FileChunkDecoder.parseBegin(frame);
+        if (!FileBatch.isSimpleName(begin.name)) {
+            // 文件名 (文件夹归档为顶层文件夹名) 会拼接到下载目录，拒绝可能越出下载目录的名称；
+            // 不回复 FILE_RESUME，发送方等待超时后放弃，之后的分块按未知传输流忽略
+            System.err.println("[Session] 拒绝非法的文件名: " + begin.name);
+            if (listener != null) {
+                listener.onError("拒绝接收文件 (非法的文件名): " + begin.name);
+            }
+            return;
+        }
+        String transferId = begin.transferId.toString();
+
+        // 续传起点取双方已确认偏移的较小值
+        long resumeOffset = 0;
+        TransferCheckpointDao.Checkpoint cp = TransferCheckpointDao.find(transferId);
+        if (cp != null && !cp.isSender && cp.fileSize == begin.fileSize) {
+            resumeOffset = Math.min(cp.ackedOffset, begin.resumeHint);
+        }
+
+        FileChunkDecoder decoder = FileChunkDecoder.open(begin, frame.senderToken, downloadDir, resumeOffset);
+        growSocketBuffer(false, begin.chunkSize);
+        FileChunkDecoder previous = incomingFiles.put(frame.streamId, decoder);
+        if (previous != null) {
+            previous.suspend();
+        }
+        incomingBatches.remove(frame.streamId);
+        if (decoder.getBatch() != null) {
+            List<String> names = new ArrayList<>();
+            for (FileBatch.Entry entry : decoder.getBatch()) {
+                names.add(entry.name);
+            }
+            incomingBatches.put(frame.streamId, new BatchProgress(listener, decoder.getName(), decoder.getBatch(), names,
+                    decoder.getFileSize(), true));
+        }
+
+        TransferCheckpointDao.Checkpoint checkpoint = new TransferCheckpointDao.Checkpoint();
+        checkpoint.transferId = transferId;
+        checkpoint.isSender = false;
+        checkpoint.fileName = begin.name;
+        checkpoint.filePath = decoder.getTempFile().getAbsolutePath();
+        checkpoint.fileSize = begin.fileSize;
+        checkpoint.ackedOffset = decoder.getWritten();
+        TransferCheckpointDao.save(checkpoint);
+
+        scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_RESUME, frame.streamId, localToken, decoder.getWritten()), null);
+        if (decoder.getWritten() > 0) {
+            reportReceiveProgress(frame.streamId, decoder);
+        }
+    }
+
+    /**
+     * 连接断开: 保留未完成的接收临时文件并记录偏移，唤醒等待确认的发送方
+     */
+    private void suspendTransfers() {
+        for (FileChunkDecoder decoder : incomingFiles.values()) {
+            decoder.suspend();
+            TransferCheckpointDao.updateOffset(decoder.getTransferId().toString(), decoder.getWritten());
+        }
+        incomingFiles.clear();
+        incomingBatches.clear();
+        pendingEnds.clear();
+        for (OutgoingTransfer transfer : outgoingTransfers.values()) {
+            transfer.cancel();
+        }
+    }
+
+    /**
+     * 在下载目录中为接收的文件确定不重名的目标路径
+     * 处理重名文件：filename.txt -> filename(1).txt
+     */
+    private File resolveTargetFile(File dir, String fileName) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dir, fileName);
+        String baseName = fileName;
+        String ext = "";
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            baseName = fileName.substring(0, dotIndex);
+            ext = fileName.substring(dotIndex);
+        }
+
+        int counter = 1;
+        while (file.exists()) {
+            file = new File(dir, baseName + "(" + counter + ")" + ext);
+            counter++;
+        }
+        return file;
+    }
+
     public void sendMessage(String message) throws IOException {
         if (!running) throw new IOException("会话已关闭");
         System.out.println("[Session] 发送消息: " + message);
-        byte[] packet = ProtocolWriter.createPacket(localToken, "MSG", message.getBytes("UTF-8"));
-        
-        synchronized (sendLock) {
-            outputStream.write(packet);
-            outputStream.flush();
+        byte[] data = message.getBytes("UTF-8");
+
+        Capabilities caps = awaitHandshake();
+        if (!caps.supportsFrames()) {
+            awaitDelivery(submitLegacyPacket("MSG", data, null), com.bluelink.util.AppConfig.getConnectionTimeoutMs());
+            return;
+        }
+        // 压缩、入队、更新字典必须原子完成，保证字典的更新顺序与消息在连接上的顺序一致
+        boolean useDictionary = caps.hasFeature(Capabilities.FEATURE_MESSAGE_DICTIONARY);
+        CompletableFuture<Void> future;
+        synchronized (outgoingDictionary) {
+            Frame frame = useDictionary
+                    ? ProtocolWriter.createMessageFrame(localToken, data, outgoingDictionary)
+                    : ProtocolWriter.createMessageFrame(localToken, data);
+            // 消息帧插队到所有文件分块之前
+            future = scheduler.submitForDelivery(frame);
+            outgoingDictionary.record(data);
         }
+        // 等待对端确认收到后再返回 (对端不支持确认时等待写出)
+        awaitDelivery(future, com.bluelink.util.AppConfig.getConnectionTimeoutMs());
     }
 
     public void sendFile(File file, String taskKey) throws IOException {
         if (!running) throw new IOException("会话已关闭");
-        if (file.length() > 50 * 1024 * 1024) {
-            throw new IOException("文件过大(限制 50MB)");
-        }
-
-        byte[] fileData = new byte[(int) file.length()];
-        try (FileInputStream fis = new FileInputStream(file)) {
-            fis.read(fileData);
-        }
-
-        byte[] packet = ProtocolWriter.createPacket(localToken, file.getName(), fileData);
-        
-        // 分块写入以支持发送进度
-        int offset = 0;
-        int bufferSize = 8192; // 8KB
-        int total = packet.length;
-        
-        synchronized (sendLock) {
-            while (offset < total) {
-                int toWrite = Math.min(total - offset, bufferSize);
-                outputStream.write(packet, offset, toWrite);
-                offset += toWrite;
-                
-                // 发送进度更新 (注意：这里的 total 是包总大小，包含压缩数据和头信息)
-                // 用户更关心的是文件传输的百分比，所以直接用 packet 的发送比例即可
-                if (listener != null) {
-                    // 使用 taskKey (如果是发送方，taskKey 是 UUID；如果是接收方，taskKey 是文件名)
-                    listener.onTransferProgress(taskKey != null ? taskKey : file.getName(), offset, total, false);
+        if (!file.isFile() && !file.isDirectory()) {
+            throw new IOException("文件不存在: " + file.getName());
+        }
+
+        // 使用 taskKey (如果是发送方，taskKey 是 UUID；如果是接收方，taskKey 是文件名)
+        String progressKey = taskKey != null ? taskKey : file.getName();
+        if (!awaitHandshake().supportsFrames()) {
+            sendLegacyFile(file, progressKey);
+            return;
+        }
+        if (file.isDirectory()) {
+            // 文件夹作为一个归档传输流发送: 这里只遍历目录结构，内容在发送时逐个文件读取
+            DirectoryArchive archive = DirectoryArchive.scan(file);
+            sendStream(file.getName(), file.getAbsolutePath(), archive.size(), archive.getLastModified(),
+                    Capabilities.FEATURE_DIRECTORY_ARCHIVE, progressKey,
+                    (streamId, chunkSize, transferId, codec) -> new FileChunkEncoder(archive, streamId, localToken,
+                            chunkSize, transferId, codec),
+                    sent -> reportSendProgress(progressKey, sent, archive.size()));
+        } else {
+            long size = file.length();
+            sendStream(file.getName(), file.getAbsolutePath(), size, file.lastModified(), 0, progressKey,
+                    (streamId, chunkSize, transferId, codec) -> new FileChunkEncoder(file, streamId, localToken,
+                            chunkSize, transferId, codec),
+                    sent -> reportSendProgress(progressKey, sent, size));
+        }
+    }
+
+    /**
+     * 发送多个文件
+     * 对端支持批次时，连续的小文件合并为批次: 一个带清单的 FILE_BEGIN，之后各文件内容首尾相接按分块压缩，
+     * 小文件之间的冗余也能被压缩，也省去逐个文件的握手和确认往返；大文件和文件夹仍逐个发送。
+     * 进度按文件 (taskKeys) 和批次 (batchKey) 分别报告。
+     *
+     * @param taskKeys 与 files 一一对应的进度 key
+     * @param batchKey 批次进度 key
+     * @param onDelivered 每个文件被对端确认后回调其下标
+     */
+    public void sendFiles(List<File> files, List<String> taskKeys, String batchKey, IntConsumer onDelivered)
+            throws IOException {
+        if (!running) throw new IOException("会话已关闭");
+        boolean batching = awaitHandshake().hasFeature(Capabilities.FEATURE_FILE_BATCH);
+        List<Integer> pending = new ArrayList<>();
+        long pendingBytes = 0;
+        int manifestBytes = 0;
+        for (int i = 0; i <= files.size(); i++) {
+            File file = i < files.size() ? files.get(i) : null;
+            boolean small = batching && file != null && file.isFile() && file.length() <= BATCH_MAX_FILE_SIZE;
+            boolean fits = pending.size() < FileBatch.MAX_FILES && pendingBytes < BATCH_MAX_BYTES
+                    && (small && manifestBytes + FileBatch.manifestBytes(file) <= FileBatch.MAX_MANIFEST_BYTES);
+            if (!pending.isEmpty() && !fits) {
+                sendPendingBatch(files, taskKeys, batchKey, pending, onDelivered);
+                pending.clear();
+                pendingBytes = 0;
+                manifestBytes = 0;
+            }
+            if (file == null) {
+                break;
+            }
+            if (small) {
+                pending.add(i);
+                pendingBytes += file.length();
+                manifestBytes += FileBatch.manifestBytes(file);
+            } else {
+                sendFile(file, taskKeys.get(i));
+                onDelivered.accept(i);
+            }
+        }
+    }
+
+    private void sendPendingBatch(List<File> files, List<String> taskKeys, String batchKey, List<Integer> indexes,
+            IntConsumer onDelivered) throws IOException {
+        if (indexes.size() == 1) {
+            int index = indexes.get(0);
+            sendFile(files.get(index), taskKeys.get(index));
+            onDelivered.accept(index);
+            return;
+        }
+        List<File> batchFiles = new ArrayList<>();
+        List<String> batchKeys = new ArrayList<>();
+        for (int index : indexes) {
+            batchFiles.add(files.get(index));
+            batchKeys.add(taskKeys.get(index));
+        }
+        FileBatch batch = new FileBatch(batchFiles);
+        String name = batchFiles.size() + " 个文件";
+        BatchProgress progress = new BatchProgress(listener, batchKey, batch.getEntries(), batchKeys, batch.size(), false);
+        // 同一组文件 (首个文件路径、文件数、总大小、最新修改时间一致) 有未完成的记录时续传
+        String sourcePath = "batch:" + batchFiles.size() + ":" + batchFiles.get(0).getAbsolutePath();
+        sendStream(name, sourcePath, batch.size(), batch.getLastModified(), Capabilities.FEATURE_FILE_BATCH, batchKey,
+                (streamId, chunkSize, transferId, codec) -> new FileChunkEncoder(name, batch, streamId, localToken,
+                        chunkSize, transferId, codec),
+                progress::update);
+        for (int index : indexes) {
+            onDelivered.accept(index);
+        }
+    }
+
+    /**
+     * 以旧格式数据包发送文件 (对端不识别帧)，与旧版本相同: 整个文件读入内存压缩，不支持续传
+     */
+    private void sendLegacyFile(File file, String progressKey) throws IOException {
+        if (file.isDirectory()) {
+            throw new IOException("对方版本不支持发送文件夹: " + file.getName());
+        }
+        if (file.length() > LEGACY_MAX_FILE_SIZE) {
+            throw new IOException("文件过大(对方版本限制 50MB)");
+        }
+        byte[] data = java.nio.file.Files.readAllBytes(file.toPath());
+        System.out.println("[Session] 以旧格式发送文件: " + file.getName());
+        await(submitLegacyPacket(file.getName(), data, progressKey));
+    }
+
+    /**
+     * 封装旧格式数据包并拆成片段提交，片段都在传输流 0 上按提交顺序写出
+     *
+     * @param progressKey 每段写出后按数据包字节数报告进度，为 null 时不报告
+     * @return 最后一段写出时完成的 Future
+     */
+    private CompletableFuture<Void> submitLegacyPacket(String name, byte[] data, String progressKey)
+            throws IOException {
+        synchronized (legacyLock) {
+            byte[] packet = ProtocolWriter.createPacket(ProtocolWriter.probeToken(localToken), name, data);
+            // 会话开始时的探测包就是第一个数据包的包头
+            int start = probeOutstanding ? ProtocolWriter.PROBE_SIZE : 0;
+            probeOutstanding = false;
+            CompletableFuture<Void> last = null;
+            for (int offset = start; offset < packet.length; offset += LEGACY_SEGMENT_SIZE) {
+                int end = Math.min(packet.length, offset + LEGACY_SEGMENT_SIZE);
+                Frame segment = ProtocolWriter.createLegacyFrame(java.util.Arrays.copyOfRange(packet, offset, end));
+                last = scheduler.submit(segment,
+                        progressKey == null ? null : () -> reportSendProgress(progressKey, end, packet.length));
+            }
+            return last;
+        }
+    }
+
+    private void reportSendProgress(String progressKey, long sent, long total) {
+        if (listener != null) {
+            listener.onTransferProgress(progressKey, sent, total, false);
+        }
+    }
+
+    /**
+     * 创建传输流的编码器 (普通文件、文件夹归档、多文件批次)
+     */
+    private interface EncoderFactory {
+        FileChunkEncoder open(int streamId, int chunkSize, UUID transferId, Codec codec) throws IOException;
+    }
+
+    /**
+     * 发送一个传输流: 协商续传起点，逐块发送，等待接收方确认全部落盘
+     *
+     * @param sourcePath 源路径，与大小、修改时间一起识别同一传输的未完成记录
+     * @param requiredFeature 对端必须支持的特性，0 表示不要求
+     * @param rateKey 按任务限速时使用的 key
+     * @param progress 接收已写出的字节数
+     */
+    private void sendStream(String name, String sourcePath, long fileSize, long lastModified, int requiredFeature,
+            String rateKey, EncoderFactory factory, LongConsumer progress) throws IOException {
+        int streamId = nextStreamId.getAndIncrement();
+        long timeoutMs = com.bluelink.util.AppConfig.getConnectionTimeoutMs();
+        Capabilities caps = awaitHandshake();
+        if (requiredFeature != 0 && !caps.hasFeature(requiredFeature)) {
+            throw new IOException("对方版本不支持该传输: " + name);
+        }
+
+        // 同一文件 (路径、大小、修改时间一致) 有未完成的记录时沿用原传输 ID 以便续传
+        TransferCheckpointDao.Checkpoint cp = TransferCheckpointDao.findOutgoing(sourcePath, fileSize, lastModified);
+        if (cp == null) {
+            cp = new TransferCheckpointDao.Checkpoint();
+            cp.transferId = UUID.randomUUID().toString();
+            cp.isSender = true;
+            cp.fileName = name;
+            cp.filePath = sourcePath;
+            cp.fileSize = fileSize;
+            cp.lastModified = lastModified;
+            TransferCheckpointDao.save(cp);
+        }
+
+        OutgoingTransfer transfer = new OutgoingTransfer(streamId, cp.transferId, fileSize, cp.ackedOffset);
+        outgoingTransfers.put(streamId, transfer);
+        outgoingStreams.put(rateKey, streamId);
+        Codec codec = CodecRegistry.selectForFile(com.bluelink.util.AppConfig.getCompressionCodec(), fileSize, caps.codecs);
+        int chunkSize = chunkSizeTuner.nextChunkSize(caps.maxChunkSize, caps.isSequenced() ? caps.window : 0);
+        System.out.println("[Session] 发送文件: " + name + ", 编解码器: " + codec.getName() + ", 分块: " + chunkSize);
+        growSocketBuffer(true, chunkSize);
+
+        // 逐块读取压缩后交给调度器，队满时在此阻塞，内存占用只与块大小有关
+        try (FileChunkEncoder encoder = factory.open(streamId, chunkSize, UUID.fromString(cp.transferId), codec)) {
+            encoder.setChunkChecksums(caps.hasFeature(Capabilities.FEATURE_CHUNK_CRC32C));
+            // 分块带偏移时才能条带化，接收方按偏移乱序写入
+            List<StripeChannel> channels = caps.hasFeature(Capabilities.FEATURE_CHUNK_CRC32C)
+                    ? stripeChannelsFor(streamId, fileSize) : new ArrayList<>();
+            encoder.setStripes(channels.size() + 1);
+            if (!channels.isEmpty()) {
+                System.out.println("[Session] 条带化发送: " + name + ", " + (channels.size() + 1) + " 条连接");
+                // 各连接的写线程各自报告进度，只报告前进的部分
+                progress = monotonic(progress);
+            }
+            LongConsumer report = progress;
+            long total = encoder.getFileSize();
+            scheduler.submit(encoder.beginFrame(cp.ackedOffset), null);
+
+            // 与接收方协商续传起点
+            long offset = transfer.awaitResume(timeoutMs);
+            if (offset > 0) {
+                System.out.println("[Session] 断点续传: " + name + " 从 " + offset + " 继续");
+            }
+            encoder.seek(offset);
+            // 读取、压缩、写出三级流水线: 预读线程 -> 本线程 (CRC + 压缩) -> 写线程，各级之间为有界队列
+            // 大文件的压缩再分散到线程池的多个核心上
+            int parallelism = total >= PARALLEL_COMPRESSION_THRESHOLD ? compressionThreads() : 1;
+            encoder.startPrefetch(FileChunkEncoder.DEFAULT_PREFETCH_DEPTH, parallelism);
+            progress.accept(offset);
+
+            CompletableFuture<Void> last;
+            List<CompletableFuture<Void>> stripeLast = new ArrayList<>();
+            Map<Long, Integer> retransmits = new HashMap<>();
+            try {
+                Frame frame;
+                last = null;
+                while ((frame = encoder.nextFrame()) != null) {
+                    retransmitChunks(encoder, transfer, retransmits);
+                    long sent = encoder.getPosition();
+                    int stripe = frame.type == Frame.TYPE_FILE_CHUNK ? encoder.stripeOf(sent - 1) : 0;
+                    if (frame.type == Frame.TYPE_FILE_END && !channels.isEmpty()) {
+                        settleStripes(encoder, transfer, retransmits, stripeLast);
+                    }
+                    if (stripe > 0) {
+                        stripeLast.add(channels.get(stripe - 1).writer.submit(frame, () -> report.accept(sent)));
+                        if (stripeLast.size() > channels.size()) {
+                            stripeLast.remove(0); // 每条连接只需等待最后提交的分块
+                        }
+                    } else {
+                        last = scheduler.submit(frame, () -> report.accept(sent));
+                    }
+                    // 确认偏移由读线程更新，检查点在发送线程上持久化，读线程不访问数据库
+                    long checkpoint = transfer.takeCheckpoint(CHECKPOINT_INTERVAL);
+                    if (checkpoint >= 0) {
+                        TransferCheckpointDao.updateOffset(cp.transferId, checkpoint);
+                    }
+                }
+            } catch (IOException e) {
+                abortOutgoing(encoder, cp.transferId);
+                throw e;
+            }
+            await(last);
+
+            // 接收方确认整个文件落盘后才算发送成功，期间处理接收方的重传请求
+            while (!transfer.awaitCompletion(timeoutMs)) {
+                try {
+                    retransmitChunks(encoder, transfer, retransmits);
+                } catch (IOException e) {
+                    abortOutgoing(encoder, cp.transferId);
+                    throw e;
                 }
             }
-            outputStream.flush();
+            TransferCheckpointDao.delete(cp.transferId);
+        } finally {
+            outgoingTransfers.remove(streamId);
+            outgoingStreams.remove(rateKey, streamId);
+            scheduler.removeStream(streamId);
         }
     }
 
+    /**
+     * 条带化发送的结束帧只走主连接，可能先于其他连接上的分块到达接收方:
+     * 先等各连接写出最后的分块，再等接收方确认全部分块 (确认停止前进一段时间也不再等待)，期间处理重传请求。
+     * 之后仍缺的分块由接收方收到结束帧后请求重传。
+     */
+    private void settleStripes(FileChunkEncoder encoder, OutgoingTransfer transfer, Map<Long, Integer> retransmits,
+            List<CompletableFuture<Void>> stripeLast) throws IOException {
+        for (CompletableFuture<Void> future : stripeLast) {
+            await(future);
+        }
+        while (!transfer.awaitSettled(STRIPE_SETTLE_MS)) {
+            retransmitChunks(encoder, transfer, retransmits);
+        }
+    }
+
+    /**
+     * 只把超过之前最大值的进度交给 progress (多个线程报告进度时)
+     */
+    private static LongConsumer monotonic(LongConsumer progress) {
+        AtomicLong highest = new AtomicLong(-1);
+        return value -> {
+            if (highest.accumulateAndGet(value, Math::max) == value) {
+                progress.accept(value);
+            }
+        };
+    }
+
+    /**
+     * 重传接收方报告损坏的分块
+     */
+    private void retransmitChunks(FileChunkEncoder encoder, OutgoingTransfer transfer, Map<Long, Integer> retransmits)
+            throws IOException {
+        transfer.checkFailed();
+        long offset;
+        while ((offset = transfer.pollNak()) >= 0) {
+            int count = retransmits.merge(offset, 1, Integer::sum);
+            if (count > MAX_RETRANSMITS) {
+                throw new IOException("分块重传次数过多: " + offset);
+            }
+            System.out.println("[Session] 重传分块: Stream=" + transfer.streamId + ", Offset=" + offset + ", 第 " + count + " 次");
+            scheduler.submit(encoder.retransmitFrame(offset), null);
+        }
+    }
+
+    /**
+     * 本地失败时通知接收方丢弃该传输流，并删除检查点
+     * 会话已断开时保留检查点，下次连接可以续传
+     */
+    private void abortOutgoing(FileChunkEncoder encoder, String transferId) {
+        if (!running) {
+            return;
+        }
+        try {
+            scheduler.submit(encoder.abortFrame(), null);
+        } catch (IOException ignored) {
+            // 会话已失效，接收方会在断开时自行清理
+        }
+        TransferCheckpointDao.delete(transferId);
+    }
+
+    /**
+     * 调整会话总带宽上限 (字节/秒，0 表示不限)，立即生效
+     * 其中 {@link com.bluelink.util.AppConfig#getChatRateReserve()} 预留给消息，文件传输不能占用
+     */
+    public void setSessionRateLimit(long bytesPerSecond) {
+        scheduler.setSessionRate(bytesPerSecond, com.bluelink.util.AppConfig.getChatRateReserve());
+    }
+
+    /**
+     * 调整每个文件传输的带宽上限 (字节/秒，0 表示不限)，同时应用于正在进行的传输
+     */
+    public void setTransferRateLimit(long bytesPerSecond) {
+        scheduler.setDefaultStreamRate(bytesPerSecond);
+    }
+
+    /**
+     * 调整单个发送任务的带宽上限 (字节/秒，0 表示不限)
+     *
+     * @param taskKey 发送文件时使用的 taskKey
+     * @return 该任务不在发送中时返回 false
+     */
+    public boolean setTransferRateLimit(String taskKey, long bytesPerSecond) {
+        Integer streamId = outgoingStreams.get(taskKey);
+        if (streamId == null) {
+            return false;
+        }
+        scheduler.setStreamRate(streamId, bytesPerSecond);
+        return true;
+    }
+
+    /**
+     * 本会话的分块大小调节器，可查看实测吞吐、往返时间和分块大小的调整记录
+     */
+    public ChunkSizeTuner getChunkSizeTuner() {
+        return chunkSizeTuner;
+    }
+
     // 兼容旧方法
     public void sendFile(File file) throws IOException {
         sendFile(file, null);
     }
 
+    private static int compressionThreads() {
+        int threads = com.bluelink.util.AppConfig.getCompressionThreads();
+        return threads > 0 ? threads : CompressionPool.defaultParallelism();
+    }
+
+    private boolean isSequenced() {
+        Capabilities caps = negotiated;
+        return caps != null && caps.isSequenced();
+    }
+
+    /**
+     * 按序号顺序把数据帧交给流水线
+     * 越过缺口先到达的帧暂存，同时请求重传缺失的序号；重复的帧 (超时重传与原帧都到达) 丢弃并重新确认。
+     */
+    private void submitInOrder(Frame frame) throws IOException {
+        long sequence = frame.sequence;
+        if (sequence < expectedSequence || reorderBuffer.containsKey(sequence)) {
+            long delivered = deliveredSequence;
+            if (delivered >= 0) {
+                sendSequenceAck(delivered);
+            }
+            return;
+        }
+        if (sequence > expectedSequence) {
+            if (sequence - expectedSequence >= localCapabilities.window) {
+                // 发送方不会越过窗口，超出范围的序号视为损坏，等待超时重传
+                System.out.println("[Session] 丢弃超出窗口的帧: " + frame);
+                return;
+            }
+            reorderBuffer.put(sequence, frame);
+            for (long missing = Math.max(nakedSequence, expectedSequence); missing < sequence; missing++) {
+                if (!reorderBuffer.containsKey(missing)) {
+                    System.out.println("[Session] 请求重传序号: " + missing);
+                    scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_SEQ_NAK, 0, localToken, missing), null);
+                }
+            }
+            nakedSequence = Math.max(nakedSequence, sequence);
+            return;
+        }
+        pipeline.submit(frame);
+        expectedSequence++;
+        Frame next;
+        while ((next = reorderBuffer.remove(expectedSequence)) != null) {
+            pipeline.submit(next);
+            expectedSequence++;
+        }
+    }
+
+    private void sendSequenceAck(long sequence) throws IOException {
+        scheduler.submit(ProtocolWriter.createOffsetFrame(Frame.TYPE_SEQ_ACK, 0, localToken, sequence), null);
+    }
+
+    /**
+     * 等待握手完成并返回协商后的能力
+     * 对端在会话开始后的超时内没有发送 HELLO 时视为旧版本，只使用旧格式数据包；
+     * 已收到对端的探测包 (本方已回复 HELLO) 时对端识别帧，多等一个超时
+     */
+    private Capabilities awaitHandshake() throws IOException {
+        try {
+            while (negotiated == null) {
+                long timeout = helloSent ? 2 * HANDSHAKE_TIMEOUT_MS : HANDSHAKE_TIMEOUT_MS;
+                long remaining = startedAt + timeout - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    settleLegacy("未收到对端 HELLO");
+                    break;
+                }
+                handshakeLatch.await(remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待握手被中断");
+        }
+        return negotiated;
+    }
+
+    /**
+     * 对端表明识别帧 (发来探测包或 HELLO) 后发送本方 HELLO，只发送一次
+     * 已按旧格式通信时不再发送: 旧格式数据包的片段之间不能夹入帧
+     */
+    private void sendHello() {
+        synchronized (handshakeLock) {
+            if (helloSent || negotiated != null) {
+                return;
+            }
+            helloSent = true;
+            // HELLO 写在探测包之后 (或之前)，之后的旧格式数据包都要完整发送
+            probeOutstanding = false;
+            try {
+                scheduler.submit(ProtocolWriter.createHelloFrame(localToken, localCapabilities), null);
+            } catch (IOException e) {
+                System.err.println("[Session] 发送 HELLO 失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 确定对端不识别帧，此后只收发旧格式数据包；握手已完成时不改变
+     */
+    private void settleLegacy(String reason) {
+        synchronized (handshakeLock) {
+            if (negotiated != null) {
+                return;
+            }
+            System.out.println("[Session] " + reason + "，按旧版本协议通信");
+            negotiated = localCapabilities.negotiate(Capabilities.legacy());
+        }
+        handshakeLatch.countDown();
+    }
+
+    /**
+     * 协商后的会话能力，握手未完成时返回 null
+     */
+    public Capabilities getNegotiatedCapabilities() {
+        return negotiated;
+    }
+
+    private static void awaitDelivery(CompletableFuture<Void> future, long timeoutMs) throws IOException {
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            throw new IOException("等待对方确认超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("发送被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("发送被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     public void close() {
         running = false;
-        try {
-            // 关闭 Socket 会导致 read 抛出异常从而退出循环
-            WinsockNative.INSTANCE.closesocket(socket);
-        } catch (Exception e) {
-            // ignore
+        scheduler.stop();
+        outgoingDictionary.close();
+        for (OutgoingTransfer transfer : outgoingTransfers.values()) {
+            transfer.cancel();
+        }
+        EventReader reader = eventReader;
+        if (reader != null) {
+            // 事件循环模式没有阻塞在 read 上的线程，取消注册并结束流水线
+            reader.stopLater();
+        }
+        TransportUpgrade pending = upgrade;
+        if (pending != null) {
+            pending.cancel();
+        }
+        ChannelGroup group = channelGroup;
+        if (group != null) {
+            group.cancel();
+        }
+        for (StripeChannel channel : stripeChannels) {
+            channel.stop();
+        }
+        // 关闭连接会导致 read 抛出异常从而退出循环
+        for (Transport t : transports) {
+            t.close();
         }
         if (listener != null) {
             listener.onConnectionStatusChanged(false, null);
         }
     }
-    
+
     public boolean isClosed() {
         return !running;
     }
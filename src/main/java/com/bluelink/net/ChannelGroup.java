@@ -0,0 +1,174 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.ChannelOffer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 多通道: 主连接之外的并行连接
+ * 双方都在 HELLO 中声明 FEATURE_MULTI_CHANNEL 时连接数取双方 transport.channels 的较小值；大于 1 时 Token 较小的一方
+ * 在本机另开一个通道监听 (见 {@link Transport#listenParallel}) 并通过主连接发送 CHANNEL_OFFER；对端连接该通道 count 次，
+ * 每条连接先发送口令和序号，邀请方核对后回复一个字节确认。全部建立后大文件的分块按序号轮流经主连接和各并行连接发送；
+ * 任何一步失败时会话继续只用主连接。
+ */
+class ChannelGroup {
+
+    private static final int ACCEPT_TIMEOUT_MS = 10000;
+    private static final int ACCEPTED = 1;
+
+    private final CompletableFuture<List<Transport>> result = new CompletableFuture<>();
+    private final List<Transport> opened = new CopyOnWriteArrayList<>(); // 已建立的连接，失败或取消时关闭
+    private volatile Transport.ParallelListener listener;
+    private volatile Transport checking; // 邀请方正在核对口令的连接，超时或取消时关闭以结束阻塞的读取
+
+    /**
+     * 按序号排列的并行连接；无法全部建立时以异常完成
+     */
+    CompletableFuture<List<Transport>> result() {
+        return result;
+    }
+
+    /**
+     * 邀请方: 在主连接的本端另开通道监听，返回要发给对端的邀请；随后调用 {@link #acceptPeers}
+     *
+     * @param count 主连接之外的连接数
+     */
+    ChannelOffer listen(Transport base, int count) throws IOException {
+        listener = base.listenParallel();
+        ChannelOffer offer = new ChannelOffer();
+        offer.channel = listener.getChannel();
+        offer.count = count;
+        offer.nonce = new SecureRandom().nextLong();
+        return offer;
+    }
+
+    /**
+     * 邀请方: 等待对端建立全部连接并核对口令和序号，不符的连接直接关闭；超时后放弃。阻塞调用
+     * 读取口令同样受总超时限制: Transport 没有读超时，到期时由定时器关闭正在核对的连接。
+     */
+    void acceptPeers(ChannelOffer offer) {
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MS;
+        Transport[] links = new Transport[offer.count];
+        int accepted = 0;
+        Timer timer = new Timer("Session-Channels-Timeout", true);
+        try {
+            while (accepted < offer.count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("等待对端连接超时");
+                }
+                Transport link = listener.accept((int) remaining);
+                checking = link;
+                if (result.isDone()) {
+                    link.close(); // 已取消，cancel 可能在 checking 赋值前执行
+                }
+                TimerTask expire = new TimerTask() {
+                    @Override
+                    public void run() {
+                        System.out.println("[Channel] 等待口令超时: " + link.describe());
+                        link.close();
+                    }
+                };
+                timer.schedule(expire, Math.max(1, deadline - System.currentTimeMillis()));
+                try {
+                    DataInputStream in = new DataInputStream(link.getInputStream());
+                    long nonce = in.readLong();
+                    int index = in.readUnsignedByte();
+                    if (nonce != offer.nonce || index >= offer.count || links[index] != null) {
+                        System.out.println("[Channel] 拒绝口令或序号不符的连接: " + link.describe());
+                        link.close();
+                        continue;
+                    }
+                    if (!expire.cancel()) {
+                        throw new IOException("等待口令超时"); // 定时器已关闭连接
+                    }
+                    link.getOutputStream().write(ACCEPTED);
+                    links[index] = link;
+                    opened.add(link);
+                    accepted++;
+                } catch (IOException e) {
+                    System.out.println("[Channel] 连接校验失败: " + e.getMessage());
+                    link.close();
+                } finally {
+                    expire.cancel();
+                    checking = null;
+                }
+            }
+            complete(Arrays.asList(links));
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            timer.cancel();
+            closeListener();
+        }
+    }
+
+    /**
+     * 对端: 依次建立邀请中的全部连接。阻塞调用
+     */
+    void connect(Transport base, ChannelOffer offer) {
+        List<Transport> links = new ArrayList<>();
+        try {
+            for (int i = 0; i < offer.count; i++) {
+                Transport link = base.connectParallel(offer.channel);
+                opened.add(link);
+                ByteBuffer greeting = ByteBuffer.allocate(9).putLong(offer.nonce).put((byte) i);
+                link.getOutputStream().write(greeting.array());
+                if (link.getInputStream().read() != ACCEPTED) {
+                    throw new IOException("对端拒绝连接");
+                }
+                links.add(link);
+            }
+            complete(links);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 停止监听并关闭尚未交给会话的连接 (包括正在核对口令的连接)
+     */
+    void cancel() {
+        closeListener();
+        fail(new IOException("并行连接已取消"));
+        Transport current = checking;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void complete(List<Transport> links) {
+        if (!result.complete(links)) {
+            closeOpened(); // 已取消
+        }
+    }
+
+    private void fail(IOException e) {
+        if (result.completeExceptionally(e)) {
+            closeOpened();
+        }
+    }
+
+    private void closeOpened() {
+        for (Transport link : opened) {
+            link.close();
+        }
+    }
+
+    private void closeListener() {
+        Transport.ParallelListener current = listener;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.ProtocolWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分块大小自动调节
+ * 每个会话一个实例，根据实测的有效吞吐 (接收方确认落盘的字节) 和确认往返时间 (SEQ_ACK) 选择下一个文件的分块大小:
+ * 分块要足够大，使窗口内的在途数据能覆盖带宽时延积，链路不空闲；
+ * 又不能太大，写出一个分块的时间不超过 {@link #TARGET_CHUNK_TIME_MS}，消息不会在分块后面等太久。
+ * 分块大小取 2 的幂，只在文件开始时切换 (接收方要求同一文件的分块等长)。
+ */
+public class ChunkSizeTuner {
+
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNK_SIZE = 512 * 1024;
+
+    // 写出一个分块的目标时间上限
+    private static final long TARGET_CHUNK_TIME_MS = 250;
+    // 吞吐采样周期；两次确认间隔超过 IDLE_GAP_MS 视为链路空闲，重新开始采样
+    private static final long SAMPLE_INTERVAL_MS = 500;
+    private static final long IDLE_GAP_MS = 1000;
+    // 至少有这么多个吞吐样本后才调整
+    private static final int MIN_SAMPLES = 2;
+    private static final int HISTORY_SIZE = 32;
+
+    /**
+     * 一次分块大小调整
+     */
+    public static class Adjustment {
+        public final long time;
+        public final int chunkSize;
+        public final long throughput; // 字节/秒
+        public final long rttMs;
+
+        Adjustment(long time, int chunkSize, long throughput, long rttMs) {
+            this.time = time;
+            this.chunkSize = chunkSize;
+            this.throughput = throughput;
+            this.rttMs = rttMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Adjustment{chunk=" + chunkSize + ", throughput=" + throughput + "B/s, rtt=" + rttMs + "ms}";
+        }
+    }
+
+    private int chunkSize = ProtocolWriter.DEFAULT_CHUNK_SIZE;
+    private double throughput; // 平滑后的吞吐，字节/秒
+    private double rttMs = -1; // 平滑后的往返时间，未测得时为 -1
+    private int samples;
+    private long sampleStart = -1;
+    private long sampleBytes;
+    private long lastDelivery;
+    private final ArrayDeque<Adjustment> history = new ArrayDeque<>();
+
+    /**
+     * 接收方确认了 bytes 字节文件数据
+     */
+    public void onDelivered(long bytes) {
+        onDelivered(bytes, System.currentTimeMillis());
+    }
+
+    /**
+     * 接收方在 now 时刻确认了 bytes 字节文件数据 (测试用模拟时钟)
+     */
+    synchronized void onDelivered(long bytes, long now) {
+        if (sampleStart < 0 || now - lastDelivery > IDLE_GAP_MS) {
+            // 第一次确认或空闲之后: 从这里开始计时，本次确认不计入
+            sampleStart = now;
+            sampleBytes = 0;
+            lastDelivery = now;
+            return;
+        }
+        lastDelivery = now;
+        sampleBytes += bytes;
+        long elapsed = now - sampleStart;
+        if (elapsed >= SAMPLE_INTERVAL_MS) {
+            double rate = sampleBytes * 1000.0 / elapsed;
+            throughput = samples == 0 ? rate : throughput * 0.75 + rate * 0.25;
+            samples++;
+            sampleStart = now;
+            sampleBytes = 0;
+        }
+    }
+
+    /**
+     * 一个数据帧从写出到被累计确认的时间 (不含重传的帧)
+     */
+    public synchronized void onRttSample(long sampleMs) {
+        rttMs = rttMs < 0 ? sampleMs : rttMs * 0.875 + sampleMs * 0.125;
+    }
+
+    /**
+     * 为下一个文件选择分块大小
+     *
+     * @param maxChunkSize 对端接受的分块上限
+     * @param window 在途帧数上限，未启用滑动窗口时为 0
+     */
+    public synchronized int nextChunkSize(int maxChunkSize, int window) {
+        int upper = Math.min(MAX_CHUNK_SIZE, maxChunkSize);
+        if (samples < MIN_SAMPLES) {
+            return Math.min(chunkSize, upper);
+        }
+        // 窗口覆盖带宽时延积所需的分块大小
+        double bdpChunk = window > 0 && rttMs > 0 ? throughput * rttMs / 1000.0 / window : 0;
+        if (bdpChunk >= chunkSize * 0.9) {
+            // 在途数据已占满窗口，吞吐受窗口限制: 试探更大的分块
+            bdpChunk = chunkSize * 2.0;
+        }
+        // 分块写出时间上限对应的大小
+        double latencyChunk = throughput * TARGET_CHUNK_TIME_MS / 1000.0;
+        double target = Math.min(Math.max(bdpChunk, MIN_CHUNK_SIZE), latencyChunk);
+        long bounded = (long) Math.max(MIN_CHUNK_SIZE, Math.min(target, upper));
+        int size = Math.min(Integer.highestOneBit((int) bounded), upper);
+        if (size != chunkSize) {
+            Adjustment adjustment = new Adjustment(System.currentTimeMillis(), size, (long) throughput, (long) rttMs);
+            System.out.println("[Tuner] 分块大小 " + chunkSize + " -> " + size + ": " + adjustment);
+            chunkSize = size;
+            history.addLast(adjustment);
+            if (history.size() > HISTORY_SIZE) {
+                history.pollFirst();
+            }
+        }
+        return chunkSize;
+    }
+
+    /**
+     * 当前分块大小
+     */
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 平滑后的有效吞吐 (字节/秒)，尚无样本时为 0
+     */
+    public synchronized long getThroughput() {
+        return (long) throughput;
+    }
+
+    /**
+     * 平滑后的确认往返时间 (毫秒)，未启用序号的对端为 -1
+     */
+    public synchronized long getRttMs() {
+        return (long) rttMs;
+    }
+
+    /**
+     * 最近的分块大小调整记录，按时间先后排列
+     */
+    public synchronized List<Adjustment> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChunkSizeTuner{chunk=" + chunkSize + ", throughput=" + (long) throughput + "B/s, rtt=" + (long) rttMs
+                + "ms}";
+    }
+}
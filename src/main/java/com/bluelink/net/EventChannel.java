@@ -0,0 +1,178 @@
+package com.bluelink.net;
+
+import com.bluelink.net.io.EventLoop;
+import com.bluelink.net.io.ReadinessPoller;
+
+import java.io.IOException;
+
+/**
+ * 事件循环上的一条连接 (io.event.loop 启用时)
+ * 同一 Socket 在事件循环中只能注册一次，会话的读取方和发送调度器共用这一个注册: 可读事件交给读取方，
+ * 可写事件交给调度器，关注的事件由两者各自的需要合并而成。读写都不占用线程。
+ * 首次接入时注册，两者都退出后取消注册 (不关闭连接)。除 {@link #execute} 外，所有方法只在事件循环线程上调用。
+ */
+final class EventChannel implements EventLoop.Handler {
+
+    /**
+     * 接入的一方 (读取方或写出方)，回调在事件循环线程上执行
+     */
+    interface Side {
+        /**
+         * 连接可读 (读取方) 或可写 (写出方)
+         */
+        void onReady() throws IOException;
+
+        /**
+         * 事件处理抛出异常或事件循环因错误退出，注册已取消
+         */
+        void onFailure(IOException e);
+    }
+
+    private final Transport transport;
+    private EventLoop<?> loop; // 由 this 保护；取消注册后为 null，再次接入时重新注册
+    private Side reader;
+    private Side writer;
+    private boolean readInterest;
+    private boolean writeInterest;
+    private int ops = -1; // 已设置的关注事件，-1 表示尚未设置
+
+    EventChannel(Transport transport) {
+        this.transport = transport;
+    }
+
+    Transport transport() {
+        return transport;
+    }
+
+    /**
+     * 在事件循环线程上执行任务，可在任意线程调用；尚未注册时先注册
+     */
+    void execute(Runnable task) {
+        loop().execute(task);
+    }
+
+    /**
+     * 过 delayMs 毫秒后在事件循环线程上执行任务，可在任意线程调用
+     */
+    void schedule(Runnable task, long delayMs) {
+        loop().schedule(task, delayMs);
+    }
+
+    boolean inEventLoop() {
+        EventLoop<?> current;
+        synchronized (this) {
+            current = loop;
+        }
+        return current != null && current.inEventLoop();
+    }
+
+    private synchronized EventLoop<?> loop() {
+        if (loop == null) {
+            ops = -1;
+            loop = transport.register(this);
+        }
+        return loop;
+    }
+
+    /**
+     * 接入读取方并开始关注可读
+     */
+    void attachReader(Side side) {
+        reader = side;
+        readInterest = true;
+        updateInterest();
+    }
+
+    /**
+     * 接入写出方，有待写出的数据时由 {@link #setWriteInterest} 关注可写
+     */
+    void attachWriter(Side side) {
+        writer = side;
+        updateInterest();
+    }
+
+    /**
+     * 暂停 (false) 或恢复 (true) 读取，暂停时数据留在内核接收缓冲区，对端的发送随之放慢
+     */
+    void setReadInterest(boolean interested) {
+        readInterest = interested;
+        updateInterest();
+    }
+
+    /**
+     * 写出方的数据没有一次写完时关注可写，写完后取消关注 (否则每次等待都会立即返回)
+     */
+    void setWriteInterest(boolean interested) {
+        writeInterest = interested;
+        updateInterest();
+    }
+
+    void detachReader() {
+        reader = null;
+        readInterest = false;
+        updateInterest();
+    }
+
+    void detachWriter() {
+        writer = null;
+        writeInterest = false;
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if (reader == null && writer == null) {
+            EventLoop<?> current;
+            synchronized (this) {
+                current = loop;
+                loop = null;
+            }
+            if (current != null) {
+                current.cancel(this);
+            }
+            return;
+        }
+        EventLoop<?> current = loop();
+        int next = (reader != null && readInterest ? ReadinessPoller.OP_READ : 0)
+                | (writer != null && writeInterest ? ReadinessPoller.OP_WRITE : 0);
+        if (next != ops) {
+            ops = next;
+            current.setInterest(this, next);
+        }
+    }
+
+    int writeNonBlocking(byte[] b, int off, int len) throws IOException {
+        return transport.writeNonBlocking(b, off, len);
+    }
+
+    int readNonBlocking(byte[] b, int off, int len) throws IOException {
+        return transport.readNonBlocking(b, off, len);
+    }
+
+    @Override
+    public void onReady(int readyOps) throws IOException {
+        // 先写后读: 读取方可能在回调中取消注册 (例如读到 EOF)
+        if ((readyOps & ReadinessPoller.OP_WRITE) != 0 && writer != null) {
+            writer.onReady();
+        }
+        if ((readyOps & ReadinessPoller.OP_READ) != 0 && reader != null) {
+            reader.onReady();
+        }
+    }
+
+    @Override
+    public void onFailure(IOException e) {
+        Side failedReader = reader;
+        Side failedWriter = writer;
+        reader = null;
+        writer = null;
+        synchronized (this) {
+            loop = null;
+        }
+        if (failedWriter != null) {
+            failedWriter.onFailure(e);
+        }
+        if (failedReader != null) {
+            failedReader.onFailure(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.bluelink.net;
+
+import com.bluelink.net.io.EventLoop;
+import com.bluelink.net.io.NioReadinessPoller;
+import com.bluelink.net.jna.WsaPollReadinessPoller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有连接共享的事件循环 (io.event.loop 启用时)，首次使用时启动；循环因错误退出后，下一次使用时重新创建
+ * RFCOMM Socket 使用 WSAPoll，TCP SocketChannel 使用 java.nio Selector，两者不能在同一次等待中混用。
+ * 接收流水线的解码和持久化 (会阻塞在磁盘、数据库和界面回调上，不能在事件循环上执行) 由共享的工作线程池完成，
+ * 线程数固定，不随连接数增加。
+ */
+final class NetworkEventLoop {
+
+    // 工作线程数的下限，持久化阶段阻塞在磁盘上时其他会话仍有线程可用
+    private static final int MIN_WORKERS = 4;
+
+    private static EventLoop<Integer> loop;
+    private static EventLoop<SelectableChannel> nioLoop;
+    private static ThreadPoolExecutor workers;
+
+    private NetworkEventLoop() {
+    }
+
+    static synchronized EventLoop<Integer> get() {
+        if (loop == null || loop.isTerminated()) {
+            try {
+                loop = new EventLoop<>("Network-EventLoop", new WsaPollReadinessPoller());
+            } catch (IOException e) {
+                throw new UncheckedIOException("无法创建 WSAPoll 唤醒连接", e);
+            }
+            loop.start();
+        }
+        return loop;
+    }
+
+    static synchronized EventLoop<SelectableChannel> nio() {
+        if (nioLoop == null || nioLoop.isTerminated()) {
+            try {
+                nioLoop = new EventLoop<>("Network-EventLoop-NIO", new NioReadinessPoller());
+            } catch (IOException e) {
+                throw new UncheckedIOException("无法创建 Selector", e);
+            }
+            nioLoop.start();
+        }
+        return nioLoop;
+    }
+
+    /**
+     * 接收流水线共享的工作线程池，线程数为 CPU 核数 (至少 MIN_WORKERS)，空闲时线程退出
+     */
+    static synchronized Executor workers() {
+        if (workers == null) {
+            int threads = Math.max(MIN_WORKERS, Runtime.getRuntime().availableProcessors());
+            AtomicInteger index = new AtomicInteger();
+            workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "Network-Worker-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            workers.allowCoreThreadTimeOut(true);
+        }
+        return workers;
+    }
+}
@@ -0,0 +1,213 @@
+package com.bluelink.net;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 发送中的文件传输状态
+ * 由发送线程等待接收方的续传起点 (FILE_RESUME) 和完成确认 (FILE_ACK)，读线程负责更新。
+ * 接收方报告损坏的分块 (FILE_NAK) 也记录在这里，由发送线程取出后重传。
+ */
+class OutgoingTransfer {
+
+    final int streamId;
+    final String transferId;
+    final long fileSize;
+
+    private final Object lock = new Object();
+    private long resumeOffset = -1;
+    private long ackedOffset;
+    private long persistedOffset;
+    private boolean cancelled;
+    private String failure; // 接收方已放弃该传输流的原因
+    private final ArrayDeque<Long> naks = new ArrayDeque<>();
+
+    OutgoingTransfer(int streamId, String transferId, long fileSize, long persistedOffset) {
+        this.streamId = streamId;
+        this.transferId = transferId;
+        this.fileSize = fileSize;
+        this.persistedOffset = persistedOffset;
+    }
+
+    void onResume(long offset) {
+        synchronized (lock) {
+            resumeOffset = offset;
+            ackedOffset = offset;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return 确认偏移前进的字节数
+     */
+    long onAck(long offset) {
+        synchronized (lock) {
+            if (offset <= ackedOffset) {
+                return 0;
+            }
+            long advanced = offset - ackedOffset;
+            ackedOffset = offset;
+            lock.notifyAll();
+            return advanced;
+        }
+    }
+
+    void onNak(long offset) {
+        synchronized (lock) {
+            if (offset >= ackedOffset && !naks.contains(offset)) {
+                naks.add(offset);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 取出一个待重传的分块偏移，没有时返回 -1
+     */
+    long pollNak() {
+        synchronized (lock) {
+            Long offset = naks.poll();
+            return offset != null ? offset : -1;
+        }
+    }
+
+    /**
+     * 接收方无法继续接收 (例如不带 CRC32C 的分块损坏)，发送线程随后失败
+     */
+    void onFailed(String reason) {
+        synchronized (lock) {
+            failure = reason;
+            lock.notifyAll();
+        }
+    }
+
+    void checkFailed() throws IOException {
+        synchronized (lock) {
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
+    /**
+     * 连接断开时唤醒所有等待者
+     */
+    void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            lock.notifyAll();
+        }
+    }
+
+    long getAckedOffset() {
+        synchronized (lock) {
+            return ackedOffset;
+        }
+    }
+
+    /**
+     * 若确认偏移比上次持久化时前进了至少 interval 字节，返回需要持久化的偏移，否则返回 -1
+     */
+    long takeCheckpoint(long interval) {
+        synchronized (lock) {
+            if (ackedOffset - persistedOffset >= interval || (ackedOffset == fileSize && persistedOffset != fileSize)) {
+                persistedOffset = ackedOffset;
+                return ackedOffset;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 等待接收方回复续传起点
+     */
+    long awaitResume(long timeoutMs) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (resumeOffset < 0) {
+                waitUntil(deadline, "等待接收方响应超时");
+            }
+            return resumeOffset;
+        }
+    }
+
+    /**
+     * 等待接收方确认整个文件，只要确认偏移持续前进就不会超时
+     *
+     * @return true 表示已全部确认；false 表示有待重传的分块，调用方重传后再次等待
+     */
+    boolean awaitCompletion(long idleTimeoutMs) throws IOException {
+        synchronized (lock) {
+            long lastAcked = ackedOffset;
+            long deadline = System.currentTimeMillis() + idleTimeoutMs;
+            while (ackedOffset < fileSize) {
+                if (!naks.isEmpty()) {
+                    return false;
+                }
+                waitUntil(deadline, "等待接收方确认超时");
+                if (ackedOffset != lastAcked) {
+                    lastAcked = ackedOffset;
+                    deadline = System.currentTimeMillis() + idleTimeoutMs;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 等待接收方确认整个文件，确认停止前进 idleMs 时也返回 (不视为失败)
+     * 条带化发送时分块分散在多条连接上，结束帧发送前用它等待其他连接上的分块到达
+     *
+     * @return false 表示有待重传的分块，调用方重传后再次等待
+     */
+    boolean awaitSettled(long idleMs) throws IOException {
+        synchronized (lock) {
+            long lastAcked = ackedOffset;
+            long deadline = System.currentTimeMillis() + idleMs;
+            while (ackedOffset < fileSize) {
+                if (!naks.isEmpty()) {
+                    return false;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return true;
+                }
+                waitFor(remaining);
+                if (ackedOffset != lastAcked) {
+                    lastAcked = ackedOffset;
+                    deadline = System.currentTimeMillis() + idleMs;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void waitUntil(long deadline, String timeoutMessage) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 && !cancelled && failure == null) {
+            throw new IOException(timeoutMessage);
+        }
+        waitFor(Math.max(1, remaining));
+    }
+
+    private void waitFor(long remaining) throws IOException {
+        if (cancelled) {
+            throw new IOException("会话已关闭");
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        try {
+            lock.wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("发送被中断");
+        }
+        if (cancelled) {
+            throw new IOException("会话已关闭");
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+}
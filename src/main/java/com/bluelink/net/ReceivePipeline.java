@@ -0,0 +1,335 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.FileChunkDecoder;
+import com.bluelink.net.protocol.Frame;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 接收流水线
+ * 读线程只负责从 Socket 读取帧，解压和落盘分别在解码线程和持久化线程上执行，三者之间是有界队列。
+ * 落盘、数据库和界面回调变慢时不会立即阻塞读线程，Socket 接收缓冲区得以持续排空；
+ * 队列满时读线程才阻塞，形成背压。每个阶段都是单线程，帧的处理顺序与到达顺序一致；
+ * 解码阶段可以把分块解压分派到线程池并行执行，持久化阶段仍按顺序取结果。
+ * 非阻塞模式 (事件循环读取) 下提交从不阻塞: 队列满时帧暂存在积压队列中，读取方据此暂停读取该连接，
+ * 解码阶段排空积压后回调通知恢复。此时两个阶段不各占一个线程，而是作为任务在所有会话共享的线程池上执行
+ * (见 NetworkEventLoop#workers)；同一阶段的任务同一时刻只有一个在执行，每次最多处理 STAGE_BATCH 帧后让出线程，
+ * 帧的处理顺序不变，线程数不随会话数增加。
+ */
+class ReceivePipeline {
+
+    /**
+     * 在流水线中传递的帧及其解码结果
+     */
+    static class Item {
+        final Frame frame;
+        FileChunkDecoder.Chunk chunk; // FILE_CHUNK 解压结果
+        CompletableFuture<FileChunkDecoder.Chunk> pendingChunk; // 并行解压中的 FILE_CHUNK
+        String text; // MSG 解码结果
+        boolean dropped; // 负载无法解码，已丢弃并报告发送方
+        boolean afterDrop; // 读线程在该帧之前丢弃了可能是消息的数据
+
+        Item(Frame frame) {
+            this.frame = frame;
+        }
+
+        /**
+         * 分块解压结果，并行解压时等待完成
+         */
+        FileChunkDecoder.Chunk awaitChunk() throws IOException {
+            if (pendingChunk != null) {
+                try {
+                    chunk = pendingChunk.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("分块解压失败: " + e.getCause(), e.getCause());
+                }
+                pendingChunk = null;
+            }
+            return chunk;
+        }
+
+        /**
+         * 持久化阶段处理完该帧后归还池化的缓冲区 (分块帧负载和解压结果)
+         */
+        void release() {
+            if (pendingChunk != null) {
+                // 并行解压可能仍在读取帧负载，结束后再归还
+                try {
+                    awaitChunk();
+                } catch (IOException e) {
+                    // 解压失败已由持久化阶段处理
+                }
+            }
+            if (chunk != null) {
+                chunk.release();
+            }
+            frame.release();
+        }
+    }
+
+    interface Stage {
+        void process(Item item) throws IOException;
+    }
+
+    private static final Item END = new Item(null);
+
+    // 非阻塞模式下一个阶段任务连续处理的最大帧数，之后让出共享线程给其他会话
+    private static final int STAGE_BATCH = 32;
+
+    private final BlockingQueue<Item> decodeQueue;
+    private final BlockingQueue<Item> persistQueue;
+    private final Stage decodeStage;
+    private final Stage persistStage;
+    private final Consumer<IOException> onError;
+    private final Runnable onFinished;
+    private final ArrayDeque<Item> backlog = new ArrayDeque<>(); // 非阻塞模式下解码队列满时暂存的帧
+    private Runnable onSpace; // 非阻塞模式: 积压排空后在解码阶段调用
+    private StageTask decodeTask; // 非阻塞模式下在共享线程池上执行的两个阶段
+    private StageTask persistTask;
+    private volatile boolean failed;
+    private Thread decodeThread;
+    private Thread persistThread;
+
+    /**
+     * @param capacity 每个队列容纳的帧数
+     * @param decodeStage 解码阶段
+     * @param persistStage 持久化阶段
+     * @param onError 任一阶段出错时调用一次，之后的帧被丢弃
+     * @param onFinished 所有帧处理完毕后在持久化线程上调用
+     */
+    ReceivePipeline(int capacity, Stage decodeStage, Stage persistStage, Consumer<IOException> onError,
+            Runnable onFinished) {
+        this.decodeQueue = new ArrayBlockingQueue<>(capacity);
+        this.persistQueue = new ArrayBlockingQueue<>(capacity);
+        this.decodeStage = decodeStage;
+        this.persistStage = persistStage;
+        this.onError = onError;
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * 切换为非阻塞模式，须在 start 之前调用
+     *
+     * @param workers 执行解码和持久化阶段的共享线程池
+     * @param onSpace 积压的帧全部进入解码队列后调用，读取方可恢复读取
+     */
+    void setNonBlocking(Executor workers, Runnable onSpace) {
+        this.onSpace = onSpace;
+        this.persistTask = new StageTask(workers, persistQueue, persistStage, null);
+        this.decodeTask = new StageTask(workers, decodeQueue, decodeStage, persistTask);
+    }
+
+    void start() {
+        if (onSpace != null) {
+            return; // 有帧提交时才在共享线程池上执行
+        }
+        decodeThread = new Thread(() -> runStage(decodeQueue, decodeStage, persistQueue), "Session-Decoder");
+        persistThread = new Thread(() -> {
+            runStage(persistQueue, persistStage, null);
+            onFinished.run();
+        }, "Session-Persist");
+        decodeThread.start();
+        persistThread.start();
+    }
+
+    /**
+     * 提交帧，队列满时阻塞 (非阻塞模式下暂存)
+     */
+    void submit(Frame frame) throws IOException {
+        submit(frame, false);
+    }
+
+    /**
+     * 提交帧，队列满时阻塞 (非阻塞模式下暂存)
+     *
+     * @param afterDrop 该帧之前有数据被读线程丢弃
+     */
+    void submit(Frame frame, boolean afterDrop) throws IOException {
+        Item item = new Item(frame);
+        item.afterDrop = afterDrop;
+        enqueue(item);
+    }
+
+    /**
+     * 非阻塞模式下是否有帧暂存在积压队列中，此时应暂停读取
+     */
+    boolean isBacklogged() {
+        synchronized (backlog) {
+            return !backlog.isEmpty();
+        }
+    }
+
+    /**
+     * 输入结束: 已提交的帧处理完后流水线退出
+     */
+    void finish() {
+        try {
+            enqueue(END);
+        } catch (IOException e) {
+            // 读线程被中断: 直接停止各阶段 (只有阻塞模式会中断)
+            decodeThread.interrupt();
+            persistThread.interrupt();
+        }
+    }
+
+    /**
+     * 持久化阶段是否没有排队的帧
+     */
+    boolean isPersistIdle() {
+        return persistQueue.isEmpty();
+    }
+
+    private void enqueue(Item item) throws IOException {
+        if (onSpace == null) {
+            put(decodeQueue, item);
+            return;
+        }
+        synchronized (backlog) {
+            if (!backlog.isEmpty() || !decodeQueue.offer(item)) {
+                backlog.addLast(item);
+            }
+        }
+        decodeTask.schedule();
+    }
+
+    /**
+     * 解码阶段取走一帧后把积压的帧移入解码队列，全部移入后通知读取方
+     */
+    private void drainBacklog() {
+        synchronized (backlog) {
+            if (backlog.isEmpty()) {
+                return;
+            }
+            while (!backlog.isEmpty() && decodeQueue.offer(backlog.peekFirst())) {
+                backlog.pollFirst();
+            }
+            if (!backlog.isEmpty()) {
+                return;
+            }
+        }
+        onSpace.run();
+    }
+
+    private static void put(BlockingQueue<Item> queue, Item item) throws IOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("接收流水线被中断");
+        }
+    }
+
+    private void runStage(BlockingQueue<Item> input, Stage stage, BlockingQueue<Item> output) {
+        try {
+            while (true) {
+                Item item = input.take();
+                if (input == decodeQueue) {
+                    drainBacklog();
+                }
+                process(stage, item);
+                // 出错后继续排空队列，避免读线程阻塞在满队列上
+                if (output != null && (item == END || !failed)) {
+                    output.put(item);
+                }
+                if (item == END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(Stage stage, Item item) {
+        if (item != END && !failed) {
+            try {
+                stage.process(item);
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e.toString(), e));
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (!failed) {
+            failed = true;
+            onError.accept(e);
+        }
+    }
+
+    /**
+     * 非阻塞模式下的一个阶段: 有帧时作为任务提交到共享线程池，同一时刻最多一个任务在执行
+     * 下一阶段的队列满时停止取帧 (不阻塞共享线程)，下一阶段取走帧后重新安排。
+     */
+    private final class StageTask implements Runnable {
+        private final Executor workers;
+        private final BlockingQueue<Item> input;
+        private final Stage stage;
+        private final StageTask next; // 持久化阶段为 null
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private StageTask previous;
+
+        StageTask(Executor workers, BlockingQueue<Item> input, Stage stage, StageTask next) {
+            this.workers = workers;
+            this.input = input;
+            this.stage = stage;
+            this.next = next;
+            if (next != null) {
+                next.previous = this;
+            }
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        private boolean runnable() {
+            return !input.isEmpty() && (next == null || next.input.remainingCapacity() > 0);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < STAGE_BATCH && runnable(); i++) {
+                Item item = input.poll();
+                if (next == null && previous != null) {
+                    previous.schedule(); // 持久化队列腾出了空位
+                }
+                if (input == decodeQueue) {
+                    drainBacklog();
+                }
+                process(stage, item);
+                if (next != null && (item == END || !failed)) {
+                    next.input.offer(item); // 只有本阶段向下一阶段提交，取帧前已确认有空位
+                    next.schedule();
+                }
+                if (item == END) {
+                    if (next == null) {
+                        onFinished.run();
+                    }
+                    return; // 不再执行，scheduled 保持置位
+                }
+            }
+            scheduled.set(false);
+            // 清除标志之前提交的帧或腾出的空位由这里补上
+            if (runnable()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.bluelink.net;
+
+import com.bluelink.net.io.EventLoop;
+import com.bluelink.net.jna.JnaSocketInputStream;
+import com.bluelink.net.jna.JnaSocketOutputStream;
+import com.bluelink.net.jna.SocketOptions;
+import com.bluelink.net.jna.WinsockNative;
+import com.bluelink.net.jna.WinsockNative.SOCKADDR_BTH;
+import com.bluelink.net.protocol.Capabilities;
+import com.sun.jna.Native;
+import com.sun.jna.ptr.IntByReference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 蓝牙 RFCOMM 连接 (Winsock Socket 句柄)
+ * 并行连接在系统分配的另一个 RFCOMM 通道上监听 (不注册 SDP 服务，通道号经主连接告知对端)，
+ * 只接受蓝牙地址与主连接对端相同的连接。
+ */
+public class RfcommTransport implements Transport {
+
+    private final int socket;
+    private final JnaSocketInputStream inputStream;
+    private final JnaSocketOutputStream outputStream;
+    private volatile boolean closed;
+
+    public RfcommTransport(int socket) {
+        this.socket = socket;
+        this.inputStream = new JnaSocketInputStream(socket);
+        this.outputStream = new JnaSocketOutputStream(socket);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public EventLoop<?> register(EventLoop.Handler handler) {
+        EventLoop<Integer> loop = NetworkEventLoop.get();
+        loop.register(socket, 0, handler);
+        return loop;
+    }
+
+    @Override
+    public int readNonBlocking(byte[] b, int off, int len) throws IOException {
+        return inputStream.readNonBlocking(b, off, len);
+    }
+
+    @Override
+    public int writeNonBlocking(byte[] b, int off, int len) throws IOException {
+        return outputStream.writeNonBlocking(b, off, len);
+    }
+
+    @Override
+    public int setSendBufferSize(int bytes) throws IOException {
+        SocketOptions.setInt(socket, WinsockNative.SO_SNDBUF, bytes);
+        return SocketOptions.getInt(socket, WinsockNative.SO_SNDBUF);
+    }
+
+    @Override
+    public int setReceiveBufferSize(int bytes) throws IOException {
+        SocketOptions.setInt(socket, WinsockNative.SO_RCVBUF, bytes);
+        return SocketOptions.getInt(socket, WinsockNative.SO_RCVBUF);
+    }
+
+    @Override
+    public ParallelListener listenParallel() throws IOException {
+        return new Listener(getPeerAddress());
+    }
+
+    @Override
+    public Transport connectParallel(int channel) throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        SOCKADDR_BTH addr = new SOCKADDR_BTH();
+        addr.btAddr = getPeerAddress();
+        addr.port = channel;
+        addr.write();
+        int handle = lib.socket(WinsockNative.AF_BTH, WinsockNative.SOCK_STREAM, WinsockNative.BTHPROTO_RFCOMM);
+        if (handle == WinsockNative.INVALID_SOCKET) {
+            throw new IOException("创建 Socket 失败: " + lib.WSAGetLastError());
+        }
+        Native.setLastError(0);
+        if (lib.connect(handle, addr, addr.size()) == WinsockNative.SOCKET_ERROR) {
+            int error = lib.WSAGetLastError();
+            lib.closesocket(handle);
+            throw new IOException("连接通道 " + channel + " 失败: " + error);
+        }
+        return new RfcommTransport(handle);
+    }
+
+    /**
+     * 对端设备的蓝牙地址
+     */
+    long getPeerAddress() throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        SOCKADDR_BTH addr = new SOCKADDR_BTH();
+        IntByReference len = new IntByReference(addr.size());
+        if (lib.getpeername(socket, addr, len) == WinsockNative.SOCKET_ERROR) {
+            throw new IOException("getpeername 失败: " + lib.WSAGetLastError());
+        }
+        addr.read();
+        return addr.btAddr;
+    }
+
+    @Override
+    public String describe() {
+        return "RFCOMM#" + socket;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            WinsockNative.INSTANCE.closesocket(socket);
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 并行连接的监听 Socket
+     */
+    private static final class Listener implements ParallelListener {
+        private final long peer;
+        private final int listenSocket;
+        private final int channel;
+        private volatile boolean closed;
+
+        Listener(long peer) throws IOException {
+            this.peer = peer;
+            WinsockNative lib = WinsockNative.INSTANCE;
+            listenSocket = lib.socket(WinsockNative.AF_BTH, WinsockNative.SOCK_STREAM, WinsockNative.BTHPROTO_RFCOMM);
+            if (listenSocket == WinsockNative.INVALID_SOCKET) {
+                throw new IOException("创建监听 Socket 失败: " + lib.WSAGetLastError());
+            }
+            try {
+                SOCKADDR_BTH addr = new SOCKADDR_BTH();
+                addr.port = WinsockNative.BT_PORT_ANY;
+                addr.write();
+                if (lib.bind(listenSocket, addr, addr.size()) == WinsockNative.SOCKET_ERROR) {
+                    throw new IOException("绑定通道失败: " + lib.WSAGetLastError());
+                }
+                if (lib.listen(listenSocket, Capabilities.MAX_CHANNELS) == WinsockNative.SOCKET_ERROR) {
+                    throw new IOException("监听失败: " + lib.WSAGetLastError());
+                }
+                SOCKADDR_BTH bound = new SOCKADDR_BTH();
+                IntByReference len = new IntByReference(bound.size());
+                if (lib.getsockname(listenSocket, bound, len) == WinsockNative.SOCKET_ERROR) {
+                    throw new IOException("获取通道失败: " + lib.WSAGetLastError());
+                }
+                bound.read();
+                channel = bound.port;
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getChannel() {
+            return channel;
+        }
+
+        @Override
+        public Transport accept(int timeoutMs) throws IOException {
+            WinsockNative lib = WinsockNative.INSTANCE;
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (closed) {
+                    throw new IOException("监听已关闭");
+                }
+                if (remaining <= 0 || !SocketOptions.awaitReadable(listenSocket, (int) remaining)) {
+                    throw new IOException("等待对端连接超时");
+                }
+                SOCKADDR_BTH from = new SOCKADDR_BTH();
+                IntByReference len = new IntByReference(from.size());
+                int handle = lib.accept(listenSocket, from, len);
+                if (handle == WinsockNative.INVALID_SOCKET) {
+                    throw new IOException("accept 失败: " + lib.WSAGetLastError());
+                }
+                from.read();
+                if (from.btAddr != peer) {
+                    System.out.println("[Channel] 拒绝来自其他设备的连接: " + from.btAddr);
+                    lib.closesocket(handle);
+                    continue;
+                }
+                return new RfcommTransport(handle);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            WinsockNative.INSTANCE.closesocket(listenSocket);
+        }
+    }
+}
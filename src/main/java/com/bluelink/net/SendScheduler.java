@@ -0,0 +1,789 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.Frame;
+import com.bluelink.net.protocol.ProtocolWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * 发送调度器
+ * 由单独的写线程独占 Socket 输出流，按帧交错发送。事件循环模式下 (见 {@link #setEventChannel}) 没有写线程:
+ * 帧写入内存中的输出缓冲，在事件循环线程上非阻塞地写出，发送缓冲区满时等待连接的可写事件再继续。
+ * 消息帧进入优先队列，总是排在文件分块之前；文件分块队列有容量上限，队满时生产者阻塞 (背压)。
+ * 启用滑动窗口后，数据帧 (非控制帧) 在写出时按顺序编号，已写出未确认的帧不超过窗口大小；
+ * 窗口满时只写控制帧，直到对端的累计确认 (SEQ_ACK) 腾出空位。对端报告序号缺口 (SEQ_NAK)
+ * 或长时间没有确认时，从在途帧中重传。
+ * 限速: 所有消息和文件帧共用会话令牌桶；文件帧另受文件令牌桶 (会话上限减去为消息预留的带宽) 和
+ * 所属传输流的令牌桶限制。某个传输流被限速时跳过它的帧，其他传输流和消息照常发送；消息本身从不等待令牌。
+ * 重传的帧与首次发送时一样扣除令牌，重传不会越过限速。
+ * 池化的帧负载 (见 {@link Frame#release()}) 在帧写出后归还；在途帧可能重传，要等到确认之后、且不在写出过程中才归还。
+ * 调度器停止或失败时，队列中和在途的帧同样归还负载。
+ */
+class SendScheduler {
+
+    // 每个传输流在文件分块队列中最多排队的帧数
+    private static final int BULK_QUEUE_CAPACITY = 4;
+
+    // 有在途帧但确认停止前进超过该时间时，重传最早的在途帧
+    static final long RETRANSMIT_TIMEOUT_MS = 3000;
+
+    // 事件循环模式下输出缓冲积累到该大小时先写出，再取下一帧
+    private static final int EVENT_OUTPUT_BATCH = 64 * 1024;
+
+    private static class PendingFrame {
+        final Frame frame;
+        final Runnable onSent;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> delivered = new CompletableFuture<>();
+        long writtenAt; // 编号写出的时间
+        boolean retransmitted;
+        boolean resending; // 本次取出是重传
+        boolean writing; // 写线程正在锁外写出该帧
+        boolean acked;
+
+        PendingFrame(Frame frame, Runnable onSent) {
+            this.frame = frame;
+            this.onSent = onSent;
+        }
+    }
+
+    private DataOutputStream out; // 仅由写线程 (事件循环模式下为事件循环线程) 访问，切换连接时替换
+    private final String threadName;
+    private final ArrayDeque<PendingFrame> urgentQueue = new ArrayDeque<>();
+    private final ArrayDeque<PendingFrame> bulkQueue = new ArrayDeque<>();
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+    private volatile int frameVersion = ProtocolWriter.FRAME_VERSION_1; // 确认对端支持前使用版本 1
+    private IOException failure;
+    private Thread writeThread;
+
+    // 滑动窗口，window 为 0 时不编号 (对端不支持或握手未完成)
+    private int window;
+    private long nextSequence;
+    private long ackedSequence = -1; // 对端累计确认的最大序号
+    private final ArrayDeque<PendingFrame> inflight = new ArrayDeque<>(); // 已写出未确认的帧，按序号排列
+    private final ArrayDeque<PendingFrame> retransmitQueue = new ArrayDeque<>();
+    private long lastAckProgress;
+    private LongConsumer rttListener;
+
+    // 限速 (字节/秒，0 表示不限)
+    private final TokenBucket sessionBucket = new TokenBucket(0);
+    private final TokenBucket bulkBucket = new TokenBucket(0);
+    private final Map<Integer, TokenBucket> streamBuckets = new HashMap<>();
+    private long defaultStreamRate;
+    private long throttleDelay; // 因限速没有取到帧 (新帧或重传) 时，最早可以发送的等待时间
+
+    // 事件循环模式 (channel 不为 null)，除 started 和 retryDue 外仅由事件循环线程访问
+    private volatile EventChannel channel;
+    private EventChannel switchTarget; // 切换帧已写入输出缓冲，缓冲写完后改用该连接
+    private final OutputBuffer pendingOutput = new OutputBuffer();
+    private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+    private volatile boolean started;
+    private long retryDue; // 已安排的定时写出时间，0 表示没有；由 lock 保护
+    private final EventChannel.Side writerSide = new EventChannel.Side() {
+        @Override
+        public void onReady() {
+            pump();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            fail(e);
+            failPending(new IOException("会话已关闭"));
+        }
+    };
+
+    SendScheduler(OutputStream outputStream) {
+        this(outputStream, "Session-Writer");
+    }
+
+    /**
+     * @param threadName 写线程名称 (会话的并行连接各有一个写线程)
+     */
+    SendScheduler(OutputStream outputStream, String threadName) {
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, 8192));
+        this.threadName = threadName;
+    }
+
+    /**
+     * 切换连接: switchFrame 在当前输出流上写出并 flush 后，之后的帧 (包括在途帧的重传) 都写入 newOutput
+     * switchFrame 是控制帧，排在已提交的消息之后、文件分块之前，对端在读到它的位置切换读取的连接。
+     *
+     * @return switchFrame 写出 (切换完成) 时完成的 Future
+     */
+    CompletableFuture<Void> switchOutput(Frame switchFrame, OutputStream newOutput) throws IOException {
+        return submit(switchFrame, () -> out = new DataOutputStream(new BufferedOutputStream(newOutput, 8192)));
+    }
+
+    /**
+     * 事件循环模式下切换连接，之后的帧都写入 next，见 {@link #switchOutput(Frame, OutputStream)}
+     */
+    CompletableFuture<Void> switchOutput(Frame switchFrame, EventChannel next) throws IOException {
+        return submit(switchFrame, () -> switchTarget = next);
+    }
+
+    /**
+     * 切换为事件循环模式: 不创建写线程，由连接的可写事件驱动写出，须在 start 之前调用
+     */
+    void setEventChannel(EventChannel channel) {
+        this.channel = channel;
+        this.out = new DataOutputStream(pendingOutput);
+    }
+
+    /**
+     * 切换写出的帧格式版本，对之后写出的帧生效
+     */
+    void setFrameVersion(int version) {
+        this.frameVersion = version;
+    }
+
+    int getFrameVersion() {
+        return frameVersion;
+    }
+
+    /**
+     * 启用滑动窗口，之后写出的数据帧从序号 0 开始编号
+     *
+     * @param window 最多在途 (已写出未确认) 的数据帧数
+     */
+    void enableWindow(int window) {
+        synchronized (lock) {
+            this.window = window;
+            lastAckProgress = System.currentTimeMillis();
+            wakeWriter();
+        }
+    }
+
+    /**
+     * 设置确认往返时间的接收者，在持有调度器锁时调用
+     */
+    void setRttListener(LongConsumer listener) {
+        synchronized (lock) {
+            this.rttListener = listener;
+        }
+    }
+
+    /**
+     * 对端累计确认: 序号不大于 sequence 的帧都已处理
+     */
+    void onSequenceAck(long sequence) {
+        synchronized (lock) {
+            sequence = Math.min(sequence, nextSequence - 1); // 不能确认尚未写出的帧
+            if (sequence <= ackedSequence) {
+                return;
+            }
+            ackedSequence = sequence;
+            lastAckProgress = System.currentTimeMillis();
+            PendingFrame acked = null;
+            while (!inflight.isEmpty() && inflight.peekFirst().frame.sequence <= sequence) {
+                acked = inflight.pollFirst();
+                retransmitQueue.remove(acked);
+                acked.acked = true;
+                if (!acked.writing) {
+                    acked.frame.release();
+                }
+                acked.delivered.complete(null);
+            }
+            // 重传过的帧无法区分确认对应哪一次写出，不作为样本
+            if (acked != null && !acked.retransmitted && rttListener != null) {
+                rttListener.accept(lastAckProgress - acked.writtenAt);
+            }
+            wakeWriter();
+        }
+    }
+
+    /**
+     * 对端报告序号缺口: 重传该序号的帧
+     */
+    void onSequenceNak(long sequence) {
+        synchronized (lock) {
+            for (PendingFrame pending : inflight) {
+                if (pending.frame.sequence == sequence) {
+                    if (!retransmitQueue.contains(pending)) {
+                        pending.retransmitted = true;
+                        retransmitQueue.addLast(pending);
+                        wakeWriter();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 设置会话总带宽上限
+     *
+     * @param bytesPerSecond 消息和文件帧合计的上限，0 表示不限
+     * @param chatReserve 为消息预留的带宽，文件帧最多使用 bytesPerSecond - chatReserve；不超过上限的一半
+     */
+    void setSessionRate(long bytesPerSecond, long chatReserve) {
+        synchronized (lock) {
+            sessionBucket.setRate(bytesPerSecond);
+            long reserve = Math.max(0, Math.min(chatReserve, bytesPerSecond / 2));
+            bulkBucket.setRate(bytesPerSecond > 0 ? bytesPerSecond - reserve : 0);
+            wakeWriter();
+        }
+    }
+
+    /**
+     * 设置每个传输流的默认带宽上限，同时应用于正在发送的传输流
+     */
+    void setDefaultStreamRate(long bytesPerSecond) {
+        synchronized (lock) {
+            defaultStreamRate = bytesPerSecond;
+            for (TokenBucket bucket : streamBuckets.values()) {
+                bucket.setRate(bytesPerSecond);
+            }
+            wakeWriter();
+        }
+    }
+
+    /**
+     * 设置单个传输流的带宽上限，0 表示不限
+     */
+    void setStreamRate(int streamId, long bytesPerSecond) {
+        synchronized (lock) {
+            streamBucket(streamId).setRate(bytesPerSecond);
+            wakeWriter();
+        }
+    }
+
+    /**
+     * 传输流结束后释放它的令牌桶
+     */
+    void removeStream(int streamId) {
+        synchronized (lock) {
+            streamBuckets.remove(streamId);
+        }
+    }
+
+    /**
+     * 会话或该传输流是否设置了带宽上限
+     */
+    boolean isRateLimited(int streamId) {
+        synchronized (lock) {
+            return sessionBucket.getRate() > 0 || streamBucket(streamId).getRate() > 0;
+        }
+    }
+
+    private TokenBucket streamBucket(int streamId) {
+        return streamBuckets.computeIfAbsent(streamId, id -> new TokenBucket(defaultStreamRate));
+    }
+
+    void start() {
+        EventChannel current = channel;
+        if (current != null) {
+            started = true;
+            pumpScheduled.set(true);
+            current.execute(() -> {
+                current.attachWriter(writerSide);
+                pump();
+            });
+            return;
+        }
+        writeThread = new Thread(this::writeLoop, threadName);
+        writeThread.setDaemon(true);
+        writeThread.start();
+    }
+
+    /**
+     * 提交帧。消息帧立即入队；文件帧在队满时阻塞直到有空位。
+     *
+     * @param frame 待发送帧
+     * @param onSent 帧写出后在写线程上执行的回调，可为 null
+     * @return 帧写出 (或失败) 时完成的 Future
+     */
+    CompletableFuture<Void> submit(Frame frame, Runnable onSent) throws IOException {
+        return enqueue(new PendingFrame(frame, onSent)).future;
+    }
+
+    /**
+     * 提交帧，返回对端确认处理该帧时完成的 Future
+     * 未启用滑动窗口时 (旧版本对端不回复确认) 写出即完成。
+     */
+    CompletableFuture<Void> submitForDelivery(Frame frame) throws IOException {
+        return enqueue(new PendingFrame(frame, null)).delivered;
+    }
+
+    private PendingFrame enqueue(PendingFrame pending) throws IOException {
+        synchronized (lock) {
+            checkState();
+            if (pending.frame.isUrgent()) {
+                urgentQueue.addLast(pending);
+            } else {
+                while (queuedFrames(pending.frame.streamId) >= BULK_QUEUE_CAPACITY) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("发送被中断");
+                    }
+                    checkState();
+                }
+                bulkQueue.addLast(pending);
+            }
+            wakeWriter();
+        }
+        return pending;
+    }
+
+    private int queuedFrames(int streamId) {
+        int count = 0;
+        for (PendingFrame p : bulkQueue) {
+            if (p.frame.streamId == streamId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void checkState() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!running) {
+            throw new IOException("会话已关闭");
+        }
+    }
+
+    private void writeLoop() {
+        boolean unflushed = false;
+        while (true) {
+            PendingFrame pending = null;
+            boolean more;
+            synchronized (lock) {
+                while (running) {
+                    pending = takeFrame();
+                    if (pending != null || unflushed) {
+                        // 队列中剩下的帧被限速或窗口挡住时，先把已写出的帧 flush 出去再等待
+                        break;
+                    }
+                    try {
+                        lock.wait(waitTime());
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!running) {
+                    break;
+                }
+                more = !urgentQueue.isEmpty() || !bulkQueue.isEmpty() || !retransmitQueue.isEmpty();
+                if (pending != null) {
+                    pending.writing = true;
+                }
+                lock.notifyAll();
+            }
+
+            try {
+                if (pending == null) {
+                    out.flush();
+                    unflushed = false;
+                    continue;
+                }
+                if (pending.resending) {
+                    System.out.println("[Scheduler] 重传帧: " + pending.frame);
+                }
+                ProtocolWriter.writeFrame(out, pending.frame, frameVersion);
+                // 队列中没有待发送帧时再 flush，避免小帧逐个发送
+                unflushed = more && !pending.frame.isUrgent();
+                if (!unflushed) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (pending != null) {
+                    abortWrite(pending, e);
+                }
+                fail(e);
+                break;
+            }
+            completeWrite(pending);
+        }
+        failPending(new IOException("会话已关闭"));
+    }
+
+    /**
+     * 事件循环模式的写出，在事件循环线程上执行
+     * 先把输出缓冲中剩余的字节非阻塞地写出，写完后再取帧写入缓冲，直到没有可以写出的帧；
+     * 发送缓冲区满时关注可写，可写事件到达后继续。因限速或等待确认没有帧可取时，由定时任务到时再继续。
+     */
+    private void pump() {
+        EventChannel current = channel;
+        if (!current.inEventLoop()) {
+            // 切换连接之前安排的写出，改到新连接的事件循环上执行
+            current.execute(this::pump);
+            return;
+        }
+        pumpScheduled.set(false);
+        if (!running) {
+            current.detachWriter();
+            return;
+        }
+        try {
+            while (true) {
+                if (!pendingOutput.writeTo(current)) {
+                    current.setWriteInterest(true);
+                    return;
+                }
+                if (switchTarget != null) {
+                    // 切换帧已全部写到旧连接上，之后的帧都写入新连接
+                    EventChannel next = switchTarget;
+                    switchTarget = null;
+                    current.detachWriter();
+                    channel = next;
+                    next.execute(() -> {
+                        next.attachWriter(writerSide);
+                        pump();
+                    });
+                    return;
+                }
+                if (!fill()) {
+                    current.setWriteInterest(false);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            current.detachWriter();
+            fail(e);
+            failPending(new IOException("会话已关闭"));
+        }
+    }
+
+    /**
+     * 取帧写入输出缓冲，直到缓冲达到 EVENT_OUTPUT_BATCH、没有可以写出的帧或写入了切换帧
+     *
+     * @return 是否写入了帧
+     */
+    private boolean fill() throws IOException {
+        boolean filled = false;
+        while (pendingOutput.size() < EVENT_OUTPUT_BATCH && switchTarget == null) {
+            PendingFrame pending;
+            synchronized (lock) {
+                pending = running ? takeFrame() : null;
+                if (pending == null) {
+                    if (running) {
+                        scheduleRetry(waitTime());
+                    }
+                    return filled;
+                }
+                pending.writing = true;
+                lock.notifyAll();
+            }
+            if (pending.resending) {
+                System.out.println("[Scheduler] 重传帧: " + pending.frame);
+            }
+            try {
+                ProtocolWriter.writeFrame(out, pending.frame, frameVersion);
+            } catch (IOException e) {
+                abortWrite(pending, e);
+                throw e;
+            }
+            completeWrite(pending);
+            filled = true;
+        }
+        return filled;
+    }
+
+    /**
+     * 事件循环模式下因限速或等待确认没有帧可取时，waitMs 后再写出；已安排了更早的写出时不重复安排。需持有 lock
+     *
+     * @param waitMs 0 表示等到有新帧或确认 (由 wakeWriter 唤醒)
+     */
+    private void scheduleRetry(long waitMs) {
+        if (waitMs <= 0) {
+            return;
+        }
+        long due = System.currentTimeMillis() + waitMs;
+        if (retryDue != 0 && retryDue <= due) {
+            return;
+        }
+        retryDue = due;
+        channel.schedule(() -> {
+            synchronized (lock) {
+                if (retryDue == due) {
+                    retryDue = 0;
+                }
+            }
+            pump();
+        }, waitMs);
+    }
+
+    /**
+     * 唤醒写出方: 写线程从等待中返回，事件循环模式下安排一次写出。需持有 lock
+     */
+    private void wakeWriter() {
+        lock.notifyAll();
+        EventChannel current = channel;
+        if (current != null && started && pumpScheduled.compareAndSet(false, true)) {
+            current.execute(this::pump);
+        }
+    }
+
+    /**
+     * 取下一个要写出的帧，需持有 lock
+     * 重传优先于新帧；确认停滞超过 RETRANSMIT_TIMEOUT_MS 时把最早的在途帧 (或其确认可能已丢失) 放入重传队列。
+     *
+     * @return 没有可以写出的帧时为 null，最长等待时间见 {@link #waitTime()}
+     */
+    private PendingFrame takeFrame() {
+        while (true) {
+            throttleDelay = 0;
+            PendingFrame pending = takeRetransmit();
+            if (pending != null) {
+                pending.resending = true;
+                return pending;
+            }
+            pending = takeNext();
+            if (pending != null) {
+                pending.resending = false;
+                return pending;
+            }
+            if (window > 0 && !inflight.isEmpty()
+                    && System.currentTimeMillis() - lastAckProgress >= RETRANSMIT_TIMEOUT_MS) {
+                PendingFrame oldest = inflight.peekFirst();
+                oldest.retransmitted = true;
+                retransmitQueue.addLast(oldest);
+                lastAckProgress = System.currentTimeMillis();
+                continue;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * takeFrame 没有取到帧时最长的等待时间: 限速的令牌或重传超时，0 表示一直等到有新帧或确认。需持有 lock
+     */
+    private long waitTime() {
+        long waitMs = throttleDelay;
+        if (window > 0 && !inflight.isEmpty()) {
+            long retransmitIn = Math.max(1, RETRANSMIT_TIMEOUT_MS - (System.currentTimeMillis() - lastAckProgress));
+            waitMs = waitMs == 0 ? retransmitIn : Math.min(waitMs, retransmitIn);
+        }
+        return waitMs;
+    }
+
+    /**
+     * 帧已写出: 不需要确认的帧 (或写出期间已被确认的帧) 归还负载，首次发送的帧执行回调并完成 Future
+     */
+    private void completeWrite(PendingFrame pending) {
+        synchronized (lock) {
+            pending.writing = false;
+            if (pending.acked || !pending.frame.isSequenced() || !running) {
+                // 停止后在途帧不会再重传 (failPending 跳过了写出中的帧)
+                pending.frame.release();
+            }
+        }
+        if (pending.resending) {
+            return;
+        }
+        if (pending.onSent != null) {
+            pending.onSent.run();
+        }
+        pending.future.complete(null);
+        if (!pending.frame.isSequenced()) {
+            pending.delivered.complete(null);
+        }
+    }
+
+    /**
+     * 帧写出失败，以失败结束
+     */
+    private void abortWrite(PendingFrame pending, IOException e) {
+        synchronized (lock) {
+            pending.writing = false;
+            pending.frame.release();
+        }
+        pending.future.completeExceptionally(e);
+        pending.delivered.completeExceptionally(e);
+    }
+
+    /**
+     * 取下一个要写出的新帧，需持有 lock
+     * 消息优先；窗口满时跳过数据帧，只取控制帧。数据帧在这里编号，保证序号与写出顺序一致。
+     */
+    private PendingFrame takeNext() {
+        boolean windowOpen = window == 0 || inflight.size() < window;
+        PendingFrame next = null;
+        for (Iterator<PendingFrame> it = urgentQueue.iterator(); it.hasNext();) {
+            PendingFrame candidate = it.next();
+            if (windowOpen || candidate.frame.isControl()) {
+                it.remove();
+                next = candidate;
+                break;
+            }
+        }
+        if (next == null && windowOpen) {
+            next = takeBulk();
+        }
+        if (next != null && !next.frame.isControl()) {
+            sessionBucket.consume(next.frame.length);
+        }
+        if (next != null && window > 0 && !next.frame.isControl() && next.frame.type != Frame.TYPE_LEGACY) {
+            next.frame.flags |= Frame.FLAG_SEQUENCED;
+            next.frame.sequence = nextSequence++;
+            next.writtenAt = System.currentTimeMillis();
+            if (inflight.isEmpty()) {
+                lastAckProgress = next.writtenAt;
+            }
+            inflight.addLast(next);
+        }
+        return next;
+    }
+
+    /**
+     * 取下一个要重传的在途帧，需持有 lock
+     * 令牌与首次发送时相同: 文件帧等待会话、文件和所属传输流的令牌，消息只扣除会话令牌、不等待
+     */
+    private PendingFrame takeRetransmit() {
+        PendingFrame pending = retransmitQueue.peekFirst();
+        if (pending == null) {
+            return null;
+        }
+        Frame frame = pending.frame;
+        if (!frame.isUrgent()) {
+            TokenBucket bucket = streamBuckets.get(frame.streamId); // 传输流已结束时不再单独限速
+            long delay = Math.max(sessionBucket.delayMs(), bulkBucket.delayMs());
+            if (bucket != null) {
+                delay = Math.max(delay, bucket.delayMs());
+            }
+            if (delay > 0) {
+                throttle(delay);
+                return null;
+            }
+            if (bucket != null) {
+                bucket.consume(frame.length);
+            }
+            bulkBucket.consume(frame.length);
+        }
+        sessionBucket.consume(frame.length);
+        return retransmitQueue.pollFirst();
+    }
+
+    /**
+     * 记录因限速没有取到帧时的等待时间，取各处的最小值
+     */
+    private void throttle(long delay) {
+        throttleDelay = throttleDelay == 0 ? delay : Math.min(throttleDelay, delay);
+    }
+
+    /**
+     * 取第一个令牌足够的文件帧；同一传输流的帧保持顺序，被限速的传输流整体跳过
+     */
+    private PendingFrame takeBulk() {
+        long sharedDelay = Math.max(sessionBucket.delayMs(), bulkBucket.delayMs());
+        if (sharedDelay > 0) {
+            if (!bulkQueue.isEmpty()) {
+                throttle(sharedDelay);
+            }
+            return null;
+        }
+        Set<Integer> throttled = null;
+        for (Iterator<PendingFrame> it = bulkQueue.iterator(); it.hasNext();) {
+            PendingFrame candidate = it.next();
+            int streamId = candidate.frame.streamId;
+            if (throttled != null && throttled.contains(streamId)) {
+                continue;
+            }
+            TokenBucket bucket = streamBucket(streamId);
+            long delay = bucket.delayMs();
+            if (delay == 0) {
+                it.remove();
+                bucket.consume(candidate.frame.length);
+                bulkBucket.consume(candidate.frame.length);
+                return candidate;
+            }
+            if (throttled == null) {
+                throttled = new HashSet<>();
+            }
+            throttled.add(streamId);
+            throttle(delay);
+        }
+        return null;
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = e;
+            }
+            running = false;
+            wakeWriter();
+        }
+    }
+
+    private void failPending(IOException e) {
+        synchronized (lock) {
+            for (PendingFrame p : urgentQueue) {
+                p.frame.release();
+                p.future.completeExceptionally(e);
+                p.delivered.completeExceptionally(e);
+            }
+            for (PendingFrame p : bulkQueue) {
+                p.frame.release();
+                p.future.completeExceptionally(e);
+                p.delivered.completeExceptionally(e);
+            }
+            // 已写出但未确认的帧: 对端是否收到未知，按失败处理
+            for (PendingFrame p : inflight) {
+                if (!p.writing) {
+                    // 写出中的帧由写线程写完后归还
+                    p.frame.release();
+                }
+                p.delivered.completeExceptionally(e);
+            }
+            urgentQueue.clear();
+            bulkQueue.clear();
+            inflight.clear();
+            retransmitQueue.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 停止写线程 (事件循环模式下停止写出)，未发送的帧全部以失败结束
+     */
+    void stop() {
+        synchronized (lock) {
+            running = false;
+            wakeWriter();
+        }
+        failPending(new IOException("会话已关闭"));
+    }
+
+    /**
+     * 事件循环模式的输出缓冲: 帧先写入缓冲，再从上次写到的位置继续非阻塞地写出
+     */
+    private static final class OutputBuffer extends ByteArrayOutputStream {
+        private int position; // 已写出的字节数
+
+        /**
+         * 非阻塞地写出剩余的字节
+         *
+         * @return 是否已全部写出 (随后清空缓冲)；发送缓冲区已满时为 false
+         */
+        boolean writeTo(EventChannel target) throws IOException {
+            while (position < count) {
+                int n = target.writeNonBlocking(buf, position, count - position);
+                if (n == 0) {
+                    return false;
+                }
+                position += n;
+            }
+            reset();
+            position = 0;
+            return true;
+        }
+    }
+}
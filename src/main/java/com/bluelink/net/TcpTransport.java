@@ -0,0 +1,216 @@
+package com.bluelink.net;
+
+import com.bluelink.net.io.EventLoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP 连接 (SocketChannel)
+ * 双方在同一局域网时作为蓝牙会话的快速通道 (见 TransportUpgrade)，也可以直接用于回环测试和基准测试。
+ * 输入输出流直接调用 SocketChannel 的 read / write: Channels.newInputStream 等适配器在阻塞读取时持有
+ * 通道的 blockingLock，会阻塞另一线程的写出。
+ */
+public class TcpTransport implements Transport {
+
+    // 建立并行连接的超时
+    private static final int PARALLEL_CONNECT_TIMEOUT_MS = 2000;
+
+    private final SocketChannel channel;
+    private final InputStream inputStream = new ChannelInput();
+    private final OutputStream outputStream = new ChannelOutput();
+
+    public TcpTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // 写线程自己合并小帧再 flush
+    }
+
+    /**
+     * 连接到对端
+     *
+     * @param timeoutMs 连接超时
+     */
+    public static TcpTransport connect(InetSocketAddress address, int timeoutMs) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, timeoutMs);
+            return new TcpTransport(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public EventLoop<?> register(EventLoop.Handler handler) {
+        EventLoop<SelectableChannel> loop = NetworkEventLoop.nio();
+        loop.register(channel, 0, handler);
+        return loop;
+    }
+
+    @Override
+    public int readNonBlocking(byte[] b, int off, int len) throws IOException {
+        return channel.read(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int writeNonBlocking(byte[] b, int off, int len) throws IOException {
+        return channel.write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int setSendBufferSize(int bytes) throws IOException {
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, bytes);
+        return channel.getOption(StandardSocketOptions.SO_SNDBUF);
+    }
+
+    @Override
+    public int setReceiveBufferSize(int bytes) throws IOException {
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
+        return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    /**
+     * 在本连接的本地地址上另开端口监听，只接受来自对端主机的连接
+     */
+    @Override
+    public ParallelListener listenParallel() throws IOException {
+        InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress();
+        InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(local.getAddress(), 0));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return new ParallelListener() {
+            @Override
+            public int getChannel() {
+                return server.socket().getLocalPort();
+            }
+
+            @Override
+            public Transport accept(int timeoutMs) throws IOException {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("等待对端连接超时");
+                    }
+                    server.socket().setSoTimeout((int) remaining);
+                    Socket socket;
+                    try {
+                        socket = server.socket().accept();
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    if (!socket.getInetAddress().equals(remote.getAddress())) {
+                        System.out.println("[Channel] 拒绝来自其他主机的连接: " + socket.getRemoteSocketAddress());
+                        socket.close();
+                        continue;
+                    }
+                    return new TcpTransport(socket.getChannel());
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        };
+    }
+
+    @Override
+    public Transport connectParallel(int port) throws IOException {
+        InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+        return connect(new InetSocketAddress(remote.getAddress(), port), PARALLEL_CONNECT_TIMEOUT_MS);
+    }
+
+    @Override
+    public String describe() {
+        try {
+            return "TCP/" + channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "TCP";
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private final class ChannelInput extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, len));
+            if (n == 0) {
+                throw new IOException("通道处于非阻塞模式，不能阻塞读取");
+            }
+            return n;
+        }
+    }
+
+    private final class ChannelOutput extends OutputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    throw new IOException("通道处于非阻塞模式，不能阻塞写出");
+                }
+            }
+        }
+    }
+}
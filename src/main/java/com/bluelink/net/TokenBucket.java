@@ -0,0 +1,67 @@
+package com.bluelink.net;
+
+/**
+ * 令牌桶限速
+ * 令牌按 rate 字节/秒补充，最多积累 capacity 字节。一帧只要桶内还有令牌就可以发送，
+ * 发送后扣除整帧大小 (允许透支)，因此帧比桶容量大时长期速率仍然准确。
+ * 非线程安全，由调用方 (SendScheduler) 在锁内访问。
+ */
+class TokenBucket {
+
+    // 桶容量对应的突发时间
+    private static final double BURST_SECONDS = 0.25;
+
+    private long rate; // 字节/秒，0 表示不限速
+    private double capacity;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    TokenBucket(long rate) {
+        setRate(rate);
+        tokens = capacity;
+    }
+
+    /**
+     * 调整速率，已积累的令牌不超过新容量
+     */
+    void setRate(long rate) {
+        refill();
+        this.rate = Math.max(0, rate);
+        this.capacity = this.rate * BURST_SECONDS;
+        tokens = Math.min(tokens, capacity);
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * 有令牌可用之前需要等待的毫秒数，0 表示可以立即发送
+     */
+    long delayMs() {
+        if (rate == 0) {
+            return 0;
+        }
+        refill();
+        if (tokens > 0) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * 1000.0 / rate);
+    }
+
+    void consume(long bytes) {
+        if (rate == 0) {
+            return;
+        }
+        refill();
+        tokens -= bytes;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1e9);
+        }
+        lastRefill = now;
+    }
+}
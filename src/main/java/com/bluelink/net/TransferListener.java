@@ -30,6 +30,18 @@ public interface TransferListener {
      */
     void onTransferProgress(String fileName, long current, long total, boolean isReceive);
 
+    /**
+     * 多文件批次的整体进度 (各文件的进度仍通过 onTransferProgress 报告)
+     * @param batchKey 批次标识 (发送方为调用方传入的 key，接收方为批次名称)
+     * @param completedFiles 已完成的文件数
+     * @param totalFiles 批次文件数
+     * @param current 当前字节数
+     * @param total 总字节数
+     * @param isReceive true=接收进度, false=发送进度
+     */
+    default void onBatchProgress(String batchKey, int completedFiles, int totalFiles, long current, long total,
+            boolean isReceive) {}
+
     /**
      * 连接状态变更
      * @param isConnected 是否已连接
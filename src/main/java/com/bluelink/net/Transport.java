@@ -0,0 +1,97 @@
+package com.bluelink.net;
+
+import com.bluelink.net.io.EventLoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 会话底层的字节流连接
+ * 实现有 RFCOMM ({@link RfcommTransport}，Winsock 蓝牙 Socket) 和 TCP ({@link TcpTransport}，SocketChannel)。
+ * 会话只通过该接口收发数据，与具体的 Socket 类型无关；同一会话可以从蓝牙切换到 TCP (见 TransportUpgrade)，
+ * 也可以在同一对设备之间再建立几条并行连接分担文件分块 (见 ChannelGroup)。
+ * 输出流只由会话的写线程使用；输入流只由读线程使用。事件循环模式下两者都不使用，
+ * 改由 {@link #register} 注册到事件循环，就绪时调用 {@link #readNonBlocking} / {@link #writeNonBlocking}。
+ */
+public interface Transport {
+
+    /**
+     * 并行连接的监听端，只接受来自本连接对端设备的连接
+     */
+    interface ParallelListener {
+        /**
+         * 对端应连接的通道号 (RFCOMM 通道或 TCP 端口)
+         */
+        int getChannel();
+
+        /**
+         * 等待下一条来自对端设备的连接
+         *
+         * @throws IOException 超时或监听已关闭
+         */
+        Transport accept(int timeoutMs) throws IOException;
+
+        void close();
+    }
+
+    InputStream getInputStream();
+
+    OutputStream getOutputStream();
+
+    /**
+     * 切换为非阻塞模式并注册到该连接类型对应的共享事件循环，注册时不关注任何事件 (随后用 setInterest 设置)
+     * 同一连接只注册一次，读取和写出共用这个注册 (见 EventChannel)；之后不能再使用输入输出流。
+     *
+     * @return 注册所在的事件循环，用于设置关注的事件和取消
+     */
+    EventLoop<?> register(EventLoop.Handler handler);
+
+    /**
+     * 非阻塞读取，只在事件循环线程上调用
+     *
+     * @return 读取的字节数，暂时没有数据时为 0，流结束时为 -1
+     */
+    int readNonBlocking(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * 非阻塞写出，只在事件循环线程上调用
+     *
+     * @return 写出的字节数，发送缓冲区已满时为 0
+     */
+    int writeNonBlocking(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * 设置内核发送缓冲区 (SO_SNDBUF)
+     *
+     * @return 系统实际采用的大小
+     */
+    int setSendBufferSize(int bytes) throws IOException;
+
+    /**
+     * 设置内核接收缓冲区 (SO_RCVBUF)
+     *
+     * @return 系统实际采用的大小
+     */
+    int setReceiveBufferSize(int bytes) throws IOException;
+
+    /**
+     * 在本机另开一个通道监听，供对端建立并行连接
+     */
+    ParallelListener listenParallel() throws IOException;
+
+    /**
+     * 连接对端设备上由 {@link #listenParallel} 打开的通道
+     */
+    Transport connectParallel(int channel) throws IOException;
+
+    /**
+     * 用于日志的描述，例如 "RFCOMM#1234"、"TCP/192.168.1.5:50123"
+     */
+    String describe();
+
+    /**
+     * 关闭连接，阻塞在读取上的线程随之收到异常或 EOF；可重复调用
+     */
+    void close();
+}
@@ -0,0 +1,224 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.TransportOffer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 蓝牙会话升级到 TCP
+ * 双方都在 HELLO 中声明 FEATURE_TRANSPORT_UPGRADE 且都启用了 transport.tcp.upgrade 时，Token 较小的一方
+ * 在局域网地址上监听并通过蓝牙发送 TRANSPORT_OFFER；对端依次尝试连接，发送口令，提议方核对后回复一个字节确认。
+ * 连接建立后双方各自在蓝牙连接上发送 TRANSPORT_SWITCH，之后的帧都走 TCP (见 {@link SendScheduler#switchOutput})；
+ * 任何一步失败时会话继续使用蓝牙。
+ * <p>
+ * 安全: TCP 连接不加密，口令只防止误连，不能防止同一网络中的窃听和篡改 (蓝牙链路本身有配对加密)。
+ * 因此只在提议中的私有网段、链路本地和回环地址上逐个监听，不绑定 0.0.0.0，公网网卡上不会出现监听端口。
+ */
+class TransportUpgrade {
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int ACCEPT_TIMEOUT_MS = 10000;
+    private static final int ACCEPTED = 1;
+
+    private final CompletableFuture<TcpTransport> result = new CompletableFuture<>();
+    private final List<ServerSocketChannel> servers = new CopyOnWriteArrayList<>(); // 每个提议地址一个监听
+    private volatile Selector selector;
+
+    /**
+     * 建立完成的 TCP 连接；无法建立时以异常完成
+     */
+    CompletableFuture<TcpTransport> result() {
+        return result;
+    }
+
+    /**
+     * 提议方: 在本机的局域网地址上逐个监听 (同一端口)，返回要发给对端的提议；随后调用 {@link #acceptPeer}
+     * 无法在该端口监听的地址不放入提议。
+     *
+     * @param port 监听端口，0 表示由系统分配
+     */
+    TransportOffer listen(int port) throws IOException {
+        List<InetAddress> candidates = localAddresses();
+        if (candidates.isEmpty()) {
+            throw new IOException("没有可用的网络地址");
+        }
+        TransportOffer offer = new TransportOffer();
+        int bound = port;
+        for (InetAddress address : candidates) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                channel.bind(new InetSocketAddress(address, bound));
+            } catch (IOException e) {
+                channel.close();
+                System.out.println("[Upgrade] 无法在 " + address.getHostAddress() + ":" + bound + " 监听: " + e.getMessage());
+                continue;
+            }
+            bound = ((InetSocketAddress) channel.getLocalAddress()).getPort(); // 其余地址使用同一端口
+            servers.add(channel);
+            offer.addresses.add(address);
+        }
+        if (servers.isEmpty()) {
+            throw new IOException("无法在任何局域网地址上监听");
+        }
+        offer.port = bound;
+        offer.nonce = new SecureRandom().nextLong();
+        return offer;
+    }
+
+    /**
+     * 提议方: 等待对端连接并核对口令，口令不符的连接直接关闭；超时后放弃。阻塞调用
+     */
+    void acceptPeer(long nonce) {
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MS;
+        try (Selector waiting = Selector.open()) {
+            selector = waiting;
+            for (ServerSocketChannel listener : servers) {
+                listener.configureBlocking(false);
+                listener.register(waiting, SelectionKey.OP_ACCEPT);
+            }
+            while (!result.isDone()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("等待对端连接超时");
+                }
+                waiting.select(remaining);
+                Iterator<SelectionKey> keys = waiting.selectedKeys().iterator();
+                while (keys.hasNext() && !result.isDone()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept();
+                    if (accepted != null) {
+                        verify(accepted, nonce);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        } finally {
+            selector = null;
+            cancel();
+        }
+    }
+
+    /**
+     * 核对新连接发来的口令，通过时作为结果
+     */
+    private void verify(SocketChannel channel, long nonce) throws IOException {
+        channel.configureBlocking(true);
+        Socket socket = channel.socket();
+        try {
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            long received = new DataInputStream(socket.getInputStream()).readLong();
+            if (received != nonce) {
+                System.out.println("[Upgrade] 拒绝口令不符的连接: " + socket.getRemoteSocketAddress());
+                socket.close();
+                return;
+            }
+            socket.setSoTimeout(0);
+            writeFully(socket, ByteBuffer.wrap(new byte[] { ACCEPTED }));
+            TcpTransport transport = new TcpTransport(channel);
+            if (!result.complete(transport)) {
+                transport.close(); // 已取消
+            }
+        } catch (IOException e) {
+            System.out.println("[Upgrade] 连接校验失败: " + e.getMessage());
+            socket.close();
+        }
+    }
+
+    /**
+     * 对端: 依次连接提议中的地址，第一个通过校验的连接作为结果。阻塞调用
+     */
+    void connect(TransportOffer offer) {
+        IOException last = new IOException("提议中没有地址");
+        for (InetAddress address : offer.addresses) {
+            InetSocketAddress target = new InetSocketAddress(address, offer.port);
+            TcpTransport transport = null;
+            try {
+                transport = TcpTransport.connect(target, CONNECT_TIMEOUT_MS);
+                Socket socket = transport.getChannel().socket();
+                writeFully(socket, (ByteBuffer) ByteBuffer.allocate(8).putLong(offer.nonce).flip());
+                socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+                if (socket.getInputStream().read() != ACCEPTED) {
+                    throw new IOException("对端拒绝连接");
+                }
+                socket.setSoTimeout(0);
+                if (!result.complete(transport)) {
+                    transport.close(); // 已取消
+                }
+                return;
+            } catch (IOException e) {
+                System.out.println("[Upgrade] 无法连接 " + target + ": " + e.getMessage());
+                last = e;
+                if (transport != null) {
+                    transport.close();
+                }
+            }
+        }
+        result.completeExceptionally(last);
+    }
+
+    /**
+     * 停止监听；已建立的连接不受影响
+     */
+    void cancel() {
+        for (ServerSocketChannel listener : servers) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        result.completeExceptionally(new IOException("升级已取消"));
+        Selector waiting = selector;
+        if (waiting != null) {
+            waiting.wakeup();
+        }
+    }
+
+    private static void writeFully(Socket socket, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socket.getChannel().write(buffer);
+        }
+    }
+
+    /**
+     * 本机已启用网卡的私有网段和链路本地 IPv4 地址，回环地址排在最后 (两端在同一台机器上时使用)
+     * 公网地址不放入提议，明文 TCP 监听不会出现在公网网卡上。
+     */
+    private static List<InetAddress> localAddresses() throws IOException {
+        List<InetAddress> addresses = new ArrayList<>();
+        List<InetAddress> loopback = new ArrayList<>();
+        for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!nif.isUp()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                if (!TransportOffer.isOfferable(address) || !(address.isSiteLocalAddress()
+                        || address.isLinkLocalAddress() || address.isLoopbackAddress())) {
+                    continue;
+                }
+                (address.isLoopbackAddress() ? loopback : addresses).add(address);
+            }
+        }
+        addresses.addAll(loopback);
+        return addresses;
+    }
+}
@@ -0,0 +1,266 @@
+package com.bluelink.net.io;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+/**
+ * 事件循环
+ * 一个线程通过 {@link ReadinessPoller} 等待所有已注册 Socket 的就绪事件，在本线程上回调各连接的 {@link Handler}。
+ * 连接数增加时不再增加读线程，也没有线程间切换；回调中只能做非阻塞的工作 (非阻塞读取、解析、入队)。
+ * 注册、修改和取消可在任意线程调用，以任务形式交给循环线程执行；定时任务 (见 {@link #schedule}) 也在循环线程上执行，
+ * 用于限速和超时重传等需要过一段时间再继续的工作，不需要另开线程等待。
+ * 等待就绪事件失败时循环退出，所有已注册的连接收到 {@link Handler#onFailure}；退出后的注册直接以失败结束。
+ *
+ * @param <H> Socket 句柄类型，与 ReadinessPoller 一致
+ */
+public class EventLoop<H> {
+
+    /**
+     * 连接的事件处理，所有方法在循环线程上调用
+     */
+    public interface Handler {
+        /**
+         * 句柄就绪
+         *
+         * @param readyOps ReadinessPoller.OP_READ / OP_WRITE / OP_ACCEPT
+         */
+        void onReady(int readyOps) throws IOException;
+
+        /**
+         * onReady 抛出异常、注册失败或事件循环因错误退出，注册已取消
+         */
+        void onFailure(IOException e);
+    }
+
+    private final String name;
+    private final ReadinessPoller<H> poller;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // 仅由循环线程访问
+    private long timerSequence; // 同一时刻到期的定时任务按加入顺序执行
+    private volatile boolean running;
+    private volatile boolean terminated; // 循环已退出，不再接受任务
+    private Thread thread;
+
+    public EventLoop(String name, ReadinessPoller<H> poller) {
+        this.name = name;
+        this.poller = poller;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 是否在循环线程上
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 循环是否已退出 (关闭或等待失败)，之后需要新的事件循环
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * 在循环线程上执行任务；循环已退出时丢弃
+     */
+    public void execute(Runnable task) {
+        offer(task);
+    }
+
+    /**
+     * 过 delayMs 毫秒后在循环线程上执行任务；循环已退出时丢弃
+     */
+    public void schedule(Runnable task, long delayMs) {
+        long due = System.currentTimeMillis() + Math.max(0, delayMs);
+        if (inEventLoop()) {
+            timers.add(new Timer(due, timerSequence++, task));
+        } else {
+            execute(() -> timers.add(new Timer(due, timerSequence++, task)));
+        }
+    }
+
+    /**
+     * 注册已切换为非阻塞模式的句柄；在循环线程上调用时立即注册，之后的 setInterest 随即生效
+     */
+    public void register(H handle, int ops, Handler handler) {
+        Runnable task = () -> {
+            try {
+                poller.register(handle, ops, handler);
+            } catch (IOException e) {
+                handler.onFailure(e);
+            }
+        };
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        if (!offer(task)) {
+            handler.onFailure(new IOException("事件循环 " + name + " 已退出"));
+        }
+    }
+
+    /**
+     * 任务入队并唤醒循环
+     *
+     * @return 循环已退出时为 false
+     */
+    private boolean offer(Runnable task) {
+        synchronized (tasks) {
+            if (terminated) {
+                return false;
+            }
+            tasks.addLast(task);
+        }
+        if (!inEventLoop()) {
+            poller.wakeup();
+        }
+        return true;
+    }
+
+    /**
+     * 修改关注的事件；0 暂停该连接的回调 (例如接收流水线积压时停止读取，形成背压)
+     */
+    public void setInterest(Handler handler, int ops) {
+        if (inEventLoop()) {
+            poller.setInterest(handler, ops);
+        } else {
+            execute(() -> poller.setInterest(handler, ops));
+        }
+    }
+
+    /**
+     * 取消注册，之后不再回调该连接
+     */
+    public void cancel(Handler handler) {
+        if (inEventLoop()) {
+            poller.cancel(handler);
+        } else {
+            execute(() -> poller.cancel(handler));
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        poller.wakeup();
+    }
+
+    private void run() {
+        System.out.println("[EventLoop] " + name + " 启动");
+        IOException failure = null;
+        try {
+            while (running) {
+                runTasks();
+                poller.poll(runTimers(), this::dispatch);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("等待就绪事件异常: " + e, e);
+        } finally {
+            synchronized (tasks) {
+                terminated = true;
+            }
+            if (failure != null) {
+                System.err.println("[EventLoop] " + name + " 等待就绪事件失败: " + failure.getMessage());
+                // 退出前已入队的注册照常执行，随后和其他连接一起收到失败通知
+                runTasks();
+                for (Object attachment : poller.attachments()) {
+                    poller.cancel(attachment);
+                    ((Handler) attachment).onFailure(failure);
+                }
+            }
+            try {
+                poller.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            System.out.println("[EventLoop] " + name + " 退出");
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.pollFirst();
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[EventLoop] 任务异常: " + e);
+            }
+        }
+    }
+
+    /**
+     * 执行已到期的定时任务
+     *
+     * @return 本次等待的最长时间: 到下一个定时任务的时间，没有定时任务时为 -1；定时任务中加入了新任务时为 0
+     */
+    private long runTimers() {
+        while (!timers.isEmpty()) {
+            long remaining = timers.peek().due - System.currentTimeMillis();
+            if (remaining > 0) {
+                synchronized (tasks) {
+                    return tasks.isEmpty() ? remaining : 0;
+                }
+            }
+            Runnable task = timers.poll().task;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[EventLoop] 定时任务异常: " + e);
+            }
+        }
+        synchronized (tasks) {
+            return tasks.isEmpty() ? -1 : 0;
+        }
+    }
+
+    private void dispatch(Object attachment, int readyOps) {
+        Handler handler = (Handler) attachment;
+        try {
+            handler.onReady(readyOps);
+        } catch (IOException e) {
+            poller.cancel(handler);
+            handler.onFailure(e);
+        } catch (RuntimeException e) {
+            poller.cancel(handler);
+            handler.onFailure(new IOException("事件处理异常: " + e, e));
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long due;
+        final long sequence;
+        final Runnable task;
+
+        Timer(long due, long sequence, Runnable task) {
+            this.due = due;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            if (due != other.due) {
+                return Long.compare(due, other.due);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
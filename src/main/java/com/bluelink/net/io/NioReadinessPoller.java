@@ -0,0 +1,108 @@
+package com.bluelink.net.io;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 java.nio Selector 的就绪通知，用于 TCP SocketChannel / ServerSocketChannel
+ * 出错和对端关闭由 Selector 报告为关注的事件 (可读或可写)，随后的读写得到 EOF 或异常。
+ */
+public class NioReadinessPoller implements ReadinessPoller<SelectableChannel> {
+
+    private final Selector selector;
+    private final Map<Object, SelectionKey> keys = new HashMap<>();
+
+    public NioReadinessPoller() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    @Override
+    public void register(SelectableChannel channel, int ops, Object attachment) throws IOException {
+        channel.configureBlocking(false);
+        keys.put(attachment, channel.register(selector, toNio(channel, ops), attachment));
+    }
+
+    @Override
+    public void setInterest(Object attachment, int ops) {
+        SelectionKey key = keys.get(attachment);
+        if (key != null && key.isValid()) {
+            key.interestOps(toNio(key.channel(), ops));
+        }
+    }
+
+    @Override
+    public void cancel(Object attachment) {
+        SelectionKey key = keys.remove(attachment);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    @Override
+    public List<Object> attachments() {
+        return new ArrayList<>(keys.keySet());
+    }
+
+    @Override
+    public void poll(long timeoutMs, ReadyHandler handler) throws IOException {
+        if (timeoutMs < 0) {
+            selector.select();
+        } else if (timeoutMs == 0) {
+            selector.selectNow();
+        } else {
+            selector.select(timeoutMs);
+        }
+        for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            int ready = 0;
+            if (key.isReadable()) {
+                ready |= OP_READ;
+            }
+            if (key.isAcceptable()) {
+                ready |= OP_ACCEPT;
+            }
+            if (key.isWritable()) {
+                ready |= OP_WRITE;
+            }
+            if (ready != 0) {
+                handler.ready(key.attachment(), ready);
+            }
+        }
+    }
+
+    @Override
+    public void wakeup() {
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        keys.clear();
+        selector.close();
+    }
+
+    private static int toNio(SelectableChannel channel, int ops) {
+        int nio = 0;
+        if ((ops & OP_READ) != 0) {
+            nio |= SelectionKey.OP_READ;
+        }
+        if ((ops & OP_ACCEPT) != 0) {
+            nio |= SelectionKey.OP_ACCEPT;
+        }
+        if ((ops & OP_WRITE) != 0) {
+            nio |= SelectionKey.OP_WRITE;
+        }
+        return nio & channel.validOps();
+    }
+}
@@ -0,0 +1,60 @@
+package com.bluelink.net.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 就绪通知 (水平触发)
+ * 一个线程等待多个 Socket 中任意一个可读、可写或可接受连接，代替每个连接一个阻塞读线程和写线程。
+ * 注册以 attachment 为键；实现有基于 java.nio Selector 的 {@link NioReadinessPoller} (任意平台，可在 Linux 上用回环 Socket 测试)
+ * 和基于 Winsock WSAPoll 的 {@code WsaPollReadinessPoller} (RFCOMM Socket)。
+ * 除 {@link #wakeup()} 外，所有方法只在事件循环线程上调用，见 {@link EventLoop}。
+ *
+ * @param <H> Socket 句柄类型
+ */
+public interface ReadinessPoller<H> extends Closeable {
+
+    int OP_READ = 1; // 可读、对端关闭或出错 (读取时得到 EOF 或异常)
+    int OP_ACCEPT = 2; // 监听 Socket 有待接受的连接
+    int OP_WRITE = 4; // 发送缓冲区有空位；只在有待写出的数据时关注，否则每次等待都会立即返回
+
+    interface ReadyHandler {
+        void ready(Object attachment, int readyOps);
+    }
+
+    /**
+     * 注册句柄 (已切换为非阻塞模式)
+     *
+     * @param ops 关注的事件，OP_READ / OP_WRITE / OP_ACCEPT，可以为 0 (注册后再设置)
+     * @param attachment 就绪时回传的对象，同时作为注册的键
+     */
+    void register(H handle, int ops, Object attachment) throws IOException;
+
+    /**
+     * 修改关注的事件，0 表示暂停 (出错和挂断也不再报告)
+     */
+    void setInterest(Object attachment, int ops);
+
+    /**
+     * 取消注册，不关闭句柄
+     */
+    void cancel(Object attachment);
+
+    /**
+     * 当前注册的所有 attachment (快照)，事件循环因等待失败退出时逐个通知
+     */
+    List<Object> attachments();
+
+    /**
+     * 等待就绪事件并逐个回调
+     *
+     * @param timeoutMs 最长等待时间，负数表示一直等待 (直到 wakeup)
+     */
+    void poll(long timeoutMs, ReadyHandler handler) throws IOException;
+
+    /**
+     * 让正在等待的 poll 尽快返回，可在任意线程调用
+     */
+    void wakeup();
+}
@@ -1,11 +1,22 @@
 package com.bluelink.net.jna;
 
+import com.sun.jna.Memory;
+
 import java.io.IOException;
 import java.io.InputStream;
 
 public class JnaSocketInputStream extends InputStream {
+    // Native receive buffer size, matches the read buffer in FrameReader
+    private static final int NATIVE_BUFFER_SIZE = 64 * 1024;
+
     private final int socket;
     private final WinsockNative lib;
+    private final byte[] single = new byte[1];
+    // Reused for every recv. Passing byte[] to JNA allocates native memory and copies the
+    // array in and out on each call; receiving into our own Memory leaves one copy into b.
+    // Not freed explicitly: a blocked recv may still be using it when the socket closes, so
+    // it is released by the GC together with the stream.
+    private final Memory nativeBuffer = new Memory(NATIVE_BUFFER_SIZE);
 
     public JnaSocketInputStream(int socket) {
         this.socket = socket;
@@ -14,11 +25,10 @@ public class JnaSocketInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        byte[] b = new byte[1];
-        int ret = read(b, 0, 1);
+        int ret = read(single, 0, 1);
         if (ret == -1)
             return -1;
-        return b[0] & 0xFF;
+        return single[0] & 0xFF;
     }
 
     @Override
@@ -31,24 +41,8 @@ public class JnaSocketInputStream extends InputStream {
             return 0;
         }
 
-        // Winsock recv reads directly into buffer.
-        // Need to be careful with offset. recv implementation usually takes a direct
-        // pointer or byte[]
-        // JNA maps byte[] to C char*.
-
-        // However, JNA byte[] mapping usually assumes starting from index 0.
-        // If off > 0, we might need a temporary buffer or use Pointer arithmetic.
-        // For simplicity, let's use a temp buffer if off > 0, which is inefficient but
-        // safe.
-
-        byte[] workBuffer = b;
-        boolean usingTemp = false;
-        if (off != 0) {
-            workBuffer = new byte[len];
-            usingTemp = true;
-        }
-
-        int res = lib.recv(socket, workBuffer, len, 0);
+        // recv into the native buffer, then copy straight to b at off (no temp array for off != 0)
+        int res = lib.recv(socket, nativeBuffer, Math.min(len, NATIVE_BUFFER_SIZE), 0);
 
         if (res == WinsockNative.SOCKET_ERROR) {
             throw new IOException("Winsock recv error: " + lib.WSAGetLastError());
@@ -57,10 +51,31 @@ public class JnaSocketInputStream extends InputStream {
             return -1; // Connection closed
         }
 
-        if (usingTemp) {
-            System.arraycopy(workBuffer, 0, b, off, res);
-        }
+        nativeBuffer.read(0, b, off, res);
+        return res;
+    }
 
+    /**
+     * Read from a socket in non-blocking mode (see SocketOptions.setNonBlocking), for the event loop.
+     *
+     * @return bytes read, 0 if no data is available yet, -1 at end of stream
+     */
+    public int readNonBlocking(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len <= 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        int res = lib.recv(socket, nativeBuffer, Math.min(len, NATIVE_BUFFER_SIZE), 0);
+        if (res == WinsockNative.SOCKET_ERROR) {
+            int error = lib.WSAGetLastError();
+            if (error == WinsockNative.WSAEWOULDBLOCK) {
+                return 0;
+            }
+            throw new IOException("Winsock recv error: " + error);
+        }
+        if (res == 0) {
+            return -1;
+        }
+        nativeBuffer.read(0, b, off, res);
         return res;
     }
 }
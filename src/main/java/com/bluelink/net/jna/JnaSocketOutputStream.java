@@ -1,11 +1,22 @@
 package com.bluelink.net.jna;
 
+import com.sun.jna.Memory;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
 public class JnaSocketOutputStream extends OutputStream {
+    // Native send buffer size; larger writes are sent in segments of this size
+    private static final int NATIVE_BUFFER_SIZE = 64 * 1024;
+
     private final int socket;
     private final WinsockNative lib;
+    private final byte[] single = new byte[1];
+    // Reused for every send, see JnaSocketInputStream. Released by the GC with the stream.
+    private final Memory nativeBuffer = new Memory(NATIVE_BUFFER_SIZE);
+    // Created on the first WSAEWOULDBLOCK, when the socket is in non-blocking mode
+    // but still written through the stream (the event loop itself uses writeNonBlocking)
+    private WsaPollFd writable;
 
     public JnaSocketOutputStream(int socket) {
         this.socket = socket;
@@ -14,7 +25,8 @@ public class JnaSocketOutputStream extends OutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        write(new byte[] { (byte) b }, 0, 1);
+        single[0] = (byte) b;
+        write(single, 0, 1);
     }
 
     @Override
@@ -28,15 +40,56 @@ public class JnaSocketOutputStream extends OutputStream {
             return;
         }
 
-        byte[] workBuffer = b;
-        if (off != 0) {
-            workBuffer = new byte[len];
-            System.arraycopy(b, off, workBuffer, 0, len);
+        // Copy each segment from b at off into the native buffer once and send from there.
+        // send() may accept fewer bytes than requested; keep sending the rest of the segment.
+        int end = off + len;
+        while (off < end) {
+            int n = Math.min(end - off, NATIVE_BUFFER_SIZE);
+            nativeBuffer.write(0, b, off, n);
+            int sent = 0;
+            while (sent < n) {
+                int res = lib.send(socket, sent == 0 ? nativeBuffer : nativeBuffer.share(sent), n - sent, 0);
+                if (res == WinsockNative.SOCKET_ERROR) {
+                    int error = lib.WSAGetLastError();
+                    if (error == WinsockNative.WSAEWOULDBLOCK) {
+                        if (writable == null) {
+                            writable = new WsaPollFd(1);
+                        }
+                        writable.awaitWritable(socket);
+                        continue;
+                    }
+                    throw new IOException("Winsock send error: " + error);
+                }
+                if (res <= 0) {
+                    throw new IOException("Winsock send returned " + res);
+                }
+                sent += res;
+            }
+            off += n;
         }
+    }
 
-        int res = lib.send(socket, workBuffer, len, 0);
+    /**
+     * Write to a socket in non-blocking mode (see SocketOptions.setNonBlocking), for the event loop.
+     * Only the first native buffer's worth of b is attempted; the caller writes the rest when the
+     * socket is writable again.
+     *
+     * @return bytes written, 0 if the send buffer is full
+     */
+    public int writeNonBlocking(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len <= 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        int n = Math.min(len, NATIVE_BUFFER_SIZE);
+        nativeBuffer.write(0, b, off, n);
+        int res = lib.send(socket, nativeBuffer, n, 0);
         if (res == WinsockNative.SOCKET_ERROR) {
-            throw new IOException("Winsock send error: " + lib.WSAGetLastError());
+            int error = lib.WSAGetLastError();
+            if (error == WinsockNative.WSAEWOULDBLOCK) {
+                return 0;
+            }
+            throw new IOException("Winsock send error: " + error);
         }
+        return res;
     }
 }
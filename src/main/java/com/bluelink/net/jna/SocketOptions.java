@@ -0,0 +1,51 @@
+package com.bluelink.net.jna;
+
+import com.sun.jna.ptr.IntByReference;
+
+import java.io.IOException;
+
+/**
+ * SOL_SOCKET 级别的整数 Socket 选项 (SO_SNDBUF、SO_RCVBUF 等)、阻塞模式和带超时的等待
+ */
+public final class SocketOptions {
+
+    private SocketOptions() {
+    }
+
+    public static int getInt(int socket, int option) throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        IntByReference value = new IntByReference();
+        IntByReference length = new IntByReference(4);
+        if (lib.getsockopt(socket, WinsockNative.SOL_SOCKET, option, value, length) == WinsockNative.SOCKET_ERROR) {
+            throw new IOException("getsockopt 失败: option=0x" + Integer.toHexString(option) + ", error=" + lib.WSAGetLastError());
+        }
+        return value.getValue();
+    }
+
+    /**
+     * 切换阻塞 / 非阻塞模式 (ioctlsocket FIONBIO)
+     * 非阻塞模式下 recv / send 不等待，暂时无法完成时返回 WSAEWOULDBLOCK，见 {@link WsaPollReadinessPoller}
+     */
+    public static void setNonBlocking(int socket, boolean nonBlocking) throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        if (lib.ioctlsocket(socket, WinsockNative.FIONBIO, new IntByReference(nonBlocking ? 1 : 0)) == WinsockNative.SOCKET_ERROR) {
+            throw new IOException("ioctlsocket(FIONBIO) 失败: " + lib.WSAGetLastError());
+        }
+    }
+
+    /**
+     * 带超时地等待 Socket 可读，监听 Socket 可读表示有待接受的连接 (阻塞的 accept 本身没有超时)
+     *
+     * @return 超时前是否就绪
+     */
+    public static boolean awaitReadable(int socket, int timeoutMs) throws IOException {
+        return new WsaPollFd(1).awaitReadable(socket, timeoutMs);
+    }
+
+    public static void setInt(int socket, int option, int value) throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        if (lib.setsockopt(socket, WinsockNative.SOL_SOCKET, option, new IntByReference(value), 4) == WinsockNative.SOCKET_ERROR) {
+            throw new IOException("setsockopt 失败: option=0x" + Integer.toHexString(option) + ", error=" + lib.WSAGetLastError());
+        }
+    }
+}
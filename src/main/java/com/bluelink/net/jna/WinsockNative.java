@@ -24,10 +24,31 @@ public interface WinsockNative extends Library {
 
     // 常量定义
     int AF_BTH = 32;
+    int AF_INET = 2;
     int SOCK_STREAM = 1;
+    int IPPROTO_TCP = 6;
     int BTHPROTO_RFCOMM = 3;
     int INVALID_SOCKET = -1;
     int SOCKET_ERROR = -1;
+    int BT_PORT_ANY = -1; // bind 时由系统分配 RFCOMM 通道
+
+    // setsockopt / getsockopt 选项 (WinSock2.h)
+    int SOL_SOCKET = 0xFFFF;
+    int SO_KEEPALIVE = 0x0008;
+    int SO_SNDBUF = 0x1001; // 内核发送缓冲区大小
+    int SO_RCVBUF = 0x1002; // 内核接收缓冲区大小
+    int SO_SNDTIMEO = 0x1005; // 发送超时 (毫秒)
+    int SO_RCVTIMEO = 0x1006; // 接收超时 (毫秒)
+    int TCP_NODELAY = 0x0001; // IPPROTO_TCP 级别: 关闭 Nagle 算法
+
+    // 非阻塞模式和 WSAPoll
+    int FIONBIO = 0x8004667E; // ioctlsocket: 非 0 切换为非阻塞模式
+    int WSAEWOULDBLOCK = 10035; // 非阻塞 Socket 暂时无法完成操作
+    short POLLRDNORM = 0x0100; // 可读 (含对端关闭)；监听 Socket 表示有待接受的连接
+    short POLLWRNORM = 0x0010; // 可写
+    short POLLERR = 0x0001;
+    short POLLHUP = 0x0002;
+    short POLLNVAL = 0x0004;
 
     // 结构体定义
     // 重要：Windows API 结构体通常是 1 字节对齐或 8 字节对齐，
@@ -63,6 +84,22 @@ public interface WinsockNative extends Library {
         }
     }
 
+    /**
+     * IPv4 地址，sin_port 和 sin_addr 均为网络字节序
+     * 仅用于 {@link WsaPollReadinessPoller} 的本机唤醒连接
+     */
+    @Structure.FieldOrder({ "sin_family", "sin_port", "sin_addr", "sin_zero" })
+    class SOCKADDR_IN extends Structure {
+        public short sin_family;
+        public short sin_port;
+        public int sin_addr;
+        public byte[] sin_zero = new byte[8];
+
+        public SOCKADDR_IN() {
+            this.sin_family = (short) AF_INET;
+        }
+    }
+
     @Structure.FieldOrder({ "Data1", "Data2", "Data3", "Data4" })
     class GUID extends Structure {
         public int Data1;
@@ -140,6 +177,42 @@ public interface WinsockNative extends Library {
      */
     int recv(int s, byte[] buf, int len, int flags);
 
+    /**
+     * 发送原生内存中的数据
+     * byte[] 版本每次调用都要把整个数组复制到临时的原生内存 (接收时还要复制回来)，
+     * 传入可复用的 Memory (或其 share(offset) 得到的 Pointer) 可省去这次封送复制
+     */
+    int send(int s, Pointer buf, int len, int flags);
+
+    /**
+     * 接收数据到原生内存，见 {@link #send(int, Pointer, int, int)}
+     */
+    int recv(int s, Pointer buf, int len, int flags);
+
+    /**
+     * 设置 Socket 选项 (optval 为 int 的选项)
+     */
+    int setsockopt(int s, int level, int optname, IntByReference optval, int optlen);
+
+    /**
+     * 读取 Socket 选项 (optval 为 int 的选项)，optlen 传入缓冲区大小、返回实际长度
+     */
+    int getsockopt(int s, int level, int optname, IntByReference optval, IntByReference optlen);
+
+    /**
+     * 控制 Socket 模式，用于 FIONBIO
+     */
+    int ioctlsocket(int s, int cmd, IntByReference argp);
+
+    /**
+     * 等待多个 Socket 就绪
+     * fdArray 为 WSAPOLLFD 数组: { SOCKET fd; SHORT events; SHORT revents; }，见 WsaPollFd
+     *
+     * @param timeout 毫秒，负数表示一直等待
+     * @return 就绪的 Socket 数，超时为 0，出错为 SOCKET_ERROR
+     */
+    int WSAPoll(Pointer fdArray, int fds, int timeout);
+
     /**
      * 关闭 Socket
      */
@@ -223,4 +296,9 @@ public interface WinsockNative extends Library {
      * 获取 Socket 名称
      */
     int getsockname(int s, Structure name, IntByReference namelen);
+
+    /**
+     * 获取已连接 Socket 的对端地址
+     */
+    int getpeername(int s, Structure name, IntByReference namelen);
 }
@@ -0,0 +1,80 @@
+package com.bluelink.net.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+
+import java.io.IOException;
+
+/**
+ * WSAPOLLFD 数组 (原生内存，可复用)
+ * 结构: { SOCKET fd; SHORT events; SHORT revents; }，SOCKET 为指针宽度 (64 位系统 8 字节，结构按 8 字节对齐)
+ */
+final class WsaPollFd {
+
+    private static final int FD_SIZE = Native.POINTER_SIZE;
+    private static final int ENTRY_SIZE = Native.POINTER_SIZE == 8 ? 16 : 8;
+
+    private Memory memory;
+    private int capacity;
+
+    WsaPollFd(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    void ensureCapacity(int count) {
+        if (count <= capacity) {
+            return;
+        }
+        capacity = Math.max(count, capacity * 2);
+        memory = new Memory((long) capacity * ENTRY_SIZE);
+    }
+
+    void set(int index, int socket, short events) {
+        long base = (long) index * ENTRY_SIZE;
+        if (FD_SIZE == 8) {
+            memory.setLong(base, socket & 0xFFFFFFFFL);
+        } else {
+            memory.setInt(base, socket);
+        }
+        memory.setShort(base + FD_SIZE, events);
+        memory.setShort(base + FD_SIZE + 2, (short) 0);
+    }
+
+    short revents(int index) {
+        return memory.getShort((long) index * ENTRY_SIZE + FD_SIZE + 2);
+    }
+
+    /**
+     * 等待前 count 个 Socket 就绪
+     *
+     * @return 就绪的 Socket 数，超时为 0
+     */
+    int poll(int count, int timeoutMs) throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        int res = lib.WSAPoll(memory, count, timeoutMs);
+        if (res == WinsockNative.SOCKET_ERROR) {
+            throw new IOException("WSAPoll 失败: " + lib.WSAGetLastError());
+        }
+        return res;
+    }
+
+    /**
+     * 等待单个 Socket 可读 (监听 Socket 为有待接受的连接)，使用第 0 项
+     *
+     * @return 超时前是否就绪 (出错或关闭也视为就绪，随后的 recv / accept 报告错误)
+     */
+    boolean awaitReadable(int socket, int timeoutMs) throws IOException {
+        set(0, socket, WinsockNative.POLLRDNORM);
+        return poll(1, timeoutMs) > 0;
+    }
+
+    /**
+     * 阻塞等待单个非阻塞 Socket 可写，使用第 0 项，供写线程在 send 返回 WSAEWOULDBLOCK 后使用
+     */
+    void awaitWritable(int socket) throws IOException {
+        set(0, socket, WinsockNative.POLLWRNORM);
+        while (poll(1, 1000) == 0) {
+            // 继续等待；Socket 关闭时 WSAPoll 报告 POLLNVAL / POLLHUP，随后的 send 返回错误
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.bluelink.net.jna;
+
+import com.bluelink.net.io.ReadinessPoller;
+import com.bluelink.net.jna.WinsockNative.SOCKADDR_IN;
+import com.sun.jna.ptr.IntByReference;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于 WSAPoll 的就绪通知，用于 RFCOMM Socket (java.nio 无法包装 Winsock 蓝牙 Socket)
+ * WSAPoll 没有可从其他线程唤醒的句柄，因此在 127.0.0.1 上建立一对 TCP 连接，读端固定放在数组第 0 项，
+ * wakeup 向写端发送 1 字节使等待立即返回 (与 java.nio Selector 在 Windows 上的做法相同)。
+ */
+public class WsaPollReadinessPoller implements ReadinessPoller<Integer> {
+
+    private static final byte[] WAKEUP_BYTE = { 1 };
+
+    private static final class Registration {
+        final int socket;
+        int ops;
+
+        Registration(int socket, int ops) {
+            this.socket = socket;
+            this.ops = ops;
+        }
+    }
+
+    private final Map<Object, Registration> registrations = new LinkedHashMap<>();
+    private final List<Object> polled = new ArrayList<>();
+    private final WsaPollFd fds = new WsaPollFd(16);
+    private final int wakeupReader;
+    private final int wakeupWriter;
+    private final byte[] drainBuffer = new byte[64];
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile boolean closed;
+
+    public WsaPollReadinessPoller() throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        // 与 close 中的 WSACleanup 对应，不依赖蓝牙服务端是否已初始化 Winsock
+        if (lib.WSAStartup((short) 0x0202, new WinsockNative.WSAData()) != 0) {
+            throw new IOException("WSAStartup 失败");
+        }
+        int[] pair;
+        try {
+            pair = openWakeupPair();
+        } catch (IOException e) {
+            lib.WSACleanup();
+            throw e;
+        }
+        wakeupReader = pair[0];
+        wakeupWriter = pair[1];
+    }
+
+    @Override
+    public void register(Integer socket, int ops, Object attachment) throws IOException {
+        SocketOptions.setNonBlocking(socket, true);
+        registrations.put(attachment, new Registration(socket, ops));
+    }
+
+    @Override
+    public void setInterest(Object attachment, int ops) {
+        Registration registration = registrations.get(attachment);
+        if (registration != null) {
+            registration.ops = ops;
+        }
+    }
+
+    @Override
+    public void cancel(Object attachment) {
+        registrations.remove(attachment);
+    }
+
+    @Override
+    public List<Object> attachments() {
+        return new ArrayList<>(registrations.keySet());
+    }
+
+    @Override
+    public void poll(long timeoutMs, ReadyHandler handler) throws IOException {
+        polled.clear();
+        fds.ensureCapacity(registrations.size() + 1);
+        fds.set(0, wakeupReader, WinsockNative.POLLRDNORM);
+        for (Map.Entry<Object, Registration> entry : registrations.entrySet()) {
+            Registration registration = entry.getValue();
+            if (registration.ops == 0) {
+                continue; // 暂停的连接不放入数组，出错和挂断也不会报告
+            }
+            fds.set(polled.size() + 1, registration.socket, events(registration.ops));
+            polled.add(entry.getKey());
+        }
+
+        int wait = timeoutMs < 0 ? -1 : (int) Math.min(timeoutMs, Integer.MAX_VALUE);
+        if (fds.poll(polled.size() + 1, wait) == 0) {
+            return;
+        }
+        if (fds.revents(0) != 0) {
+            drainWakeup();
+        }
+
+        for (int i = 0; i < polled.size(); i++) {
+            short revents = fds.revents(i + 1);
+            if (revents == 0) {
+                continue;
+            }
+            Object attachment = polled.get(i);
+            Registration registration = registrations.get(attachment);
+            if (registration == null || registration.ops == 0) {
+                continue; // 前面的回调中已取消或暂停
+            }
+            int ready = readyOps(revents, registration.ops);
+            if (ready != 0) {
+                handler.ready(attachment, ready);
+            }
+        }
+    }
+
+    /**
+     * 关注的事件对应的 WSAPOLLFD.events: 读和接受连接都对应 POLLRDNORM，写对应 POLLWRNORM
+     */
+    private static short events(int ops) {
+        int events = 0;
+        if ((ops & (OP_READ | OP_ACCEPT)) != 0) {
+            events |= WinsockNative.POLLRDNORM;
+        }
+        if ((ops & OP_WRITE) != 0) {
+            events |= WinsockNative.POLLWRNORM;
+        }
+        return (short) events;
+    }
+
+    /**
+     * revents 对应的就绪事件，只报告关注的事件
+     * 出错、挂断报告为所有关注的事件，由读取 (或 accept、写出) 得到 EOF 或异常。
+     */
+    private static int readyOps(short revents, int ops) {
+        if ((revents & (WinsockNative.POLLERR | WinsockNative.POLLHUP | WinsockNative.POLLNVAL)) != 0) {
+            return ops;
+        }
+        int ready = 0;
+        if ((revents & WinsockNative.POLLRDNORM) != 0) {
+            ready |= ops & (OP_READ | OP_ACCEPT);
+        }
+        if ((revents & WinsockNative.POLLWRNORM) != 0) {
+            ready |= ops & OP_WRITE;
+        }
+        return ready;
+    }
+
+    /**
+     * 在等待之前或期间调用都会使 (下一次) poll 立即返回；未被读走的唤醒字节只保留 1 个
+     */
+    @Override
+    public void wakeup() {
+        if (!closed && wakeupPending.compareAndSet(false, true)) {
+            // 非阻塞写端，发送缓冲区满 (WSAEWOULDBLOCK) 时读端必然已有数据，无需处理
+            WinsockNative.INSTANCE.send(wakeupWriter, WAKEUP_BYTE, 1, 0);
+        }
+    }
+
+    /**
+     * 读走所有唤醒字节；先清除标志，之后的 wakeup 会重新发送
+     */
+    private void drainWakeup() throws IOException {
+        wakeupPending.set(false);
+        WinsockNative lib = WinsockNative.INSTANCE;
+        while (true) {
+            int n = lib.recv(wakeupReader, drainBuffer, drainBuffer.length, 0);
+            if (n > 0) {
+                continue;
+            }
+            if (n == WinsockNative.SOCKET_ERROR && lib.WSAGetLastError() == WinsockNative.WSAEWOULDBLOCK) {
+                return;
+            }
+            throw new IOException("唤醒连接已断开: " + (n == 0 ? "EOF" : String.valueOf(lib.WSAGetLastError())));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        registrations.clear();
+        polled.clear();
+        WinsockNative lib = WinsockNative.INSTANCE;
+        lib.closesocket(wakeupWriter);
+        lib.closesocket(wakeupReader);
+        lib.WSACleanup();
+    }
+
+    /**
+     * 在 127.0.0.1 的临时端口上建立唤醒连接，两端均为非阻塞模式
+     *
+     * @return { 读端, 写端 }
+     */
+    private static int[] openWakeupPair() throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        int listener = openTcpSocket();
+        int writer = WinsockNative.INVALID_SOCKET;
+        int reader = WinsockNative.INVALID_SOCKET;
+        try {
+            SOCKADDR_IN addr = new SOCKADDR_IN();
+            addr.sin_addr = loopbackAddress();
+            addr.write();
+            if (lib.bind(listener, addr, addr.size()) == WinsockNative.SOCKET_ERROR
+                    || lib.listen(listener, 1) == WinsockNative.SOCKET_ERROR) {
+                throw new IOException("监听唤醒端口失败: " + lib.WSAGetLastError());
+            }
+            IntByReference len = new IntByReference(addr.size());
+            if (lib.getsockname(listener, addr, len) == WinsockNative.SOCKET_ERROR) {
+                throw new IOException("getsockname 失败: " + lib.WSAGetLastError());
+            }
+            addr.read();
+
+            writer = openTcpSocket();
+            if (lib.connect(writer, addr, addr.size()) == WinsockNative.SOCKET_ERROR) {
+                throw new IOException("连接唤醒端口失败: " + lib.WSAGetLastError());
+            }
+            SOCKADDR_IN local = new SOCKADDR_IN();
+            lib.getsockname(writer, local, new IntByReference(local.size()));
+            local.read();
+            SOCKADDR_IN peer = new SOCKADDR_IN();
+            reader = lib.accept(listener, peer, new IntByReference(peer.size()));
+            if (reader == WinsockNative.INVALID_SOCKET) {
+                throw new IOException("接受唤醒连接失败: " + lib.WSAGetLastError());
+            }
+            peer.read();
+            // 本机其他进程可能抢先连上临时端口，只接受自己的写端
+            if (peer.sin_port != local.sin_port) {
+                throw new IOException("唤醒端口被其他连接占用");
+            }
+
+            lib.setsockopt(writer, WinsockNative.IPPROTO_TCP, WinsockNative.TCP_NODELAY, new IntByReference(1), 4);
+            SocketOptions.setNonBlocking(writer, true);
+            SocketOptions.setNonBlocking(reader, true);
+            return new int[] { reader, writer };
+        } catch (IOException e) {
+            if (reader != WinsockNative.INVALID_SOCKET) {
+                lib.closesocket(reader);
+            }
+            if (writer != WinsockNative.INVALID_SOCKET) {
+                lib.closesocket(writer);
+            }
+            throw e;
+        } finally {
+            lib.closesocket(listener);
+        }
+    }
+
+    private static int openTcpSocket() throws IOException {
+        WinsockNative lib = WinsockNative.INSTANCE;
+        int socket = lib.socket(WinsockNative.AF_INET, WinsockNative.SOCK_STREAM, WinsockNative.IPPROTO_TCP);
+        if (socket == WinsockNative.INVALID_SOCKET) {
+            throw new IOException("创建唤醒 Socket 失败: " + lib.WSAGetLastError());
+        }
+        return socket;
+    }
+
+    /**
+     * 127.0.0.1，按网络字节序写入 sin_addr
+     */
+    private static int loopbackAddress() {
+        int address = 0x7F000001;
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? Integer.reverseBytes(address) : address;
+    }
+}
@@ -0,0 +1,196 @@
+package com.bluelink.net.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * 文件夹归档解包 (接收方)
+ * 按到达顺序接收归档字节 (从开头连续)，边接收边解析条目并写出文件，不等整个归档到齐。
+ * 条目中的路径不能越出目标文件夹。结构见 {@link DirectoryArchive}。
+ */
+public class ArchiveExtractor implements Unpacker {
+
+    private final File target;
+    private final Path targetPath;
+    private final ByteBuffer header = ByteBuffer.allocate(DirectoryArchive.ENTRY_HEADER_SIZE + DirectoryArchive.MAX_PATH_BYTES);
+    private int headerNeeded = 1; // 当前条目头还需要的字节数: 依次读取 Type、PathLen、其余部分
+    private boolean ended;
+    private int entries;
+
+    // 正在写出的文件
+    private FileChannel channel;
+    private File file;
+    private long remaining;
+    private long modified;
+
+    public ArchiveExtractor(File target) throws IOException {
+        this.target = target;
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("无法创建文件夹: " + target);
+        }
+        this.targetPath = target.toPath().toAbsolutePath().normalize();
+    }
+
+    @Override
+    public File getTarget() {
+        return target;
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (ended) {
+                throw new IOException("归档结束标记之后还有数据");
+            }
+            if (remaining > 0) {
+                int n = (int) Math.min(remaining, end - offset);
+                ByteBuffer buffer = ByteBuffer.wrap(data, offset, n);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                offset += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    closeFile();
+                }
+                continue;
+            }
+            int n = Math.min(headerNeeded, end - offset);
+            header.put(data, offset, n);
+            offset += n;
+            headerNeeded -= n;
+            if (headerNeeded == 0) {
+                parseHeader();
+            }
+        }
+    }
+
+    private void parseHeader() throws IOException {
+        byte type = header.get(0);
+        if (header.position() == 1) {
+            if (type == DirectoryArchive.TYPE_END) {
+                header.clear();
+                ended = true;
+                return;
+            }
+            if (type != DirectoryArchive.TYPE_FILE && type != DirectoryArchive.TYPE_DIRECTORY) {
+                throw new IOException("无效的归档条目类型: " + type);
+            }
+            headerNeeded = 2;
+            return;
+        }
+        int pathLen = header.getShort(1) & 0xFFFF;
+        int total = DirectoryArchive.ENTRY_HEADER_SIZE + pathLen;
+        if (header.position() < total) {
+            // 继续读取路径、大小和修改时间
+            headerNeeded = total - header.position();
+            return;
+        }
+        String path = new String(header.array(), 3, pathLen, StandardCharsets.UTF_8);
+        long size = header.getLong(3 + pathLen);
+        long mtime = header.getLong(3 + pathLen + 8);
+        header.clear();
+        headerNeeded = 1;
+        entries++;
+
+        File entryFile = resolve(path);
+        if (type == DirectoryArchive.TYPE_DIRECTORY) {
+            if (size != 0) {
+                throw new IOException("无效的文件夹条目: " + path);
+            }
+            if (!entryFile.isDirectory() && !entryFile.mkdirs()) {
+                throw new IOException("无法创建文件夹: " + path);
+            }
+            return;
+        }
+        if (size < 0) {
+            throw new IOException("无效的文件大小: " + path);
+        }
+        File parent = entryFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("无法创建文件夹: " + parent);
+        }
+        // 续传时会重新解包已接收的部分，覆盖之前写出的内容
+        channel = FileChannel.open(entryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        file = entryFile;
+        remaining = size;
+        modified = mtime;
+        if (size == 0) {
+            closeFile();
+        }
+    }
+
+    /**
+     * 条目路径对应的本地文件，拒绝绝对路径和 ".." 等越出目标文件夹的路径
+     */
+    private File resolve(String path) throws IOException {
+        if (path.isEmpty() || path.startsWith("/") || path.indexOf('\\') >= 0 || path.indexOf(':') >= 0) {
+            throw new IOException("非法的归档路径: " + path);
+        }
+        for (String part : path.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new IOException("非法的归档路径: " + path);
+            }
+        }
+        Path resolved = targetPath.resolve(path).normalize();
+        if (!resolved.startsWith(targetPath) || resolved.equals(targetPath)) {
+            throw new IOException("非法的归档路径: " + path);
+        }
+        return resolved.toFile();
+    }
+
+    private void closeFile() throws IOException {
+        channel.close();
+        channel = null;
+        file.setLastModified(modified);
+        file = null;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        close();
+        if (!ended) {
+            throw new IOException("归档不完整");
+        }
+        System.out.println("[Archive] 解包完成: " + target.getName() + ", " + entries + " 个条目");
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public void delete() {
+        close();
+        deleteTree(target);
+    }
+
+    static void deleteTree(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("[Archive] 删除文件夹失败: " + dir + ", " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.bluelink.net.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 多文件批次解包 (接收方)
+ * 按清单把连续到达的批次内容切分为各个文件，写入解包目录下以序号命名的文件，接收完成后由调用方按原文件名交付。
+ */
+public class BatchExtractor implements Unpacker {
+
+    private final File target;
+    private final List<FileBatch.Entry> entries;
+    private int index; // 正在写出的文件
+    private long remaining;
+    private FileChannel channel;
+
+    public BatchExtractor(File target, List<FileBatch.Entry> entries) throws IOException {
+        this.target = target;
+        this.entries = entries;
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("无法创建文件夹: " + target);
+        }
+        index = -1;
+        nextFile();
+    }
+
+    /**
+     * 第 index 个文件的解包位置
+     */
+    public static File fileAt(File target, int index) {
+        return new File(target, String.valueOf(index));
+    }
+
+    @Override
+    public File getTarget() {
+        return target;
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (channel == null) {
+                throw new IOException("批次内容超出清单");
+            }
+            int n = (int) Math.min(remaining, end - offset);
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, n);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            offset += n;
+            remaining -= n;
+            if (remaining == 0) {
+                nextFile();
+            }
+        }
+    }
+
+    /**
+     * 关闭当前文件，打开下一个非空文件；空文件直接创建
+     */
+    private void nextFile() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            FileBatch.Entry done = entries.get(index);
+            fileAt(target, index).setLastModified(done.modified);
+        }
+        while (++index < entries.size()) {
+            FileBatch.Entry entry = entries.get(index);
+            // 续传时会重新解包已接收的部分，覆盖之前写出的内容
+            FileChannel next = FileChannel.open(fileAt(target, index).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (entry.size > 0) {
+                channel = next;
+                remaining = entry.size;
+                return;
+            }
+            next.close();
+            fileAt(target, index).setLastModified(entry.modified);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        close();
+        if (index < entries.size()) {
+            throw new IOException("批次不完整");
+        }
+        System.out.println("[Archive] 批次解包完成: " + entries.size() + " 个文件");
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public void delete() {
+        close();
+        ArchiveExtractor.deleteTree(target);
+    }
+}
@@ -0,0 +1,104 @@
+package com.bluelink.net.protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分级缓冲池
+ * 文件分块在收发两端都按块使用负载缓冲区 (压缩输出、接收的帧负载、解压结果)，传输大文件时
+ * 每秒产生大量短命的大数组。缓冲区按 2 的幂分级，每级的容量在 2 的幂之上留出压缩膨胀和分块头的余量，
+ * 同一分块大小的压缩输出和存储模式负载落在同一级；每级保留有限个空闲数组，稳定传输时基本不再分配。
+ * 取到的数组可能比请求的长，有效长度由调用方记录 (见 {@link Frame#length})。
+ * 超过最大级别的请求直接分配，归还时丢弃；某级空闲数组已满时归还的数组交给 GC。线程安全。
+ */
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 12; // 4KB
+    private static final int MAX_SHIFT = 20; // 1MB，分块大小的常用上限
+    private static final int RETAINED_BYTES_PER_CLASS = 2 * 1024 * 1024; // 每级最多保留的空闲字节数
+    private static final int MIN_RETAINED = 2;
+
+    private static final List<ArrayDeque<byte[]>> FREE;
+    private static final int[] LIMITS;
+    private static final AtomicLong ALLOCATIONS = new AtomicLong();
+
+    static {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        FREE = new ArrayList<>(classes);
+        LIMITS = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            FREE.add(new ArrayDeque<>());
+            LIMITS[i] = Math.max(MIN_RETAINED, RETAINED_BYTES_PER_CLASS >> (MIN_SHIFT + i));
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * 级别 index 的数组长度: 2 的幂加上 1/128 和 128 字节的余量
+     * 足以容纳该大小的原始数据经 Deflate / LZ4 压缩后的最坏长度加上分块头
+     */
+    private static int capacity(int index) {
+        int base = 1 << (MIN_SHIFT + index);
+        return base + (base >> 7) + 128;
+    }
+
+    private static int classOf(int size) {
+        for (int i = 0; i <= MAX_SHIFT - MIN_SHIFT; i++) {
+            if (size <= capacity(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 取一个长度不小于 minSize 的数组，内容未清零
+     */
+    public static byte[] acquire(int minSize) {
+        int index = classOf(minSize);
+        if (index < 0) {
+            ALLOCATIONS.incrementAndGet();
+            return new byte[minSize];
+        }
+        ArrayDeque<byte[]> free = FREE.get(index);
+        synchronized (free) {
+            byte[] buffer = free.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        ALLOCATIONS.incrementAndGet();
+        return new byte[capacity(index)];
+    }
+
+    /**
+     * 归还 {@link #acquire} 取得的数组，之后调用方不能再使用它
+     * 长度不属于任何级别的数组 (过大的请求或不是从池中取得的) 直接丢弃
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int index = classOf(buffer.length);
+        if (index < 0 || capacity(index) != buffer.length) {
+            return;
+        }
+        ArrayDeque<byte[]> free = FREE.get(index);
+        synchronized (free) {
+            if (free.size() < LIMITS[index]) {
+                free.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * 池中累计新分配的数组个数，稳定传输时应不再增长
+     */
+    public static long getAllocations() {
+        return ALLOCATIONS.get();
+    }
+}
@@ -0,0 +1,181 @@
+package com.bluelink.net.protocol;
+
+import com.bluelink.net.protocol.codec.CodecRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 会话能力
+ * 会话开始时双方通过 HELLO 帧交换各自的能力，再由 {@link #negotiate} 得出双方都支持的最快配置。
+ * HELLO 结构: [Version 1][CodecCount 1][CodecId 1]*[MaxChunkSize 4][Window 4][Features 4][Channels 1]
+ * 字段只在末尾追加；旧版本只发送 [Version 1]，缺少的字段按保守默认值处理。
+ */
+public class Capabilities {
+
+    // 可选特性位
+    public static final int FEATURE_MESSAGE_DICTIONARY = 0x01; // MSG 帧可使用预置字典 (FLAG_DICTIONARY)
+    public static final int FEATURE_CHUNK_CRC32C = 0x02; // 分块带 CRC32C，损坏的分块通过 FILE_NAK 单独重传
+    public static final int FEATURE_SEQUENCED = 0x04; // 数据帧带会话序号，SEQ_ACK 累计确认，在途帧数受窗口限制 (需紧凑帧)
+    public static final int FEATURE_DIRECTORY_ARCHIVE = 0x08; // 文件夹作为归档传输流发送 (FILE_BEGIN 带 Kind)
+    public static final int FEATURE_FILE_BATCH = 0x10; // 多个文件作为一个批次传输流发送 (FILE_BEGIN 带 Kind 和清单)
+    public static final int FEATURE_TRANSPORT_UPGRADE = 0x20; // 识别 TRANSPORT_OFFER / TRANSPORT_SWITCH，会话可切换到 TCP
+    public static final int FEATURE_MULTI_CHANNEL = 0x40; // 识别 CHANNEL_OFFER，分块可条带化到并行连接上 (FILE_BEGIN 带条带数)
+
+    public static final int LOCAL_FEATURES = FEATURE_MESSAGE_DICTIONARY | FEATURE_CHUNK_CRC32C | FEATURE_SEQUENCED
+            | FEATURE_DIRECTORY_ARCHIVE | FEATURE_FILE_BATCH | FEATURE_TRANSPORT_UPGRADE | FEATURE_MULTI_CHANNEL;
+
+    // 未收到对端的窗口大小时使用的默认值 (在途帧数)
+    public static final int DEFAULT_WINDOW = 16;
+    // 每个会话最多使用的连接数 (含主连接)
+    public static final int MAX_CHANNELS = 8;
+
+    public int version;
+    public Set<Byte> codecs;
+    public int maxChunkSize;
+    public int window;
+    public int features;
+    public int channels; // 会话使用的连接数 (含主连接)，需双方支持 FEATURE_MULTI_CHANNEL
+
+    /**
+     * 本机能力
+     */
+    public static Capabilities local() {
+        return local(DEFAULT_WINDOW);
+    }
+
+    /**
+     * 本机能力
+     *
+     * @param window 本机允许对端在途的最大帧数
+     */
+    public static Capabilities local(int window) {
+        return local(window, 1);
+    }
+
+    /**
+     * 本机能力
+     *
+     * @param window 本机允许对端在途的最大帧数
+     * @param channels 本机希望使用的连接数 (含主连接)
+     */
+    public static Capabilities local(int window, int channels) {
+        Capabilities caps = new Capabilities();
+        caps.version = ProtocolWriter.FRAME_VERSION;
+        caps.codecs = new LinkedHashSet<>(CodecRegistry.supportedIds());
+        caps.maxChunkSize = ProtocolWriter.MAX_CHUNK_SIZE;
+        caps.window = window > 0 ? window : DEFAULT_WINDOW;
+        caps.features = LOCAL_FEATURES;
+        caps.channels = Math.max(1, Math.min(MAX_CHANNELS, channels));
+        return caps;
+    }
+
+    /**
+     * 未完成握手 (对端不发送 HELLO) 时假定的对端能力: 对端不识别帧，只收发旧格式数据包
+     */
+    public static Capabilities legacy() {
+        Capabilities caps = new Capabilities();
+        caps.version = ProtocolWriter.FRAME_VERSION_LEGACY;
+        caps.codecs = new LinkedHashSet<>(Arrays.asList(CodecRegistry.STORED, CodecRegistry.DEFLATE));
+        caps.maxChunkSize = ProtocolWriter.DEFAULT_CHUNK_SIZE;
+        caps.window = DEFAULT_WINDOW;
+        caps.features = 0;
+        caps.channels = 1;
+        return caps;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) != 0;
+    }
+
+    /**
+     * 对端是否识别帧；否则消息和文件只能以旧格式数据包整包发送
+     */
+    public boolean supportsFrames() {
+        return version >= ProtocolWriter.FRAME_VERSION_1;
+    }
+
+    /**
+     * 是否启用序号和滑动窗口 (序号只在紧凑帧中传输)
+     */
+    public boolean isSequenced() {
+        return hasFeature(FEATURE_SEQUENCED) && version >= ProtocolWriter.FRAME_VERSION_COMPACT;
+    }
+
+    /**
+     * 取双方能力的交集
+     */
+    public Capabilities negotiate(Capabilities peer) {
+        Capabilities result = new Capabilities();
+        result.version = Math.min(version, peer.version);
+        result.codecs = new LinkedHashSet<>(codecs);
+        result.codecs.retainAll(peer.codecs);
+        result.codecs.add(CodecRegistry.STORED); // 存储模式总是可用
+        result.codecs = Collections.unmodifiableSet(result.codecs);
+        result.maxChunkSize = Math.min(maxChunkSize, peer.maxChunkSize);
+        result.window = Math.min(window, peer.window);
+        result.features = features & peer.features;
+        result.channels = result.hasFeature(FEATURE_MULTI_CHANNEL) ? Math.min(channels, peer.channels) : 1;
+        return result;
+    }
+
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(version);
+        dos.writeByte(codecs.size());
+        for (byte id : codecs) {
+            dos.writeByte(id);
+        }
+        dos.writeInt(maxChunkSize);
+        dos.writeInt(window);
+        dos.writeInt(features);
+        dos.writeByte(channels);
+        return baos.toByteArray();
+    }
+
+    public static Capabilities decode(byte[] payload) throws IOException {
+        if (payload.length < 1) {
+            throw new IOException("无效的 HELLO 帧");
+        }
+        Capabilities caps = legacy();
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        caps.version = buffer.get() & 0xFF;
+        if (!buffer.hasRemaining()) {
+            return caps; // 只通告了版本
+        }
+        try {
+            int count = buffer.get() & 0xFF;
+            Set<Byte> ids = new LinkedHashSet<>();
+            for (int i = 0; i < count; i++) {
+                ids.add(buffer.get());
+            }
+            caps.codecs = ids;
+            caps.maxChunkSize = buffer.getInt();
+            caps.window = buffer.getInt();
+            caps.features = buffer.getInt();
+            if (buffer.hasRemaining()) {
+                caps.channels = Math.max(1, Math.min(MAX_CHANNELS, buffer.get() & 0xFF));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("HELLO 帧不完整");
+        }
+        if (caps.maxChunkSize <= 0 || caps.window <= 0) {
+            throw new IOException("无效的 HELLO 参数: chunk=" + caps.maxChunkSize + ", window=" + caps.window);
+        }
+        return caps;
+    }
+
+    @Override
+    public String toString() {
+        return "Capabilities{version=" + version + ", codecs=" + codecs + ", maxChunk=" + maxChunkSize
+                + ", window=" + window + ", features=0x" + Integer.toHexString(features) + ", channels=" + channels + "}";
+    }
+}
@@ -0,0 +1,47 @@
+package com.bluelink.net.protocol;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 并行连接的邀请 (多通道条带化)
+ * 邀请方在本机另开一个 RFCOMM 通道监听，把通道号、需要建立的连接数和一次性口令通过主连接发给对端；
+ * 对端连接同一台设备的该通道 count 次，每条连接先发送 [Nonce 8][Index 1]，邀请方核对口令和来源设备后才接受。
+ * CHANNEL_OFFER 结构: [Channel 2][Count 1][Nonce 8]
+ */
+public class ChannelOffer {
+
+    public int channel; // RFCOMM 通道号 (TCP 连接时为端口)
+    public int count; // 主连接之外的并行连接数
+    public long nonce;
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 1 + 8);
+        buffer.putShort((short) channel);
+        buffer.put((byte) count);
+        buffer.putLong(nonce);
+        return buffer.array();
+    }
+
+    public static ChannelOffer decode(Frame frame) throws IOException {
+        ChannelOffer offer = new ChannelOffer();
+        ByteBuffer buffer = ByteBuffer.wrap(frame.payload, 0, frame.length);
+        try {
+            offer.channel = buffer.getShort() & 0xFFFF;
+            offer.count = buffer.get() & 0xFF;
+            offer.nonce = buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("无效的 CHANNEL_OFFER 帧");
+        }
+        if (offer.count <= 0 || offer.count >= Capabilities.MAX_CHANNELS) {
+            throw new IOException("无效的并行连接数: " + offer.count);
+        }
+        return offer;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelOffer{channel=" + channel + ", count=" + count + "}";
+    }
+}
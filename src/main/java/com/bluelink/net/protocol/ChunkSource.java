@@ -0,0 +1,42 @@
+package com.bluelink.net.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 分块编码器的数据来源: 长度固定、可按偏移读取的字节序列 (普通文件或文件夹归档)
+ * read 需要线程安全，预读线程顺序读取的同时发送线程可能读取重传的分块
+ */
+interface ChunkSource extends Closeable {
+
+    long size() throws IOException;
+
+    /**
+     * 从 position 处读取到 dst，返回读取的字节数，到达末尾时返回 -1
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * 普通文件
+     */
+    static ChunkSource of(FileChannel channel) {
+        return new ChunkSource() {
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                return channel.read(dst, position);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
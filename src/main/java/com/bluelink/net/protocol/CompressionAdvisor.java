@@ -0,0 +1,152 @@
+package com.bluelink.net.protocol;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 压缩决策器
+ * 对已压缩格式 (JPEG/PNG/ZIP/MP4 等) 和高熵数据直接使用存储模式，避免无效压缩浪费 CPU 和延迟。
+ * 每个传输流一个实例，按块决策并根据实际压缩效果自适应。
+ */
+public class CompressionAdvisor {
+
+    // 已知的压缩格式扩展名
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif",
+            "zip", "7z", "rar", "gz", "tgz", "bz2", "xz", "zst", "lz4", "cab",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm", "flv", "wmv",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac", "wma",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub", "apk", "jar", "msi"));
+
+    // 采样熵超过该值 (bit/byte) 视为不可压缩
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    // 熵采样的最大字节数
+    private static final int ENTROPY_SAMPLE_SIZE = 4096;
+
+    // 连续多少块压缩无效后停止尝试
+    private static final int MAX_FAILED_CHUNKS = 4;
+
+    // 停止尝试后每隔多少块重新探测一次 (文件中段可能变得可压缩)
+    private static final int PROBE_INTERVAL = 16;
+
+    private boolean compressedFormat;
+    private boolean firstChunk = true;
+    private int failedChunks;
+    private int skippedChunks;
+
+    /**
+     * @param fileName 文件名，用于按扩展名判断格式；消息传 null
+     */
+    public CompressionAdvisor(String fileName) {
+        this.compressedFormat = isCompressedFormat(fileName);
+    }
+
+    /**
+     * 按扩展名判断是否为已压缩格式
+     */
+    public static boolean isCompressedFormat(String fileName) {
+        if (fileName == null) {
+            return false;
+        }
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return false;
+        }
+        return COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 判断该块是否值得尝试压缩
+     */
+    public boolean shouldCompress(byte[] data, int off, int len) {
+        if (firstChunk) {
+            firstChunk = false;
+            // 扩展名可能不可信，首块再按文件头魔数判断一次
+            if (hasCompressedSignature(data, off, len)) {
+                compressedFormat = true;
+            }
+        }
+        if (compressedFormat) {
+            return false;
+        }
+        if (failedChunks >= MAX_FAILED_CHUNKS) {
+            if (++skippedChunks % PROBE_INTERVAL != 0) {
+                return false;
+            }
+        }
+        return sampleEntropy(data, off, len) < ENTROPY_THRESHOLD;
+    }
+
+    /**
+     * 记录一次压缩尝试的结果
+     */
+    public void record(boolean paidOff) {
+        if (paidOff) {
+            failedChunks = 0;
+            skippedChunks = 0;
+        } else {
+            failedChunks++;
+        }
+    }
+
+    /**
+     * 压缩结果是否划算: 至少节省 1/32 才值得让接收方解压
+     */
+    public static boolean paysOff(int rawLen, int compLen) {
+        return compLen < rawLen - (rawLen >> 5);
+    }
+
+    /**
+     * 常见压缩格式的文件头
+     */
+    static boolean hasCompressedSignature(byte[] b, int off, int len) {
+        if (len < 4) {
+            return false;
+        }
+        int b0 = b[off] & 0xFF, b1 = b[off + 1] & 0xFF, b2 = b[off + 2] & 0xFF, b3 = b[off + 3] & 0xFF;
+        if (b0 == 0xFF && b1 == 0xD8 && b2 == 0xFF) return true; // JPEG
+        if (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') return true; // PNG
+        if (b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8') return true; // GIF
+        if (b0 == 'P' && b1 == 'K' && b2 == 0x03 && b3 == 0x04) return true; // ZIP/DOCX/JAR/APK
+        if (b0 == 0x1F && b1 == 0x8B) return true; // GZIP
+        if (b0 == '7' && b1 == 'z' && b2 == 0xBC && b3 == 0xAF) return true; // 7z
+        if (b0 == 'R' && b1 == 'a' && b2 == 'r' && b3 == '!') return true; // RAR
+        if (b0 == 'B' && b1 == 'Z' && b2 == 'h') return true; // BZIP2
+        if (b0 == 0xFD && b1 == '7' && b2 == 'z' && b3 == 'X') return true; // XZ
+        if (b0 == 0x28 && b1 == 0xB5 && b2 == 0x2F && b3 == 0xFD) return true; // ZSTD
+        if (b0 == 'O' && b1 == 'g' && b2 == 'g' && b3 == 'S') return true; // OGG
+        if (b0 == 'f' && b1 == 'L' && b2 == 'a' && b3 == 'C') return true; // FLAC
+        if (b0 == 'I' && b1 == 'D' && b2 == '3') return true; // MP3 (ID3)
+        if (len >= 8 && b[off + 4] == 'f' && b[off + 5] == 't' && b[off + 6] == 'y' && b[off + 7] == 'p') return true; // MP4/MOV/HEIC
+        if (len >= 12 && b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F'
+                && b[off + 8] == 'W' && b[off + 9] == 'E' && b[off + 10] == 'B' && b[off + 11] == 'P') return true; // WEBP
+        return false;
+    }
+
+    /**
+     * 均匀采样计算 Shannon 熵 (bit/byte)
+     */
+    static double sampleEntropy(byte[] data, int off, int len) {
+        if (len <= 0) {
+            return 0;
+        }
+        int step = Math.max(1, len / ENTROPY_SAMPLE_SIZE);
+        int[] counts = new int[256];
+        int samples = 0;
+        for (int i = off; i < off + len; i += step) {
+            counts[data[i] & 0xFF]++;
+            samples++;
+        }
+        double entropy = 0;
+        for (int c : counts) {
+            if (c > 0) {
+                double p = (double) c / samples;
+                entropy -= p * (Math.log(p) / Math.log(2));
+            }
+        }
+        return entropy;
+    }
+}
@@ -0,0 +1,248 @@
+package com.bluelink.net.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 文件夹归档 (发送方)
+ * 把整个文件夹表示为一个连续的字节序列，作为一个传输流发送，复用分块、校验、续传和重传机制。
+ * 创建时只遍历目录结构、记录每个条目的路径、大小和修改时间，不读取内容也不在磁盘上生成归档文件；
+ * 内容在读取到对应偏移时才打开文件读取，同一时间只打开一个文件。
+ * 条目按路径排序，同一文件夹未修改时归档内容不变，可按偏移续传。
+ * 结构: 条目*, 结束标记
+ * 条目: [Type 1][PathLen 2][Path UTF-8][Size 8][MTime 8][文件内容 Size 字节]，路径相对于文件夹，以 '/' 分隔
+ * 结束标记: [Type 1 = TYPE_END]
+ */
+public class DirectoryArchive implements ChunkSource {
+
+    static final byte TYPE_FILE = 0;
+    static final byte TYPE_DIRECTORY = 1;
+    static final byte TYPE_END = (byte) 0xFF;
+
+    // 条目头固定部分: Type + PathLen + Size + MTime
+    static final int ENTRY_HEADER_SIZE = 1 + 2 + 8 + 8;
+    static final int MAX_PATH_BYTES = 0xFFFF;
+
+    private static class Entry {
+        final File file;
+        final byte type;
+        final byte[] path;
+        final long size;
+        final long modified;
+        final long offset; // 条目头在归档中的偏移
+
+        Entry(File file, byte type, byte[] path, long size, long modified, long offset) {
+            this.file = file;
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.offset = offset;
+        }
+
+        int headerLength() {
+            return ENTRY_HEADER_SIZE + path.length;
+        }
+
+        long end() {
+            return offset + headerLength() + size;
+        }
+    }
+
+    private final File root;
+    private final List<Entry> entries = new ArrayList<>();
+    private final long size;
+    private long lastModified;
+    private int fileCount;
+
+    // 当前打开的文件，顺序读取时连续使用
+    private Entry openEntry;
+    private FileChannel openChannel;
+
+    private DirectoryArchive(File root) throws IOException {
+        this.root = root;
+        long offset = 0;
+        lastModified = root.lastModified();
+        // 深度优先遍历，子目录的内容紧跟在目录条目之后
+        Deque<File> pending = new ArrayDeque<>();
+        pushChildren(pending, root);
+        while (!pending.isEmpty()) {
+            File file = pending.pop();
+            if (Files.isSymbolicLink(file.toPath())) {
+                // 不跟随符号链接，避免循环和把文件夹外的内容发送出去
+                System.out.println("[Archive] 跳过符号链接: " + file);
+                continue;
+            }
+            byte[] path = relativePath(file).getBytes(StandardCharsets.UTF_8);
+            if (path.length > MAX_PATH_BYTES) {
+                throw new IOException("路径过长: " + file);
+            }
+            boolean directory = file.isDirectory();
+            long length = directory ? 0 : file.length();
+            Entry entry = new Entry(file, directory ? TYPE_DIRECTORY : TYPE_FILE, path, length, file.lastModified(), offset);
+            entries.add(entry);
+            offset = entry.end();
+            lastModified = Math.max(lastModified, entry.modified);
+            if (directory) {
+                pushChildren(pending, file);
+            } else {
+                fileCount++;
+            }
+        }
+        this.size = offset + 1;
+    }
+
+    /**
+     * 遍历文件夹，建立归档索引
+     */
+    public static DirectoryArchive scan(File root) throws IOException {
+        if (!root.isDirectory()) {
+            throw new IOException("不是文件夹: " + root);
+        }
+        DirectoryArchive archive = new DirectoryArchive(root);
+        System.out.println("[Archive] 文件夹 " + root.getName() + ": " + archive.fileCount + " 个文件, "
+                + archive.entries.size() + " 个条目, 归档大小 " + archive.size);
+        return archive;
+    }
+
+    private static void pushChildren(Deque<File> pending, File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            System.out.println("[Archive] 无法读取文件夹: " + dir);
+            return;
+        }
+        Arrays.sort(children);
+        // 倒序入栈，出栈时按名称顺序
+        for (int i = children.length - 1; i >= 0; i--) {
+            pending.push(children[i]);
+        }
+    }
+
+    private String relativePath(File file) {
+        return root.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    public String getName() {
+        return root.getName();
+    }
+
+    /**
+     * 归档总字节数
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 文件夹及其中所有条目的最新修改时间，用于识别同一文件夹的未完成传输
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int start = dst.position();
+        while (dst.hasRemaining() && position < size) {
+            if (position == size - 1) {
+                dst.put(TYPE_END);
+                position++;
+                break;
+            }
+            Entry entry = entries.get(find(position));
+            long dataOffset = entry.offset + entry.headerLength();
+            if (position < dataOffset) {
+                byte[] header = header(entry);
+                int from = (int) (position - entry.offset);
+                int n = Math.min(header.length - from, dst.remaining());
+                dst.put(header, from, n);
+                position += n;
+            } else {
+                position += readData(entry, dst, position - dataOffset);
+            }
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * 包含 position 的条目下标
+     */
+    private int find(long position) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (entries.get(mid).offset <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static byte[] header(Entry entry) {
+        ByteBuffer header = ByteBuffer.allocate(entry.headerLength());
+        header.put(entry.type);
+        header.putShort((short) entry.path.length);
+        header.put(entry.path);
+        header.putLong(entry.size);
+        header.putLong(entry.modified);
+        return header.array();
+    }
+
+    /**
+     * 读取文件内容，最多读到遍历时记录的大小为止
+     */
+    private int readData(Entry entry, ByteBuffer dst, long fileOffset) throws IOException {
+        if (openEntry != entry) {
+            closeOpenFile();
+            openChannel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+            openEntry = entry;
+        }
+        int limit = dst.limit();
+        dst.limit((int) Math.min(limit, dst.position() + entry.size - fileOffset));
+        int n;
+        try {
+            n = openChannel.read(dst, fileOffset);
+        } finally {
+            dst.limit(limit);
+        }
+        if (n <= 0) {
+            // 归档长度已在 FILE_BEGIN 中告知接收方，文件变短后无法继续
+            throw new IOException("文件在发送过程中被修改: " + entry.file);
+        }
+        return n;
+    }
+
+    private void closeOpenFile() throws IOException {
+        if (openChannel != null) {
+            openChannel.close();
+            openChannel = null;
+            openEntry = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeOpenFile();
+    }
+}
@@ -0,0 +1,223 @@
+package com.bluelink.net.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 多文件批次 (发送方)
+ * 多个文件作为一个传输流发送: FILE_BEGIN 携带清单 (文件名、大小、修改时间)，之后各文件内容首尾相接，
+ * 按普通分块压缩，一个分块可以包含多个小文件，文件之间的冗余也能被压缩。
+ * 内容在读取到对应偏移时才打开文件读取，同一时间只打开一个文件。
+ * 清单: [Count 4]{[NameLen 2][Name UTF-8][Size 8][MTime 8]}*
+ */
+public class FileBatch implements ChunkSource {
+
+    // 单个批次的文件数和清单大小上限，清单随 FILE_BEGIN 一帧发送
+    public static final int MAX_FILES = 1000;
+    public static final int MAX_MANIFEST_BYTES = 256 * 1024;
+
+    /**
+     * 批次中的一个文件
+     */
+    public static class Entry {
+        public final String name;
+        public final long size;
+        public final long modified;
+        public final long offset; // 内容在批次中的偏移
+
+        Entry(String name, long size, long modified, long offset) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.offset = offset;
+        }
+
+        public long end() {
+            return offset + size;
+        }
+    }
+
+    private final List<File> files;
+    private final List<Entry> entries = new ArrayList<>();
+    private final long size;
+    private long lastModified;
+
+    // 当前打开的文件，顺序读取时连续使用
+    private int openIndex = -1;
+    private FileChannel openChannel;
+
+    public FileBatch(List<File> files) throws IOException {
+        if (files.isEmpty() || files.size() > MAX_FILES) {
+            throw new IOException("批次文件数无效: " + files.size());
+        }
+        this.files = new ArrayList<>(files);
+        long offset = 0;
+        int manifestBytes = 4;
+        for (File file : files) {
+            if (!file.isFile()) {
+                throw new IOException("文件不存在: " + file.getName());
+            }
+            Entry entry = new Entry(file.getName(), file.length(), file.lastModified(), offset);
+            manifestBytes += manifestBytes(entry);
+            entries.add(entry);
+            offset = entry.end();
+            lastModified = Math.max(lastModified, entry.modified);
+        }
+        if (manifestBytes > MAX_MANIFEST_BYTES) {
+            throw new IOException("批次清单过大: " + manifestBytes);
+        }
+        this.size = offset;
+    }
+
+    /**
+     * 文件在清单中占用的字节数，用于划分批次
+     */
+    public static int manifestBytes(File file) {
+        return 2 + file.getName().getBytes(StandardCharsets.UTF_8).length + 8 + 8;
+    }
+
+    private static int manifestBytes(Entry entry) {
+        return 2 + entry.name.getBytes(StandardCharsets.UTF_8).length + 8 + 8;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * 所有文件中最新的修改时间，用于识别同一批次的未完成传输
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 批次内容总字节数
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    void writeManifest(DataOutputStream dos) throws IOException {
+        dos.writeInt(entries.size());
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            dos.writeShort(name.length);
+            dos.write(name);
+            dos.writeLong(entry.size);
+            dos.writeLong(entry.modified);
+        }
+    }
+
+    /**
+     * 是否为单纯的文件名: 不含路径分隔符和盘符，不是 "." / ".."，不是绝对路径
+     * 来自网络的文件名 (清单、FILE_BEGIN、旧格式数据包) 在拼接到下载目录之前都要经过这个检查
+     */
+    public static boolean isSimpleName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..") && name.indexOf('/') < 0
+                && name.indexOf('\\') < 0 && name.indexOf(':') < 0 && name.indexOf('\0') < 0
+                && !new File(name).isAbsolute();
+    }
+
+    /**
+     * 解析 FILE_BEGIN 中的清单，校验文件名只能是单纯的文件名，大小之和等于批次大小
+     */
+    static List<Entry> readManifest(DataInputStream dis, long totalSize) throws IOException {
+        int count = dis.readInt();
+        if (count <= 0 || count > MAX_FILES) {
+            throw new IOException("批次文件数无效: " + count);
+        }
+        List<Entry> entries = new ArrayList<>(count);
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] nameBytes = new byte[dis.readUnsignedShort()];
+            dis.readFully(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (!isSimpleName(name)) {
+                throw new IOException("非法的文件名: " + name);
+            }
+            long size = dis.readLong();
+            long modified = dis.readLong();
+            if (size < 0) {
+                throw new IOException("无效的文件大小: " + name);
+            }
+            entries.add(new Entry(name, size, modified, offset));
+            offset += size;
+        }
+        if (offset != totalSize) {
+            throw new IOException("批次清单与大小不符: " + offset + " != " + totalSize);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int start = dst.position();
+        while (dst.hasRemaining() && position < size) {
+            int index = find(position);
+            Entry entry = entries.get(index);
+            if (openIndex != index) {
+                closeOpenFile();
+                openChannel = FileChannel.open(files.get(index).toPath(), StandardOpenOption.READ);
+                openIndex = index;
+            }
+            int limit = dst.limit();
+            dst.limit((int) Math.min(limit, dst.position() + entry.end() - position));
+            int n;
+            try {
+                n = openChannel.read(dst, position - entry.offset);
+            } finally {
+                dst.limit(limit);
+            }
+            if (n <= 0) {
+                // 批次大小已在 FILE_BEGIN 中告知接收方，文件变短后无法继续
+                throw new IOException("文件在发送过程中被修改: " + files.get(index));
+            }
+            position += n;
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * 包含 position 的文件下标 (偏移相同时取最后一个，即跳过空文件)
+     */
+    private int find(long position) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (entries.get(mid).offset <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void closeOpenFile() throws IOException {
+        if (openChannel != null) {
+            openChannel.close();
+            openChannel = null;
+            openIndex = -1;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeOpenFile();
+    }
+}
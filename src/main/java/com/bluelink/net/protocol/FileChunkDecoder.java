@@ -0,0 +1,532 @@
+package com.bluelink.net.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * 文件分块解码器
+ * 对应一个接收中的文件传输流，逐块解压写入下载目录下的临时文件，收到 FILE_END 后校验整体大小和 CRC。
+ * 临时文件以传输 ID 命名，连接中断后保留，重连时可从断点继续写入。
+ * 带 CRC32C 的分块携带自身的文件偏移，按偏移写入；损坏的分块被丢弃并由发送方单独重传，
+ * 重传到达前先收到的后续分块照常落盘，整体 CRC 只沿连续写入的前缀推进。
+ * 条带化发送的分块经多条连接乱序到达，临时文件预先扩展到完整大小，缺口按条带分别判断。
+ * 文件夹归档和多文件批次在连续前缀推进时交给 {@link ArchiveExtractor} / {@link BatchExtractor} 边收边解包，
+ * 完成后交付解包目录。
+ */
+public class FileChunkDecoder implements Closeable {
+
+    // FILE_BEGIN 中的传输内容类型
+    public static final byte KIND_FILE = 0;
+    public static final byte KIND_ARCHIVE = 1;
+    public static final byte KIND_BATCH = 2;
+
+    // FILE_BEGIN 中文件名的字节数上限 (UTF-8)，常见文件系统的文件名不超过 255 个字符
+    public static final int MAX_NAME_BYTES = 1024;
+
+    /**
+     * FILE_BEGIN 帧内容
+     */
+    public static class Begin {
+        public UUID transferId;
+        public String name;
+        public long fileSize;
+        public int chunkSize;
+        public long resumeHint; // 发送方记录的已确认偏移
+        public boolean archive; // 内容为文件夹归档
+        public List<FileBatch.Entry> batch; // 内容为多文件批次时的清单，否则为 null
+        public int stripes = 1; // 分块按序号轮流经多少条连接发送
+    }
+
+    private final long senderToken;
+    private final Begin begin;
+    private final File tempFile;
+    private final FileChannel channel;
+    private final byte[] raw;
+    private final CRC32 crc32 = new CRC32();
+    private long written; // 从文件开头连续写入的字节数
+    private final TreeMap<Long, Integer> received = new TreeMap<>(); // 越过空洞提前写入的分块: 偏移 -> 长度
+    private final long[] arrivedEnd; // 每个条带已到达 (含损坏) 的分块覆盖到的最大偏移
+    private final Unpacker extractor; // 仅文件夹归档和多文件批次
+
+    private FileChunkDecoder(long senderToken, Begin begin, File spoolDir, long resumeOffset) throws IOException {
+        this.senderToken = senderToken;
+        this.begin = begin;
+        this.raw = new byte[begin.chunkSize];
+        this.arrivedEnd = new long[begin.stripes];
+        if (!spoolDir.exists()) {
+            spoolDir.mkdirs();
+        }
+        this.tempFile = tempFileFor(spoolDir, begin.transferId);
+
+        // 续传起点对齐到分块边界，且不能超过临时文件实际长度
+        long offset = 0;
+        if (resumeOffset > 0 && resumeOffset <= begin.fileSize && tempFile.exists()) {
+            offset = Math.min(resumeOffset, tempFile.length());
+            offset -= offset % begin.chunkSize;
+        }
+
+        this.channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        channel.truncate(offset);
+        if (begin.stripes > 1 && begin.fileSize > offset) {
+            // 乱序写入时文件不必随每个越过末尾的分块反复扩展
+            channel.write(ByteBuffer.wrap(new byte[1]), begin.fileSize - 1);
+        }
+        if (begin.archive || begin.batch != null) {
+            // 续传时从头重新解包已接收的部分
+            File unpackDir = unpackDirFor(spoolDir, begin.transferId);
+            if (offset == 0) {
+                ArchiveExtractor.deleteTree(unpackDir);
+            }
+            this.extractor = begin.archive ? new ArchiveExtractor(unpackDir) : new BatchExtractor(unpackDir, begin.batch);
+        } else {
+            this.extractor = null;
+        }
+        replayCrc(offset);
+        this.written = offset;
+        java.util.Arrays.fill(arrivedEnd, offset);
+        if (offset > 0) {
+            System.out.println("[Protocol] 断点续传: " + begin.name + " 从 " + offset + " 继续");
+        }
+    }
+
+    /**
+     * 解析 FILE_BEGIN 帧
+     */
+    public static Begin parseBegin(Frame frame) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(frame.payload, 0, frame.length));
+        Begin begin = new Begin();
+        begin.transferId = new UUID(dis.readLong(), dis.readLong());
+        int nameLen = dis.readInt();
+        if (nameLen < 0 || nameLen > MAX_NAME_BYTES || nameLen > dis.available()) {
+            throw new IOException("无效的文件名长度: " + nameLen);
+        }
+        byte[] nameBytes = new byte[nameLen];
+        dis.readFully(nameBytes);
+        begin.name = new String(nameBytes, "UTF-8");
+        begin.fileSize = dis.readLong();
+        begin.chunkSize = dis.readInt();
+        begin.resumeHint = dis.readLong();
+        if (dis.available() > 0) {
+            byte kind = dis.readByte();
+            if (kind != KIND_FILE && kind != KIND_ARCHIVE && kind != KIND_BATCH) {
+                throw new IOException("未知的传输类型: " + kind);
+            }
+            begin.archive = kind == KIND_ARCHIVE;
+            if (kind == KIND_BATCH) {
+                begin.batch = FileBatch.readManifest(dis, begin.fileSize);
+            }
+            if (dis.available() > 0) {
+                begin.stripes = dis.readUnsignedByte();
+                if (begin.stripes < 1 || begin.stripes > Capabilities.MAX_CHANNELS) {
+                    throw new IOException("无效的条带数: " + begin.stripes);
+                }
+            }
+        }
+        String kindLabel = begin.archive ? ", 文件夹" : begin.batch != null ? ", 批次 " + begin.batch.size() + " 个文件" : "";
+        if (begin.stripes > 1) {
+            kindLabel += ", 条带 " + begin.stripes;
+        }
+        System.out.println(String.format("[Protocol] FILE_BEGIN: Stream=%d, Transfer=%s, Name=%s, FileSize=%d, ChunkSize=%d%s",
+                frame.streamId, begin.transferId, begin.name, begin.fileSize, begin.chunkSize, kindLabel));
+
+        if (begin.chunkSize <= 0 || begin.chunkSize > ProtocolWriter.MAX_CHUNK_SIZE) {
+            throw new IOException("无效的分块大小: " + begin.chunkSize);
+        }
+        if (begin.fileSize < 0) {
+            throw new IOException("无效的文件大小: " + begin.fileSize);
+        }
+        return begin;
+    }
+
+    /**
+     * 打开解码器
+     *
+     * @param resumeOffset 期望的续传起点 (0 表示从头开始)，实际起点见 {@link #getWritten()}
+     */
+    public static FileChunkDecoder open(Begin begin, long senderToken, File spoolDir, long resumeOffset)
+            throws IOException {
+        return new FileChunkDecoder(senderToken, begin, spoolDir, resumeOffset);
+    }
+
+    /**
+     * 传输 ID 对应的临时文件
+     */
+    public static File tempFileFor(File spoolDir, UUID transferId) {
+        return new File(spoolDir, "bluelink-" + transferId + ".part");
+    }
+
+    /**
+     * 传输 ID 对应的解包目录 (文件夹归档、多文件批次)
+     */
+    public static File unpackDirFor(File spoolDir, UUID transferId) {
+        return new File(spoolDir, "bluelink-" + transferId + ".unpack");
+    }
+
+    private void replayCrc(long offset) throws IOException {
+        replayCrc(0, offset);
+    }
+
+    /**
+     * 从临时文件读回 [from, to) 并计入整体 CRC
+     */
+    private void replayCrc(long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(raw.length, to - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                throw new IOException("临时文件读取失败: " + tempFile.getName());
+            }
+            crc32.update(raw, 0, n);
+            if (extractor != null) {
+                extractor.update(raw, 0, n);
+            }
+            position += n;
+        }
+    }
+
+    public long getSenderToken() {
+        return senderToken;
+    }
+
+    public UUID getTransferId() {
+        return begin.transferId;
+    }
+
+    public String getName() {
+        return begin.name;
+    }
+
+    public boolean isArchive() {
+        return begin.archive;
+    }
+
+    /**
+     * 多文件批次的清单，其他传输为 null
+     */
+    public List<FileBatch.Entry> getBatch() {
+        return begin.batch;
+    }
+
+    public long getFileSize() {
+        return begin.fileSize;
+    }
+
+    public File getTempFile() {
+        return tempFile;
+    }
+
+    /**
+     * 从文件开头连续写入临时文件的字节数 (可作为确认偏移和检查点)
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * 是否已收到全部数据
+     */
+    public boolean isComplete() {
+        return written == begin.fileSize;
+    }
+
+    /**
+     * 偏移是否可能是本传输流的分块起点
+     */
+    public boolean isChunkOffset(long offset) {
+        return offset >= 0 && offset < begin.fileSize && offset % begin.chunkSize == 0;
+    }
+
+    /**
+     * 尚未收到的分块偏移 (只统计 limit 之前的部分)
+     */
+    public List<Long> missingChunks(long limit) {
+        List<Long> missing = new ArrayList<>();
+        long end = Math.min(limit, begin.fileSize);
+        for (long offset = written; offset < end; offset += begin.chunkSize) {
+            if (!received.containsKey(offset)) {
+                missing.add(offset);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 记录一个到达的分块 (含损坏的分块)，返回它与之前到达的分块之间被跳过的分块偏移
+     * 帧在传输中被丢弃时，后续分块一到达即可发现缺口，不必等到 FILE_END；重传的分块不会产生新的缺口。
+     * 条带化时每条连接上的分块各自有序，只在同一条带的分块之间判断缺口，其他连接上尚未到达的分块不算丢失。
+     */
+    public List<Long> skippedChunks(long offset) {
+        List<Long> skipped = new ArrayList<>();
+        if (!isChunkOffset(offset)) {
+            return skipped;
+        }
+        int stripe = (int) ((offset / begin.chunkSize) % begin.stripes);
+        long step = (long) begin.chunkSize * begin.stripes;
+        for (long gap = firstOfStripe(Math.max(arrivedEnd[stripe], written), stripe); gap < offset; gap += step) {
+            if (!received.containsKey(gap)) {
+                skipped.add(gap);
+            }
+        }
+        arrivedEnd[stripe] = Math.max(arrivedEnd[stripe], offset + begin.chunkSize);
+        return skipped;
+    }
+
+    /**
+     * from 之后 (含) 第一个属于该条带的分块偏移
+     */
+    private long firstOfStripe(long from, int stripe) {
+        long index = (from + begin.chunkSize - 1) / begin.chunkSize;
+        index += Math.floorMod(stripe - index, (long) begin.stripes);
+        return index * begin.chunkSize;
+    }
+
+    /**
+     * 解码后的分块数据
+     */
+    public static class Chunk {
+        public byte[] data;
+        public int offset;
+        public int length;
+        public long fileOffset = -1; // 分块在文件中的偏移，不带 CRC32C 的分块为 -1 (按顺序写入)
+        public boolean corrupt; // CRC32C 校验失败或无法解压，需要重传
+        boolean pooled; // data 是取自 BufferPool 的解压缓冲区
+
+        /**
+         * 落盘后把解压缓冲区归还 BufferPool；存储模式的数据引用帧负载，随帧一起归还
+         */
+        public void release() {
+            if (pooled) {
+                BufferPool.release(data);
+                data = null;
+                pooled = false;
+            }
+        }
+    }
+
+    /**
+     * 解压 FILE_CHUNK 帧的负载
+     * 不带 CRC32C: [RawLen 4][Data]
+     * 带 CRC32C (FLAG_CHUNK_CRC): [RawLen 4][Offset 8][CRC32C 4][Data]，CRC32C 针对解压后的原始数据
+     * 只依赖帧本身，可在读线程以外的解码线程上执行；分块大小和文件边界由 {@link #writeDecoded} 校验。
+     * 存储模式的分块直接引用帧负载，不复制；压缩分块解压到 BufferPool 的缓冲区，落盘后由 {@link Chunk#release()} 归还。
+     * 带 CRC32C 的分块损坏时返回 corrupt 标记而不抛出异常。
+     */
+    public static Chunk decodeChunk(Frame chunk) throws IOException {
+        byte[] payload = chunk.payload;
+        int payloadLen = chunk.length;
+        int headerLen = chunk.hasChunkCrc() ? 16 : 4;
+        if (payloadLen < headerLen) {
+            throw new IOException("无效的分块帧");
+        }
+        ByteBuffer header = ByteBuffer.wrap(payload);
+        int rawLen = header.getInt();
+        Chunk result = new Chunk();
+        result.length = rawLen;
+        int expectedCrc = 0;
+        if (chunk.hasChunkCrc()) {
+            result.fileOffset = header.getLong();
+            expectedCrc = header.getInt();
+        }
+        try {
+            if (rawLen <= 0 || rawLen > ProtocolWriter.MAX_CHUNK_SIZE) {
+                throw new IOException("无效的分块长度: " + rawLen);
+            }
+            if (chunk.isStored()) {
+                if (payloadLen - headerLen != rawLen) {
+                    throw new IOException("分块长度不匹配");
+                }
+                result.data = payload;
+                result.offset = headerLen;
+            } else {
+                result.data = BufferPool.acquire(rawLen);
+                result.pooled = true;
+                ProtocolReader.codecOf(chunk).decompress(payload, headerLen, payloadLen - headerLen, result.data, 0, rawLen);
+            }
+            if (chunk.hasChunkCrc() && Crc32c.compute(result.data, result.offset, rawLen) != expectedCrc) {
+                throw new IOException("分块 CRC32C 校验失败");
+            }
+        } catch (IOException e) {
+            if (!chunk.hasChunkCrc()) {
+                throw e;
+            }
+            System.out.println("[Protocol] 丢弃损坏的分块: Stream=" + chunk.streamId + ", Offset=" + result.fileOffset + ", " + e.getMessage());
+            result.corrupt = true;
+            result.release();
+            result.data = null;
+        }
+        return result;
+    }
+
+    /**
+     * 处理一个 FILE_CHUNK 帧
+     */
+    public void writeChunk(Frame chunk) throws IOException {
+        byte[] payload = chunk.payload;
+        if (chunk.length >= 4 && !chunk.isStored() && !chunk.hasChunkCrc()) {
+            // 解压到复用的缓冲区，避免每块分配
+            int rawLen = ByteBuffer.wrap(payload).getInt();
+            checkChunk(written, rawLen);
+            ProtocolReader.codecOf(chunk).decompress(payload, 4, chunk.length - 4, raw, 0, rawLen);
+            write(written, raw, 0, rawLen);
+            return;
+        }
+        Chunk decoded = decodeChunk(chunk);
+        try {
+            if (decoded.corrupt) {
+                throw new IOException("分块校验失败: " + decoded.fileOffset);
+            }
+            writeDecoded(decoded);
+        } finally {
+            decoded.release();
+        }
+    }
+
+    /**
+     * 写入已解压的分块
+     *
+     * @return false 表示重复的分块 (例如重传与原分块都到达)，已忽略
+     */
+    public boolean writeDecoded(Chunk chunk) throws IOException {
+        if (chunk.corrupt) {
+            throw new IOException("不能写入损坏的分块");
+        }
+        long offset = chunk.fileOffset >= 0 ? chunk.fileOffset : written;
+        checkChunk(offset, chunk.length);
+        if (offset < written || received.containsKey(offset)) {
+            return false;
+        }
+        write(offset, chunk.data, chunk.offset, chunk.length);
+        return true;
+    }
+
+    private void checkChunk(long offset, int rawLen) throws IOException {
+        if (offset % begin.chunkSize != 0 || rawLen <= 0 || rawLen > begin.chunkSize || offset + rawLen > begin.fileSize
+                || (rawLen < begin.chunkSize && offset + rawLen != begin.fileSize)) {
+            throw new IOException("无效的分块: offset=" + offset + ", length=" + rawLen);
+        }
+    }
+
+    private void write(long offset, byte[] data, int dataOffset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, dataOffset, length);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        if (offset != written) {
+            // 前面还有空洞，等缺失的分块到达后再计入 CRC
+            received.put(offset, length);
+            return;
+        }
+        crc32.update(data, dataOffset, length);
+        if (extractor != null) {
+            extractor.update(data, dataOffset, length);
+        }
+        written += length;
+        // 空洞填上后，把之后已写入的分块读回计入 CRC
+        Integer next;
+        while ((next = received.remove(written)) != null) {
+            replayCrc(written, written + next);
+            written += next;
+        }
+    }
+
+    /**
+     * 把已写入的分块强制落盘，调用方在记录检查点偏移之前调用
+     * 只写入操作系统缓存时，断电后检查点可能指向从未落盘的数据，续传会跳过这些字节。
+     */
+    public void flush() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 处理 FILE_END 帧，校验通过后返回临时文件 (由调用方负责重命名)
+     * 文件夹归档和多文件批次返回解包目录，临时文件随即删除
+     */
+    public File finish(Frame end) throws IOException {
+        boolean success = false;
+        try {
+            close();
+            if (end.length < 8) {
+                throw new IOException("无效的结束帧");
+            }
+            long receivedCrc = ByteBuffer.wrap(end.payload).getLong();
+            if (written != begin.fileSize) {
+                throw new IOException("数据大小不匹配. 期望: " + begin.fileSize + ", 实际: " + written);
+            }
+            if (crc32.getValue() != receivedCrc) {
+                throw new IOException("CRC 校验失败");
+            }
+            if (extractor != null) {
+                extractor.finish();
+                tempFile.delete();
+            }
+            success = true;
+            System.out.println("[Protocol] 分块文件接收完成: " + begin.name);
+            return extractor != null ? extractor.getTarget() : tempFile;
+        } finally {
+            if (!success) {
+                tempFile.delete();
+                if (extractor != null) {
+                    extractor.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 连接中断时暂停: 落盘已接收的数据并保留临时文件，供下次续传
+     */
+    public void suspend() {
+        try {
+            flush(); // 随后记录的检查点偏移不能超过已落盘的数据
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 放弃本次传输并删除临时文件
+     */
+    public void abort() {
+        try {
+            close(); // 临时文件随即删除，不必落盘
+        } catch (IOException e) {
+            // ignore
+        }
+        tempFile.delete();
+        if (extractor != null) {
+            extractor.delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (extractor != null) {
+            extractor.close();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,467 @@
+package com.bluelink.net.protocol;
+
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+import com.bluelink.net.protocol.codec.CompressionPool;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+/**
+ * 文件分块编码器
+ * 从 FileChannel 按块读取文件并逐块压缩为帧，内存占用只与块大小有关，与文件大小无关。
+ * 帧序列: FILE_BEGIN, FILE_CHUNK*, FILE_END；续传时在 FILE_BEGIN 之后通过 {@link #seek(long)} 跳到断点。
+ * 调用 {@link #startPrefetch(int)} 后由独立的读取线程预读分块，调用方线程只负责 CRC 和压缩，
+ * 磁盘读取与压缩、发送并行进行；预读缓冲区循环使用，队列有界，读取过快时自动阻塞。
+ * 并行度大于 1 时多个分块同时在 {@link CompressionPool} 上压缩，仍按文件顺序输出帧。
+ * 文件夹以 {@link DirectoryArchive} 归档、多个小文件以 {@link FileBatch} 批次的形式作为一个传输流发送，
+ * FILE_BEGIN 中标记内容类型，批次另附清单。
+ */
+public class FileChunkEncoder implements Closeable {
+
+    private final String name;
+    private final byte kind;
+    private final FileBatch batch; // 仅多文件批次
+    private final int streamId;
+    private final long senderToken;
+    private final int chunkSize;
+    private final UUID transferId;
+    private final ChunkSource source;
+    private final long fileSize;
+    private final ByteBuffer rawBuffer;
+    private final Codec codec;
+    private final CRC32 crc32 = new CRC32();
+    private final CompressionAdvisor advisor;
+    private long position;
+    private long readPosition; // 顺序读取的位置，启动预读后只由预读线程访问
+    private boolean ended;
+    private boolean chunkChecksums; // 分块是否携带偏移和 CRC32C (FLAG_CHUNK_CRC)
+    private int stripes = 1; // 分块按序号轮流分配到的连接数
+
+    // 预读流水线: 空闲缓冲区 -> 读取线程 -> 已填充缓冲区 -> nextFrame
+    private BlockingQueue<ByteBuffer> freeBuffers;
+    private BlockingQueue<ByteBuffer> filledBuffers;
+    private Thread prefetchThread;
+    private volatile IOException prefetchError;
+    private volatile boolean closed;
+
+    // 并行压缩: 按文件顺序排列的压缩中分块
+    private int parallelism = 1;
+    private final ArrayDeque<PendingChunk> inflight = new ArrayDeque<>();
+    private long queuedPosition;
+
+    public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
+    private static class PendingChunk {
+        final CompletableFuture<Frame> future;
+        final int rawLen;
+        final boolean attempted; // 是否尝试了压缩 (用于反馈给 CompressionAdvisor)
+
+        PendingChunk(CompletableFuture<Frame> future, int rawLen, boolean attempted) {
+            this.future = future;
+            this.rawLen = rawLen;
+            this.attempted = attempted;
+        }
+    }
+
+    public FileChunkEncoder(File file, int streamId, long senderToken, int chunkSize, UUID transferId, Codec codec)
+            throws IOException {
+        this(file.getName(), FileChunkDecoder.KIND_FILE, null,
+                ChunkSource.of(FileChannel.open(file.toPath(), StandardOpenOption.READ)), streamId, senderToken, chunkSize,
+                transferId, codec);
+    }
+
+    /**
+     * 发送文件夹归档
+     */
+    public FileChunkEncoder(DirectoryArchive archive, int streamId, long senderToken, int chunkSize, UUID transferId,
+            Codec codec) throws IOException {
+        this(archive.getName(), FileChunkDecoder.KIND_ARCHIVE, null, archive, streamId, senderToken, chunkSize, transferId,
+                codec);
+    }
+
+    /**
+     * 发送多文件批次
+     *
+     * @param name 批次名称，用于日志和接收方的批次进度
+     */
+    public FileChunkEncoder(String name, FileBatch batch, int streamId, long senderToken, int chunkSize, UUID transferId,
+            Codec codec) throws IOException {
+        this(name, FileChunkDecoder.KIND_BATCH, batch, batch, streamId, senderToken, chunkSize, transferId, codec);
+    }
+
+    private FileChunkEncoder(String name, byte kind, FileBatch batch, ChunkSource source, int streamId,
+            long senderToken, int chunkSize, UUID transferId, Codec codec) throws IOException {
+        this.name = name;
+        this.kind = kind;
+        this.batch = batch;
+        this.codec = codec;
+        this.streamId = streamId;
+        this.senderToken = senderToken;
+        this.chunkSize = chunkSize;
+        this.transferId = transferId;
+        this.source = source;
+        this.fileSize = source.size();
+        this.rawBuffer = ByteBuffer.allocate(chunkSize);
+        this.advisor = new CompressionAdvisor(name);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 分块携带文件偏移和 CRC32C，接收方可单独校验并请求重传损坏的分块
+     * 需要对端支持 Capabilities.FEATURE_CHUNK_CRC32C
+     */
+    public void setChunkChecksums(boolean chunkChecksums) {
+        this.chunkChecksums = chunkChecksums;
+    }
+
+    /**
+     * 分块按序号轮流分配到 stripes 条连接上发送 (多通道条带化)，在 FILE_BEGIN 中告知接收方
+     * 需要分块携带偏移 (见 {@link #setChunkChecksums})，接收方才能乱序写入；须在 {@link #beginFrame} 之前调用
+     */
+    public void setStripes(int stripes) {
+        this.stripes = Math.max(1, stripes);
+    }
+
+    /**
+     * 偏移处的分块所在的条带 (0 为主连接)
+     */
+    public int stripeOf(long offset) {
+        return (int) ((offset / chunkSize) % stripes);
+    }
+
+    /**
+     * 已编码的原始字节数
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * FILE_BEGIN 帧
+     * 结构: [TransferId 16][NameLen 4][Name Var][FileSize 8][ChunkSize 4][ResumeHint 8]([Kind 1][批次清单 Var]([Stripes 1]))
+     * Kind 只在发送文件夹归档或多文件批次时附加 (需要对端支持 Capabilities.FEATURE_DIRECTORY_ARCHIVE /
+     * FEATURE_FILE_BATCH)，旧版本接收方忽略多余字节；清单结构见 {@link FileBatch}
+     * 条带化发送时 (需要对端支持 Capabilities.FEATURE_MULTI_CHANNEL) 总是附加 Kind，之后是条带数
+     *
+     * @param resumeHint 发送方记录的已确认偏移，接收方据此与自己的检查点协商续传起点
+     */
+    public Frame beginFrame(long resumeHint) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(transferId.getMostSignificantBits());
+        dos.writeLong(transferId.getLeastSignificantBits());
+        byte[] nameBytes = name.getBytes("UTF-8");
+        dos.writeInt(nameBytes.length);
+        dos.write(nameBytes);
+        dos.writeLong(fileSize);
+        dos.writeInt(chunkSize);
+        dos.writeLong(resumeHint);
+        if (kind != FileChunkDecoder.KIND_FILE || stripes > 1) {
+            dos.writeByte(kind);
+        }
+        if (batch != null) {
+            batch.writeManifest(dos);
+        }
+        if (stripes > 1) {
+            dos.writeByte(stripes);
+        }
+        return new Frame(Frame.TYPE_FILE_BEGIN, streamId, senderToken, baos.toByteArray());
+    }
+
+    /**
+     * 跳到协商好的续传起点，并补算之前部分的 CRC (整体 CRC 覆盖完整文件)
+     */
+    public void seek(long offset) throws IOException {
+        if (offset < 0 || offset > fileSize) {
+            throw new IOException("无效的续传偏移: " + offset);
+        }
+        crc32.reset();
+        readPosition = 0;
+        while (readPosition < offset) {
+            rawBuffer.clear();
+            rawBuffer.limit((int) Math.min(rawBuffer.capacity(), offset - readPosition));
+            int n = source.read(rawBuffer, readPosition);
+            if (n <= 0) {
+                throw new IOException("文件读取提前结束: " + name);
+            }
+            crc32.update(rawBuffer.array(), 0, n);
+            readPosition += n;
+        }
+        position = offset;
+    }
+
+    /**
+     * 启动预读线程，必须在 {@link #seek(long)} 之后、第一次 {@link #nextFrame()} 之前调用
+     *
+     * @param depth 预读的分块数
+     */
+    public void startPrefetch(int depth) {
+        startPrefetch(depth, 1);
+    }
+
+    /**
+     * 启动预读线程，并允许最多 parallelism 个分块同时压缩
+     *
+     * @param depth 预读的分块数
+     * @param parallelism 同时压缩的分块数，1 表示在调用线程上逐块压缩
+     */
+    public void startPrefetch(int depth, int parallelism) {
+        this.parallelism = codec.getId() == CodecRegistry.STORED ? 1 : Math.max(1, parallelism);
+        this.queuedPosition = position;
+        // 压缩中的分块也占用缓冲区
+        int buffers = depth + this.parallelism;
+        freeBuffers = new ArrayBlockingQueue<>(buffers + 1);
+        filledBuffers = new ArrayBlockingQueue<>(buffers + 1);
+        // rawBuffer 供 seek 使用，预读另外分配
+        for (int i = 0; i < buffers; i++) {
+            freeBuffers.add(ByteBuffer.allocate(chunkSize));
+        }
+        prefetchThread = new Thread(this::prefetchLoop, "Chunk-Reader-" + streamId);
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    private void prefetchLoop() {
+        try {
+            long remaining = fileSize - position;
+            while (remaining > 0 && !closed) {
+                ByteBuffer buffer = freeBuffers.take();
+                buffer.clear();
+                if (buffer.remaining() > remaining) {
+                    buffer.limit((int) remaining);
+                }
+                readFully(buffer);
+                remaining -= buffer.position();
+                filledBuffers.put(buffer);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                prefetchError = e;
+                filledBuffers.offer(ByteBuffer.allocate(0)); // 唤醒消费方
+            }
+        } catch (InterruptedException e) {
+            // close() 中断
+        }
+    }
+
+    /**
+     * 读满缓冲区或到达文件末尾
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        int n;
+        while (buffer.hasRemaining() && (n = source.read(buffer, readPosition)) > 0) {
+            readPosition += n;
+        }
+        if (buffer.position() == 0) {
+            throw new IOException("文件读取提前结束: " + name);
+        }
+    }
+
+    /**
+     * 下一个帧: 先依次返回 FILE_CHUNK，文件读完后返回 FILE_END，之后返回 null
+     * FILE_CHUNK 结构: [RawLen 4]([Offset 8][CRC32C 4])[压缩数据 或原始数据 Var]，已压缩格式或压缩不划算的块使用存储模式
+     * FILE_END 结构: [CRC32 8]
+     */
+    public Frame nextFrame() throws IOException {
+        if (ended) {
+            return null;
+        }
+        if (position >= fileSize) {
+            ended = true;
+            byte[] payload = ByteBuffer.allocate(8).putLong(crc32.getValue()).array();
+            return new Frame(Frame.TYPE_FILE_END, streamId, senderToken, payload);
+        }
+
+        if (parallelism > 1) {
+            return nextParallelFrame();
+        }
+
+        ByteBuffer buffer;
+        if (prefetchThread != null) {
+            buffer = takeFilled();
+        } else {
+            buffer = rawBuffer;
+            buffer.clear();
+            readFully(buffer);
+        }
+        try {
+            return encodeChunk(buffer.array(), buffer.position());
+        } finally {
+            if (buffer != rawBuffer) {
+                freeBuffers.offer(buffer);
+            }
+        }
+    }
+
+    private ByteBuffer takeFilled() throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = filledBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("读取文件被中断");
+        }
+        if (prefetchError != null) {
+            throw prefetchError;
+        }
+        return buffer;
+    }
+
+    /**
+     * 并行模式: 补足压缩中的分块，再按顺序取出最早的一个
+     * CRC 和压缩决策在本线程按文件顺序计算，只有压缩本身在线程池中执行
+     */
+    private Frame nextParallelFrame() throws IOException {
+        while (inflight.size() < parallelism && queuedPosition < fileSize) {
+            ByteBuffer buffer = takeFilled();
+            byte[] raw = buffer.array();
+            int rawLen = buffer.position();
+            long fileOffset = queuedPosition;
+            crc32.update(raw, 0, rawLen);
+            queuedPosition += rawLen;
+            boolean attempt = advisor.shouldCompress(raw, 0, rawLen);
+            CompletableFuture<Frame> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compressChunk(raw, rawLen, attempt, fileOffset);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    freeBuffers.offer(buffer);
+                }
+            }, CompressionPool.get());
+            inflight.add(new PendingChunk(future, rawLen, attempt));
+        }
+
+        PendingChunk pending = inflight.poll();
+        Frame frame;
+        try {
+            frame = pending.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("分块压缩失败: " + e.getCause(), e.getCause());
+        }
+        if (pending.attempted) {
+            advisor.record(!frame.isStored());
+        }
+        position += pending.rawLen;
+        return frame;
+    }
+
+    private Frame encodeChunk(byte[] raw, int rawLen) throws IOException {
+        long fileOffset = position;
+        crc32.update(raw, 0, rawLen);
+        position += rawLen;
+        boolean attempt = codec.getId() != CodecRegistry.STORED && advisor.shouldCompress(raw, 0, rawLen);
+        Frame frame = compressChunk(raw, rawLen, attempt, fileOffset);
+        if (attempt) {
+            advisor.record(!frame.isStored());
+        }
+        return frame;
+    }
+
+    /**
+     * 重新读取并编码指定偏移处的分块，用于响应接收方的 FILE_NAK
+     * 使用独立的定位读取，不影响顺序读取的进度和整体 CRC
+     */
+    public Frame retransmitFrame(long offset) throws IOException {
+        if (offset < 0 || offset >= fileSize || offset % chunkSize != 0) {
+            throw new IOException("无效的重传偏移: " + offset);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, fileSize - offset));
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, offset + buffer.position()) <= 0) {
+                throw new IOException("文件读取提前结束: " + name);
+            }
+        }
+        return compressChunk(buffer.array(), buffer.position(), codec.getId() != CodecRegistry.STORED, offset);
+    }
+
+    /**
+     * 将一块原始数据编码为 FILE_CHUNK 帧，不修改编码器状态，可在任意线程执行
+     * 结构见 FileChunkDecoder.decodeChunk。负载取自 BufferPool，帧写出后由发送方归还
+     *
+     * @param attempt 是否尝试压缩；不尝试或压缩不划算时使用存储模式
+     * @param fileOffset 分块在文件中的偏移
+     */
+    private Frame compressChunk(byte[] raw, int rawLen, boolean attempt, long fileOffset) throws IOException {
+        int headerLen = chunkChecksums ? 16 : 4;
+        Frame frame = null;
+        if (attempt) {
+            // 直接压缩到池中的缓冲区作为帧负载，不再按压缩后的长度复制
+            byte[] buffer = BufferPool.acquire(headerLen + codec.maxCompressedLength(rawLen));
+            int compLen;
+            try {
+                compLen = CodecRegistry.compressIfSmaller(codec, raw, 0, rawLen, buffer, headerLen);
+            } catch (IOException | RuntimeException e) {
+                BufferPool.release(buffer);
+                throw e;
+            }
+            if (compLen >= 0) {
+                frame = new Frame(Frame.TYPE_FILE_CHUNK, streamId, senderToken, null);
+                frame.setPooledPayload(buffer, headerLen + compLen);
+                frame.codec = codec.getId();
+            } else {
+                BufferPool.release(buffer);
+            }
+        }
+        if (frame == null) {
+            // 存储模式
+            byte[] buffer = BufferPool.acquire(headerLen + rawLen);
+            System.arraycopy(raw, 0, buffer, headerLen, rawLen);
+            frame = new Frame(Frame.TYPE_FILE_CHUNK, streamId, senderToken, null);
+            frame.setPooledPayload(buffer, headerLen + rawLen);
+            frame.flags |= Frame.FLAG_STORED;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(frame.payload);
+        header.putInt(rawLen);
+        if (chunkChecksums) {
+            header.putLong(fileOffset).putInt(Crc32c.compute(raw, 0, rawLen));
+            frame.flags |= Frame.FLAG_CHUNK_CRC;
+        }
+        return frame;
+    }
+
+    /**
+     * FILE_ABORT 帧，通知接收方丢弃该传输流
+     */
+    public Frame abortFrame() {
+        return new Frame(Frame.TYPE_FILE_ABORT, streamId, senderToken, new byte[0]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (prefetchThread != null) {
+            prefetchThread.interrupt();
+        }
+        source.close();
+    }
+}
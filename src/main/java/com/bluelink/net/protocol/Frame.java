@@ -0,0 +1,125 @@
+package com.bluelink.net.protocol;
+
+/**
+ * 多路复用帧
+ * 消息和文件分块都以帧的形式在同一条连接上交错传输，通过 streamId 区分所属的传输流
+ */
+public class Frame {
+
+    // 帧类型
+    public static final byte TYPE_LEGACY = 0; // 旧格式数据包: 接收时见 packet 字段，发送时 payload 为原样写出的数据包字节
+    public static final byte TYPE_MSG = 1; // 文本消息 (单帧)
+    public static final byte TYPE_FILE_BEGIN = 2; // 文件开始: 名称、大小、分块大小
+    public static final byte TYPE_FILE_CHUNK = 3; // 文件分块
+    public static final byte TYPE_FILE_END = 4; // 文件结束: 整体 CRC
+    public static final byte TYPE_FILE_ABORT = 5; // 发送方中止传输
+    public static final byte TYPE_FILE_RESUME = 6; // 接收方回复续传起点: [Offset 8]
+    public static final byte TYPE_FILE_ACK = 7; // 接收方确认已落盘的偏移: [Offset 8]
+    public static final byte TYPE_HELLO = 8; // 会话开始时交换双方能力，见 Capabilities
+    public static final byte TYPE_FILE_NAK = 9; // 接收方报告损坏的分块，请求重传: [Offset 8]
+    public static final byte TYPE_FRAME_DROPPED = 10; // 接收方丢弃了无法解析的帧: [Type 1][Bytes 8]，streamId 未知时为 0
+    public static final byte TYPE_SEQ_ACK = 11; // 接收方累计确认: 序号不大于 [Seq 8] 的帧都已处理
+    public static final byte TYPE_SEQ_NAK = 12; // 接收方发现序号缺口，请求重传: [Seq 8]
+    public static final byte TYPE_TRANSPORT_OFFER = 13; // 提供 TCP 快速通道的地址和口令，见 TransportOffer
+    public static final byte TYPE_TRANSPORT_SWITCH = 14; // 发送方此后改从 TCP 连接发送，本连接上不再有该方向的帧
+    public static final byte TYPE_CHANNEL_OFFER = 15; // 邀请对端建立并行连接的通道号、数量和口令，见 ChannelOffer
+
+    // 帧标志位
+    public static final byte FLAG_STORED = 0x01; // 负载未压缩 (存储模式)，接收方跳过解压
+    public static final byte FLAG_DICTIONARY = 0x02; // MSG 负载使用会话预置字典压缩，见 MessageDictionary
+    public static final byte FLAG_CHUNK_CRC = 0x04; // FILE_CHUNK 负载带有文件偏移和 CRC32C，可单独校验和重传
+    public static final byte FLAG_SEQUENCED = 0x08; // 帧头带有会话序号 (sequence)，受滑动窗口控制
+
+    public byte type;
+    public byte flags;
+    public byte codec; // 负载使用的编解码器 ID，见 CodecRegistry
+    public int version; // 接收时的帧格式版本，旧格式数据包为 0
+    public int streamId;
+    public long senderToken;
+    public long sequence = -1; // 会话序号，仅 FLAG_SEQUENCED 帧有效
+    public byte[] payload;
+    public int length; // 有效负载的字节数；来自 BufferPool 的 payload 可能比它长
+    public boolean pooled; // payload 取自 BufferPool，帧不再使用后由 release() 归还
+
+    // 旧格式数据包 (type == TYPE_LEGACY)
+    public ProtocolReader.Packet packet;
+
+    public Frame() {
+    }
+
+    public Frame(byte type, int streamId, long senderToken, byte[] payload) {
+        this.type = type;
+        this.streamId = streamId;
+        this.senderToken = senderToken;
+        setPayload(payload);
+    }
+
+    /**
+     * 设置负载，整个数组都是有效负载
+     */
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+        this.length = payload == null ? 0 : payload.length;
+        this.pooled = false;
+    }
+
+    /**
+     * 设置取自 BufferPool 的负载，前 length 字节有效
+     */
+    public void setPooledPayload(byte[] buffer, int length) {
+        this.payload = buffer;
+        this.length = length;
+        this.pooled = true;
+    }
+
+    /**
+     * 把池化的负载归还 BufferPool，之后不能再读取负载；非池化的帧不受影响
+     * 由帧的最后一个使用者调用: 发送方在帧写出 (需要确认的帧在确认) 之后，接收方在落盘之后
+     */
+    public void release() {
+        if (pooled) {
+            BufferPool.release(payload);
+            payload = null;
+            length = 0;
+            pooled = false;
+        }
+    }
+
+    public boolean isStored() {
+        return (flags & FLAG_STORED) != 0;
+    }
+
+    public boolean hasChunkCrc() {
+        return (flags & FLAG_CHUNK_CRC) != 0;
+    }
+
+    public boolean hasDictionary() {
+        return (flags & FLAG_DICTIONARY) != 0;
+    }
+
+    public boolean isSequenced() {
+        return (flags & FLAG_SEQUENCED) != 0;
+    }
+
+    /**
+     * 是否为控制帧: 只更新对端的内存状态，不编号、不受滑动窗口限制、丢失后也不重传
+     */
+    public boolean isControl() {
+        return type == TYPE_FILE_RESUME || type == TYPE_FILE_ACK || type == TYPE_HELLO || type == TYPE_FILE_NAK
+                || type == TYPE_FRAME_DROPPED || type == TYPE_SEQ_ACK || type == TYPE_SEQ_NAK
+                || type == TYPE_TRANSPORT_OFFER || type == TYPE_TRANSPORT_SWITCH || type == TYPE_CHANNEL_OFFER;
+    }
+
+    /**
+     * 是否为需要优先发送的交互类帧 (消息和控制帧)
+     */
+    public boolean isUrgent() {
+        return type == TYPE_MSG || isControl();
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{type=" + type + ", stream=" + streamId + (isSequenced() ? ", seq=" + sequence : "")
+                + ", len=" + length + "}";
+    }
+}
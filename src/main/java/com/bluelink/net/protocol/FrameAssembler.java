@@ -0,0 +1,157 @@
+package com.bluelink.net.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 增量帧解析
+ * 非阻塞读取 (事件循环) 时数据按到达的片段交给 {@link #feed}，片段可能在帧的任意位置断开。
+ * {@link #next} 用 {@link FrameReader} 解析已缓存的数据；数据不足时不阻塞，而是回到帧的起点，
+ * 记下解析到的位置，等缓存的数据足够后从帧头重新解析，所以每个帧的帧头最多解析几次，负载只复制一次。
+ * 帧头格式、校验和重新同步的规则与阻塞读取完全相同。
+ * 旧格式数据包也从头重新解析，需要整体缓存在内存中；事件模式面向新协议，大的旧格式文件包请使用阻塞模式。
+ * 非线程安全，只在事件循环线程上使用。
+ */
+public class FrameAssembler {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // 旧格式数据包整体缓存的上限
+    private static final int MAX_BUFFERED = 128 * 1024 * 1024;
+
+    /**
+     * 缓存的数据不足以完成当前帧
+     * 不是 IOException: FrameReader 把帧头的 IOException 视为帧头无效并重新同步，这里需要直接退出解析
+     */
+    static final class NeedMoreData extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int required;
+
+        NeedMoreData(int required) {
+            super(null, null, false, false);
+            this.required = required;
+        }
+    }
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int start; // 下一个帧的起点
+    private int limit; // 有效数据的终点
+    private int required; // 上次解析需要的数据终点 (相对 start)，未达到时不必重新解析
+    private FrameReader lastReader;
+    private long probeToken; // 上一个帧是探测包时为它的 Token，见 FrameReader
+
+    /**
+     * 追加收到的数据
+     */
+    public void feed(byte[] data, int off, int len) throws IOException {
+        if (limit + len > buf.length) {
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, limit - start);
+                limit -= start;
+                start = 0;
+            }
+            if (limit + len > buf.length) {
+                if (limit + len > MAX_BUFFERED) {
+                    throw new IOException("缓存的数据超过 " + MAX_BUFFERED + " 字节");
+                }
+                byte[] grown = new byte[Math.max(limit + len, Math.min(buf.length * 2, MAX_BUFFERED))];
+                System.arraycopy(buf, 0, grown, 0, limit);
+                buf = grown;
+            }
+        }
+        System.arraycopy(data, off, buf, limit, len);
+        limit += len;
+    }
+
+    /**
+     * 已缓存但尚未组成完整帧的字节数
+     */
+    public int buffered() {
+        return limit - start;
+    }
+
+    /**
+     * 解析下一个完整的帧
+     *
+     * @return 解析出的 Frame，数据不足时返回 null
+     * @see FrameReader#read
+     */
+    public Frame next(ProtocolReader.ProgressCallback callback, File spoolDir) throws IOException {
+        if (limit - start < required) {
+            return null;
+        }
+        Source source = new Source(start);
+        FrameReader reader = new FrameReader(source, true);
+        reader.setProbeToken(probeToken);
+        Frame frame;
+        try {
+            frame = reader.read(callback, spoolDir);
+        } catch (NeedMoreData e) {
+            required = e.required - start;
+            return null;
+        }
+        lastReader = reader;
+        probeToken = reader.getProbeToken();
+        required = 0;
+        start = source.pos - reader.pushedBack();
+        if (start == limit) {
+            start = 0;
+            limit = 0;
+        }
+        return frame;
+    }
+
+    /**
+     * 最近一次返回的帧之前为重新同步丢弃的字节数
+     */
+    public long getDroppedBytes() {
+        return lastReader != null ? lastReader.getDroppedBytes() : 0;
+    }
+
+    public byte getDroppedType() {
+        return lastReader != null ? lastReader.getDroppedType() : Frame.TYPE_LEGACY;
+    }
+
+    public int getDroppedStreamId() {
+        return lastReader != null ? lastReader.getDroppedStreamId() : 0;
+    }
+
+    /**
+     * 读取缓存的数据，读完时抛出 NeedMoreData 而不是返回 EOF
+     */
+    private final class Source extends InputStream {
+        int pos;
+
+        Source(int pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public int read() {
+            if (pos >= limit) {
+                throw new NeedMoreData(pos + 1);
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= limit) {
+                throw new NeedMoreData(pos + len);
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.bluelink.net.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * 可重新同步的帧读取器
+ * 读到无效的帧头 (未知首字节、帧头校验失败、长度越界) 时不再抛出异常断开会话，而是把已读的帧头字节退回流中，
+ * 逐字节向后扫描，直到找到下一个有效的帧头。重新同步期间只接受可自我校验的帧头:
+ * 带校验的紧凑帧 (版本 3) 和 4 字节 Magic 的版本 1 帧；无校验的紧凑帧和旧格式数据包容易被误判，不予接受。
+ * 丢弃的字节数见 {@link #getDroppedBytes()}，由调用方报告给发送方；跳过超过一个最大帧仍未找到帧头时抛出异常。
+ * 探测包 (见 {@link ProtocolWriter#createProbe}) 单独作为一个旧格式帧返回；紧随其后、以 NameLen 开头的数据
+ * 是省略了 Magic 和 Token 的旧格式数据包，按探测包的 Token 解析。
+ */
+public class FrameReader {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // 帧头有效但负载无法解析、已按长度整体跳过的帧
+    private static final Frame SKIPPED = new Frame();
+
+    private final PushbackInputStream in;
+    private final DataInputStream dis;
+    private final InputStream source; // 无缓冲构造时的底层流，用于计算退回的字节数
+    private long droppedBytes;
+    private byte droppedType;
+    private int droppedStreamId;
+    private long probeToken; // 上一个读到的是探测包时为它的 Token，否则为 0
+
+    public FrameReader(InputStream input) {
+        // 帧头按字节解析，底层 Socket 流需要缓冲，否则每个字节都是一次系统调用
+        this.in = new PushbackInputStream(new BufferedInputStream(input, READ_BUFFER_SIZE),
+                ProtocolReader.MAX_HEADER_SIZE);
+        this.dis = new DataInputStream(in);
+        this.source = null;
+    }
+
+    /**
+     * 直接读取内存中的数据，不再缓冲，见 {@link FrameAssembler}
+     */
+    FrameReader(InputStream source, boolean unbuffered) {
+        this.in = new PushbackInputStream(source, ProtocolReader.MAX_HEADER_SIZE);
+        this.dis = new DataInputStream(in);
+        this.source = source;
+    }
+
+    /**
+     * 读取下一个帧，必要时跳过损坏的字节
+     *
+     * @param callback 旧格式数据包的进度回调
+     * @param spoolDir 旧格式文件包的临时文件目录
+     * @return 解析出的 Frame，如果流结束则返回 null
+     */
+    public Frame read(ProtocolReader.ProgressCallback callback, File spoolDir) throws IOException {
+        droppedBytes = 0;
+        droppedType = Frame.TYPE_LEGACY;
+        droppedStreamId = 0;
+        long afterProbe = probeToken;
+        probeToken = 0;
+        boolean resyncing = false;
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                if (droppedBytes > 0) {
+                    System.out.println("[Protocol] 流结束前丢弃了 " + droppedBytes + " 字节");
+                }
+                return null;
+            }
+            if (afterProbe != 0 && !resyncing && first == 0) {
+                // NameLen 的最高字节: 探测包之后的数据包正文
+                in.unread(first);
+                return legacyFrame(ProtocolReader.readPacketRest(afterProbe, dis, callback, spoolDir));
+            }
+            Frame frame = tryRead(first, resyncing, callback, spoolDir);
+            if (frame == SKIPPED) {
+                continue;
+            }
+            if (frame != null) {
+                if (resyncing) {
+                    System.out.println("[Protocol] 重新同步成功，丢弃 " + droppedBytes + " 字节");
+                }
+                return frame;
+            }
+            if (droppedBytes >= ProtocolReader.MAX_RESYNC_BYTES) {
+                // 超过一个最大帧仍找不到帧头 (例如对端使用不带校验的旧格式)，放弃
+                throw new IOException("无法重新同步，已丢弃 " + droppedBytes + " 字节");
+            }
+            if (!resyncing) {
+                System.out.println("[Protocol] 帧头无效 (首字节 0x" + Integer.toHexString(first) + ")，开始重新同步");
+                resyncing = true;
+            }
+            droppedBytes++;
+        }
+    }
+
+    /**
+     * 最近一次 {@link #read} 为重新同步丢弃的字节数
+     */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * 最近一次 {@link #read} 丢弃的帧类型，帧头损坏无法得知时为 TYPE_LEGACY
+     */
+    public byte getDroppedType() {
+        return droppedType;
+    }
+
+    /**
+     * 最近一次 {@link #read} 丢弃的帧所属的传输流，无法得知时为 0
+     */
+    public int getDroppedStreamId() {
+        return droppedStreamId;
+    }
+
+    /**
+     * 上一个读到的探测包的 Token，{@link FrameAssembler} 每次解析使用新的读取器，用它在读取器之间传递
+     */
+    long getProbeToken() {
+        return probeToken;
+    }
+
+    void setProbeToken(long probeToken) {
+        this.probeToken = probeToken;
+    }
+
+    /**
+     * 已从底层流读出、又退回到本读取器中尚未消费的字节数 (仅无缓冲构造)
+     */
+    int pushedBack() throws IOException {
+        return in.available() - source.available();
+    }
+
+    /**
+     * 尝试从 first 开始解析一个帧；帧头无效时退回首字节之后已读取的字节并返回 null
+     */
+    private Frame tryRead(int first, boolean resyncing, ProtocolReader.ProgressCallback callback, File spoolDir)
+            throws IOException {
+        if (first == ProtocolWriter.MARKER_CHECKED || (first == ProtocolWriter.MARKER_COMPACT && !resyncing)) {
+            ProtocolReader.HeaderTap tap = new ProtocolReader.HeaderTap(in, first);
+            Frame frame = new Frame();
+            int payloadLen;
+            try {
+                payloadLen = ProtocolReader.readCompactHeader(tap, frame);
+            } catch (IOException e) {
+                unread(tap);
+                return null;
+            }
+            // 帧头有效: 负载按长度整体读出，无法还原时只丢弃这一帧
+            ProtocolReader.readPayload(dis, frame, payloadLen);
+            try {
+                ProtocolReader.decodeCompactPayload(frame);
+            } catch (IOException e) {
+                System.out.println("[Protocol] 丢弃无法解析的帧 " + frame + ": " + e.getMessage());
+                frame.release();
+                droppedBytes += tap.length + payloadLen;
+                droppedType = frame.type;
+                droppedStreamId = frame.streamId;
+                return SKIPPED;
+            }
+            return frame;
+        }
+        if (first != (ProtocolWriter.MAGIC_FRAME >>> 24)) {
+            return null;
+        }
+
+        ProtocolReader.HeaderTap tap = new ProtocolReader.HeaderTap(in, first);
+        DataInputStream header = new DataInputStream(tap);
+        int magic;
+        try {
+            magic = first << 24 | header.readUnsignedByte() << 16 | header.readUnsignedShort();
+        } catch (IOException e) {
+            unread(tap);
+            return null;
+        }
+        if (magic == ProtocolWriter.MAGIC_FRAME) {
+            Frame frame = new Frame();
+            int payloadLen;
+            try {
+                payloadLen = ProtocolReader.readFrameHeader(header, frame);
+            } catch (IOException e) {
+                unread(tap);
+                return null;
+            }
+            if (resyncing && (frame.type <= Frame.TYPE_LEGACY || frame.type > Frame.TYPE_CHANNEL_OFFER)) {
+                unread(tap);
+                return null;
+            }
+            ProtocolReader.readPayload(dis, frame, payloadLen);
+            return frame;
+        }
+        if (!resyncing && magic == ProtocolReader.MAGIC_NUMBER) {
+            // 旧格式数据包没有帧头校验，只在流正常时识别
+            long senderToken = dis.readLong();
+            if (ProtocolReader.isProbeToken(senderToken)) {
+                ProtocolReader.Packet probe = new ProtocolReader.Packet();
+                probe.senderToken = senderToken;
+                probe.probe = true;
+                probeToken = senderToken;
+                return legacyFrame(probe);
+            }
+            return legacyFrame(ProtocolReader.readPacketRest(senderToken, dis, callback, spoolDir));
+        }
+        unread(tap);
+        return null;
+    }
+
+    /**
+     * 把旧格式数据包包装为帧；探测包的 Token 还原为发送方的会话 Token (低 32 位)，与帧的 SenderToken 一致
+     */
+    private static Frame legacyFrame(ProtocolReader.Packet packet) {
+        long senderToken = ProtocolReader.isProbeToken(packet.senderToken) ? (int) packet.senderToken : packet.senderToken;
+        Frame frame = new Frame(Frame.TYPE_LEGACY, 0, senderToken, null);
+        frame.packet = packet;
+        return frame;
+    }
+
+    private void unread(ProtocolReader.HeaderTap tap) throws IOException {
+        in.unread(tap.buf, 1, tap.length - 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.bluelink.net.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 限长输入流
+ * 只允许从底层流读取指定字节数 (一个包体)，关闭时不关闭底层流
+ */
+class LimitedInputStream extends InputStream {
+
+    /**
+     * 已读取字节数回调
+     */
+    interface ConsumeListener {
+        void onConsumed(long consumed);
+    }
+
+    private final InputStream in;
+    private final long limit;
+    private final ConsumeListener listener;
+    private long consumed;
+
+    LimitedInputStream(InputStream in, long limit, ConsumeListener listener) {
+        this.in = in;
+        this.limit = limit;
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int ret = read(b, 0, 1);
+        return ret == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long remaining = limit - consumed;
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n == -1) {
+            throw new IOException("数据包读取未完成，连接可能已断开");
+        }
+        consumed += n;
+        if (listener != null) {
+            listener.onConsumed(consumed);
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), limit - consumed);
+    }
+
+    /**
+     * 读完剩余字节，使底层流停在下一个包的起始位置
+     */
+    void drain() throws IOException {
+        byte[] skipBuffer = new byte[4096];
+        while (read(skipBuffer, 0, skipBuffer.length) != -1) {
+            // 丢弃
+        }
+    }
+
+    @Override
+    public void close() {
+        // 不关闭底层 Socket 流
+    }
+}
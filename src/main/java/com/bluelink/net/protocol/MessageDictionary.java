@@ -0,0 +1,182 @@
+package com.bluelink.net.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息预置字典
+ * 短消息单独压缩时几乎没有可引用的上下文，使用预置字典后常见短语可直接引用字典内容。
+ * 每个会话每个方向一个实例: 发送方和接收方按相同顺序记录消息，字典随最近的消息内容同步更新。
+ * 负载中携带字典 ID (Adler32)，接收方据此选择默认字典或自适应字典，不一致时报错而不是解出错误内容。
+ */
+public class MessageDictionary {
+
+    // 短于该长度的消息不压缩
+    public static final int MIN_COMPRESS_LENGTH = 24;
+
+    // 自适应部分保留的最近消息字节数
+    private static final int HISTORY_SIZE = 8 * 1024;
+
+    // Deflate 字典窗口上限
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    // 内置默认字典: 常见聊天短语与状态消息，越常用的内容越靠后 (Deflate 对近距离引用编码更短)
+    private static final byte[] DEFAULT_DICTIONARY = (
+            "http://https://www..com.cn.png.jpg.pdf.docx.zip "
+            + "Thank you! Thanks, OK, okay, sure. Got it. Sounds good. Let me check. I'll send it now. "
+            + "Did you receive the file? Please wait a moment. Connection is slow. See you tomorrow. "
+            + "The transfer is complete. Sending the file now. "
+            + "好的，收到了，谢谢！没问题。稍等一下，我看看。马上发给你。文件收到了吗？已经发过去了。"
+            + "蓝牙有点慢，请稍等。传输完成。正在发送文件。明天见。辛苦了！"
+            + "会议纪要、文档、图片、视频、安装包、压缩包、截图、日志、版本、"
+            + "可以吗？怎么了？在吗？你好，").getBytes(StandardCharsets.UTF_8);
+
+    private static final int DEFAULT_ID = adler(DEFAULT_DICTIONARY);
+
+    private final boolean adaptive;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] history = new byte[0];
+    private byte[] adaptiveDictionary = DEFAULT_DICTIONARY;
+    private int adaptiveId = DEFAULT_ID;
+    private boolean closed;
+
+    /**
+     * @param adaptive 发送方是否使用随最近消息更新的字典；接收方总是同时维护两种字典
+     */
+    public MessageDictionary(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    private static int adler(byte[] data) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(data);
+        return (int) adler32.getValue();
+    }
+
+    /**
+     * 压缩消息
+     * 结构: [DictId 4][Deflate_Data Var]
+     *
+     * @return 压缩结果，消息过短或压缩不划算时返回 null (调用方改用存储模式)
+     */
+    public synchronized byte[] encode(byte[] data) throws IOException {
+        if (data.length < MIN_COMPRESS_LENGTH) {
+            return null;
+        }
+        ensureOpen();
+        byte[] dictionary = adaptive ? adaptiveDictionary : DEFAULT_DICTIONARY;
+        int dictId = adaptive ? adaptiveId : DEFAULT_ID;
+
+        byte[] out = new byte[4 + data.length + data.length / 1000 + 64];
+        ByteBuffer.wrap(out).putInt(dictId);
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(data);
+        deflater.finish();
+        int pos = 4;
+        while (!deflater.finished()) {
+            if (pos == out.length) {
+                return null;
+            }
+            pos += deflater.deflate(out, pos, out.length - pos);
+        }
+        if (!CompressionAdvisor.paysOff(data.length, pos)) {
+            return null;
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    /**
+     * 解压消息
+     */
+    public synchronized byte[] decode(byte[] payload, int off, int len, int rawLen) throws IOException {
+        if (len < 4) {
+            throw new IOException("无效的字典消息");
+        }
+        ensureOpen();
+        int dictId = ByteBuffer.wrap(payload, off, 4).getInt();
+        byte[] dictionary;
+        if (dictId == adaptiveId) {
+            dictionary = adaptiveDictionary;
+        } else if (dictId == DEFAULT_ID) {
+            dictionary = DEFAULT_DICTIONARY;
+        } else {
+            throw new IOException("消息字典不一致: " + Integer.toHexString(dictId));
+        }
+
+        byte[] raw = new byte[rawLen];
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(payload, off + 4, len - 4);
+        int n = 0;
+        try {
+            while (n < rawLen && !inflater.finished()) {
+                int r = inflater.inflate(raw, n, rawLen - n);
+                if (r == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("消息解压失败: " + e.getMessage());
+        }
+        if (n != rawLen) {
+            throw new IOException("消息长度不匹配");
+        }
+        return raw;
+    }
+
+    /**
+     * 记录一条已发送/已接收的消息，更新自适应字典
+     * 双方必须按消息在连接上的顺序调用
+     */
+    public synchronized void record(byte[] data) {
+        int keep = Math.min(HISTORY_SIZE, history.length + data.length);
+        byte[] next = new byte[keep];
+        int fromData = Math.min(data.length, keep);
+        int fromHistory = keep - fromData;
+        System.arraycopy(history, history.length - fromHistory, next, 0, fromHistory);
+        System.arraycopy(data, data.length - fromData, next, fromHistory, fromData);
+        history = next;
+
+        // 默认字典在前，最近消息在后
+        int total = Math.min(MAX_DICTIONARY_SIZE, DEFAULT_DICTIONARY.length + history.length);
+        byte[] dictionary = new byte[total];
+        int fromDefault = total - history.length;
+        System.arraycopy(DEFAULT_DICTIONARY, DEFAULT_DICTIONARY.length - fromDefault, dictionary, 0, fromDefault);
+        System.arraycopy(history, 0, dictionary, fromDefault, history.length);
+        adaptiveDictionary = dictionary;
+        adaptiveId = adler(dictionary);
+    }
+
+    /**
+     * 清空消息历史，回到默认字典
+     * 有消息在传输中丢失时双方的历史不再一致，接收方丢弃消息后和发送方收到丢帧报告后各自调用
+     */
+    public synchronized void reset() {
+        history = new byte[0];
+        adaptiveDictionary = DEFAULT_DICTIONARY;
+        adaptiveId = DEFAULT_ID;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("会话已关闭");
+        }
+    }
+
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
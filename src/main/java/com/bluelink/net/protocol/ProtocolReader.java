@@ -1,9 +1,18 @@
 package com.bluelink.net.protocol;
 
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 
@@ -13,12 +22,30 @@ import java.util.zip.GZIPInputStream;
  */
 public class ProtocolReader {
 
-    private static final int MAGIC_NUMBER = 0xCAFEBABE;
+    static final int MAGIC_NUMBER = 0xCAFEBABE;
+
+    // 仅限制需要整体放入内存的数据包 (消息)，落盘的文件包不受此限制
+    private static final long MAX_IN_MEMORY_SIZE = 100 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192; // 8KB buffer
+
+    // 单帧负载上限 (分块大小上限 + 压缩余量)
+    private static final int MAX_FRAME_PAYLOAD = 17 * 1024 * 1024;
+
+    // 帧头最大长度 (紧凑帧: 3 + StreamId 5 + Token 4 + Seq 10 + PayloadLen 5 + 校验 4；版本 1: 23)
+    static final int MAX_HEADER_SIZE = 32;
+
+    // 重新同步时最多跳过的字节数: 帧头损坏时要越过整个负载才能找到下一帧
+    static final int MAX_RESYNC_BYTES = MAX_FRAME_PAYLOAD + MAX_HEADER_SIZE;
 
     public static class Packet {
         public long senderToken;
         public String name;
         public byte[] data;
+        // 流式接收时落盘的临时文件 (此时 data 为 null)，由调用方负责重命名或删除
+        public File file;
+        // 只有包头的探测包 (见 ProtocolWriter.createProbe)，发送方识别帧；name 和数据均为空
+        public boolean probe;
     }
 
     /**
@@ -46,6 +73,20 @@ public class ProtocolReader {
      * @return 解析出的 Packet，如果流结束则返回 null
      */
     public static Packet readPacket(DataInputStream dis, ProgressCallback callback) throws IOException {
+        return readPacket(dis, callback, null);
+    }
+
+    /**
+     * 从流中读取并解析下一个数据包 (流式落盘)
+     * 文件包边读边解压、边计算 CRC，直接写入 spoolDir 下的临时文件，堆内存占用与文件大小无关。
+     * 消息包 (MSG) 仍然读入内存。
+     *
+     * @param dis 数据输入流
+     * @param callback 进度回调
+     * @param spoolDir 临时文件目录，为 null 时所有数据包都读入内存
+     * @return 解析出的 Packet，如果流结束则返回 null
+     */
+    public static Packet readPacket(DataInputStream dis, ProgressCallback callback, File spoolDir) throws IOException {
         // 1. 读取 Magic
         int magic;
         try {
@@ -56,6 +97,269 @@ public class ProtocolReader {
             return null; // Stream ended
         }
 
+        return readPacketBody(magic, dis, callback, spoolDir);
+    }
+
+    /**
+     * 从流中读取下一个帧
+     * 旧格式数据包 (0xCAFEBABE) 会被完整读取并包装为 TYPE_LEGACY 帧，以兼容旧版本发送方。
+     *
+     * @param dis 数据输入流
+     * @param callback 旧格式数据包的进度回调
+     * @param spoolDir 旧格式文件包的临时文件目录
+     * @return 解析出的 Frame，如果流结束则返回 null
+     */
+    public static Frame readFrame(DataInputStream dis, ProgressCallback callback, File spoolDir) throws IOException {
+        int first;
+        int magic;
+        try {
+            first = dis.readUnsignedByte();
+            if (first != ProtocolWriter.MARKER_COMPACT && first != ProtocolWriter.MARKER_CHECKED) {
+                magic = first << 24 | dis.readUnsignedByte() << 16 | dis.readUnsignedShort();
+            } else {
+                magic = 0;
+            }
+        } catch (IOException e) {
+            System.out.println("[Protocol] Magic 读取失败 (可能是连接关闭): " + e.getMessage());
+            return null; // Stream ended
+        }
+
+        Frame frame = new Frame();
+        if (first == ProtocolWriter.MARKER_COMPACT || first == ProtocolWriter.MARKER_CHECKED) {
+            int payloadLen = readCompactHeader(new HeaderTap(dis, first), frame);
+            readCompactPayload(dis, frame, payloadLen);
+            return frame;
+        }
+
+        if (magic != ProtocolWriter.MAGIC_FRAME) {
+            Packet packet = readPacketBody(magic, dis, callback, spoolDir);
+            frame = new Frame(Frame.TYPE_LEGACY, 0, packet.senderToken, null);
+            frame.packet = packet;
+            return frame;
+        }
+
+        readPayload(dis, frame, readFrameHeader(dis, frame));
+        return frame;
+    }
+
+    /**
+     * 按长度读出负载 (版本 1 负载或紧凑负载)
+     * 文件分块的负载读入 BufferPool 的缓冲区，由接收方落盘后通过 {@link Frame#release()} 归还
+     */
+    static void readPayload(DataInputStream dis, Frame frame, int payloadLen) throws IOException {
+        if (frame.type != Frame.TYPE_FILE_CHUNK) {
+            byte[] payload = new byte[payloadLen];
+            dis.readFully(payload);
+            frame.setPayload(payload);
+            return;
+        }
+        byte[] buffer = BufferPool.acquire(payloadLen);
+        try {
+            dis.readFully(buffer, 0, payloadLen);
+        } catch (IOException | FrameAssembler.NeedMoreData e) {
+            BufferPool.release(buffer);
+            throw e;
+        }
+        frame.setPooledPayload(buffer, payloadLen);
+    }
+
+    /**
+     * 读取版本 1 帧头 (Magic 已读取)
+     *
+     * @return 负载长度
+     */
+    static int readFrameHeader(DataInputStream dis, Frame frame) throws IOException {
+        frame.version = ProtocolWriter.FRAME_VERSION_1;
+        frame.type = dis.readByte();
+        frame.flags = dis.readByte();
+        frame.codec = dis.readByte();
+        frame.streamId = dis.readInt();
+        frame.senderToken = dis.readLong();
+        int payloadLen = dis.readInt();
+        if (payloadLen < 0 || payloadLen > MAX_FRAME_PAYLOAD) {
+            throw new IOException("无效的帧长度: " + payloadLen);
+        }
+        return payloadLen;
+    }
+
+    /**
+     * 读取紧凑帧头 (版本 2/3，首字节已记录在 tap 中)；版本 3 同时校验帧头
+     *
+     * @return 紧凑负载长度
+     */
+    static int readCompactHeader(HeaderTap tap, Frame frame) throws IOException {
+        DataInputStream header = new DataInputStream(tap);
+        boolean checked = (tap.buf[0] & 0xFF) == ProtocolWriter.MARKER_CHECKED;
+        frame.version = checked ? ProtocolWriter.FRAME_VERSION_CHECKED : ProtocolWriter.FRAME_VERSION_COMPACT;
+        frame.type = header.readByte();
+        int codecAndFlags = header.readUnsignedByte();
+        frame.codec = (byte) (codecAndFlags >>> 4);
+        frame.flags = (byte) (codecAndFlags & 0x0F);
+        frame.streamId = (int) Varint.readLong(header);
+        frame.senderToken = header.readInt();
+        if (frame.isSequenced()) {
+            frame.sequence = Varint.readLong(header);
+        }
+        int payloadLen = Varint.readInt(header);
+        if (checked) {
+            int expected = Crc32c.compute(tap.buf, 0, tap.length);
+            if (header.readInt() != expected) {
+                throw new IOException("帧头校验失败");
+            }
+        }
+        if (payloadLen > MAX_FRAME_PAYLOAD) {
+            throw new IOException("无效的帧长度: " + payloadLen);
+        }
+        return payloadLen;
+    }
+
+    /**
+     * 读取紧凑负载，还原为与版本 1 相同的结构
+     * 负载先按长度整体读出再解析，解析失败时流仍停在下一帧的边界上。
+     */
+    static void readCompactPayload(DataInputStream dis, Frame frame, int payloadLen) throws IOException {
+        readPayload(dis, frame, payloadLen);
+        decodeCompactPayload(frame);
+    }
+
+    /**
+     * 把 frame.payload 中的紧凑负载还原为版本 1 结构
+     */
+    static void decodeCompactPayload(Frame frame) throws IOException {
+        byte[] wire = frame.payload;
+        int payloadLen = frame.length;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire, 0, payloadLen));
+        switch (frame.type) {
+            case Frame.TYPE_MSG: {
+                int rawLen = Varint.readInt(in);
+                long crc = in.readInt() & 0xFFFFFFFFL;
+                int dataLen = payloadLen - Varint.sizeOf(rawLen) - 4;
+                if (dataLen < 0) {
+                    throw new IOException("无效的消息帧长度: " + payloadLen);
+                }
+                byte[] payload = new byte[12 + dataLen];
+                ByteBuffer.wrap(payload).putInt(rawLen).putLong(crc);
+                System.arraycopy(wire, payloadLen - dataLen, payload, 12, dataLen);
+                frame.setPayload(payload);
+                break;
+            }
+            case Frame.TYPE_FILE_END:
+                if (payloadLen != 4) {
+                    throw new IOException("无效的结束帧长度: " + payloadLen);
+                }
+                frame.setPayload(ByteBuffer.allocate(8).putLong(in.readInt() & 0xFFFFFFFFL).array());
+                break;
+            case Frame.TYPE_FILE_RESUME:
+            case Frame.TYPE_FILE_ACK:
+            case Frame.TYPE_FILE_NAK:
+            case Frame.TYPE_SEQ_ACK:
+            case Frame.TYPE_SEQ_NAK: {
+                long offset = Varint.readLong(in);
+                if (Varint.sizeOf(offset) != payloadLen) {
+                    throw new IOException("无效的偏移帧长度: " + payloadLen);
+                }
+                frame.setPayload(ByteBuffer.allocate(8).putLong(offset).array());
+                break;
+            }
+            default:
+                // 其余类型原样使用
+        }
+    }
+
+    /**
+     * 记录读取过的帧头字节，用于校验帧头，以及校验失败时把字节退回流中重新扫描
+     */
+    static final class HeaderTap extends InputStream {
+        final byte[] buf = new byte[MAX_HEADER_SIZE];
+        int length;
+        private final InputStream in;
+
+        HeaderTap(InputStream in, int first) {
+            this.in = in;
+            buf[0] = (byte) first;
+            length = 1;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (length == buf.length) {
+                throw new IOException("帧头过长");
+            }
+            int b = in.read();
+            if (b >= 0) {
+                buf[length++] = (byte) b;
+            }
+            return b;
+        }
+    }
+
+    /**
+     * 解码 MSG 帧中的文本
+     */
+    public static String decodeMessage(Frame frame) throws IOException {
+        return decodeMessage(frame, null);
+    }
+
+    /**
+     * 解码 MSG 帧中的文本
+     *
+     * @param dictionary 对端方向的消息字典，用于 FLAG_DICTIONARY 帧
+     */
+    public static String decodeMessage(Frame frame, MessageDictionary dictionary) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(frame.payload);
+        int rawLen = header.getInt();
+        long receivedCrc = header.getLong();
+        if (rawLen < 0 || rawLen > MAX_IN_MEMORY_SIZE) {
+            throw new IOException("无效的消息长度: " + rawLen);
+        }
+        byte[] raw = new byte[rawLen];
+        if (frame.isStored()) {
+            if (frame.length - 12 != rawLen) {
+                throw new IOException("消息长度不匹配");
+            }
+            System.arraycopy(frame.payload, 12, raw, 0, rawLen);
+        } else if (frame.hasDictionary()) {
+            if (dictionary == null) {
+                throw new IOException("缺少消息字典");
+            }
+            raw = dictionary.decode(frame.payload, 12, frame.length - 12, rawLen);
+        } else {
+            codecOf(frame).decompress(frame.payload, 12, frame.length - 12, raw, 0, rawLen);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(raw);
+        if (crc32.getValue() != receivedCrc) {
+            throw new IOException("CRC 校验失败");
+        }
+        return new String(raw, "UTF-8");
+    }
+
+    /**
+     * 帧负载使用的编解码器
+     */
+    public static Codec codecOf(Frame frame) throws IOException {
+        Codec codec = CodecRegistry.get(frame.codec);
+        if (codec == null) {
+            throw new IOException("不支持的编解码器: " + frame.codec);
+        }
+        return codec;
+    }
+
+    /**
+     * 解码 FILE_RESUME / FILE_ACK / FILE_NAK 帧中的偏移量，或 SEQ_ACK / SEQ_NAK 帧中的序号
+     */
+    public static long decodeOffset(Frame frame) throws IOException {
+        if (frame.length < 8) {
+            throw new IOException("无效的控制帧");
+        }
+        return ByteBuffer.wrap(frame.payload).getLong();
+    }
+
+    /**
+     * 解析旧格式数据包 (Magic 已读取)
+     */
+    static Packet readPacketBody(int magic, DataInputStream dis, ProgressCallback callback, File spoolDir)
+            throws IOException {
         if (magic != MAGIC_NUMBER) {
             throw new IOException("无效的协议魔数: " + Integer.toHexString(magic));
         }
@@ -64,6 +368,21 @@ public class ProtocolReader {
         long senderToken = dis.readLong();
         // System.out.println("[Protocol] SenderToken: " + senderToken);
 
+        return readPacketRest(senderToken, dis, callback, spoolDir);
+    }
+
+    /**
+     * 探测包的 Token，见 {@link ProtocolWriter#probeToken}
+     */
+    static boolean isProbeToken(long token) {
+        return token >>> 32 == ProtocolWriter.PROBE_SIGNATURE;
+    }
+
+    /**
+     * 解析旧格式数据包 Token 之后的部分
+     */
+    static Packet readPacketRest(long senderToken, DataInputStream dis, ProgressCallback callback, File spoolDir)
+            throws IOException {
         // 3. 读取名称
         int nameLen = dis.readInt();
         System.out.println("[Protocol] NameLen: " + nameLen);
@@ -78,9 +397,25 @@ public class ProtocolReader {
         long receivedCrc = dis.readLong();
         System.out.println(String.format("[Protocol] Header: OrigSize=%d, CompSize=%d, CRC=%d", originalSize, compressedSize, receivedCrc));
 
-        // 5. 读取压缩数据
+        Packet packet = new Packet();
+        packet.senderToken = senderToken;
+        packet.name = name;
+
+        if (spoolDir != null && !"MSG".equals(name)) {
+            packet.file = readBodyToFile(dis, packet, originalSize, compressedSize, receivedCrc, callback, spoolDir);
+        } else {
+            packet.data = readBodyToMemory(dis, packet, originalSize, compressedSize, receivedCrc, callback);
+        }
+        return packet;
+    }
+
+    /**
+     * 将包体读入内存并解压
+     */
+    private static byte[] readBodyToMemory(DataInputStream dis, Packet packet, long originalSize, long compressedSize,
+            long receivedCrc, ProgressCallback callback) throws IOException {
         // 安全检查: 防止 OOM
-        if (compressedSize > 100 * 1024 * 1024) { // 100MB max per packet for safety
+        if (compressedSize > MAX_IN_MEMORY_SIZE || originalSize > MAX_IN_MEMORY_SIZE) {
             throw new IOException("数据包过大: " + compressedSize);
         }
 
@@ -88,12 +423,11 @@ public class ProtocolReader {
         
         // 分块读取以支持进度回调
         int totalRead = 0;
-        int bufferSize = 8192; // 8KB buffer
         int remaining = (int) compressedSize;
         int offset = 0;
         
         while (remaining > 0) {
-            int toRead = Math.min(remaining, bufferSize);
+            int toRead = Math.min(remaining, BUFFER_SIZE);
             // 注意: 这里我们直接读入最终的 compressedData 数组
             int bytesRead = dis.read(compressedData, offset, toRead);
             
@@ -106,13 +440,13 @@ public class ProtocolReader {
             totalRead += bytesRead;
             
             if (callback != null) {
-                callback.onProgress(senderToken, name, totalRead, compressedSize);
+                callback.onProgress(packet.senderToken, packet.name, totalRead, compressedSize);
             }
         }
         
         System.out.println("[Protocol] Body 读取完成");
 
-        // 5. 解压
+        // 解压
         ByteArrayOutputStream decompressedBaos = new ByteArrayOutputStream();
         try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressedData))) {
             byte[] buffer = new byte[4096];
@@ -123,22 +457,65 @@ public class ProtocolReader {
         }
         byte[] originalData = decompressedBaos.toByteArray();
 
-        // 6. 校验大小
+        // 校验大小
         if (originalData.length != originalSize) {
             throw new IOException("数据大小不匹配. 期望: " + originalSize + ", 实际: " + originalData.length);
         }
 
-        // 7. 校验 CRC
+        // 校验 CRC
         CRC32 crc32 = new CRC32();
         crc32.update(originalData);
         if (crc32.getValue() != receivedCrc) {
             throw new IOException("CRC 校验失败");
         }
+        return originalData;
+    }
+
+    /**
+     * 边读边解压，将包体写入临时文件
+     * 无论成功与否都会把本包的压缩数据从流中读完，保证后续数据包对齐；失败时删除临时文件。
+     */
+    private static File readBodyToFile(DataInputStream dis, Packet packet, long originalSize, long compressedSize,
+            long receivedCrc, ProgressCallback callback, File spoolDir) throws IOException {
+        if (!spoolDir.exists()) {
+            spoolDir.mkdirs();
+        }
+        File temp = File.createTempFile("bluelink-", ".part", spoolDir);
+        LimitedInputStream body = new LimitedInputStream(dis, compressedSize, consumed -> {
+            if (callback != null) {
+                callback.onProgress(packet.senderToken, packet.name, consumed, compressedSize);
+            }
+        });
 
-        Packet packet = new Packet();
-        packet.senderToken = senderToken;
-        packet.name = name;
-        packet.data = originalData;
-        return packet;
+        boolean success = false;
+        try {
+            CRC32 crc32 = new CRC32();
+            long written = 0;
+            try (GZIPInputStream gzip = new GZIPInputStream(body, BUFFER_SIZE);
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = gzip.read(buffer)) > 0) {
+                    crc32.update(buffer, 0, len);
+                    out.write(buffer, 0, len);
+                    written += len;
+                }
+            }
+            body.drain();
+            System.out.println("[Protocol] Body 流式写入完成: " + temp.getName());
+
+            if (written != originalSize) {
+                throw new IOException("数据大小不匹配. 期望: " + originalSize + ", 实际: " + written);
+            }
+            if (crc32.getValue() != receivedCrc) {
+                throw new IOException("CRC 校验失败");
+            }
+            success = true;
+            return temp;
+        } finally {
+            if (!success) {
+                temp.delete();
+            }
+        }
     }
 }
@@ -1,8 +1,12 @@
 package com.bluelink.net.protocol;
 
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.Adler32;
@@ -14,6 +18,32 @@ import java.util.zip.Adler32;
 public class ProtocolWriter {
 
     private static final int MAGIC_NUMBER = 0xCAFEBABE; // 示例 Magic
+    static final int MAGIC_FRAME = 0xCAFEF00D; // 多路复用帧 Magic (版本 1)
+    static final int MARKER_COMPACT = 0xB2; // 紧凑帧首字节 (版本 2)，旧格式 Magic 均以 0xCA 开头，可据此区分
+    static final int MARKER_CHECKED = 0xB3; // 带帧头校验的紧凑帧首字节 (版本 3)
+    static final long PROBE_SIGNATURE = 0x424C4E4BL; // 探测包 Token 的高 32 位 ("BLNK")，见 createProbe
+
+    // 帧格式版本
+    public static final int FRAME_VERSION_LEGACY = 0; // 不识别帧的旧版本对端: 只收发旧格式数据包 (见 createPacket)
+    public static final int FRAME_VERSION_1 = 1;
+    public static final int FRAME_VERSION_COMPACT = 2;
+    public static final int FRAME_VERSION_CHECKED = 3;
+    public static final int FRAME_VERSION = FRAME_VERSION_CHECKED; // 本机支持的最高版本
+
+    /**
+     * 探测包 (旧格式数据包的 Magic 和 Token) 的长度
+     */
+    public static final int PROBE_SIZE = 12;
+
+    /**
+     * 默认分块大小 (原始数据)
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * 分块大小上限，接收方拒绝更大的分块
+     */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
 
     /**
      * 封装数据包
@@ -49,4 +79,251 @@ public class ProtocolWriter {
 
         return finalBaos.toByteArray();
     }
+
+    /**
+     * 封装探测包
+     * 结构: [Magic 4][ProbeToken 8]，即一个旧格式数据包的开头，Token 见 {@link #probeToken}。
+     * 旧版本把它当作数据包的开头，等待其余部分，不会断开连接；新版本识别出 Token 后回复 HELLO。
+     * 对端一直没有回应时，本方的第一个旧格式数据包省略这 12 字节，接在探测包后面组成完整的数据包。
+     */
+    public static byte[] createProbe(long senderToken) {
+        return ByteBuffer.allocate(PROBE_SIZE).putInt(MAGIC_NUMBER).putLong(probeToken(senderToken)).array();
+    }
+
+    /**
+     * 探测包及之后的旧格式数据包使用的 Token: 高 32 位为固定标记，低 32 位为会话 Token
+     * 旧版本只用 Token 识别自己发出的包，不受影响。
+     */
+    public static long probeToken(long senderToken) {
+        return PROBE_SIGNATURE << 32 | (senderToken & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 把旧格式数据包 (或按顺序拆分出的一段) 包装为帧交给发送调度器，写出时不加帧头
+     * 只用于不识别帧的对端，见 {@link #FRAME_VERSION_LEGACY}
+     */
+    public static Frame createLegacyFrame(byte[] packet) {
+        return new Frame(Frame.TYPE_LEGACY, 0, 0, packet);
+    }
+
+    /**
+     * 封装文本消息帧
+     * MSG 结构: [RawLen 4][CRC32 8][压缩数据 或原始数据 Var]
+     * 压缩不划算时使用存储模式并设置 FLAG_STORED
+     */
+    public static Frame createMessageFrame(long senderToken, byte[] data) throws IOException {
+        return createMessageFrame(senderToken, data, CodecRegistry.get(CodecRegistry.DEFLATE));
+    }
+
+    /**
+     * 使用会话预置字典封装文本消息帧
+     * MSG 结构: [RawLen 4][CRC32 8][DictId 4][Deflate_Data Var]，设置 FLAG_DICTIONARY
+     * 过短的消息直接使用存储模式，省去压缩开销
+     */
+    public static Frame createMessageFrame(long senderToken, byte[] data, MessageDictionary dictionary) throws IOException {
+        byte[] encoded = dictionary.encode(data);
+        if (encoded == null) {
+            return createMessageFrame(senderToken, data, CodecRegistry.get(CodecRegistry.STORED));
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+
+        byte[] payload = new byte[12 + encoded.length];
+        ByteBuffer.wrap(payload).putInt(data.length).putLong(crc32.getValue()).put(encoded);
+        Frame frame = new Frame(Frame.TYPE_MSG, 0, senderToken, payload);
+        frame.flags |= Frame.FLAG_DICTIONARY;
+        frame.codec = CodecRegistry.DEFLATE;
+        return frame;
+    }
+
+    public static Frame createMessageFrame(long senderToken, byte[] data, Codec codec) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+
+        if (codec.getId() != CodecRegistry.STORED) {
+            // 压缩到池中的临时缓冲区，只为实际长度分配负载
+            byte[] scratch = BufferPool.acquire(codec.maxCompressedLength(data.length));
+            try {
+                int compLen = CodecRegistry.compressIfSmaller(codec, data, 0, data.length, scratch, 0);
+                if (compLen >= 0) {
+                    byte[] payload = new byte[12 + compLen];
+                    ByteBuffer.wrap(payload).putInt(data.length).putLong(crc32.getValue()).put(scratch, 0, compLen);
+                    Frame frame = new Frame(Frame.TYPE_MSG, 0, senderToken, payload);
+                    frame.codec = codec.getId();
+                    return frame;
+                }
+            } finally {
+                BufferPool.release(scratch);
+            }
+        }
+        byte[] payload = new byte[12 + data.length];
+        ByteBuffer.wrap(payload).putInt(data.length).putLong(crc32.getValue()).put(data);
+        Frame frame = new Frame(Frame.TYPE_MSG, 0, senderToken, payload);
+        frame.flags |= Frame.FLAG_STORED;
+        return frame;
+    }
+
+    /**
+     * 封装携带偏移量的控制帧 (FILE_RESUME / FILE_ACK)
+     * 结构: [Offset 8]
+     */
+    public static Frame createOffsetFrame(byte type, int streamId, long senderToken, long offset) {
+        byte[] payload = ByteBuffer.allocate(8).putLong(offset).array();
+        return new Frame(type, streamId, senderToken, payload);
+    }
+
+    /**
+     * 以版本 1 格式写出帧，所有帧格式的接收方都能识别
+     */
+    public static void writeFrame(DataOutputStream dos, Frame frame) throws IOException {
+        writeFrame(dos, frame, FRAME_VERSION_1);
+    }
+
+    /**
+     * 写出帧
+     * 版本 1: [Magic 4][Type 1][Flags 1][Codec 1][StreamId 4][SenderToken 8][PayloadLen 4][Payload]
+     * 版本 2: [Marker 1][Type 1][Codec 高4位|Flags 低4位 1][StreamId Varint][SenderToken 4]([Seq Varint])[PayloadLen Varint][Payload]
+     * 只有 FLAG_SEQUENCED 帧带 Seq，版本 1 不支持序号。
+     * 版本 3: 同版本 2，PayloadLen 之后追加 [HeaderCheck 4] (Marker 至 PayloadLen 的 CRC32C)，
+     * 接收方据此识别损坏的帧头，并在数据流中重新找到帧边界。
+     * 版本 2 起部分负载使用紧凑编码，见 {@link #writeCompactPayload}；SenderToken 只保留低 32 位。
+     */
+    public static void writeFrame(DataOutputStream dos, Frame frame, int version) throws IOException {
+        if (frame.type == Frame.TYPE_LEGACY) {
+            // 旧格式数据包 (或其中的一段) 原样写出，与帧格式版本无关
+            dos.write(frame.payload, 0, frame.length);
+            return;
+        }
+        if (version < FRAME_VERSION_COMPACT) {
+            if (frame.isSequenced()) {
+                throw new IOException("版本 1 帧不支持序号: " + frame);
+            }
+            dos.writeInt(MAGIC_FRAME);
+            dos.writeByte(frame.type);
+            dos.writeByte(frame.flags);
+            dos.writeByte(frame.codec);
+            dos.writeInt(frame.streamId);
+            dos.writeLong(frame.senderToken);
+            dos.writeInt(frame.length);
+            dos.write(frame.payload, 0, frame.length);
+            return;
+        }
+        if ((frame.flags & ~0x0F) != 0 || (frame.codec & ~0x0F) != 0) {
+            throw new IOException("紧凑帧不支持的标志位或编解码器: " + frame);
+        }
+        boolean checked = version >= FRAME_VERSION_CHECKED;
+        ByteBuffer header = ByteBuffer.allocate(ProtocolReader.MAX_HEADER_SIZE);
+        header.put((byte) (checked ? MARKER_CHECKED : MARKER_COMPACT));
+        header.put(frame.type);
+        header.put((byte) (frame.codec << 4 | frame.flags));
+        Varint.write(header, frame.streamId & 0xFFFFFFFFL);
+        header.putInt((int) frame.senderToken);
+        if (frame.isSequenced()) {
+            Varint.write(header, frame.sequence);
+        }
+        Varint.write(header, compactPayloadLength(frame));
+        dos.write(header.array(), 0, header.position());
+        if (checked) {
+            dos.writeInt(Crc32c.compute(header.array(), 0, header.position()));
+        }
+        writeCompactPayload(dos, frame);
+    }
+
+    /**
+     * 紧凑负载的长度，与 {@link #writeCompactPayload} 写出的字节数一致
+     */
+    private static int compactPayloadLength(Frame frame) {
+        byte[] payload = frame.payload;
+        switch (frame.type) {
+            case Frame.TYPE_MSG:
+                return Varint.sizeOf(ByteBuffer.wrap(payload).getInt()) + 4 + frame.length - 12;
+            case Frame.TYPE_FILE_END:
+                return 4;
+            case Frame.TYPE_FILE_RESUME:
+            case Frame.TYPE_FILE_ACK:
+            case Frame.TYPE_FILE_NAK:
+            case Frame.TYPE_SEQ_ACK:
+            case Frame.TYPE_SEQ_NAK:
+                return Varint.sizeOf(ByteBuffer.wrap(payload).getLong());
+            default:
+                return frame.length;
+        }
+    }
+
+    /**
+     * 紧凑负载
+     * MSG: [RawLen Varint][CRC32 4][Data]
+     * FILE_END: [CRC32 4]
+     * FILE_RESUME / FILE_ACK / FILE_NAK: [Offset Varint]
+     * SEQ_ACK / SEQ_NAK: [Seq Varint]
+     * 其余类型原样写出
+     */
+    private static void writeCompactPayload(DataOutputStream dos, Frame frame) throws IOException {
+        byte[] payload = frame.payload;
+        switch (frame.type) {
+            case Frame.TYPE_MSG: {
+                ByteBuffer header = ByteBuffer.wrap(payload);
+                int rawLen = header.getInt();
+                int crc = (int) header.getLong();
+                Varint.write(dos, rawLen);
+                dos.writeInt(crc);
+                dos.write(payload, 12, frame.length - 12);
+                return;
+            }
+            case Frame.TYPE_FILE_END:
+                dos.writeInt((int) ByteBuffer.wrap(payload).getLong());
+                return;
+            case Frame.TYPE_FILE_RESUME:
+            case Frame.TYPE_FILE_ACK:
+            case Frame.TYPE_FILE_NAK:
+            case Frame.TYPE_SEQ_ACK:
+            case Frame.TYPE_SEQ_NAK:
+                Varint.write(dos, ByteBuffer.wrap(payload).getLong());
+                return;
+            default:
+                dos.write(payload, 0, frame.length);
+        }
+    }
+
+    /**
+     * 封装丢帧报告
+     *
+     * @param droppedType 被丢弃帧的类型，帧头损坏无法得知时为 TYPE_LEGACY
+     * @param streamId 被丢弃帧所属的传输流，无法得知时为 0
+     * @param droppedBytes 丢弃的字节数
+     */
+    public static Frame createDroppedFrame(long senderToken, byte droppedType, int streamId, long droppedBytes) {
+        byte[] payload = ByteBuffer.allocate(9).put(droppedType).putLong(droppedBytes).array();
+        return new Frame(Frame.TYPE_FRAME_DROPPED, streamId, senderToken, payload);
+    }
+
+    /**
+     * 封装握手帧，内容见 {@link Capabilities}
+     * 总是以版本 1 格式发送，所有识别帧的版本都能解析。旧版本收到任何帧都会断开连接，
+     * 所以只在对端表明识别帧 (发来探测包或 HELLO) 之后发送，见 {@link #createProbe}
+     */
+    public static Frame createHelloFrame(long senderToken, Capabilities capabilities) throws IOException {
+        return new Frame(Frame.TYPE_HELLO, 0, senderToken, capabilities.encode());
+    }
+
+    /**
+     * 封装 TCP 快速通道的地址，内容见 {@link TransportOffer}
+     */
+    public static Frame createTransportOfferFrame(long senderToken, TransportOffer offer) {
+        return new Frame(Frame.TYPE_TRANSPORT_OFFER, 0, senderToken, offer.encode());
+    }
+
+    /**
+     * 封装并行连接的邀请，内容见 {@link ChannelOffer}
+     */
+    public static Frame createChannelOfferFrame(long senderToken, ChannelOffer offer) {
+        return new Frame(Frame.TYPE_CHANNEL_OFFER, 0, senderToken, offer.encode());
+    }
+
+    /**
+     * 封装传输切换帧 (无负载)，它是本方向在旧连接上的最后一帧
+     */
+    public static Frame createTransportSwitchFrame(long senderToken) {
+        return new Frame(Frame.TYPE_TRANSPORT_SWITCH, 0, senderToken, new byte[0]);
+    }
 }
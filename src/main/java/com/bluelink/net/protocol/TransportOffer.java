@@ -0,0 +1,65 @@
+package com.bluelink.net.protocol;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TCP 快速通道的提议
+ * 提议方在本机所有 IPv4 地址上监听，把地址、端口和一次性口令通过蓝牙发给对端；
+ * 对端依次尝试连接，连接后先发送口令，提议方核对后才接受，避免局域网中的其他连接冒充对端。
+ * TRANSPORT_OFFER 结构: [Port 2][Nonce 8][Count 1][IPv4 4]*
+ */
+public class TransportOffer {
+
+    public int port;
+    public long nonce;
+    public List<InetAddress> addresses = new ArrayList<>();
+
+    public byte[] encode() {
+        int count = Math.min(addresses.size(), 255);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 8 + 1 + 4 * count);
+        buffer.putShort((short) port);
+        buffer.putLong(nonce);
+        buffer.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            buffer.put(addresses.get(i).getAddress());
+        }
+        return buffer.array();
+    }
+
+    public static TransportOffer decode(Frame frame) throws IOException {
+        TransportOffer offer = new TransportOffer();
+        ByteBuffer buffer = ByteBuffer.wrap(frame.payload, 0, frame.length);
+        try {
+            offer.port = buffer.getShort() & 0xFFFF;
+            offer.nonce = buffer.getLong();
+            int count = buffer.get() & 0xFF;
+            byte[] ip = new byte[4];
+            for (int i = 0; i < count; i++) {
+                buffer.get(ip);
+                offer.addresses.add(InetAddress.getByAddress(ip));
+            }
+        } catch (BufferUnderflowException | UnknownHostException e) {
+            throw new IOException("无效的 TRANSPORT_OFFER 帧");
+        }
+        return offer;
+    }
+
+    /**
+     * 是否为可以放入提议的地址
+     */
+    public static boolean isOfferable(InetAddress address) {
+        return address instanceof Inet4Address && !address.isAnyLocalAddress() && !address.isMulticastAddress();
+    }
+
+    @Override
+    public String toString() {
+        return "TransportOffer{port=" + port + ", addresses=" + addresses + "}";
+    }
+}
@@ -0,0 +1,33 @@
+package com.bluelink.net.protocol;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 边接收边解包 (文件夹归档、多文件批次)
+ * 由 FileChunkDecoder 按从开头连续的顺序送入数据
+ */
+interface Unpacker {
+
+    void update(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * 数据接收完毕，检查是否完整
+     */
+    void finish() throws IOException;
+
+    /**
+     * 关闭正在写出的文件，已解包的内容保留 (续传时重新解包)
+     */
+    void close();
+
+    /**
+     * 放弃解包并删除解包目录
+     */
+    void delete();
+
+    /**
+     * 解包目录
+     */
+    File getTarget();
+}
@@ -0,0 +1,61 @@
+package com.bluelink.net.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 无符号变长整数 (LEB128)
+ * 每字节低 7 位为数据，最高位表示后面还有字节；小于 128 的值只占 1 个字节。
+ */
+final class Varint {
+
+    private Varint() {
+    }
+
+    static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void write(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void write(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数过长");
+    }
+
+    static int readInt(DataInput in) throws IOException {
+        long value = readLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("变长整数越界: " + value);
+        }
+        return (int) value;
+    }
+}
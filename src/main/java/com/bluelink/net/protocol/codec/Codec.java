@@ -0,0 +1,39 @@
+package com.bluelink.net.protocol.codec;
+
+import java.io.IOException;
+
+/**
+ * 块压缩编解码器
+ * 每次调用压缩/解压一个完整的数据块 (消息或文件分块)，块之间互不依赖。
+ * 实现必须是线程安全的。
+ */
+public interface Codec {
+
+    /**
+     * 编解码器 ID，写入帧头，双方必须一致
+     */
+    byte getId();
+
+    /**
+     * 名称，用于配置和日志
+     */
+    String getName();
+
+    /**
+     * 最坏情况下的压缩输出大小
+     */
+    int maxCompressedLength(int rawLen);
+
+    /**
+     * 压缩 src[srcOff, srcOff+srcLen) 到 dst 的 dstOff 处
+     * dst 从 dstOff 起至少需要 {@link #maxCompressedLength(int)} 字节
+     *
+     * @return 压缩后的长度
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) throws IOException;
+
+    /**
+     * 解压 src[srcOff, srcOff+srcLen) 到 dst 的 dstOff 处，解压结果必须恰好为 rawLen 字节
+     */
+    void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException;
+}
@@ -0,0 +1,120 @@
+package com.bluelink.net.protocol.codec;
+
+import com.bluelink.net.protocol.CompressionAdvisor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编解码器注册表
+ * 内置 stored / deflate (多个级别) / lz4，可通过 {@link #register(Codec)} 扩展。
+ * 发送方只使用双方都支持的编解码器，并按文件大小在压缩率与 CPU 之间取舍。
+ */
+public class CodecRegistry {
+
+    // 编解码器 ID (写入帧头)
+    public static final byte STORED = 0;
+    public static final byte DEFLATE_FAST = 1; // Deflate level 1
+    public static final byte DEFLATE = 2; // Deflate level 6
+    public static final byte DEFLATE_MAX = 3; // Deflate level 9
+    public static final byte LZ4 = 4;
+
+    // auto 模式下切换到更快编解码器的文件大小阈值
+    private static final long FAST_DEFLATE_THRESHOLD = 16L * 1024 * 1024;
+    private static final long LZ4_THRESHOLD = 256L * 1024 * 1024;
+
+    private static final Map<Byte, Codec> CODECS = new LinkedHashMap<>();
+
+    static {
+        register(new StoredCodec());
+        register(new DeflateCodec(DEFLATE_FAST, "deflate-fast", 1));
+        register(new DeflateCodec(DEFLATE, "deflate", 6));
+        register(new DeflateCodec(DEFLATE_MAX, "deflate-max", 9));
+        register(new Lz4Codec());
+    }
+
+    public static synchronized void register(Codec codec) {
+        CODECS.put(codec.getId(), codec);
+    }
+
+    /**
+     * 按 ID 获取编解码器，未知 ID 返回 null
+     */
+    public static synchronized Codec get(byte id) {
+        return CODECS.get(id);
+    }
+
+    /**
+     * 按名称获取编解码器，未知名称返回 null
+     */
+    public static synchronized Codec byName(String name) {
+        for (Codec codec : CODECS.values()) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    public static synchronized Collection<Codec> all() {
+        return new ArrayList<>(CODECS.values());
+    }
+
+    /**
+     * 本机支持的全部编解码器 ID
+     */
+    public static synchronized List<Byte> supportedIds() {
+        return new ArrayList<>(CODECS.keySet());
+    }
+
+    /**
+     * 压缩一个数据块，压缩不划算 (见 {@link CompressionAdvisor#paysOff}) 时返回 -1，调用方改用存储模式
+     * LZ4 对不可压缩的数据会膨胀 (每 255 字节字面量多 1 字节)，Deflate 也有少量块头开销，发送路径都经由这里回退到 STORED
+     *
+     * @return 压缩后的长度，或 -1
+     */
+    public static int compressIfSmaller(Codec codec, byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff)
+            throws IOException {
+        if (codec.getId() == STORED) {
+            return -1;
+        }
+        int compLen = codec.compress(src, srcOff, srcLen, dst, dstOff);
+        return CompressionAdvisor.paysOff(srcLen, compLen) ? compLen : -1;
+    }
+
+    /**
+     * 为文件选择编解码器
+     *
+     * @param preferred 配置的编解码器名称，"auto" 表示按文件大小自动选择
+     * @param fileSize 文件大小
+     * @param peerCodecs 对端支持的编解码器 ID
+     */
+    public static Codec selectForFile(String preferred, long fileSize, Set<Byte> peerCodecs) {
+        if (preferred != null && !"auto".equalsIgnoreCase(preferred)) {
+            Codec codec = byName(preferred);
+            if (codec != null && peerCodecs.contains(codec.getId())) {
+                return codec;
+            }
+        }
+        // 大文件优先速度，小文件优先压缩率
+        byte[] candidates;
+        if (fileSize >= LZ4_THRESHOLD) {
+            candidates = new byte[] { LZ4, DEFLATE_FAST, DEFLATE };
+        } else if (fileSize >= FAST_DEFLATE_THRESHOLD) {
+            candidates = new byte[] { DEFLATE_FAST, LZ4, DEFLATE };
+        } else {
+            candidates = new byte[] { DEFLATE, DEFLATE_FAST, LZ4 };
+        }
+        for (byte id : candidates) {
+            if (peerCodecs.contains(id) && get(id) != null) {
+                return get(id);
+            }
+        }
+        return get(STORED);
+    }
+}
@@ -0,0 +1,26 @@
+package com.bluelink.net.protocol.codec;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 分块压缩/解压共用的线程池
+ * 每个分块独立压缩，可以分散到所有核心上并行执行；编解码器内部的 Deflater/哈希表按线程缓存，线程安全。
+ */
+public final class CompressionPool {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private CompressionPool() {
+    }
+
+    public static ForkJoinPool get() {
+        return POOL;
+    }
+
+    /**
+     * 默认并行度 (CPU 核心数)
+     */
+    public static int defaultParallelism() {
+        return POOL.getParallelism();
+    }
+}
@@ -0,0 +1,83 @@
+package com.bluelink.net.protocol.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw Deflate 编解码器，压缩级别可选
+ * Deflater/Inflater 按线程复用，避免每块都分配本地内存
+ */
+public class DeflateCodec implements Codec {
+
+    private final byte id;
+    private final String name;
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateCodec(byte id, String name, int level) {
+        this.id = id;
+        this.name = name;
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int maxCompressedLength(int rawLen) {
+        return rawLen + rawLen / 1000 + 64;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(src, srcOff, srcLen);
+        deflater.finish();
+        int pos = dstOff;
+        while (!deflater.finished()) {
+            if (pos == dst.length) {
+                throw new IOException("压缩缓冲区不足");
+            }
+            pos += deflater.deflate(dst, pos, dst.length - pos);
+        }
+        return pos - dstOff;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(src, srcOff, srcLen);
+        int n = 0;
+        try {
+            while (n < rawLen && !inflater.finished()) {
+                int r = inflater.inflate(dst, dstOff + n, rawLen - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败: " + e.getMessage());
+        }
+        if (n != rawLen) {
+            throw new IOException("分块大小不匹配. 期望: " + rawLen + ", 实际: " + n);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.bluelink.net.protocol.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4 块格式编解码器 (纯 Java 实现)
+ * 单遍哈希匹配，压缩率低于 Deflate，但压缩/解压速度高一个数量级，适合高速链路上的大文件。
+ * 块格式: 若干个序列 [Token 1][LiteralLen+ Var][Literals][Offset 2 LE][MatchLen+ Var]，最后一个序列只有字面量。
+ */
+public class Lz4Codec implements Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // 块末尾必须是字面量
+    private static final int MF_LIMIT = 12; // 最后一个匹配的起点距块末尾的最小距离
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6; // 连续未命中时加大步长
+    private static final String TRUNCATED = "LZ4 数据损坏: 输入不完整";
+
+    private static final ThreadLocal<int[]> HASH_TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    @Override
+    public byte getId() {
+        return CodecRegistry.LZ4;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public int maxCompressedLength(int rawLen) {
+        return rawLen + rawLen / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) throws IOException {
+        if (dst.length - dstOff < maxCompressedLength(srcLen)) {
+            throw new IOException("压缩缓冲区不足");
+        }
+        int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen >= MF_LIMIT + 1) {
+            // 哈希表存放 位置+1，0 表示空
+            int[] table = HASH_TABLES.get();
+            Arrays.fill(table, 0);
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int mfLimit = srcEnd - MF_LIMIT;
+            int ip = srcOff;
+            int searchCount = 1 << SKIP_TRIGGER;
+
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+
+                if (ref < srcOff || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    ip += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+
+                // 向前扩展匹配
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                // 向后扩展匹配
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ref + matchLen] == src[ip + matchLen]) {
+                    matchLen++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLen);
+                ip += matchLen;
+                anchor = ip;
+
+                // 补充匹配末尾的哈希，提高后续命中率
+                if (ip - 2 < mfLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2 + 1;
+                }
+            }
+        }
+
+        // 剩余字面量
+        int literalLen = srcEnd - anchor;
+        op = writeLength(dst, op, literalLen);
+        System.arraycopy(src, anchor, dst, op, literalLen);
+        op += literalLen;
+        return op - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLen, byte[] dst, int op, int offset,
+            int matchLen) {
+        int tokenPos = op;
+        op = writeLength(dst, op, literalLen);
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        op += literalLen;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+
+        int ml = matchLen - MIN_MATCH;
+        if (ml >= 15) {
+            dst[tokenPos] |= 15;
+            ml -= 15;
+            while (ml >= 255) {
+                dst[op++] = (byte) 255;
+                ml -= 255;
+            }
+            dst[op++] = (byte) ml;
+        } else {
+            dst[tokenPos] |= ml;
+        }
+        return op;
+    }
+
+    /**
+     * 写入 Token (高 4 位为字面量长度) 及其扩展长度字节
+     */
+    private static int writeLength(byte[] dst, int op, int literalLen) {
+        if (literalLen >= 15) {
+            dst[op++] = (byte) (15 << 4);
+            int len = literalLen - 15;
+            while (len >= 255) {
+                dst[op++] = (byte) 255;
+                len -= 255;
+            }
+            dst[op++] = (byte) len;
+        } else {
+            dst[op++] = (byte) (literalLen << 4);
+        }
+        return op;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + rawLen;
+
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+
+                // 字面量
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        if (ip == srcEnd) {
+                            throw new IOException(TRUNCATED);
+                        }
+                        b = src[ip++] & 0xFF;
+                        literalLen += b;
+                    } while (b == 255 && literalLen <= dstEnd - op); // 已越界时停止累加，避免溢出
+                }
+                if (literalLen > srcEnd - ip || literalLen > dstEnd - op) {
+                    throw new IOException("LZ4 数据损坏: 字面量越界");
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+
+                if (ip == srcEnd) {
+                    break; // 最后一个序列
+                }
+
+                // 匹配
+                if (srcEnd - ip < 2) {
+                    throw new IOException(TRUNCATED);
+                }
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        if (ip == srcEnd) {
+                            throw new IOException(TRUNCATED);
+                        }
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255 && matchLen <= dstEnd - op);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || matchLen > dstEnd - op) {
+                    throw new IOException("LZ4 数据损坏: 匹配越界");
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // 重叠复制 (例如重复字符): 每次复制一个周期，源与目标不重叠
+                    int remaining = matchLen;
+                    while (remaining > 0) {
+                        int n = Math.min(offset, remaining);
+                        System.arraycopy(dst, ref, dst, op, n);
+                        op += n;
+                        remaining -= n;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException(TRUNCATED);
+        }
+
+        if (op != dstEnd) {
+            throw new IOException("分块大小不匹配. 期望: " + rawLen + ", 实际: " + (op - dstOff));
+        }
+    }
+}
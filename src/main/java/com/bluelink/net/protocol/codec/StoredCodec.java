@@ -0,0 +1,38 @@
+package com.bluelink.net.protocol.codec;
+
+import java.io.IOException;
+
+/**
+ * 存储模式: 不压缩
+ */
+public class StoredCodec implements Codec {
+
+    @Override
+    public byte getId() {
+        return CodecRegistry.STORED;
+    }
+
+    @Override
+    public String getName() {
+        return "stored";
+    }
+
+    @Override
+    public int maxCompressedLength(int rawLen) {
+        return rawLen;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+        return srcLen;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+        if (srcLen != rawLen) {
+            throw new IOException("分块长度不匹配");
+        }
+        System.arraycopy(src, srcOff, dst, dstOff, rawLen);
+    }
+}
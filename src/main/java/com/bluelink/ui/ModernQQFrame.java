@@ -29,6 +29,7 @@ public class ModernQQFrame extends JFrame {
 
     // 右侧组件
     private JLabel headerLabel;
+    private JLabel batchLabel; // 多文件批次的整体进度
     private JPanel chatArea;
     private JScrollPane chatScrollPane; // 保存 scrollPane 引用
     private JTextArea inputArea; // 暂时用 JTextArea，后续升级
@@ -58,6 +59,9 @@ public class ModernQQFrame extends JFrame {
     // 正在发送的文件气泡 (fileName -> bubble)
     private java.util.Map<String, com.bluelink.ui.bubble.BubblePanel> sendingFileBubbles = new java.util.concurrent.ConcurrentHashMap<>();
     
+    // 进行中的多文件批次 (batchKey -> 进度文字)，只在 EDT 上访问，标题栏显示最近更新的一个
+    private final java.util.Map<String, String> activeBatches = new java.util.LinkedHashMap<>();
+
     // 发送任务执行器 (单线程，保证发送顺序)
     private final java.util.concurrent.ExecutorService fileSendExecutor = java.util.concurrent.Executors.newSingleThreadExecutor();
 
@@ -208,6 +212,21 @@ public class ModernQQFrame extends JFrame {
             });
         }
 
+        @Override
+        public void onBatchProgress(String batchKey, int completedFiles, int totalFiles, long current, long total,
+                boolean isReceive) {
+            SwingUtilities.invokeLater(() -> {
+                activeBatches.remove(batchKey);
+                if (completedFiles < totalFiles) {
+                    activeBatches.put(batchKey, String.format("%s %d/%d 个文件 · %s / %s", isReceive ? "接收中" : "发送中",
+                            completedFiles, totalFiles,
+                            com.bluelink.ui.bubble.BubbleFactory.formatSize(current),
+                            com.bluelink.ui.bubble.BubbleFactory.formatSize(total)));
+                }
+                updateBatchLabel();
+            });
+        }
+
         @Override
         public void onConnectionStatusChanged(boolean isConnected, String deviceName) {
             SwingUtilities.invokeLater(() -> {
@@ -229,6 +248,8 @@ public class ModernQQFrame extends JFrame {
                     if (currentSession != null) {
                         currentSession = null;
                     }
+                    activeBatches.clear();
+                    updateBatchLabel();
                 }
             });
         }
@@ -456,8 +477,12 @@ public class ModernQQFrame extends JFrame {
                         java.util.List<File> droppedFiles = (java.util.List<File>) dtde.getTransferable()
                                 .getTransferData(java.awt.datatransfer.DataFlavor.javaFileListFlavor);
 
-                        for (File file : droppedFiles) {
-                            performFileSend(file);
+                        if (droppedFiles.size() > 1) {
+                            performBatchSend(droppedFiles);
+                        } else {
+                            for (File file : droppedFiles) {
+                                performFileSend(file);
+                            }
                         }
                         dtde.dropComplete(true);
                     } else {
@@ -520,7 +545,7 @@ public class ModernQQFrame extends JFrame {
                     client.send(text);
                 }
 
-                // 发送成功: 更新数据库状态 (Status=SUCCESS)
+                // 对方已确认收到 (旧版本对端为已写出): 更新数据库状态 (Status=SUCCESS)
                 if (item.id > 0) {
                     com.bluelink.db.TransferDao.updateStatus(item.id, "SUCCESS");
                 }
@@ -571,7 +596,7 @@ public class ModernQQFrame extends JFrame {
                         client.sendFile(file);
                     }
 
-                    // 发送成功: 更新数据库状态 (Status=SUCCESS)
+                    // 对方已确认收到 (旧版本对端为已写出): 更新数据库状态 (Status=SUCCESS)
                     if (item.id > 0) {
                         com.bluelink.db.TransferDao.updateStatus(item.id, "SUCCESS");
                     }
@@ -594,6 +619,95 @@ public class ModernQQFrame extends JFrame {
         });
     }
 
+    /**
+     * 标题栏显示最近更新的批次进度，没有进行中的批次时隐藏
+     */
+    private void updateBatchLabel() {
+        String text = null;
+        for (String value : activeBatches.values()) {
+            text = value;
+        }
+        batchLabel.setText(text);
+        batchLabel.setVisible(text != null);
+    }
+
+    /**
+     * 一次拖入多个文件: 作为一个发送任务，数据库记录批量写入，小文件由会话合并为批次发送
+     * 没有会话时 (旧客户端) 逐个按单文件发送
+     */
+    private void performBatchSend(java.util.List<File> files) {
+        if (currentSession == null) {
+            for (File file : files) {
+                performFileSend(file);
+            }
+            return;
+        }
+        java.util.List<String> taskKeys = new java.util.ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            taskKeys.add(java.util.UUID.randomUUID().toString());
+        }
+        String batchKey = java.util.UUID.randomUUID().toString();
+
+        SwingUtilities.invokeLater(() -> {
+            java.util.List<com.bluelink.ui.bubble.BubblePanel> bubbles = new java.util.ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                bubbles.add(renderFileBubble(true, files.get(i), taskKeys.get(i)));
+            }
+            scrollToBottom();
+
+            fileSendExecutor.submit(() -> {
+                // 每个文件一条记录，一次写入
+                java.util.List<com.bluelink.db.TransferDao.LogItem> items = new java.util.ArrayList<>();
+                for (File file : files) {
+                    com.bluelink.db.TransferDao.LogItem item = new com.bluelink.db.TransferDao.LogItem("FILE", true,
+                            file.getAbsolutePath(), file.length());
+                    item.status = "SENDING";
+                    items.add(item);
+                }
+                com.bluelink.db.TransferDao.saveAll(items);
+
+                boolean[] delivered = new boolean[files.size()];
+                com.bluelink.net.BluetoothSession session = currentSession;
+                try {
+                    if (session == null) {
+                        throw new java.io.IOException("连接已断开");
+                    }
+                    session.sendFiles(files, taskKeys, batchKey, index -> delivered[index] = true);
+                } catch (Exception e) {
+                    System.err.println("[UI] 批量发送失败: " + e.getMessage());
+                }
+                SwingUtilities.invokeLater(() -> {
+                    activeBatches.remove(batchKey); // 失败时不会再有进度回调
+                    updateBatchLabel();
+                });
+
+                java.util.List<Long> succeeded = new java.util.ArrayList<>();
+                java.util.List<Long> failed = new java.util.ArrayList<>();
+                for (int i = 0; i < files.size(); i++) {
+                    com.bluelink.db.TransferDao.LogItem item = items.get(i);
+                    if (delivered[i]) {
+                        if (item.id > 0) {
+                            succeeded.add(item.id);
+                        }
+                        continue;
+                    }
+                    if (item.id > 0) {
+                        failed.add(item.id);
+                    }
+                    com.bluelink.ui.bubble.BubblePanel bubble = bubbles.get(i);
+                    SwingUtilities.invokeLater(() -> {
+                        if (bubble != null) {
+                            bubble.setStatus(true); // 显示失败红点
+                            bubble.setRetryAction(() -> performResend(item, bubble));
+                        }
+                    });
+                }
+                com.bluelink.db.TransferDao.updateStatus(succeeded, "SUCCESS");
+                com.bluelink.db.TransferDao.updateStatus(failed, "FAILED");
+            });
+        });
+    }
+
     private void createSidebar() {
         sidebarPanel = new JPanel(new MigLayout("insets 10, flowy, alignx center", "[center]", "[]20[]push"));
         sidebarPanel.setBackground(UiUtils.COLOR_BG_SIDEBAR);
@@ -1202,6 +1316,12 @@ public class ModernQQFrame extends JFrame {
         headerLabel.setFont(UiUtils.FONT_BOLD);
         headerPanel.add(headerLabel);
 
+        batchLabel = new JLabel();
+        batchLabel.setFont(UiUtils.FONT_NORMAL);
+        batchLabel.setForeground(new Color(120, 120, 120));
+        batchLabel.setVisible(false);
+        headerPanel.add(batchLabel, "gapleft push");
+
         contentPanel.add(headerPanel, "cell 0 0"); // Top
 
         // 2.2 Chat Area with LayeredPane
@@ -1600,7 +1720,10 @@ public class ModernQQFrame extends JFrame {
                     }
                 } else if ("FILE".equals(item.type)) {
                     if (currentSession != null) {
-                        currentSession.sendFile(new File(item.content));
+                        // 未完成的传输会从断点续传，复用原气泡显示进度
+                        String taskKey = java.util.UUID.randomUUID().toString();
+                        sendingFileBubbles.put(taskKey, bubble);
+                        currentSession.sendFile(new File(item.content), taskKey);
                     } else {
                         client.sendFile(new File(item.content));
                     }
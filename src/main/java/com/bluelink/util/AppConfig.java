@@ -129,4 +129,159 @@ public class AppConfig {
     public static void setEnterToSend(boolean enterToSend) {
         saveConfig("enter.to.send", String.valueOf(enterToSend));
     }
+
+    /**
+     * 文件压缩编解码器
+     * auto: 按文件大小自动选择; 也可指定 stored / deflate-fast / deflate / deflate-max / lz4
+     */
+    public static String getCompressionCodec() {
+        return props.getProperty("compression.codec", "auto");
+    }
+
+    public static void setCompressionCodec(String codec) {
+        saveConfig("compression.codec", codec);
+    }
+
+    /**
+     * 消息字典是否随最近的聊天内容自适应更新
+     * false 时只使用内置默认字典
+     */
+    public static boolean isMessageDictionaryAdaptive() {
+        return Boolean.parseBoolean(props.getProperty("message.dictionary.adaptive", "true"));
+    }
+
+    public static void setMessageDictionaryAdaptive(boolean adaptive) {
+        saveConfig("message.dictionary.adaptive", String.valueOf(adaptive));
+    }
+
+    /**
+     * 大文件并行压缩/解压的线程数
+     * 0: 使用全部 CPU 核心; 1: 不并行
+     */
+    public static int getCompressionThreads() {
+        try {
+            return Integer.parseInt(props.getProperty("compression.threads", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static void setCompressionThreads(int threads) {
+        saveConfig("compression.threads", String.valueOf(threads));
+    }
+
+    /**
+     * 滑动窗口大小: 允许对端已发送但本机尚未确认的最大帧数
+     * 握手时与对端的值取较小者
+     */
+    public static int getTransferWindow() {
+        try {
+            return Integer.parseInt(props.getProperty("transfer.window", "16"));
+        } catch (NumberFormatException e) {
+            return 16;
+        }
+    }
+
+    public static void setTransferWindow(int window) {
+        saveConfig("transfer.window", String.valueOf(window));
+    }
+
+    public static long getSessionRateLimit() {
+        return getLong("rate.session.limit", 0);
+    }
+
+    public static void setSessionRateLimit(long bytesPerSecond) {
+        saveConfig("rate.session.limit", String.valueOf(bytesPerSecond));
+    }
+
+    public static long getTransferRateLimit() {
+        return getLong("rate.transfer.limit", 0);
+    }
+
+    public static void setTransferRateLimit(long bytesPerSecond) {
+        saveConfig("rate.transfer.limit", String.valueOf(bytesPerSecond));
+    }
+
+    public static long getChatRateReserve() {
+        return getLong("rate.chat.reserve", 8192);
+    }
+
+    public static void setChatRateReserve(long bytesPerSecond) {
+        saveConfig("rate.chat.reserve", String.valueOf(bytesPerSecond));
+    }
+
+    /**
+     * Socket 内核发送缓冲区大小 (字节)，0 表示按窗口和分块大小自动调节
+     */
+    public static int getSocketSendBuffer() {
+        return (int) getLong("socket.send.buffer", 0);
+    }
+
+    public static void setSocketSendBuffer(int bytes) {
+        saveConfig("socket.send.buffer", String.valueOf(bytes));
+    }
+
+    /**
+     * Socket 内核接收缓冲区大小 (字节)，0 表示按窗口和分块大小自动调节
+     */
+    public static int getSocketReceiveBuffer() {
+        return (int) getLong("socket.receive.buffer", 0);
+    }
+
+    public static void setSocketReceiveBuffer(int bytes) {
+        saveConfig("socket.receive.buffer", String.valueOf(bytes));
+    }
+
+    /**
+     * 是否由一个事件循环线程 (WSAPoll / Selector) 读写所有连接，解码和落盘交给共享线程池，代替每个连接各自的读写线程
+     */
+    public static boolean isEventLoopEnabled() {
+        return Boolean.parseBoolean(props.getProperty("io.event.loop", "false"));
+    }
+
+    public static void setEventLoopEnabled(boolean enabled) {
+        saveConfig("io.event.loop", String.valueOf(enabled));
+    }
+
+    /**
+     * 双方在同一网络时是否把蓝牙会话升级为 TCP 连接 (双方都启用时才会升级)
+     * 升级后的 TCP 连接不加密，只应在可信网络中启用
+     */
+    public static boolean isTcpUpgradeEnabled() {
+        return Boolean.parseBoolean(props.getProperty("transport.tcp.upgrade", "false"));
+    }
+
+    public static void setTcpUpgradeEnabled(boolean enabled) {
+        saveConfig("transport.tcp.upgrade", String.valueOf(enabled));
+    }
+
+    /**
+     * 升级时监听的 TCP 端口，0 表示由系统分配
+     */
+    public static int getTcpUpgradePort() {
+        return (int) getLong("transport.tcp.port", 0);
+    }
+
+    public static void setTcpUpgradePort(int port) {
+        saveConfig("transport.tcp.port", String.valueOf(port));
+    }
+
+    /**
+     * 每个会话使用的 RFCOMM 连接数 (含主连接)，大于 1 时大文件按分块条带化到多条连接上并行传输；实际数量取双方的较小值
+     */
+    public static int getTransportChannels() {
+        return (int) Math.max(1, getLong("transport.channels", 1));
+    }
+
+    public static void setTransportChannels(int channels) {
+        saveConfig("transport.channels", String.valueOf(channels));
+    }
+
+    private static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(props.getProperty(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.ChannelOffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelGroupTest {
+
+    private ServerSocketChannel server;
+    private TcpTransport inviter;
+    private TcpTransport invitee;
+
+    @Before
+    public void connect() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        invitee = TcpTransport.connect((InetSocketAddress) server.getLocalAddress(), 2000);
+        inviter = new TcpTransport(server.accept());
+    }
+
+    @After
+    public void close() throws IOException {
+        inviter.close();
+        invitee.close();
+        server.close();
+    }
+
+    @Test
+    public void peerConnectsAllChannels() throws Exception {
+        ChannelGroup accepting = new ChannelGroup();
+        ChannelOffer offer = accepting.listen(inviter, 2);
+        Thread thread = new Thread(() -> accepting.acceptPeers(offer));
+        thread.start();
+        ChannelGroup connecting = new ChannelGroup();
+        connecting.connect(invitee, offer);
+
+        List<Transport> links = accepting.result().get(5, TimeUnit.SECONDS);
+        assertEquals(2, links.size());
+        assertEquals(2, connecting.result().get(5, TimeUnit.SECONDS).size());
+        thread.join(5000);
+        for (Transport link : links) {
+            link.close();
+        }
+        for (Transport link : connecting.result().get()) {
+            link.close();
+        }
+    }
+
+    @Test
+    public void cancelClosesLinkThatNeverSendsGreeting() throws Exception {
+        ChannelGroup accepting = new ChannelGroup();
+        ChannelOffer offer = accepting.listen(inviter, 1);
+        Thread thread = new Thread(() -> accepting.acceptPeers(offer));
+        thread.start();
+
+        // 连上并行通道后不发送口令
+        try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), offer.channel)) {
+            Thread.sleep(300);
+            accepting.cancel();
+            thread.join(2000);
+            assertFalse(thread.isAlive());
+            assertTrue(accepting.result().isCompletedExceptionally());
+            silent.setSoTimeout(2000);
+            assertEquals(-1, silent.getInputStream().read());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.bluelink.net;
+
+import com.bluelink.db.DatabaseManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 分块 CRC32C 校验失败时只重传该分块
+ * 两个会话之间经过一个中继，中继在发送方到接收方的方向上把第一个分块中的一个字节翻转。
+ * 文件内容随机、不可压缩，分块按原样 (STORED) 发送，中继按文件内容定位分块。
+ */
+public class ChunkRetransmitTest {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int MARKER_SIZE = 16;
+    private static final int MARKER_STEP = 4096;
+
+    private ServerSocketChannel server;
+    private ServerSocket relayServer;
+    private BluetoothSession sender;
+    private BluetoothSession receiver;
+    private final LegacyInteropTest.RecordingListener senderListener = new LegacyInteropTest.RecordingListener();
+    private final LegacyInteropTest.RecordingListener receiverListener = new LegacyInteropTest.RecordingListener();
+    private final byte[] content = new byte[FILE_SIZE];
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        DatabaseManager.initDatabase();
+        new Random(13).nextBytes(content);
+        file = File.createTempFile("retransmit", ".bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @After
+    public void close() throws IOException {
+        if (sender != null) {
+            sender.close();
+        }
+        if (receiver != null) {
+            receiver.close();
+        }
+        if (relayServer != null) {
+            relayServer.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void corruptChunkIsTheOnlyOneResent() throws Exception {
+        CorruptingRelay relay = connect(1);
+        sender.sendFile(file, null);
+
+        File received = receiverListener.files.poll(10, TimeUnit.SECONDS);
+        assertNotNull(received);
+        try {
+            assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        } finally {
+            received.delete();
+        }
+
+        byte[] seen = relay.seen();
+        // 被破坏的分块至少重传一次 (第一次经中继时被改动)；损坏时和 FILE_END 时各请求一次、
+        // 而重传尚未到达时会重传两次，但除它之外的分块都只出现一次。
+        // 跨越分块边界的片段不会连续出现，计数为 0
+        int copies = count(seen, marker(100));
+        assertTrue("copies " + copies, copies >= 2 && copies <= 1 + BluetoothSession.MAX_RETRANSMITS);
+        int offset = 100 + MARKER_STEP;
+        while (offset + MARKER_SIZE <= FILE_SIZE && count(seen, marker(offset)) == copies) {
+            offset += MARKER_STEP; // 仍在第一个分块内
+        }
+        assertTrue("第一个分块之后的数据也被重传", offset <= ChunkSizeTuner.MAX_CHUNK_SIZE + MARKER_STEP);
+        for (; offset + MARKER_SIZE <= FILE_SIZE; offset += MARKER_STEP) {
+            assertTrue("offset " + offset, count(seen, marker(offset)) <= 1);
+        }
+    }
+
+    @Test
+    public void chunkThatKeepsFailingAbortsAfterMaxRetransmits() throws Exception {
+        CorruptingRelay relay = connect(Integer.MAX_VALUE);
+        try {
+            sender.sendFile(file, null);
+            fail("分块一直损坏时发送应失败");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+        assertEquals(1 + BluetoothSession.MAX_RETRANSMITS, count(relay.seen(), marker(100)));
+        assertTrue(receiverListener.files.isEmpty());
+    }
+
+    /**
+     * 建立 发送方 -> 中继 -> 接收方 的连接
+     *
+     * @param corruptions 破坏第一个分块的次数
+     */
+    private CorruptingRelay connect(int corruptions) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        relayServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        TcpTransport senderTransport = TcpTransport.connect(
+                (InetSocketAddress) relayServer.getLocalSocketAddress(), 2000);
+        Socket fromSender = relayServer.accept();
+        Socket toReceiver = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        TcpTransport receiverTransport = new TcpTransport(server.accept());
+
+        CorruptingRelay relay = new CorruptingRelay(fromSender.getInputStream(), toReceiver.getOutputStream(),
+                marker(100), corruptions);
+        relay.start();
+        Thread back = new Thread(() -> pipe(toReceiver, fromSender), "Relay-Back");
+        back.setDaemon(true);
+        back.start();
+
+        sender = new BluetoothSession(senderTransport, senderListener);
+        receiver = new BluetoothSession(receiverTransport, receiverListener);
+        sender.start();
+        receiver.start();
+        return relay;
+    }
+
+    private byte[] marker(int offset) {
+        return Arrays.copyOfRange(content, offset, offset + MARKER_SIZE);
+    }
+
+    private static void pipe(Socket from, Socket to) {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // 连接关闭
+        }
+    }
+
+    static int count(byte[] data, byte[] pattern) {
+        int count = 0;
+        for (int i = indexOf(data, pattern, 0, data.length); i >= 0; i = indexOf(data, pattern, i + 1, data.length)) {
+            count++;
+        }
+        return count;
+    }
+
+    static int indexOf(byte[] data, byte[] pattern, int from, int to) {
+        outer:
+        for (int i = from; i + pattern.length <= to; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 转发字节，遇到 marker 时翻转其最后一个字节 (最多 corruptions 次)，并记录转发前的原始字节
+     * 只扣住可能是 marker 开头的末尾字节，其余立即转发，不会因等待而卡住对端
+     */
+    static class CorruptingRelay extends Thread {
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] marker;
+        private int corruptions;
+        private final ByteArrayOutputStream seen = new ByteArrayOutputStream();
+
+        CorruptingRelay(InputStream in, OutputStream out, byte[] marker, int corruptions) {
+            super("Relay-Corrupting");
+            setDaemon(true);
+            this.in = in;
+            this.out = out;
+            this.marker = marker;
+            this.corruptions = corruptions;
+        }
+
+        synchronized byte[] seen() {
+            return seen.toByteArray();
+        }
+
+        @Override
+        public void run() {
+            byte[] pending = new byte[0];
+            byte[] buffer = new byte[8192];
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    synchronized (this) {
+                        seen.write(buffer, 0, n);
+                    }
+                    pending = Arrays.copyOf(pending, pending.length + n);
+                    System.arraycopy(buffer, 0, pending, pending.length - n, n);
+                    int from = 0;
+                    int found;
+                    while ((found = indexOf(pending, marker, from, pending.length)) >= 0) {
+                        if (corruptions > 0) {
+                            pending[found + marker.length - 1] ^= 0x5A;
+                            corruptions--;
+                        }
+                        from = found + marker.length;
+                    }
+                    int keep = partialMatch(pending, Math.max(from, pending.length - marker.length + 1));
+                    out.write(pending, 0, keep);
+                    out.flush();
+                    pending = Arrays.copyOfRange(pending, keep, pending.length);
+                }
+                out.write(pending);
+            } catch (IOException e) {
+                // 连接关闭
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        /**
+         * 末尾可能是 marker 开头的最早位置，之前的字节可以转发
+         */
+        private int partialMatch(byte[] data, int from) {
+            outer:
+            for (int i = Math.max(0, from); i < data.length; i++) {
+                for (int j = 0; i + j < data.length; j++) {
+                    if (data[i + j] != marker[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return data.length;
+        }
+    }
+}
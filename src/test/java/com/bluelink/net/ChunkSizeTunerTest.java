@@ -0,0 +1,97 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.ProtocolWriter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分块大小在模拟链路上收敛
+ * 链路吞吐取带宽与窗口限制 (窗口 × 分块 / 往返时间) 的较小值，每个文件之间按模拟时钟确认若干秒的数据。
+ */
+public class ChunkSizeTunerTest {
+
+    private static final long ACK_INTERVAL_MS = 50;
+    private static final long FILE_TIME_MS = 5000; // 每个文件的传输时间，足够平滑吞吐样本
+    private static final int FILES = 12;
+
+    private long now = 1_000_000;
+
+    @Test
+    public void growsToTheMaximumOnAWindowLimitedLink() {
+        // 16MB/s、往返 400ms、窗口 8 帧: 默认分块下在途数据远不足带宽时延积
+        List<Integer> sizes = simulate(16 * 1024 * 1024, 400, 8);
+        assertConverges(sizes, ChunkSizeTuner.MAX_CHUNK_SIZE);
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue("分块大小应单调增长: " + sizes, sizes.get(i) >= sizes.get(i - 1));
+        }
+    }
+
+    @Test
+    public void shrinksToTheMinimumOnASlowLink() {
+        // 256KB/s: 默认分块的写出时间已达 250ms，带宽时延积很小
+        assertConverges(simulate(256 * 1024, 100, 16), ChunkSizeTuner.MIN_CHUNK_SIZE);
+    }
+
+    @Test
+    public void keepsTheDefaultUntilEnoughSamples() {
+        ChunkSizeTuner tuner = new ChunkSizeTuner();
+        tuner.onRttSample(100);
+        deliver(tuner, 256 * 1024, 600); // 只有一个吞吐样本
+        assertEquals(ProtocolWriter.DEFAULT_CHUNK_SIZE, tuner.nextChunkSize(ProtocolWriter.MAX_CHUNK_SIZE, 16));
+        assertTrue(tuner.getHistory().isEmpty());
+        // 对端接受的分块上限仍然生效
+        assertEquals(32 * 1024, tuner.nextChunkSize(32 * 1024, 16));
+    }
+
+    @Test
+    public void idleGapRestartsTheSample() {
+        ChunkSizeTuner tuner = new ChunkSizeTuner();
+        deliver(tuner, 1024 * 1024, 2000);
+        long before = tuner.getThroughput();
+        assertTrue(Math.abs(before - 1024 * 1024) < 64 * 1024);
+        // 空闲 10 秒后的第一次确认不计入吞吐，空闲时间不会拉低吞吐
+        now += 10_000;
+        deliver(tuner, 1024 * 1024, 2000);
+        assertTrue(Math.abs(tuner.getThroughput() - 1024 * 1024) < 64 * 1024);
+    }
+
+    /**
+     * 依次发送 FILES 个文件，返回每个文件开始时选择的分块大小
+     */
+    private List<Integer> simulate(long bandwidth, long rttMs, int window) {
+        ChunkSizeTuner tuner = new ChunkSizeTuner();
+        List<Integer> sizes = new ArrayList<>();
+        for (int file = 0; file < FILES; file++) {
+            int chunkSize = tuner.nextChunkSize(ProtocolWriter.MAX_CHUNK_SIZE, window);
+            sizes.add(chunkSize);
+            long rate = Math.min(bandwidth, window * (long) chunkSize * 1000 / rttMs);
+            tuner.onRttSample(rttMs);
+            deliver(tuner, rate, FILE_TIME_MS);
+        }
+        return sizes;
+    }
+
+    /**
+     * 按 rate 字节/秒每 ACK_INTERVAL_MS 确认一次，持续 durationMs
+     */
+    private void deliver(ChunkSizeTuner tuner, long rate, long durationMs) {
+        for (long t = 0; t <= durationMs; t += ACK_INTERVAL_MS) {
+            tuner.onDelivered(rate * ACK_INTERVAL_MS / 1000, now);
+            now += ACK_INTERVAL_MS;
+        }
+    }
+
+    /**
+     * 分块大小最终稳定在 expected，并在后一半文件中不再变化
+     */
+    private static void assertConverges(List<Integer> sizes, int expected) {
+        for (int i = sizes.size() / 2; i < sizes.size(); i++) {
+            assertEquals("分块大小没有收敛: " + sizes, expected, (int) sizes.get(i));
+        }
+    }
+}
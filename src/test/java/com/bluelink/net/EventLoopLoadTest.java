@@ -0,0 +1,120 @@
+package com.bluelink.net;
+
+import com.bluelink.db.DatabaseManager;
+import com.bluelink.util.AppConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * io.event.loop 启用时 200 对会话 (400 个连接端) 经 TCP 回环互发共 12000 条消息
+ * 读写、解码和落盘都在共享的事件循环和工作线程池上完成，线程数不随连接数增加。
+ */
+public class EventLoopLoadTest {
+
+    private static final int PAIRS = 200;
+    private static final int MESSAGES_PER_PAIR = 60; // 每个方向 30 条
+    private static final int SENDER_THREADS = 8;
+    // 事件循环、工作线程池、发送消息的测试线程和其他后台线程，与连接数无关
+    private static final int MAX_EXTRA_THREADS = 64;
+
+    private boolean eventLoopWasEnabled;
+    private ServerSocketChannel server;
+    private final List<BluetoothSession> sessions = new ArrayList<>();
+    private final List<LegacyInteropTest.RecordingListener> listeners = new ArrayList<>();
+
+    @Before
+    public void connect() throws IOException {
+        DatabaseManager.initDatabase();
+        eventLoopWasEnabled = AppConfig.isEventLoopEnabled();
+        AppConfig.setEventLoopEnabled(true);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), PAIRS);
+    }
+
+    @After
+    public void close() throws IOException {
+        for (BluetoothSession session : sessions) {
+            session.close();
+        }
+        server.close();
+        AppConfig.setEventLoopEnabled(eventLoopWasEnabled);
+    }
+
+    @Test
+    public void manyConnectionsShareTheEventLoopAndWorkers() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        for (int i = 0; i < PAIRS; i++) {
+            TcpTransport connecting = TcpTransport.connect((InetSocketAddress) server.getLocalAddress(), 2000);
+            open(connecting);
+            open(new TcpTransport(server.accept()));
+        }
+
+        ExecutorService senders = Executors.newFixedThreadPool(SENDER_THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < PAIRS; i++) {
+                BluetoothSession left = sessions.get(2 * i);
+                BluetoothSession right = sessions.get(2 * i + 1);
+                int pair = i;
+                results.add(senders.submit(() -> {
+                    for (int m = 0; m < MESSAGES_PER_PAIR / 2; m++) {
+                        left.sendMessage("L" + pair + "-" + m);
+                        right.sendMessage("R" + pair + "-" + m);
+                    }
+                    return null;
+                }));
+            }
+            int peakThreads = Thread.activeCount();
+            for (Future<?> result : results) {
+                result.get(120, TimeUnit.SECONDS);
+                peakThreads = Math.max(peakThreads, Thread.activeCount());
+            }
+            assertTrue("线程数随连接数增加: " + threadsBefore + " -> " + peakThreads,
+                    peakThreads - threadsBefore <= MAX_EXTRA_THREADS);
+        } finally {
+            senders.shutdownNow();
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertTrue("会话仍创建了线程: " + thread.getName(), !thread.getName().startsWith("Session-"));
+        }
+
+        int received = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            LegacyInteropTest.RecordingListener left = listeners.get(2 * i);
+            LegacyInteropTest.RecordingListener right = listeners.get(2 * i + 1);
+            for (int m = 0; m < MESSAGES_PER_PAIR / 2; m++) {
+                // 消息按发送顺序到达
+                assertEquals("L" + i + "-" + m, right.messages.poll(10, TimeUnit.SECONDS));
+                assertEquals("R" + i + "-" + m, left.messages.poll(10, TimeUnit.SECONDS));
+                received += 2;
+            }
+            assertTrue(left.errors.isEmpty());
+            assertTrue(right.errors.isEmpty());
+        }
+        assertEquals(PAIRS * MESSAGES_PER_PAIR, received);
+    }
+
+    private void open(TcpTransport transport) {
+        LegacyInteropTest.RecordingListener listener = new LegacyInteropTest.RecordingListener();
+        BluetoothSession session = new BluetoothSession(transport, listener);
+        sessions.add(session);
+        listeners.add(listener);
+        session.start();
+    }
+}
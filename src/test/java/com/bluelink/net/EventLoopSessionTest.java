@@ -0,0 +1,96 @@
+package com.bluelink.net;
+
+import com.bluelink.db.DatabaseManager;
+import com.bluelink.util.AppConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * io.event.loop 启用时两个会话经 TCP 回环连接互发消息和文件，读取由 NioReadinessPoller 事件循环完成
+ */
+public class EventLoopSessionTest {
+
+    private boolean eventLoopWasEnabled;
+    private ServerSocketChannel server;
+    private BluetoothSession left;
+    private BluetoothSession right;
+    private final LegacyInteropTest.RecordingListener leftListener = new LegacyInteropTest.RecordingListener();
+    private final LegacyInteropTest.RecordingListener rightListener = new LegacyInteropTest.RecordingListener();
+
+    @Before
+    public void connect() throws IOException {
+        DatabaseManager.initDatabase(); // 断点续传记录
+        eventLoopWasEnabled = AppConfig.isEventLoopEnabled();
+        AppConfig.setEventLoopEnabled(true);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        TcpTransport connecting = TcpTransport.connect((InetSocketAddress) server.getLocalAddress(), 2000);
+        left = new BluetoothSession(connecting, leftListener);
+        right = new BluetoothSession(new TcpTransport(server.accept()), rightListener);
+        left.start();
+        right.start();
+    }
+
+    @After
+    public void close() throws IOException {
+        left.close();
+        right.close();
+        server.close();
+        AppConfig.setEventLoopEnabled(eventLoopWasEnabled);
+    }
+
+    @Test
+    public void exchangesMessagesAndFiles() throws Exception {
+        left.sendMessage("ping");
+        assertEquals("ping", rightListener.messages.poll(5, TimeUnit.SECONDS));
+        right.sendMessage("pong");
+        assertEquals("pong", leftListener.messages.poll(5, TimeUnit.SECONDS));
+        assertTrue(eventLoopRunning());
+
+        File file = File.createTempFile("event-loop", ".bin");
+        try {
+            byte[] content = new byte[3 * 1024 * 1024];
+            new Random(11).nextBytes(content);
+            for (int i = 0; i < content.length; i += 4096) {
+                content[i] = 0; // 混入可压缩的部分
+            }
+            Files.write(file.toPath(), content);
+            left.sendFile(file, null);
+            File received = rightListener.files.poll(30, TimeUnit.SECONDS);
+            assertNotNull(received);
+            try {
+                assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+            } finally {
+                received.delete();
+            }
+        } finally {
+            file.delete();
+        }
+        assertTrue(leftListener.errors.isEmpty());
+        assertTrue(rightListener.errors.isEmpty());
+    }
+
+    private static boolean eventLoopRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("Network-EventLoop-NIO")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,174 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.Capabilities;
+import com.bluelink.net.protocol.ProtocolReader;
+import com.bluelink.net.protocol.ProtocolWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 与不识别帧的旧版本对端互通
+ * 旧版本对端用 ProtocolReader.readPacket 读取: 与旧版本一样只接受完整的数据包，读到其他 Magic 即抛出异常。
+ */
+public class LegacyInteropTest {
+
+    private ServerSocketChannel server;
+    private SocketChannel legacyPeer;
+    private DataInputStream legacyIn;
+    private DataOutputStream legacyOut;
+    private BluetoothSession session;
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void connect() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        TcpTransport transport = TcpTransport.connect((InetSocketAddress) server.getLocalAddress(), 2000);
+        legacyPeer = server.accept();
+        legacyIn = new DataInputStream(legacyPeer.socket().getInputStream());
+        legacyOut = new DataOutputStream(legacyPeer.socket().getOutputStream());
+        session = new BluetoothSession(transport, listener);
+        session.start();
+    }
+
+    @After
+    public void close() throws IOException {
+        session.close();
+        legacyPeer.close();
+        server.close();
+    }
+
+    @Test
+    public void answersLegacyPeerWithPackets() throws Exception {
+        legacyOut.write(ProtocolWriter.createPacket(42L, "MSG", "来自旧版本".getBytes(StandardCharsets.UTF_8)));
+        legacyOut.flush();
+        assertEquals("来自旧版本", listener.messages.poll(5, TimeUnit.SECONDS));
+        assertFalse(session.getNegotiatedCapabilities().supportsFrames());
+
+        // 对端已发来完整的数据包，不必等待握手超时
+        long started = System.currentTimeMillis();
+        session.sendMessage("你好");
+        assertTrue(System.currentTimeMillis() - started < 2000);
+
+        ProtocolReader.Packet packet = ProtocolReader.readPacket(legacyIn);
+        assertEquals("MSG", packet.name);
+        assertEquals("你好", new String(packet.data, StandardCharsets.UTF_8));
+
+        File file = File.createTempFile("legacy", ".bin");
+        try {
+            byte[] content = new byte[200 * 1024];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) (i % 251);
+            }
+            Files.write(file.toPath(), content);
+            session.sendFile(file, null);
+            packet = ProtocolReader.readPacket(legacyIn);
+            assertEquals(file.getName(), packet.name);
+            assertArrayEquals(content, packet.data);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsPacketNamesOutsideDownloadDirectory() throws Exception {
+        File downloadDir = new File(com.bluelink.util.AppConfig.getDownloadPath());
+        File escaped = new File(downloadDir.getParentFile(), "escaped-" + System.nanoTime() + ".txt");
+        legacyOut.write(ProtocolWriter.createPacket(42L, "../" + escaped.getName(), new byte[] { 1, 2, 3 }));
+        legacyOut.write(ProtocolWriter.createPacket(42L, "MSG", "之后的消息".getBytes(StandardCharsets.UTF_8)));
+        legacyOut.flush();
+
+        assertEquals("之后的消息", listener.messages.poll(5, TimeUnit.SECONDS));
+        assertNotNull(listener.errors.poll(1, TimeUnit.SECONDS));
+        assertTrue(listener.files.isEmpty());
+        assertFalse(escaped.exists());
+    }
+
+    @Test
+    public void silentLegacyPeerReceivesProbeAsPacketHeader() throws Exception {
+        // 对端不回应探测包: 超时后按旧格式发送，第一个数据包接在探测包后面
+        session.sendMessage("第一条");
+        session.sendMessage("第二条");
+        assertFalse(session.getNegotiatedCapabilities().supportsFrames());
+
+        ProtocolReader.Packet first = ProtocolReader.readPacket(legacyIn);
+        assertEquals("MSG", first.name);
+        assertEquals("第一条", new String(first.data, StandardCharsets.UTF_8));
+        ProtocolReader.Packet second = ProtocolReader.readPacket(legacyIn);
+        assertEquals("第二条", new String(second.data, StandardCharsets.UTF_8));
+        assertEquals(first.senderToken, second.senderToken);
+    }
+
+    @Test
+    public void newPeersHandshakeAfterProbe() throws Exception {
+        // 把旧版本对端换成新版本会话
+        RecordingListener peerListener = new RecordingListener();
+        BluetoothSession peer = new BluetoothSession(new TcpTransport(legacyPeer), peerListener);
+        peer.start();
+        try {
+            session.sendMessage("ping");
+            assertEquals("ping", peerListener.messages.poll(5, TimeUnit.SECONDS));
+            peer.sendMessage("pong");
+            assertEquals("pong", listener.messages.poll(5, TimeUnit.SECONDS));
+
+            Capabilities caps = session.getNegotiatedCapabilities();
+            assertNotNull(caps);
+            assertEquals(ProtocolWriter.FRAME_VERSION, caps.version);
+            assertEquals(ProtocolWriter.FRAME_VERSION, peer.getNegotiatedCapabilities().version);
+            assertTrue(listener.errors.isEmpty());
+            assertTrue(peerListener.errors.isEmpty());
+        } finally {
+            peer.close();
+        }
+    }
+
+    static class RecordingListener implements TransferListener {
+        final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        final BlockingQueue<File> files = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessageReceived(String sender, String content) {
+            messages.add(content);
+        }
+
+        @Override
+        public void onFileReceived(String sender, File file, String originalName) {
+            files.add(file);
+        }
+
+        @Override
+        public void onTransferProgress(String fileName, long current, long total, boolean isReceive) {
+        }
+
+        @Override
+        public void onConnectionStatusChanged(boolean isConnected, String deviceName) {
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.add(message);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.BufferPool;
+import com.bluelink.net.protocol.Frame;
+import com.bluelink.net.protocol.FrameReader;
+import com.bluelink.net.protocol.ProtocolWriter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendSchedulerTest {
+
+    private static final int CHUNK = 50_000;
+
+    private final CountingOutput output = new CountingOutput();
+    private final SendScheduler scheduler = new SendScheduler(output);
+
+    @After
+    public void stop() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void retransmitsDrawFromTheSameTokenBuckets() throws Exception {
+        scheduler.setFrameVersion(ProtocolWriter.FRAME_VERSION_CHECKED);
+        scheduler.enableWindow(16);
+        scheduler.setSessionRate(4 * CHUNK, 0);
+        scheduler.start();
+
+        long started = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submitForDelivery(new Frame(Frame.TYPE_FILE_CHUNK, 1, 1, new byte[CHUNK]));
+        }
+        output.awaitAtLeast(4L * CHUNK);
+        for (long sequence = 0; sequence < 4; sequence++) {
+            scheduler.onSequenceNak(sequence);
+        }
+        output.awaitAtLeast(8L * CHUNK);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        // 8 帧共 2 秒的令牌，减去初始 0.25 秒的突发容量；重传不扣令牌时只需约 0.75 秒
+        assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= 1500);
+    }
+
+    @Test
+    public void stopReleasesQueuedAndInflightPayloads() throws Exception {
+        scheduler.setFrameVersion(ProtocolWriter.FRAME_VERSION_CHECKED);
+        scheduler.enableWindow(2);
+        scheduler.start();
+        Frame[] frames = new Frame[4];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = pooledChunk(i + 1);
+            scheduler.submit(frames[i], null);
+        }
+        // 窗口为 2: 两帧在途等待确认，两帧留在队列中
+        output.awaitAtLeast(2L * CHUNK);
+        scheduler.stop();
+        // 停止时正在写出的帧由写线程写完后归还
+        long deadline = System.currentTimeMillis() + 2000;
+        for (Frame frame : frames) {
+            while (frame.pooled && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(frame.pooled);
+            assertNull(frame.payload);
+        }
+    }
+
+    @Test
+    public void sequenceNakRetransmitsOnlyThatFrame() throws Exception {
+        scheduler.setFrameVersion(ProtocolWriter.FRAME_VERSION_CHECKED);
+        scheduler.enableWindow(16);
+        scheduler.start();
+        List<CompletableFuture<Void>> delivered = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            delivered.add(scheduler.submitForDelivery(new Frame(Frame.TYPE_FILE_CHUNK, i + 1, 1, new byte[100])));
+        }
+        output.awaitFrames(4);
+        scheduler.onSequenceAck(0);
+        scheduler.onSequenceNak(2);
+
+        List<Frame> frames = output.awaitFrames(5);
+        assertEquals(2, frames.get(4).sequence);
+        assertEquals(3, frames.get(4).streamId);
+        scheduler.onSequenceAck(3);
+        for (CompletableFuture<Void> future : delivered) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        Thread.sleep(200);
+        assertEquals(5, output.frames().size());
+    }
+
+    @Test
+    public void lostAckRetransmitsOldestFrameAfterTimeout() throws Exception {
+        scheduler.setFrameVersion(ProtocolWriter.FRAME_VERSION_CHECKED);
+        scheduler.enableWindow(16);
+        scheduler.start();
+        List<CompletableFuture<Void>> delivered = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            delivered.add(scheduler.submitForDelivery(new Frame(Frame.TYPE_FILE_CHUNK, i + 1, 1, new byte[100])));
+        }
+        output.awaitFrames(3);
+        // 序号 1、2 的 SEQ_ACK 丢失
+        long started = System.currentTimeMillis();
+        scheduler.onSequenceAck(0);
+
+        List<Frame> frames = output.awaitFrames(4);
+        long elapsedMs = System.currentTimeMillis() - started;
+        assertTrue("elapsed " + elapsedMs + " ms", elapsedMs >= SendScheduler.RETRANSMIT_TIMEOUT_MS - 100);
+        assertEquals(1, frames.get(3).sequence);
+        assertFalse(delivered.get(1).isDone());
+
+        scheduler.onSequenceAck(2);
+        for (CompletableFuture<Void> future : delivered) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void eventLoopWriterResumesWhenWritable() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            TcpTransport transport = TcpTransport.connect((InetSocketAddress) server.getLocalAddress(), 2000);
+            try (SocketChannel peer = server.accept()) {
+                transport.setSendBufferSize(16 * 1024);
+                peer.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+                SendScheduler writer = new SendScheduler(transport.getOutputStream(), "EventLoopWriterTest");
+                writer.setEventChannel(new EventChannel(transport));
+                writer.start();
+                try {
+                    int count = 40;
+                    List<CompletableFuture<Void>> written = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        byte[] payload = new byte[CHUNK];
+                        Arrays.fill(payload, (byte) i);
+                        // 每帧一个传输流，提交不会因队列容量而阻塞
+                        written.add(writer.submit(new Frame(Frame.TYPE_FILE_CHUNK, i + 1, 1, payload), null));
+                    }
+                    // 对端不读取: 发送缓冲区写满后等待可写事件，不占用线程
+                    Thread.sleep(300);
+                    assertFalse(written.get(count - 1).isDone());
+                    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        assertFalse(thread.getName().equals("EventLoopWriterTest"));
+                    }
+
+                    peer.configureBlocking(true);
+                    FrameReader reader = new FrameReader(peer.socket().getInputStream());
+                    for (int i = 0; i < count; i++) {
+                        Frame frame = reader.read(null, null);
+                        assertEquals(i + 1, frame.streamId);
+                        byte[] expected = new byte[CHUNK];
+                        Arrays.fill(expected, (byte) i);
+                        assertArrayEquals(expected, Arrays.copyOf(frame.payload, frame.length));
+                    }
+                    for (CompletableFuture<Void> future : written) {
+                        future.get(5, TimeUnit.SECONDS);
+                    }
+                } finally {
+                    writer.stop();
+                    transport.close();
+                }
+            }
+        }
+    }
+
+    private static Frame pooledChunk(int streamId) {
+        Frame frame = new Frame(Frame.TYPE_FILE_CHUNK, streamId, 1, null);
+        frame.setPooledPayload(BufferPool.acquire(CHUNK), CHUNK);
+        return frame;
+    }
+
+    /**
+     * 统计并保存写出的字节
+     */
+    static class CountingOutput extends OutputStream {
+        private long written;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            written++;
+            bytes.write(b);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            written += len;
+            bytes.write(b, off, len);
+            notifyAll();
+        }
+
+        /**
+         * 解析目前写出的全部帧
+         */
+        synchronized List<Frame> frames() throws IOException {
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+            List<Frame> frames = new ArrayList<>();
+            Frame frame;
+            while ((frame = reader.read(null, null)) != null) {
+                frames.add(frame);
+            }
+            return frames;
+        }
+
+        synchronized List<Frame> awaitFrames(int count) throws InterruptedException, IOException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (true) {
+                List<Frame> frames = frames();
+                if (frames.size() >= count) {
+                    return frames;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new AssertionError("只写出了 " + frames.size() + " 帧，期望 " + count);
+                }
+                wait(remaining);
+            }
+        }
+
+        synchronized void awaitAtLeast(long bytes) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (written < bytes) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new AssertionError("只写出了 " + written + " 字节，期望 " + bytes);
+                }
+                wait(remaining);
+            }
+        }
+    }
+}
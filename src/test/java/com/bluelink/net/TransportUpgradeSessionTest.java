@@ -0,0 +1,332 @@
+package com.bluelink.net;
+
+import com.bluelink.db.DatabaseManager;
+import com.bluelink.net.protocol.Frame;
+import com.bluelink.net.protocol.FrameReader;
+import com.bluelink.util.AppConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 会话从“蓝牙”连接升级到 TCP
+ * 基础连接是经过中继的 TCP 回环连接，包装成非 TcpTransport 的 {@link Transport} 充当蓝牙连接；
+ * 中继记录双方在旧连接上发送的全部字节，用于检查 TRANSPORT_SWITCH 之后旧连接上没有任何数据。
+ */
+public class TransportUpgradeSessionTest {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    private boolean eventLoopWasEnabled;
+    private boolean upgradeWasEnabled;
+    private int upgradePortWas;
+    private ServerSocketChannel server;
+    private ServerSocket relayServer;
+    private RecordingRelay leftToRight;
+    private RecordingRelay rightToLeft;
+    private BluetoothSession left;
+    private BluetoothSession right;
+    private final LegacyInteropTest.RecordingListener leftListener = new LegacyInteropTest.RecordingListener();
+    private final LegacyInteropTest.RecordingListener rightListener = new LegacyInteropTest.RecordingListener();
+    private File file;
+
+    @Before
+    public void saveConfig() throws IOException {
+        DatabaseManager.initDatabase();
+        eventLoopWasEnabled = AppConfig.isEventLoopEnabled();
+        upgradeWasEnabled = AppConfig.isTcpUpgradeEnabled();
+        upgradePortWas = AppConfig.getTcpUpgradePort();
+        AppConfig.setTcpUpgradeEnabled(true);
+        AppConfig.setTcpUpgradePort(0);
+        file = File.createTempFile("upgrade", ".bin");
+        Random random = new Random(17);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < FILE_SIZE; written += block.length) {
+                random.nextBytes(block);
+                for (int i = 0; i < block.length; i += 2048) {
+                    block[i] = 0; // 混入可压缩的部分
+                }
+                out.write(block);
+            }
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        if (left != null) {
+            left.close();
+        }
+        if (right != null) {
+            right.close();
+        }
+        if (relayServer != null) {
+            relayServer.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        file.delete();
+        AppConfig.setEventLoopEnabled(eventLoopWasEnabled);
+        AppConfig.setTcpUpgradeEnabled(upgradeWasEnabled);
+        AppConfig.setTcpUpgradePort(upgradePortWas);
+    }
+
+    @Test
+    public void upgradesWithBlockingReaders() throws Exception {
+        AppConfig.setEventLoopEnabled(false);
+        upgradeAndSendFile();
+    }
+
+    @Test
+    public void upgradesWithEventLoop() throws Exception {
+        AppConfig.setEventLoopEnabled(true);
+        upgradeAndSendFile();
+    }
+
+    @Test
+    public void keepsOldLinkWhenUpgradeFails() throws Exception {
+        AppConfig.setEventLoopEnabled(false);
+        // 提议方的监听端口已被通配地址占用，无法在任何地址上监听，升级失败
+        try (ServerSocket occupied = new ServerSocket(0)) {
+            AppConfig.setTcpUpgradePort(occupied.getLocalPort());
+            connect();
+            left.sendMessage("hello");
+            assertEquals("hello", rightListener.messages.poll(10, TimeUnit.SECONDS));
+            sendFileAndVerify();
+        }
+        // 所有数据都走旧连接，没有出现 TRANSPORT_SWITCH
+        for (RecordingRelay relay : new RecordingRelay[] { leftToRight, rightToLeft }) {
+            for (Frame frame : relay.frames()) {
+                assertFalse(frame.type == Frame.TYPE_TRANSPORT_SWITCH);
+            }
+        }
+        assertTrue(leftToRight.bytes() > FILE_SIZE / 2);
+        assertTrue(leftListener.errors.isEmpty());
+        assertTrue(rightListener.errors.isEmpty());
+    }
+
+    private void upgradeAndSendFile() throws Exception {
+        connect();
+        // 双方各自在旧连接上写出 TRANSPORT_SWITCH 后升级完成
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!leftToRight.switched() || !rightToLeft.switched()) {
+            assertTrue("升级没有完成", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+        long oldLinkBytes = leftToRight.bytes() + rightToLeft.bytes();
+
+        left.sendMessage("over tcp");
+        assertEquals("over tcp", rightListener.messages.poll(10, TimeUnit.SECONDS));
+        right.sendMessage("reply over tcp");
+        assertEquals("reply over tcp", leftListener.messages.poll(10, TimeUnit.SECONDS));
+        sendFileAndVerify();
+
+        // TRANSPORT_SWITCH 是旧连接上的最后一帧，之后没有任何字节 (包括确认和重传)
+        assertEquals(oldLinkBytes, leftToRight.bytes() + rightToLeft.bytes());
+        for (RecordingRelay relay : new RecordingRelay[] { leftToRight, rightToLeft }) {
+            List<Frame> frames = relay.frames();
+            assertEquals(Frame.TYPE_TRANSPORT_SWITCH, frames.get(frames.size() - 1).type);
+        }
+        assertTrue(leftListener.errors.isEmpty());
+        assertTrue(rightListener.errors.isEmpty());
+    }
+
+    private void sendFileAndVerify() throws Exception {
+        left.sendFile(file, null);
+        File received = rightListener.files.poll(60, TimeUnit.SECONDS);
+        assertNotNull(received);
+        try {
+            assertArrayEquals(digest(file), digest(received));
+        } finally {
+            received.delete();
+        }
+    }
+
+    /**
+     * 建立 left -> 中继 -> right 的“蓝牙”连接并开始会话
+     */
+    private void connect() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        relayServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+        TcpTransport leftLink = TcpTransport.connect((InetSocketAddress) relayServer.getLocalSocketAddress(), 2000);
+        Socket fromLeft = relayServer.accept();
+        Socket toRight = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        TcpTransport rightLink = new TcpTransport(server.accept());
+        leftToRight = new RecordingRelay(fromLeft, toRight);
+        rightToLeft = new RecordingRelay(toRight, fromLeft);
+        leftToRight.start();
+        rightToLeft.start();
+
+        left = new BluetoothSession(new BluetoothLike(leftLink), leftListener);
+        right = new BluetoothSession(new BluetoothLike(rightLink), rightListener);
+        left.start();
+        right.start();
+    }
+
+    private static byte[] digest(File f) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(f)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * 单向转发并记录字节
+     */
+    static class RecordingRelay extends Thread {
+        private final Socket from;
+        private final Socket to;
+        private final ByteArrayOutputStream seen = new ByteArrayOutputStream();
+
+        RecordingRelay(Socket from, Socket to) {
+            super("Relay-Recording");
+            setDaemon(true);
+            this.from = from;
+            this.to = to;
+        }
+
+        synchronized long bytes() {
+            return seen.size();
+        }
+
+        /**
+         * 目前转发的全部帧
+         */
+        synchronized List<Frame> frames() throws IOException {
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(seen.toByteArray()));
+            List<Frame> frames = new ArrayList<>();
+            Frame frame;
+            while ((frame = reader.read(null, null)) != null) {
+                assertEquals(0, reader.getDroppedBytes());
+                frames.add(frame);
+            }
+            return frames;
+        }
+
+        synchronized boolean switched() throws IOException {
+            for (Frame frame : frames()) {
+                if (frame.type == Frame.TYPE_TRANSPORT_SWITCH) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    synchronized (this) {
+                        seen.write(buffer, 0, n);
+                    }
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                // 连接关闭
+            }
+        }
+    }
+
+    /**
+     * 充当蓝牙连接: 委托给 TCP 连接，但不是 TcpTransport，会话因此会尝试升级
+     */
+    static class BluetoothLike implements Transport {
+        private final TcpTransport link;
+
+        BluetoothLike(TcpTransport link) {
+            this.link = link;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return link.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return link.getOutputStream();
+        }
+
+        @Override
+        public com.bluelink.net.io.EventLoop<?> register(com.bluelink.net.io.EventLoop.Handler handler) {
+            return link.register(handler);
+        }
+
+        @Override
+        public int readNonBlocking(byte[] b, int off, int len) throws IOException {
+            return link.readNonBlocking(b, off, len);
+        }
+
+        @Override
+        public int writeNonBlocking(byte[] b, int off, int len) throws IOException {
+            return link.writeNonBlocking(b, off, len);
+        }
+
+        @Override
+        public int setSendBufferSize(int bytes) throws IOException {
+            return link.setSendBufferSize(bytes);
+        }
+
+        @Override
+        public int setReceiveBufferSize(int bytes) throws IOException {
+            return link.setReceiveBufferSize(bytes);
+        }
+
+        @Override
+        public ParallelListener listenParallel() throws IOException {
+            return link.listenParallel();
+        }
+
+        @Override
+        public Transport connectParallel(int channel) throws IOException {
+            return link.connectParallel(channel);
+        }
+
+        @Override
+        public String describe() {
+            return "Bluetooth-like " + link.describe();
+        }
+
+        @Override
+        public void close() {
+            link.close();
+        }
+    }
+}
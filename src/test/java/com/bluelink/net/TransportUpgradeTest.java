@@ -0,0 +1,54 @@
+package com.bluelink.net;
+
+import com.bluelink.net.protocol.TransportOffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransportUpgradeTest {
+
+    @Test
+    public void listensOnlyOnOfferedAddresses() throws Exception {
+        TransportUpgrade offering = new TransportUpgrade();
+        TransportOffer offer = offering.listen(0);
+        try {
+            assertFalse(offer.addresses.isEmpty());
+            for (InetAddress address : offer.addresses) {
+                assertTrue(address.toString(), address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                        || address.isLoopbackAddress());
+            }
+            // 没有绑定通配地址: 提议之外的回环地址 127.0.0.2 上同一端口无人监听
+            InetAddress other = InetAddress.getByName("127.0.0.2");
+            if (!offer.addresses.contains(other)) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(other, offer.port), 1000);
+                    throw new AssertionError("提议之外的地址也在监听");
+                } catch (IOException expected) {
+                    // 期望的结果
+                }
+            }
+
+            Thread thread = new Thread(() -> offering.acceptPeer(offer.nonce));
+            thread.start();
+            TransportUpgrade connecting = new TransportUpgrade();
+            connecting.connect(offer);
+            TcpTransport accepted = offering.result().get(5, TimeUnit.SECONDS);
+            TcpTransport connected = connecting.result().get(5, TimeUnit.SECONDS);
+            connected.getOutputStream().write(7);
+            assertEquals(7, accepted.getInputStream().read());
+            accepted.close();
+            connected.close();
+            thread.join(5000);
+        } finally {
+            offering.cancel();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.bluelink.net.io;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventLoopTest {
+
+    private final Pipe pipe;
+    private final FailingPoller poller = new FailingPoller();
+    private final EventLoop<SelectableChannel> loop = new EventLoop<>("EventLoopTest", poller);
+
+    public EventLoopTest() throws IOException {
+        pipe = Pipe.open();
+    }
+
+    @After
+    public void close() throws IOException {
+        loop.shutdown();
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void pollFailureFailsEveryRegistration() throws Exception {
+        loop.start();
+        RecordingHandler handler = new RecordingHandler();
+        loop.register(pipe.source(), ReadinessPoller.OP_READ, handler);
+        // 注册完成后再让等待失败
+        BlockingQueue<Boolean> registered = new LinkedBlockingQueue<>();
+        loop.execute(() -> registered.add(true));
+        assertNotNull(registered.poll(5, TimeUnit.SECONDS));
+
+        poller.failing = true;
+        loop.execute(() -> { });
+        IOException failure = handler.failures.poll(5, TimeUnit.SECONDS);
+        assertNotNull(failure);
+        assertEquals("模拟的等待失败", failure.getMessage());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!loop.isTerminated() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(loop.isTerminated());
+
+        // 退出后的注册直接失败，不会无声丢弃
+        RecordingHandler late = new RecordingHandler();
+        loop.register(pipe.source(), ReadinessPoller.OP_READ, late);
+        assertNotNull(late.failures.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void scheduledTasksRunByDueTime() throws Exception {
+        loop.start();
+        BlockingQueue<String> order = new LinkedBlockingQueue<>();
+        long started = System.currentTimeMillis();
+        loop.schedule(() -> order.add("late"), 200);
+        loop.schedule(() -> order.add("early"), 50);
+        loop.execute(() -> loop.schedule(() -> order.add("from-loop"), 100));
+
+        assertEquals("early", order.poll(5, TimeUnit.SECONDS));
+        assertEquals("from-loop", order.poll(5, TimeUnit.SECONDS));
+        assertEquals("late", order.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - started >= 200);
+    }
+
+    /**
+     * failing 置位后下一次等待抛出异常
+     */
+    static class FailingPoller extends NioReadinessPoller {
+        volatile boolean failing;
+
+        FailingPoller() throws IOException {
+        }
+
+        @Override
+        public void poll(long timeoutMs, ReadyHandler handler) throws IOException {
+            if (failing) {
+                throw new IOException("模拟的等待失败");
+            }
+            super.poll(timeoutMs, handler);
+        }
+    }
+
+    static class RecordingHandler implements EventLoop.Handler {
+        final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onReady(int readyOps) {
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            failures.add(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.bluelink.net.protocol;
+
+import com.bluelink.net.protocol.codec.Codec;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 缓冲池的复用，以及出错路径上取得的缓冲区都被归还
+ * 出错路径重复执行多次，池中新分配的数组个数不随次数增长。
+ */
+public class BufferPoolTest {
+
+    private static final int ROUNDS = 100;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Test
+    public void releasedBufferIsReused() {
+        byte[] first = BufferPool.acquire(CHUNK_SIZE);
+        assertTrue(first.length >= CHUNK_SIZE);
+        BufferPool.release(first);
+        long allocations = BufferPool.getAllocations();
+        // 同一级别内较小的请求取回同一个数组
+        assertSame(first, BufferPool.acquire(CHUNK_SIZE - 100));
+        assertEquals(allocations, BufferPool.getAllocations());
+        BufferPool.release(first);
+    }
+
+    @Test
+    public void foreignAndOversizedArraysAreDropped() {
+        long allocations = BufferPool.getAllocations();
+        byte[] huge = BufferPool.acquire(8 * 1024 * 1024);
+        assertEquals(8 * 1024 * 1024, huge.length);
+        assertEquals(allocations + 1, BufferPool.getAllocations());
+        BufferPool.release(huge);
+        BufferPool.release(new byte[CHUNK_SIZE]); // 长度不是任何级别的容量
+        BufferPool.release(null);
+        byte[] buffer = BufferPool.acquire(CHUNK_SIZE);
+        assertFalse(buffer.length == CHUNK_SIZE);
+        BufferPool.release(buffer);
+    }
+
+    @Test
+    public void framePayloadIsReleasedOnce() {
+        byte[] buffer = BufferPool.acquire(CHUNK_SIZE);
+        Frame frame = new Frame(Frame.TYPE_FILE_CHUNK, 1, 1L, null);
+        frame.setPooledPayload(buffer, CHUNK_SIZE);
+        frame.release();
+        assertNull(frame.payload);
+        assertFalse(frame.pooled);
+        frame.release(); // 再次调用无效，不会重复归还
+        assertSame(buffer, BufferPool.acquire(CHUNK_SIZE));
+        byte[] other = BufferPool.acquire(CHUNK_SIZE);
+        assertFalse(buffer == other);
+        BufferPool.release(buffer);
+        BufferPool.release(other);
+    }
+
+    @Test
+    public void truncatedChunkPayloadReleasesBuffer() throws IOException {
+        byte[] partial = new byte[CHUNK_SIZE / 2];
+        assertReleased(() -> {
+            Frame frame = new Frame();
+            frame.type = Frame.TYPE_FILE_CHUNK;
+            try {
+                ProtocolReader.readPayload(new DataInputStream(new ByteArrayInputStream(partial)), frame, CHUNK_SIZE);
+                fail("负载不完整时应失败");
+            } catch (EOFException expected) {
+                // 期望的结果
+            }
+            assertNull(frame.payload);
+        });
+    }
+
+    @Test
+    public void corruptCompressedChunkReleasesBuffer() throws IOException {
+        byte[] raw = new byte[CHUNK_SIZE];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i % 7);
+        }
+        Codec codec = CodecRegistry.get(CodecRegistry.DEFLATE);
+        byte[] compressed = new byte[codec.maxCompressedLength(raw.length)];
+        int compLen = codec.compress(raw, 0, raw.length, compressed, 0);
+
+        // CRC32C 不符
+        byte[] badCrc = chunkPayload(raw.length, Crc32c.compute(raw, 0, raw.length) + 1, compressed, compLen);
+        // 压缩数据被截断，无法解压
+        byte[] badData = chunkPayload(raw.length, Crc32c.compute(raw, 0, raw.length), compressed, compLen / 2);
+        for (byte[] payload : Arrays.asList(badCrc, badData)) {
+            assertReleased(() -> {
+                FileChunkDecoder.Chunk chunk = FileChunkDecoder.decodeChunk(chunkFrame(payload));
+                assertTrue(chunk.corrupt);
+                assertNull(chunk.data);
+            });
+        }
+
+        // 完好的分块落盘后同样归还
+        byte[] good = chunkPayload(raw.length, Crc32c.compute(raw, 0, raw.length), compressed, compLen);
+        assertReleased(() -> {
+            FileChunkDecoder.Chunk chunk = FileChunkDecoder.decodeChunk(chunkFrame(good));
+            assertFalse(chunk.corrupt);
+            assertEquals(ByteBuffer.wrap(raw), ByteBuffer.wrap(chunk.data, chunk.offset, chunk.length));
+            chunk.release();
+            assertNull(chunk.data);
+        });
+    }
+
+    private interface Round {
+        void run() throws IOException;
+    }
+
+    /**
+     * 重复执行 ROUNDS 次，缓冲池新分配的数组个数不超过首轮预热的数量
+     */
+    private static void assertReleased(Round round) throws IOException {
+        round.run(); // 预热: 池中可能还没有该级别的空闲数组
+        long allocations = BufferPool.getAllocations();
+        for (int i = 0; i < ROUNDS; i++) {
+            round.run();
+        }
+        assertEquals("出错路径上的缓冲区没有归还", allocations, BufferPool.getAllocations());
+    }
+
+    /**
+     * 带 CRC32C 的压缩分块负载: [RawLen 4][Offset 8][CRC32C 4][压缩数据]
+     */
+    private static byte[] chunkPayload(int rawLen, int crc, byte[] compressed, int compLen) {
+        return ByteBuffer.allocate(16 + compLen).putInt(rawLen).putLong(0).putInt(crc).put(compressed, 0, compLen)
+                .array();
+    }
+
+    private static Frame chunkFrame(byte[] payload) {
+        Frame frame = new Frame(Frame.TYPE_FILE_CHUNK, 1, 1L, payload);
+        frame.flags = Frame.FLAG_CHUNK_CRC;
+        frame.codec = CodecRegistry.DEFLATE;
+        return frame;
+    }
+}
@@ -0,0 +1,190 @@
+package com.bluelink.net.protocol;
+
+import com.bluelink.net.protocol.codec.CodecRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 文件夹归档经 {@link DirectoryArchive} 读出、由 {@link ArchiveExtractor} 解包后与原文件夹一致；
+ * 越出目标文件夹的条目路径被拒绝
+ */
+public class DirectoryArchiveTest {
+
+    private static final long MTIME = 1_600_000_000_000L;
+
+    private File work;
+    private File source;
+    private File target;
+
+    @Before
+    public void createTree() throws IOException {
+        work = Files.createTempDirectory("archive").toFile();
+        source = new File(work, "album");
+        target = new File(work, "received");
+        write(new File(source, "a.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+        write(new File(source, "sub/deep/b.bin"), random(200 * 1024, 1));
+        write(new File(source, "sub/empty.dat"), new byte[0]);
+        assertTrue(new File(source, "empty-dir").mkdirs());
+    }
+
+    @After
+    public void cleanUp() {
+        ArchiveExtractor.deleteTree(work);
+    }
+
+    @Test
+    public void roundTripsThroughExtractor() throws IOException {
+        try (DirectoryArchive archive = DirectoryArchive.scan(source)) {
+            assertEquals(3, archive.getFileCount());
+            ArchiveExtractor extractor = new ArchiveExtractor(target);
+            // 按不规则的长度送入，条目头会被拆开
+            ByteBuffer buffer = ByteBuffer.allocate(997);
+            long position = 0;
+            while (position < archive.size()) {
+                buffer.clear();
+                int n = archive.read(buffer, position);
+                assertTrue(n > 0);
+                extractor.update(buffer.array(), 0, n);
+                position += n;
+            }
+            extractor.finish();
+        }
+        assertSameTree(source, target);
+        assertTrue(new File(target, "empty-dir").isDirectory());
+        assertEquals(MTIME, new File(target, "sub/deep/b.bin").lastModified());
+    }
+
+    @Test
+    public void roundTripsThroughChunkCodec() throws IOException {
+        UUID transferId = UUID.randomUUID();
+        FileChunkDecoder.Begin begin;
+        File unpacked;
+        try (FileChunkEncoder encoder = new FileChunkEncoder(DirectoryArchive.scan(source), 1, 1L, 16 * 1024,
+                transferId, CodecRegistry.get(CodecRegistry.LZ4))) {
+            begin = FileChunkDecoder.parseBegin(encoder.beginFrame(0));
+            assertTrue(begin.archive);
+            FileChunkDecoder decoder = FileChunkDecoder.open(begin, 1L, work, 0);
+            Frame frame;
+            while ((frame = encoder.nextFrame()).type == Frame.TYPE_FILE_CHUNK) {
+                try {
+                    decoder.writeChunk(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            unpacked = decoder.finish(frame);
+        }
+        assertEquals(FileChunkDecoder.unpackDirFor(work, transferId), unpacked);
+        assertFalse(FileChunkDecoder.tempFileFor(work, transferId).exists());
+        assertSameTree(source, unpacked);
+    }
+
+    @Test
+    public void rejectsPathsOutsideTarget() throws IOException {
+        String[] paths = { "../escape.txt", "a/../../escape.txt", "a/../b.txt", "./a.txt", "/tmp/escape.txt",
+                "a\\..\\escape.txt", "C:escape.txt", "a//b.txt", "" };
+        for (String path : paths) {
+            ArchiveExtractor extractor = new ArchiveExtractor(target);
+            byte[] entry = entry(DirectoryArchive.TYPE_FILE, path, 4);
+            try {
+                extractor.update(entry, 0, entry.length);
+                fail("未拒绝越出目标文件夹的路径: " + path);
+            } catch (IOException expected) {
+                // 期望的结果
+            } finally {
+                extractor.delete();
+            }
+        }
+        assertFalse(new File(work, "escape.txt").exists());
+        // 文件夹条目同样校验
+        ArchiveExtractor extractor = new ArchiveExtractor(target);
+        byte[] entry = entry(DirectoryArchive.TYPE_DIRECTORY, "..", 0);
+        try {
+            extractor.update(entry, 0, entry.length);
+            fail("未拒绝越出目标文件夹的文件夹条目");
+        } catch (IOException expected) {
+            // 期望的结果
+        } finally {
+            extractor.delete();
+        }
+    }
+
+    @Test
+    public void incompleteArchiveFails() throws IOException {
+        ArchiveExtractor extractor = new ArchiveExtractor(target);
+        byte[] entry = entry(DirectoryArchive.TYPE_FILE, "a.txt", 4);
+        extractor.update(entry, 0, entry.length);
+        extractor.update(new byte[] { 1, 2 }, 0, 2);
+        try {
+            extractor.finish();
+            fail("缺少结束标记的归档应失败");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+        extractor.delete();
+        assertFalse(target.exists());
+    }
+
+    /**
+     * 条目头: [Type 1][PathLen 2][Path UTF-8][Size 8][MTime 8]
+     */
+    private static byte[] entry(byte type, String path, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        dos.writeByte(type);
+        dos.writeShort(pathBytes.length);
+        dos.write(pathBytes);
+        dos.writeLong(size);
+        dos.writeLong(MTIME);
+        return bytes.toByteArray();
+    }
+
+    private static void assertSameTree(File expected, File actual) throws IOException {
+        assertTrue(actual.getPath(), actual.isDirectory());
+        String[] names = expected.list();
+        Arrays.sort(names);
+        String[] actualNames = actual.list();
+        Arrays.sort(actualNames);
+        assertArrayEquals(names, actualNames);
+        for (String name : names) {
+            File e = new File(expected, name);
+            File a = new File(actual, name);
+            if (e.isDirectory()) {
+                assertSameTree(e, a);
+            } else {
+                assertArrayEquals(a.getPath(), Files.readAllBytes(e.toPath()), Files.readAllBytes(a.toPath()));
+            }
+        }
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        assertTrue(file.setLastModified(MTIME));
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,327 @@
+package com.bluelink.net.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameFormatTest {
+
+    private static final long TOKEN = 0x1122334455667788L;
+
+    @Test
+    public void varintRoundTrips() throws IOException {
+        long[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 0xFFFFFFFFL, Long.MAX_VALUE, -1L };
+        int[] sizes = { 1, 1, 1, 2, 2, 2, 3, 5, 5, 9, 10 };
+        for (int i = 0; i < values.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Varint.write(new DataOutputStream(bytes), values[i]);
+            assertEquals(sizes[i], Varint.sizeOf(values[i]));
+            assertEquals(sizes[i], bytes.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            Varint.write(buffer, values[i]);
+            assertArrayEquals(bytes.toByteArray(), Arrays.copyOf(buffer.array(), buffer.position()));
+
+            assertEquals(values[i], Varint.readLong(input(bytes.toByteArray())));
+        }
+    }
+
+    @Test
+    public void varintRejectsCorruptInput() throws IOException {
+        byte[] tooLong = new byte[11];
+        Arrays.fill(tooLong, (byte) 0x80);
+        try {
+            Varint.readLong(input(tooLong));
+            fail("过长的变长整数未被识别");
+        } catch (EOFException e) {
+            fail("应在读完 10 字节后报错，而不是读到流末尾");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+
+        try {
+            Varint.readLong(input(new byte[] { (byte) 0x80, (byte) 0x80 }));
+            fail("截断的变长整数未被识别");
+        } catch (EOFException expected) {
+            // 期望的结果
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Varint.write(new DataOutputStream(bytes), Integer.MAX_VALUE + 1L);
+        try {
+            Varint.readInt(input(bytes.toByteArray()));
+            fail("越界的长度未被识别");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+    }
+
+    @Test
+    public void framesRoundTripInEveryVersion() throws IOException {
+        for (int version = ProtocolWriter.FRAME_VERSION_1; version <= ProtocolWriter.FRAME_VERSION; version++) {
+            Frame message = ProtocolWriter.createMessageFrame(TOKEN, text(2000));
+            Frame ack = ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, 7, TOKEN, 5L << 32);
+            Frame end = ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_END, 7, TOKEN, 0xFEDCBA98L);
+            Frame chunk = new Frame(Frame.TYPE_FILE_CHUNK, 300, TOKEN, text(70_000));
+            chunk.flags = Frame.FLAG_STORED;
+            Frame empty = new Frame(Frame.TYPE_FILE_ABORT, Integer.MAX_VALUE, TOKEN, new byte[0]);
+            Frame[] frames = { message, ack, end, chunk, empty };
+
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(write(version, frames)));
+            for (Frame expected : frames) {
+                Frame actual = reader.read(null, null);
+                assertFrame(expected, actual, version);
+                assertEquals(0, reader.getDroppedBytes());
+                actual.release();
+            }
+            assertNull(reader.read(null, null));
+        }
+    }
+
+    @Test
+    public void sequencedFramesCarryTheirSequence() throws IOException {
+        Frame frame = ProtocolWriter.createMessageFrame(TOKEN, text(10));
+        frame.flags |= Frame.FLAG_SEQUENCED;
+        frame.sequence = 1L << 40;
+        for (int version = ProtocolWriter.FRAME_VERSION_COMPACT; version <= ProtocolWriter.FRAME_VERSION; version++) {
+            Frame actual = new FrameReader(new ByteArrayInputStream(write(version, frame))).read(null, null);
+            assertFrame(frame, actual, version);
+            assertEquals(frame.sequence, actual.sequence);
+        }
+
+        try {
+            write(ProtocolWriter.FRAME_VERSION_1, frame);
+            fail("版本 1 不应写出带序号的帧");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+    }
+
+    @Test
+    public void compactFramesRejectWideFlagsAndCodecs() {
+        Frame frame = new Frame(Frame.TYPE_FILE_CHUNK, 1, TOKEN, new byte[4]);
+        frame.codec = 0x10;
+        try {
+            write(ProtocolWriter.FRAME_VERSION_COMPACT, frame);
+            fail("紧凑帧头放不下的编解码器未被拒绝");
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+    }
+
+    @Test
+    public void checkedFrameWithCorruptHeaderIsSkipped() throws IOException {
+        Frame first = ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, 3, TOKEN, 123456);
+        Frame second = ProtocolWriter.createMessageFrame(TOKEN, text(500));
+        byte[] firstBytes = write(ProtocolWriter.FRAME_VERSION_CHECKED, first);
+        byte[] wire = concat(firstBytes, write(ProtocolWriter.FRAME_VERSION_CHECKED, second));
+
+        for (int i = 1; i < 4; i++) {
+            // 翻转类型、标志或流号字节: 帧头校验失败，读取器跳过这一帧并在下一帧重新同步
+            byte[] corrupt = wire.clone();
+            corrupt[i] ^= 0x01;
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(corrupt));
+            Frame actual = reader.read(null, null);
+            assertFrame(second, actual, ProtocolWriter.FRAME_VERSION_CHECKED);
+            assertEquals(firstBytes.length, reader.getDroppedBytes());
+            assertNull(reader.read(null, null));
+        }
+    }
+
+    @Test
+    public void corruptCompactPayloadDropsOnlyThatFrame() throws IOException {
+        Frame end = ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_END, 9, TOKEN, 42);
+        Frame next = ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, 9, TOKEN, 7);
+        byte[] endBytes = write(ProtocolWriter.FRAME_VERSION_CHECKED, end);
+
+        // FILE_END 的紧凑负载固定 4 字节，把长度改为 3 再重算帧头校验
+        ByteBuffer header = ByteBuffer.wrap(endBytes.clone());
+        int lengthAt = endBytes.length - 4 - 4 - 1;
+        assertEquals(4, header.get(lengthAt));
+        header.put(lengthAt, (byte) 3);
+        header.putInt(lengthAt + 1, Crc32c.compute(header.array(), 0, lengthAt + 1));
+        byte[] corrupt = Arrays.copyOf(header.array(), endBytes.length - 1);
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(concat(corrupt,
+                write(ProtocolWriter.FRAME_VERSION_CHECKED, next))));
+        Frame actual = reader.read(null, null);
+        assertFrame(next, actual, ProtocolWriter.FRAME_VERSION_CHECKED);
+        assertEquals(corrupt.length, reader.getDroppedBytes());
+        assertEquals(Frame.TYPE_FILE_END, reader.getDroppedType());
+        assertEquals(9, reader.getDroppedStreamId());
+    }
+
+    @Test
+    public void garbageWithoutFrameEndsAtEndOfStream() throws IOException {
+        byte[] garbage = new byte[4096];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = (byte) (i * 31 + 7);
+        }
+        garbage[0] = 0x55;
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(garbage));
+        assertNull(reader.read(null, null));
+    }
+
+    @Test
+    public void truncatedPayloadFailsInsteadOfReturningPartialFrame() throws IOException {
+        Frame chunk = new Frame(Frame.TYPE_FILE_CHUNK, 1, TOKEN, text(1000));
+        chunk.flags = Frame.FLAG_STORED;
+        for (int version = ProtocolWriter.FRAME_VERSION_1; version <= ProtocolWriter.FRAME_VERSION; version++) {
+            byte[] wire = write(version, chunk);
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(Arrays.copyOf(wire, wire.length - 1)));
+            try {
+                reader.read(null, null);
+                fail("截断的负载未被识别, 版本 " + version);
+            } catch (EOFException expected) {
+                // 期望的结果
+            }
+        }
+    }
+
+    @Test
+    public void probeIsFollowedByPacketWithoutHeader() throws IOException {
+        byte[] probe = ProtocolWriter.createProbe(TOKEN);
+        byte[] packet = ProtocolWriter.createPacket(ProtocolWriter.probeToken(TOKEN), "MSG", text(300));
+        byte[] hello = write(ProtocolWriter.FRAME_VERSION_1,
+                ProtocolWriter.createHelloFrame(TOKEN, Capabilities.local()));
+        // 探测包 + 省略包头的数据包，HELLO，带探测 Token 的完整数据包 (读作探测包 + 正文)
+        byte[] wire = concat(concat(probe, Arrays.copyOfRange(packet, ProtocolWriter.PROBE_SIZE, packet.length)),
+                concat(hello, packet));
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(wire));
+        assertProbeSequence(reader.read(null, null), reader.read(null, null), reader.read(null, null),
+                reader.read(null, null), reader.read(null, null));
+        assertNull(reader.read(null, null));
+
+        // 事件循环逐字节喂入时结果相同
+        FrameAssembler assembler = new FrameAssembler();
+        List<Frame> frames = new ArrayList<>();
+        for (byte b : wire) {
+            assembler.feed(new byte[] { b }, 0, 1);
+            Frame frame;
+            while ((frame = assembler.next(null, null)) != null) {
+                frames.add(frame);
+            }
+        }
+        assertEquals(5, frames.size());
+        assertProbeSequence(frames.get(0), frames.get(1), frames.get(2), frames.get(3), frames.get(4));
+    }
+
+    @Test
+    public void probeFollowedByFrameIsNotAPacket() throws IOException {
+        byte[] wire = concat(ProtocolWriter.createProbe(TOKEN),
+                write(ProtocolWriter.FRAME_VERSION_CHECKED, ProtocolWriter.createOffsetFrame(Frame.TYPE_FILE_ACK, 1, TOKEN, 9)));
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(wire));
+        assertTrue(reader.read(null, null).packet.probe);
+        assertEquals(Frame.TYPE_FILE_ACK, reader.read(null, null).type);
+        assertEquals(0, reader.getDroppedBytes());
+    }
+
+    private static void assertProbeSequence(Frame probe, Frame packet, Frame hello, Frame probeAgain, Frame packetAgain) {
+        assertEquals(Frame.TYPE_LEGACY, probe.type);
+        assertTrue(probe.packet.probe);
+        assertEquals((int) TOKEN, probe.senderToken);
+        assertEquals(Frame.TYPE_LEGACY, packet.type);
+        assertFalse(packet.packet.probe);
+        assertEquals("MSG", packet.packet.name);
+        assertArrayEquals(text(300), packet.packet.data);
+        assertEquals((int) TOKEN, packet.senderToken);
+        assertEquals(Frame.TYPE_HELLO, hello.type);
+        assertTrue(probeAgain.packet.probe);
+        assertArrayEquals(text(300), packetAgain.packet.data);
+    }
+
+    private static void assertFrame(Frame expected, Frame actual, int version) {
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.flags, actual.flags);
+        assertEquals(expected.codec, actual.codec);
+        assertEquals(expected.streamId, actual.streamId);
+        assertEquals(version, actual.version);
+        if (version == ProtocolWriter.FRAME_VERSION_1) {
+            assertEquals(expected.senderToken, actual.senderToken);
+        } else {
+            // 紧凑帧只保留低 32 位
+            assertEquals((int) expected.senderToken, (int) actual.senderToken);
+        }
+        assertEquals(expected.length, actual.length);
+        assertArrayEquals(Arrays.copyOf(expected.payload, expected.length),
+                Arrays.copyOf(actual.payload, actual.length));
+    }
+
+    private static byte[] write(int version, Frame... frames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        for (Frame frame : frames) {
+            ProtocolWriter.writeFrame(dos, frame, version);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] text(int size) {
+        byte[] data = new byte[size];
+        byte[] phrase = "frame payload 帧负载 ".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++) {
+            data[i] = phrase[i % phrase.length];
+        }
+        return data;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    @Test
+    public void fileBeginRejectsBadNameLength() throws IOException {
+        FileChunkDecoder.Begin begin = FileChunkDecoder.parseBegin(fileBegin(4, "abcd".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("abcd", begin.name);
+
+        int[] lengths = { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, FileChunkDecoder.MAX_NAME_BYTES + 1, 5 };
+        for (int nameLen : lengths) {
+            try {
+                FileChunkDecoder.parseBegin(fileBegin(nameLen, "abcd".getBytes(StandardCharsets.UTF_8)));
+                fail("接受了文件名长度 " + nameLen);
+            } catch (IOException expected) {
+                // 期望的结果
+            }
+        }
+    }
+
+    /**
+     * FILE_BEGIN 负载，名称长度字段与实际名称可以不一致
+     */
+    private static Frame fileBegin(int nameLen, byte[] name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeLong(1);
+        dos.writeLong(2);
+        dos.writeInt(nameLen);
+        dos.write(name);
+        dos.writeLong(100); // FileSize
+        dos.writeInt(64 * 1024); // ChunkSize
+        dos.writeLong(0); // ResumeHint
+        return new Frame(Frame.TYPE_FILE_BEGIN, 1, TOKEN, bytes.toByteArray());
+    }
+}
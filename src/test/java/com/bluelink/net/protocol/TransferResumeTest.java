@@ -0,0 +1,146 @@
+package com.bluelink.net.protocol;
+
+import com.bluelink.db.DatabaseManager;
+import com.bluelink.db.TransferCheckpointDao;
+import com.bluelink.net.protocol.codec.CodecRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 连接中断后按检查点续传
+ * 发送方编码、接收方解码之间不经过连接: 写入部分分块后暂停解码器并记录检查点，
+ * 再按检查点的偏移重新打开解码器，发送方从该偏移继续发送，只发送剩余的分块。
+ */
+public class TransferResumeTest {
+
+    private static final long TOKEN = 0x1122334455667788L;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS = 10;
+    private static final int FILE_SIZE = CHUNKS * CHUNK_SIZE - 1000; // 最后一块不满
+
+    private final UUID transferId = UUID.randomUUID();
+    private byte[] content;
+    private File file;
+    private File spoolDir;
+
+    @Before
+    public void createFile() throws IOException {
+        DatabaseManager.initDatabase();
+        content = new byte[FILE_SIZE];
+        new Random(23).nextBytes(content);
+        for (int i = 0; i < content.length; i += 8) {
+            content[i] = 0; // 混入可压缩的部分
+        }
+        file = File.createTempFile("resume", ".bin");
+        Files.write(file.toPath(), content);
+        spoolDir = Files.createTempDirectory("resume-spool").toFile();
+    }
+
+    @After
+    public void cleanUp() {
+        TransferCheckpointDao.delete(transferId.toString());
+        file.delete();
+        ArchiveExtractor.deleteTree(spoolDir);
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterDroppedLink() throws IOException {
+        FileChunkDecoder.Begin begin;
+        try (FileChunkEncoder encoder = encoder()) {
+            begin = FileChunkDecoder.parseBegin(encoder.beginFrame(0));
+            FileChunkDecoder decoder = FileChunkDecoder.open(begin, TOKEN, spoolDir, 0);
+            saveCheckpoint(decoder.getWritten());
+            for (int i = 0; i < 4; i++) {
+                writeChunk(decoder, encoder.nextFrame());
+            }
+            // 连接中断: 落盘并记录检查点
+            decoder.suspend();
+            TransferCheckpointDao.updateOffset(transferId.toString(), decoder.getWritten());
+        }
+        assertEquals(4 * CHUNK_SIZE, FileChunkDecoder.tempFileFor(spoolDir, transferId).length());
+
+        TransferCheckpointDao.Checkpoint cp = TransferCheckpointDao.find(transferId.toString());
+        assertNotNull(cp);
+        assertEquals(4 * CHUNK_SIZE, cp.ackedOffset);
+        assertEquals(CHUNKS - 4, resume(begin, cp.ackedOffset));
+    }
+
+    @Test
+    public void checkpointBeyondTempFileFallsBackToChunkBoundary() throws IOException {
+        FileChunkDecoder.Begin begin;
+        try (FileChunkEncoder encoder = encoder()) {
+            begin = FileChunkDecoder.parseBegin(encoder.beginFrame(0));
+            FileChunkDecoder decoder = FileChunkDecoder.open(begin, TOKEN, spoolDir, 0);
+            for (int i = 0; i < 6; i++) {
+                writeChunk(decoder, encoder.nextFrame());
+            }
+            decoder.suspend();
+        }
+        saveCheckpoint(6 * CHUNK_SIZE);
+        // 检查点之后的数据没有落盘: 临时文件只剩 4 块半
+        try (RandomAccessFile temp = new RandomAccessFile(FileChunkDecoder.tempFileFor(spoolDir, transferId), "rw")) {
+            temp.setLength(4 * CHUNK_SIZE + CHUNK_SIZE / 2);
+        }
+
+        TransferCheckpointDao.Checkpoint cp = TransferCheckpointDao.find(transferId.toString());
+        assertEquals(CHUNKS - 4, resume(begin, cp.ackedOffset));
+    }
+
+    /**
+     * 按检查点偏移重新打开解码器，发送方从实际起点继续发送，返回续传时发送的分块数
+     */
+    private int resume(FileChunkDecoder.Begin begin, long checkpoint) throws IOException {
+        FileChunkDecoder decoder = FileChunkDecoder.open(begin, TOKEN, spoolDir, checkpoint);
+        int chunks = 0;
+        try (FileChunkEncoder encoder = encoder()) {
+            encoder.seek(decoder.getWritten());
+            Frame frame;
+            while ((frame = encoder.nextFrame()).type == Frame.TYPE_FILE_CHUNK) {
+                writeChunk(decoder, frame);
+                chunks++;
+            }
+            File received = decoder.finish(frame);
+            assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        }
+        return chunks;
+    }
+
+    private FileChunkEncoder encoder() throws IOException {
+        FileChunkEncoder encoder = new FileChunkEncoder(file, 1, TOKEN, CHUNK_SIZE, transferId,
+                CodecRegistry.get(CodecRegistry.DEFLATE_FAST));
+        encoder.setChunkChecksums(true);
+        return encoder;
+    }
+
+    private void saveCheckpoint(long offset) {
+        TransferCheckpointDao.Checkpoint cp = new TransferCheckpointDao.Checkpoint();
+        cp.transferId = transferId.toString();
+        cp.isSender = false;
+        cp.fileName = file.getName();
+        cp.filePath = FileChunkDecoder.tempFileFor(spoolDir, transferId).getAbsolutePath();
+        cp.fileSize = FILE_SIZE;
+        cp.ackedOffset = offset;
+        TransferCheckpointDao.save(cp);
+    }
+
+    private static void writeChunk(FileChunkDecoder decoder, Frame chunk) throws IOException {
+        assertEquals(Frame.TYPE_FILE_CHUNK, chunk.type);
+        try {
+            decoder.writeChunk(chunk);
+        } finally {
+            chunk.release();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.bluelink.net.protocol.codec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Lz4CodecTest {
+
+    private final Lz4Codec codec = new Lz4Codec();
+
+    @Test
+    public void roundTripsTypicalInputs() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200_000) {
+            text.append("你好，文件收到了吗？ OK, sending the build now. ").append(text.length() % 97).append('\n');
+        }
+        byte[] repeated = new byte[100_000];
+        Arrays.fill(repeated, (byte) 'a');
+        byte[] period = new byte[70_000];
+        for (int i = 0; i < period.length; i++) {
+            period[i] = (byte) (i % 3); // 偏移小于匹配长度的重叠复制
+        }
+
+        assertRoundTrip(new byte[0]);
+        assertRoundTrip("short".getBytes(StandardCharsets.UTF_8));
+        assertRoundTrip(text.toString().getBytes(StandardCharsets.UTF_8));
+        assertRoundTrip(repeated);
+        assertRoundTrip(period);
+    }
+
+    @Test
+    public void roundTripsAtBufferOffsets() throws IOException {
+        byte[] data = "abcabcabcabcabcabcabcabcabcabc-0123456789-abcabcabcabcabc".getBytes(StandardCharsets.UTF_8);
+        byte[] src = new byte[data.length + 7];
+        System.arraycopy(data, 0, src, 7, data.length);
+        byte[] compressed = new byte[5 + codec.maxCompressedLength(data.length)];
+        int compLen = codec.compress(src, 7, data.length, compressed, 5);
+
+        byte[] out = new byte[3 + data.length];
+        codec.decompress(compressed, 5, compLen, out, 3, data.length);
+        assertArrayEquals(data, Arrays.copyOfRange(out, 3, out.length));
+    }
+
+    @Test
+    public void incompressibleInputStaysWithinBoundAndFallsBackToStored() throws IOException {
+        byte[] data = random(64 * 1024, 7);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compLen = codec.compress(data, 0, data.length, compressed, 0);
+        assertTrue(compLen >= data.length);
+        assertTrue(compLen <= codec.maxCompressedLength(data.length));
+        byte[] out = new byte[data.length];
+        codec.decompress(compressed, 0, compLen, out, 0, data.length);
+        assertArrayEquals(data, out);
+
+        assertEquals(-1, CodecRegistry.compressIfSmaller(codec, data, 0, data.length, compressed, 0));
+    }
+
+    @Test
+    public void compressibleInputIsNotStored() throws IOException {
+        byte[] data = new byte[64 * 1024];
+        Arrays.fill(data, (byte) 'x');
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compLen = CodecRegistry.compressIfSmaller(codec, data, 0, data.length, compressed, 0);
+        assertTrue(compLen > 0 && compLen < data.length / 10);
+    }
+
+    @Test
+    public void rejectsEveryTruncation() throws IOException {
+        byte[] data = mixed(20_000);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compLen = codec.compress(data, 0, data.length, compressed, 0);
+        byte[] out = new byte[data.length];
+        for (int len = 0; len < compLen; len++) {
+            // 截断的数据留在原缓冲区中，解码不能读到 len 之后的字节
+            assertRejected(compressed, len, out, data.length);
+        }
+    }
+
+    @Test
+    public void rejectsCorruptInput() throws IOException {
+        byte[] data = mixed(20_000);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compLen = codec.compress(data, 0, data.length, compressed, 0);
+        byte[] out = new byte[data.length];
+
+        // 解压长度与声明的原始长度不符
+        assertRejected(compressed, compLen, new byte[data.length + 1], data.length + 1);
+        assertRejected(compressed, compLen, new byte[data.length - 1], data.length - 1);
+
+        // 第一个序列的匹配偏移指向输出起点之前
+        byte[] badOffset = new byte[] { 0x10, 'a', (byte) 0xFF, 0x7F, 0x00 };
+        assertRejected(badOffset, badOffset.length, new byte[64], 64);
+
+        // 偏移为 0
+        byte[] zeroOffset = new byte[] { 0x10, 'a', 0x00, 0x00, 0x00 };
+        assertRejected(zeroOffset, zeroOffset.length, new byte[64], 64);
+
+        // 字面量长度扩展字节全是 255，长度远超输出
+        byte[] longLiteral = new byte[1000];
+        Arrays.fill(longLiteral, (byte) 0xFF);
+        longLiteral[0] = (byte) 0xF0;
+        assertRejected(longLiteral, longLiteral.length, out, data.length);
+
+        // 随机翻转字节: 要么报错，要么 (偶然合法时) 输出长度恰好正确，绝不越界
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            byte[] corrupt = Arrays.copyOf(compressed, compLen);
+            corrupt[random.nextInt(compLen)] ^= (byte) (1 + random.nextInt(255));
+            try {
+                codec.decompress(corrupt, 0, compLen, out, 0, data.length);
+            } catch (IOException expected) {
+                // 损坏被识别
+            }
+        }
+    }
+
+    private void assertRoundTrip(byte[] data) throws IOException {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compLen = codec.compress(data, 0, data.length, compressed, 0);
+        assertTrue(compLen <= codec.maxCompressedLength(data.length));
+        byte[] out = new byte[data.length];
+        codec.decompress(compressed, 0, compLen, out, 0, data.length);
+        assertArrayEquals(data, out);
+    }
+
+    private void assertRejected(byte[] src, int srcLen, byte[] dst, int rawLen) {
+        try {
+            codec.decompress(src, 0, srcLen, dst, 0, rawLen);
+            fail("损坏的输入未被识别, srcLen=" + srcLen + ", rawLen=" + rawLen);
+        } catch (IOException expected) {
+            // 期望的结果
+        }
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 可压缩文本与随机片段交替，覆盖长字面量和长匹配
+     */
+    private static byte[] mixed(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(5);
+        byte[] phrase = "BlueLink chunk 0123456789 ".getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < size) {
+            int len = Math.min(size - pos, 300 + random.nextInt(700));
+            if (random.nextBoolean()) {
+                for (int i = 0; i < len; i++) {
+                    data[pos + i] = phrase[i % phrase.length];
+                }
+            } else {
+                for (int i = 0; i < len; i++) {
+                    data[pos + i] = (byte) random.nextInt();
+                }
+            }
+            pos += len;
+        }
+        return data;
+    }
+}